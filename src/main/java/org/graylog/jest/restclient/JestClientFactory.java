@@ -26,7 +26,9 @@ import org.elasticsearch.client.RestClient;
 import org.elasticsearch.client.RestClientBuilder;
 import org.graylog.jest.restclient.config.HttpClientConfig;
 import org.graylog.jest.restclient.config.idle.HttpReapableConnectionManager;
+import org.graylog.jest.restclient.encoding.BulkEncoder;
 import org.graylog.jest.restclient.http.JestHttpClient;
+import org.graylog.jest.restclient.http.RequestCoalescer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -52,7 +54,11 @@ public class JestClientFactory {
         client.setRequestCompressionEnabled(httpClientConfig.isRequestCompressionEnabled());
         client.setServers(httpClientConfig.getServerList());
         final NHttpClientConnectionManager connectionManager = getAsyncConnectionManager();
-        client.setRestClient(createRestClient(connectionManager));
+        final HttpHost[] initialHttpHosts = httpClientConfig.getServerList().stream().map(HttpHost::create).toArray(HttpHost[]::new);
+        client.setRestClient(createRestClient(initialHttpHosts, connectionManager, false));
+        // requests targeting a single node, e.g. shard routed bulks, get a client of their own which shares the
+        // connection pool and I/O reactor of the main client
+        client.setNodeRestClientFactory(node -> createRestClient(new HttpHost[]{node}, connectionManager, true));
 
         // set custom gson instance
         Gson gson = httpClientConfig.getGson();
@@ -89,6 +95,36 @@ public class JestClientFactory {
             log.info("Idle connection reaping disabled...");
         }
 
+        if (httpClientConfig.getTenantScheduler() != null) {
+            log.info("Tenant scheduling enabled...");
+            client.setTenantScheduler(httpClientConfig.getTenantScheduler());
+        }
+
+        if (!httpClientConfig.getCoalescedActionTypes().isEmpty()) {
+            log.info("Request coalescing enabled for {}", httpClientConfig.getCoalescedActionTypes());
+            client.setRequestCoalescer(new RequestCoalescer(httpClientConfig.getCoalescedActionTypes()));
+        }
+
+        if (httpClientConfig.getQueryCache() != null) {
+            log.info("Query result caching enabled...");
+            client.setQueryCache(httpClientConfig.getQueryCache());
+        }
+
+        if (httpClientConfig.getDocumentCache() != null) {
+            log.info("Document caching enabled...");
+            client.setDocumentCache(httpClientConfig.getDocumentCache());
+        }
+
+        if (httpClientConfig.getBulkBufferPool() != null) {
+            log.info("Direct bulk encoding enabled...");
+            client.setBulkEncoder(new BulkEncoder(httpClientConfig.getBulkBufferPool()));
+        }
+
+        if (httpClientConfig.getParallelGzipCompressor() != null) {
+            log.info("Parallel request compression enabled...");
+            client.setParallelGzipCompressor(httpClientConfig.getParallelGzipCompressor());
+        }
+
         Set<HttpHost> preemptiveAuthTargetHosts = httpClientConfig.getPreemptiveAuthTargetHosts();
         if (!preemptiveAuthTargetHosts.isEmpty()) {
             log.info("Authentication cache set for preemptive authentication");
@@ -102,12 +138,12 @@ public class JestClientFactory {
         this.httpClientConfig = httpClientConfig;
     }
 
-    private RestClient createRestClient(NHttpClientConnectionManager connectionManager) {
-        final HttpHost[] initialHttpHosts = httpClientConfig.getServerList().stream().map(HttpHost::create).toArray(HttpHost[]::new);
+    private RestClient createRestClient(HttpHost[] hosts, NHttpClientConnectionManager connectionManager, boolean shared) {
         return configureRestClient(
-                RestClient.builder(initialHttpHosts)
+                RestClient.builder(hosts)
                         .setHttpClientConfigCallback(builder -> configureAsyncClient(builder
                                 .setConnectionManager(connectionManager)
+                                .setConnectionManagerShared(shared)
                                 .setDefaultRequestConfig(getRequestConfig())
                                 .setProxyAuthenticationStrategy(httpClientConfig.getProxyAuthenticationStrategy())
                                 .setRoutePlanner(getRoutePlanner())
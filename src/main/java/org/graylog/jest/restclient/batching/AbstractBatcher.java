@@ -0,0 +1,329 @@
+package org.graylog.jest.restclient.batching;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import io.searchbox.action.Action;
+import io.searchbox.client.JestResult;
+import io.searchbox.client.JestResultHandler;
+import org.graylog.jest.restclient.http.JestHttpClient;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects concurrently submitted actions into batches, which are sent as a single multi request once the window
+ * of their first action has passed or the maximum batch size is reached. Subclasses decide which actions can be
+ * batched, how a batch is expressed as a request and how the result of a single action is read from its response.
+ *
+ * @param <K> key of actions sharing a result
+ * @param <A> batched action
+ * @param <R> result of a batched action
+ */
+abstract class AbstractBatcher<K, A extends Action<R>, R extends JestResult> implements Closeable {
+
+    protected final JestHttpClient client;
+    protected final Gson gson;
+    protected final BatchingStats stats = new BatchingStats();
+    private final int maxBatchSize;
+    private final long windowNanos;
+    private final ScheduledExecutorService scheduler;
+    private final String requestName;
+    private final String itemName;
+    private final String itemsName;
+    private final String itemsField;
+
+    private final Object lock = new Object();
+    private Map<Object, Pending<K, A, R>> batch = new LinkedHashMap<>();
+    private ScheduledFuture<?> scheduledFlush;
+    private boolean closed;
+
+    /**
+     * @param threadName name of the thread sending batches whose window has passed
+     * @param requestName name of the multi request in error messages, e.g. "Multi get"
+     * @param itemName    name of a single action in error messages, e.g. "document"
+     * @param itemsName   name of several actions in error messages, e.g. "documents"
+     * @param itemsField  field of the multi response holding the responses of the single actions
+     */
+    AbstractBatcher(BatcherBuilder<?> builder, String threadName,
+                    String requestName, String itemName, String itemsName, String itemsField) {
+        this.client = builder.client;
+        this.gson = builder.client.getGson();
+        this.maxBatchSize = builder.maxBatchSize;
+        this.windowNanos = builder.windowNanos;
+        this.requestName = requestName;
+        this.itemName = itemName;
+        this.itemsName = itemsName;
+        this.itemsField = itemsField;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Adds the action to the current batch. Actions with the same key share a single entry of the batch and its
+     * result.
+     *
+     * @param key key of the action, <code>null</code> if its result isn't shared with other actions
+     * @throws IllegalStateException if the batcher has been closed
+     */
+    protected CompletableFuture<R> enqueue(K key, A action) {
+        final CompletableFuture<R> future = newFuture();
+        stats.submittedRequests.increment();
+
+        final List<Pending<K, A, R>> full;
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("The batcher has been closed");
+            }
+            final Pending<K, A, R> pending = key == null ? null : batch.get(key);
+            if (pending != null) {
+                pending.futures.add(future);
+                stats.deduplicatedRequests.increment();
+                return future;
+            }
+            final Pending<K, A, R> added = new Pending<>(key, action, future);
+            batch.put(key == null ? added : key, added);
+            if (batch.size() >= maxBatchSize) {
+                full = takeBatch();
+            } else {
+                if (batch.size() == 1) {
+                    scheduledFlush = scheduler.schedule(this::flush, windowNanos, TimeUnit.NANOSECONDS);
+                }
+                full = null;
+            }
+        }
+        if (full != null) {
+            send(full);
+        }
+        return future;
+    }
+
+    /**
+     * Sends the action on its own right away, bypassing the batch.
+     */
+    protected CompletableFuture<R> submitDirectly(A action) {
+        final CompletableFuture<R> future = newFuture();
+        stats.submittedRequests.increment();
+        stats.directRequests.increment();
+        sendDirectly(new Pending<>(null, action, future));
+        return future;
+    }
+
+    /**
+     * Sends the current batch right away.
+     */
+    public void flush() {
+        final List<Pending<K, A, R>> taken;
+        synchronized (lock) {
+            taken = takeBatch();
+        }
+        send(taken);
+    }
+
+    public BatchingStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Sends the current batch and stops accepting actions.
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+        }
+        flush();
+        scheduler.shutdown();
+    }
+
+    /**
+     * Sends the actions of a batch, as a single multi request if there are several of them.
+     */
+    protected void send(List<Pending<K, A, R>> pending) {
+        if (pending.isEmpty()) {
+            return;
+        }
+        if (pending.size() == 1) {
+            stats.directRequests.increment();
+            sendDirectly(pending.get(0));
+            return;
+        }
+        stats.batches.increment();
+        stats.batchedRequests.add(pending.size());
+        stats.batchSizes.record(pending.size());
+
+        try {
+            client.executeAsyncForResult(batchAction(pending), new JestResultHandler<JestResult>() {
+                @Override
+                public void completed(JestResult result) {
+                    onBatchResult(pending, result);
+                }
+
+                @Override
+                public void failed(Exception ex) {
+                    failBatch(pending, ex);
+                }
+            });
+        } catch (RuntimeException e) {
+            failBatch(pending, e);
+        }
+    }
+
+    /**
+     * @return the multi request of the batch, whose response holds the responses of its actions in their order
+     */
+    protected abstract Action<? extends JestResult> batchAction(List<Pending<K, A, R>> pending);
+
+    /**
+     * @return the result of the action, created from its response within the multi response
+     */
+    protected abstract R decode(A action, JsonObject response);
+
+    private CompletableFuture<R> newFuture() {
+        final CompletableFuture<R> future = new CompletableFuture<>();
+        final long submittedNanos = System.nanoTime();
+        future.whenComplete((result, failure) ->
+                stats.latencies.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - submittedNanos)));
+        return future;
+    }
+
+    // Must be called while holding the lock.
+    private List<Pending<K, A, R>> takeBatch() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        final List<Pending<K, A, R>> taken = new ArrayList<>(batch.values());
+        batch = new LinkedHashMap<>();
+        return taken;
+    }
+
+    private void sendDirectly(Pending<K, A, R> pending) {
+        try {
+            client.executeAsyncForResult(pending.action, new JestResultHandler<R>() {
+                @Override
+                public void completed(R result) {
+                    pending.complete(result);
+                }
+
+                @Override
+                public void failed(Exception ex) {
+                    pending.fail(ex);
+                }
+            });
+        } catch (RuntimeException e) {
+            pending.fail(e);
+        }
+    }
+
+    private void onBatchResult(List<Pending<K, A, R>> pending, JestResult result) {
+        final JsonObject json = result.getJsonObject();
+        final JsonElement responses = json == null ? null : json.get(itemsField);
+        if (!result.isSucceeded() || responses == null || !responses.isJsonArray()) {
+            failBatch(pending, new IOException(requestName + " of " + pending.size() + " " + itemsName + " failed: "
+                    + result.getErrorMessage()));
+            return;
+        }
+
+        final JsonArray responseArray = responses.getAsJsonArray();
+        for (int i = 0; i < pending.size(); i++) {
+            final Pending<K, A, R> entry = pending.get(i);
+            if (i >= responseArray.size() || !responseArray.get(i).isJsonObject()) {
+                entry.fail(new IOException(requestName + " response is missing " + itemName + " " + i));
+                continue;
+            }
+            try {
+                entry.complete(decode(entry.action, responseArray.get(i).getAsJsonObject()));
+            } catch (RuntimeException e) {
+                entry.fail(e);
+            }
+        }
+    }
+
+    private void failBatch(List<Pending<K, A, R>> pending, Exception e) {
+        stats.failedBatches.increment();
+        for (Pending<K, A, R> entry : pending) {
+            entry.fail(e);
+        }
+    }
+
+    /**
+     * An entry of a batch: a single action and the futures of all submissions sharing its result.
+     */
+    protected static final class Pending<K, A, R> {
+        protected final K key;
+        protected final A action;
+        private final List<CompletableFuture<R>> futures = new ArrayList<>(1);
+
+        private Pending(K key, A action, CompletableFuture<R> future) {
+            this.key = key;
+            this.action = action;
+            this.futures.add(future);
+        }
+
+        private void complete(R result) {
+            for (CompletableFuture<R> future : futures) {
+                future.complete(result);
+            }
+        }
+
+        private void fail(Throwable failure) {
+            for (CompletableFuture<R> future : futures) {
+                future.completeExceptionally(failure);
+            }
+        }
+    }
+
+    abstract static class BatcherBuilder<B extends BatcherBuilder<B>> {
+        private final JestHttpClient client;
+        private int maxBatchSize;
+        private long windowNanos;
+
+        BatcherBuilder(JestHttpClient client, int maxBatchSize, long windowNanos) {
+            if (client == null) {
+                throw new IllegalArgumentException("client must not be null");
+            }
+            this.client = client;
+            this.maxBatchSize = maxBatchSize;
+            this.windowNanos = windowNanos;
+        }
+
+        /**
+         * Number of distinct actions at which a batch is sent before its window has passed.
+         */
+        public B maxBatchSize(int maxBatchSize) {
+            if (maxBatchSize <= 0) {
+                throw new IllegalArgumentException("maxBatchSize must be positive");
+            }
+            this.maxBatchSize = maxBatchSize;
+            return self();
+        }
+
+        /**
+         * Time the first action of a batch waits for further actions. It is added to the latency of actions which
+         * aren't sent with a full batch.
+         */
+        public B window(long window, TimeUnit unit) {
+            if (window < 0) {
+                throw new IllegalArgumentException("window must not be negative");
+            }
+            this.windowNanos = unit.toNanos(window);
+            return self();
+        }
+
+        protected abstract B self();
+    }
+}
@@ -0,0 +1,95 @@
+package org.graylog.jest.restclient.batching;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of a batcher combining single requests into multi requests.
+ */
+public class BatchingStats {
+    final LongAdder submittedRequests = new LongAdder();
+    final LongAdder batches = new LongAdder();
+    final LongAdder batchedRequests = new LongAdder();
+    final LongAdder directRequests = new LongAdder();
+    final LongAdder failedBatches = new LongAdder();
+    final LongAdder deduplicatedRequests = new LongAdder();
+    final Histogram batchSizes = new Histogram();
+    final Histogram latencies = new Histogram();
+
+    /**
+     * @return number of requests submitted to the batcher
+     */
+    public long getSubmittedRequests() {
+        return submittedRequests.sum();
+    }
+
+    /**
+     * @return number of multi requests sent
+     */
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    /**
+     * @return number of requests sent as part of a multi request
+     */
+    public long getBatchedRequests() {
+        return batchedRequests.sum();
+    }
+
+    /**
+     * @return number of requests sent on their own, because they couldn't be batched or were alone in their window
+     */
+    public long getDirectRequests() {
+        return directRequests.sum();
+    }
+
+    /**
+     * @return number of multi requests which failed as a whole
+     */
+    public long getFailedBatches() {
+        return failedBatches.sum();
+    }
+
+    /**
+     * @return number of requests answered by an identical request of the same batch
+     */
+    public long getDeduplicatedRequests() {
+        return deduplicatedRequests.sum();
+    }
+
+    /**
+     * @return histogram of the number of requests per multi request
+     */
+    public Histogram getBatchSizes() {
+        return batchSizes;
+    }
+
+    /**
+     * @return histogram of the time from submitting a request until its result arrived, in microseconds
+     */
+    public Histogram getLatencies() {
+        return latencies;
+    }
+
+    /**
+     * @return average number of requests per multi request
+     */
+    public double getAverageBatchSize() {
+        final long batchCount = getBatches();
+        return batchCount == 0 ? 0 : (double) getBatchedRequests() / batchCount;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchingStats{" +
+                "submitted=" + getSubmittedRequests() +
+                ", batches=" + getBatches() +
+                ", batched=" + getBatchedRequests() +
+                ", direct=" + getDirectRequests() +
+                ", failedBatches=" + getFailedBatches() +
+                ", deduplicated=" + getDeduplicatedRequests() +
+                ", batchSizes=" + batchSizes +
+                ", latencyMicros=" + latencies +
+                '}';
+    }
+}
@@ -0,0 +1,450 @@
+package org.graylog.jest.restclient.batching;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import io.searchbox.client.JestResult;
+import io.searchbox.client.JestResultHandler;
+import io.searchbox.core.Doc;
+import io.searchbox.core.MultiGet;
+import org.apache.http.HttpHost;
+import org.graylog.jest.restclient.http.JestHttpClient;
+import org.graylog.jest.restclient.routing.ShardRoutingCache;
+import org.graylog.jest.restclient.routing.ShardRoutingTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Gets large numbers of documents of an index by id, e.g. hundreds of thousands, as a stream of {@link MultiGet}
+ * requests of a limited size instead of a single huge one.
+ * <p>
+ * The ids are read lazily and split into chunks, of which a limited number is in flight at any time. The documents
+ * of every chunk are passed to a {@link MultiGetChunkConsumer} as soon as the chunk has arrived, and the next chunk
+ * is only requested once the consumer has returned. So no more than <code>concurrency</code> chunks of ids and
+ * documents are held at once, regardless of the number of ids.
+ * </p>
+ * <p>
+ * The consumer and the iterator of the ids run on the consumer executor, never on the I/O threads of the client,
+ * so a slow consumer or a lazily loading iterator doesn't hold up other requests. Arrived chunks wait for the
+ * consumer in a queue, which holds no more than <code>concurrency</code> chunks.
+ * </p>
+ * <p>
+ * With a {@link ShardRoutingCache}, the ids are grouped by the node holding the primary shard of their document
+ * and every chunk is sent straight to its node, which spreads the chunks over the cluster and saves the
+ * coordinating node from fetching the documents from other nodes. A chunk which can't be sent to its node is sent
+ * to any node of the client once and invalidates the cache.
+ * </p>
+ * <p>
+ * Example:
+ * </p>
+ * <pre>
+ * ChunkedMultiGet multiGet = ChunkedMultiGet.builder(client, "users")
+ *         .type("user")
+ *         .chunkSize(1000)
+ *         .concurrency(4)
+ *         .build();
+ * multiGet.forEachChunk(userIds, docs -&gt; enrich(docs)).get();
+ * </pre>
+ */
+public class ChunkedMultiGet {
+
+    private static final Logger log = LoggerFactory.getLogger(ChunkedMultiGet.class);
+
+    private static final Executor DEFAULT_CONSUMER_EXECUTOR = defaultConsumerExecutor();
+
+    private final JestHttpClient client;
+    private final String index;
+    private final String type;
+    private final int chunkSize;
+    private final int concurrency;
+    private final ShardRoutingCache routing;
+    private final Executor consumerExecutor;
+
+    private ChunkedMultiGet(Builder builder) {
+        this.client = builder.client;
+        this.index = builder.index;
+        this.type = builder.type;
+        this.chunkSize = builder.chunkSize;
+        this.concurrency = builder.concurrency;
+        this.routing = builder.routing;
+        this.consumerExecutor = builder.consumerExecutor == null ? DEFAULT_CONSUMER_EXECUTOR : builder.consumerExecutor;
+    }
+
+    private static ExecutorService defaultConsumerExecutor() {
+        final AtomicInteger threads = new AtomicInteger();
+        // idle threads terminate on their own, every pass over the ids keeps one busy at most
+        return Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "jest-chunked-mget-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static Builder builder(JestHttpClient client, String index) {
+        return new Builder(client, index);
+    }
+
+    /**
+     * @see #forEachChunk(Iterator, MultiGetChunkConsumer)
+     */
+    public CompletableFuture<Long> forEachChunk(Iterable<String> ids, MultiGetChunkConsumer consumer) {
+        return forEachChunk(ids.iterator(), consumer);
+    }
+
+    /**
+     * Gets the documents with the given ids, passing them to the consumer chunk by chunk. The ids are read from the
+     * iterator on the calling thread and the consumer executor, one at a time.
+     *
+     * @return future completing with the number of documents found once all chunks have been consumed, or
+     * completing exceptionally with the first failure of a chunk or the consumer
+     */
+    public CompletableFuture<Long> forEachChunk(Iterator<String> ids, MultiGetChunkConsumer consumer) {
+        final Run run = new Run(ids, consumer, routing == null ? null : routing.get());
+        run.dispatch();
+        return run.future;
+    }
+
+    private static final class Chunk {
+        private final HttpHost node;
+        private final List<String> ids;
+
+        private Chunk(HttpHost node, List<String> ids) {
+            this.node = node;
+            this.ids = ids;
+        }
+    }
+
+    /**
+     * A single pass over the ids.
+     */
+    private class Run {
+        private final CompletableFuture<Long> future = new CompletableFuture<>();
+        private final Iterator<String> ids;
+        private final MultiGetChunkConsumer consumer;
+        private final ShardRoutingTable table;
+        // guards the ids and the chunks being built from them, so reading ids doesn't hold up arriving chunks
+        private final Object reader = new Object();
+        // ids read but not sent yet, by the node holding their primary; null for any node
+        private final Map<HttpHost, List<String>> pending = new LinkedHashMap<>();
+        private boolean exhausted;
+        // chunks which have arrived but haven't been consumed yet, they are still counted as in flight
+        private final Deque<JsonArray> arrived = new ArrayDeque<>();
+        private boolean consuming;
+        private int inFlight;
+        private boolean allSent;
+        private boolean completed;
+        private Throwable failure;
+        private long found;
+
+        private Run(Iterator<String> ids, MultiGetChunkConsumer consumer, ShardRoutingTable table) {
+            this.ids = ids;
+            this.consumer = consumer;
+            this.table = table;
+        }
+
+        private void dispatch() {
+            while (true) {
+                synchronized (this) {
+                    if (failure != null || inFlight >= concurrency) {
+                        break;
+                    }
+                    // taken before reading the ids, so no other thread sends more chunks than allowed
+                    inFlight++;
+                }
+                final Chunk chunk = nextChunk();
+                if (chunk == null) {
+                    synchronized (this) {
+                        inFlight--;
+                    }
+                    break;
+                }
+                send(chunk, chunk.node);
+            }
+            completeIfDone();
+        }
+
+        // Returns null once all ids have been sent or reading them failed.
+        private Chunk nextChunk() {
+            synchronized (reader) {
+                try {
+                    while (!exhausted) {
+                        if (!ids.hasNext()) {
+                            exhausted = true;
+                            break;
+                        }
+                        final String id = ids.next();
+                        final HttpHost node = table == null ? null : table.getPrimaryNode(index, id, null);
+                        final List<String> nodeIds = pending.computeIfAbsent(node, n -> new ArrayList<>(chunkSize));
+                        nodeIds.add(id);
+                        if (nodeIds.size() >= chunkSize) {
+                            return new Chunk(node, pending.remove(node));
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    synchronized (this) {
+                        if (failure == null) {
+                            failure = e;
+                        }
+                    }
+                    return null;
+                }
+                // the remainders of all nodes once the ids are exhausted
+                final Iterator<Map.Entry<HttpHost, List<String>>> remainders = pending.entrySet().iterator();
+                if (!remainders.hasNext()) {
+                    synchronized (this) {
+                        allSent = true;
+                    }
+                    return null;
+                }
+                final Map.Entry<HttpHost, List<String>> remainder = remainders.next();
+                remainders.remove();
+                return new Chunk(remainder.getKey(), remainder.getValue());
+            }
+        }
+
+        private void send(Chunk chunk, HttpHost node) {
+            final List<Doc> docs = new ArrayList<>(chunk.ids.size());
+            for (String id : chunk.ids) {
+                docs.add(new Doc(index, type, id));
+            }
+            final MultiGet multiGet = new MultiGet.Builder.ByDoc(docs).build();
+            final JestResultHandler<JestResult> handler = new JestResultHandler<JestResult>() {
+                @Override
+                public void completed(JestResult result) {
+                    onResult(chunk, result);
+                }
+
+                @Override
+                public void failed(Exception ex) {
+                    if (node != null) {
+                        log.debug("Multi get of {} documents on {} failed, sending it to any node.", chunk.ids.size(), node, ex);
+                        routing.invalidate();
+                        send(chunk, null);
+                    } else {
+                        onFailure(ex);
+                    }
+                }
+            };
+            try {
+                if (node == null) {
+                    client.executeAsyncForResult(multiGet, handler);
+                } else {
+                    client.executeAsyncForResult(node, multiGet, handler);
+                }
+            } catch (RuntimeException e) {
+                onFailure(e);
+            }
+        }
+
+        private void onResult(Chunk chunk, JestResult result) {
+            final JsonObject json = result.getJsonObject();
+            final JsonElement docs = json == null ? null : json.get("docs");
+            if (!result.isSucceeded() || docs == null || !docs.isJsonArray()) {
+                onFailure(new IOException("Multi get of " + chunk.ids.size() + " documents failed: " + result.getErrorMessage()));
+                return;
+            }
+
+            final boolean dropped;
+            final boolean startConsuming;
+            synchronized (this) {
+                // chunks arriving once the run has failed aren't consumed
+                dropped = failure != null;
+                if (dropped) {
+                    inFlight--;
+                } else {
+                    arrived.add(docs.getAsJsonArray());
+                }
+                startConsuming = !dropped && !consuming;
+                if (startConsuming) {
+                    consuming = true;
+                }
+            }
+            if (dropped) {
+                completeIfDone();
+                return;
+            }
+            if (startConsuming) {
+                try {
+                    consumerExecutor.execute(this::consume);
+                } catch (RejectedExecutionException e) {
+                    // drops the chunks which arrived meanwhile as well
+                    synchronized (this) {
+                        if (failure == null) {
+                            failure = e;
+                        }
+                        inFlight -= arrived.size();
+                        arrived.clear();
+                        consuming = false;
+                    }
+                    completeIfDone();
+                }
+            }
+        }
+
+        // Passes the arrived chunks to the consumer one at a time, requesting the next chunk after each of them.
+        private void consume() {
+            while (true) {
+                final JsonArray docs;
+                final boolean failed;
+                synchronized (this) {
+                    failed = failure != null;
+                    if (failed) {
+                        // drops the chunks which arrived before the run failed
+                        inFlight -= arrived.size();
+                        arrived.clear();
+                    }
+                    docs = arrived.poll();
+                    if (docs == null) {
+                        consuming = false;
+                    }
+                }
+                if (docs == null) {
+                    if (failed) {
+                        completeIfDone();
+                    }
+                    return;
+                }
+                try {
+                    consumer.accept(docs);
+                } catch (Exception e) {
+                    onFailure(e);
+                    continue;
+                }
+                final long chunkFound = found(docs);
+                synchronized (this) {
+                    found += chunkFound;
+                    inFlight--;
+                }
+                dispatch();
+            }
+        }
+
+        private long found(JsonArray docs) {
+            long chunkFound = 0;
+            for (JsonElement doc : docs) {
+                final JsonElement isFound = doc.isJsonObject() ? doc.getAsJsonObject().get("found") : null;
+                if (isFound != null && isFound.isJsonPrimitive() && isFound.getAsBoolean()) {
+                    chunkFound++;
+                }
+            }
+            return chunkFound;
+        }
+
+        private void onFailure(Throwable t) {
+            synchronized (this) {
+                if (failure == null) {
+                    failure = t;
+                }
+                inFlight--;
+            }
+            completeIfDone();
+        }
+
+        private void completeIfDone() {
+            final Throwable t;
+            final long documents;
+            synchronized (this) {
+                if (completed || inFlight > 0 || (failure == null && !allSent)) {
+                    return;
+                }
+                completed = true;
+                t = failure;
+                documents = found;
+            }
+            if (t == null) {
+                future.complete(documents);
+            } else {
+                future.completeExceptionally(t);
+            }
+        }
+    }
+
+    public static class Builder {
+        private final JestHttpClient client;
+        private final String index;
+        private String type;
+        private int chunkSize = 1000;
+        private int concurrency = 4;
+        private ShardRoutingCache routing;
+        private Executor consumerExecutor;
+
+        private Builder(JestHttpClient client, String index) {
+            if (client == null) {
+                throw new IllegalArgumentException("client must not be null");
+            }
+            if (index == null || index.isEmpty()) {
+                throw new IllegalArgumentException("index must not be empty");
+            }
+            this.client = client;
+            this.index = index;
+        }
+
+        /**
+         * Type of the documents, any type if not set.
+         */
+        public Builder type(String type) {
+            this.type = type;
+            return this;
+        }
+
+        /**
+         * Number of ids per multi get, defaults to 1000. Larger chunks save requests but take longer to arrive and
+         * occupy more memory per chunk.
+         */
+        public Builder chunkSize(int chunkSize) {
+            if (chunkSize <= 0) {
+                throw new IllegalArgumentException("chunkSize must be positive");
+            }
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        /**
+         * Number of chunks in flight at the same time, defaults to 4.
+         */
+        public Builder concurrency(int concurrency) {
+            if (concurrency <= 0) {
+                throw new IllegalArgumentException("concurrency must be positive");
+            }
+            this.concurrency = concurrency;
+            return this;
+        }
+
+        /**
+         * Sends every chunk to the node holding the primary shards of its documents, see
+         * {@link ShardRoutingCache}.
+         */
+        public Builder shardRouting(ShardRoutingCache routing) {
+            this.routing = routing;
+            return this;
+        }
+
+        /**
+         * Executor running the consumer and reading the ids once the first chunks have been sent. Defaults to a
+         * pool of daemon threads shared by all multi gets.
+         */
+        public Builder consumerExecutor(Executor consumerExecutor) {
+            this.consumerExecutor = consumerExecutor;
+            return this;
+        }
+
+        public ChunkedMultiGet build() {
+            return new ChunkedMultiGet(this);
+        }
+    }
+}
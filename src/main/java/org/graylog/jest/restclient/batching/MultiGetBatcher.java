@@ -0,0 +1,165 @@
+package org.graylog.jest.restclient.batching;
+
+import com.google.gson.JsonObject;
+import io.searchbox.core.Doc;
+import io.searchbox.core.DocumentResult;
+import io.searchbox.core.Get;
+import io.searchbox.core.MultiGet;
+import org.graylog.jest.restclient.decoding.MultiResponseDecoder;
+import org.graylog.jest.restclient.http.JestHttpClient;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Combines concurrently submitted {@link Get} actions into {@link MultiGet} requests, one per index, in the manner
+ * of a data loader: callers look up single documents and the batcher turns the lookups of a short window into as
+ * few requests as possible.
+ * <p>
+ * The first get submitted opens a batch, which is sent once the window has passed or the maximum number of
+ * documents is reached. Gets of the same document within a batch are requested once and share its result. Every
+ * get is completed with its own {@link DocumentResult}, created from its entry of the <code>docs</code> array:
+ * with response code 200 if the document was found and 404 if not, like a single get.
+ * </p>
+ * <p>
+ * Gets with URL parameters other than <code>routing</code>, e.g. <code>realtime</code> or stored fields, are sent
+ * on their own right away, as are batches of a single document.
+ * </p>
+ */
+public class MultiGetBatcher extends AbstractBatcher<MultiGetBatcher.DocumentKey, Get, DocumentResult> {
+
+    private MultiGetBatcher(Builder builder) {
+        super(builder, "jest-mget-batcher", "Multi get", "document", "documents", "docs");
+    }
+
+    public static Builder builder(JestHttpClient client) {
+        return new Builder(client);
+    }
+
+    /**
+     * Adds the get to the current batch.
+     *
+     * @return future completing with the result of the get, or exceptionally if its batch failed as a whole
+     * @throws IllegalStateException if the batcher has been closed
+     */
+    public CompletableFuture<DocumentResult> submit(Get get) {
+        final DocumentKey key = DocumentKey.of(get);
+        return key == null ? submitDirectly(get) : enqueue(key, get);
+    }
+
+    // Sends a multi get per index.
+    @Override
+    protected void send(List<Pending<DocumentKey, Get, DocumentResult>> pending) {
+        final Map<String, List<Pending<DocumentKey, Get, DocumentResult>>> byIndex = new LinkedHashMap<>();
+        for (Pending<DocumentKey, Get, DocumentResult> document : pending) {
+            byIndex.computeIfAbsent(document.key.index, index -> new ArrayList<>()).add(document);
+        }
+        for (List<Pending<DocumentKey, Get, DocumentResult>> indexDocuments : byIndex.values()) {
+            super.send(indexDocuments);
+        }
+    }
+
+    @Override
+    protected MultiGet batchAction(List<Pending<DocumentKey, Get, DocumentResult>> pending) {
+        final List<Doc> docs = new ArrayList<>(pending.size());
+        for (Pending<DocumentKey, Get, DocumentResult> document : pending) {
+            docs.add(document.key.doc());
+        }
+        return new MultiGet.Builder.ByDoc(docs).build();
+    }
+
+    @Override
+    protected DocumentResult decode(Get get, JsonObject response) {
+        return MultiResponseDecoder.documentResult(get, response, gson);
+    }
+
+    static final class DocumentKey {
+        private final String index;
+        private final String type;
+        private final String id;
+        private final String routing;
+
+        private DocumentKey(String index, String type, String id, String routing) {
+            this.index = index;
+            this.type = type;
+            this.id = id;
+            this.routing = routing;
+        }
+
+        // The key of the document, null if the get can't be part of a multi get.
+        private static DocumentKey of(Get get) {
+            if (get.getIndex() == null || get.getType() == null || get.getId() == null) {
+                return null;
+            }
+            final String uri = get.getURI();
+            final int query = uri.indexOf('?');
+            String routing = null;
+            if (query >= 0) {
+                for (String parameter : uri.substring(query + 1).split("&")) {
+                    if (!parameter.startsWith("routing=")) {
+                        return null;
+                    }
+                    try {
+                        routing = URLDecoder.decode(parameter.substring("routing=".length()), "UTF-8");
+                    } catch (UnsupportedEncodingException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }
+            return new DocumentKey(get.getIndex(), get.getType(), get.getId(), routing);
+        }
+
+        private Doc doc() {
+            final Doc doc = new Doc(index, type, id);
+            if (routing != null) {
+                doc.setRouting(routing);
+            }
+            return doc;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final DocumentKey that = (DocumentKey) o;
+            return index.equals(that.index) && type.equals(that.type) && id.equals(that.id)
+                    && Objects.equals(routing, that.routing);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(index, type, id, routing);
+        }
+    }
+
+    /**
+     * Builds a {@link MultiGetBatcher}. Batches are sent once they hold 100 distinct documents or after a window of
+     * 500 microseconds by default.
+     */
+    public static class Builder extends BatcherBuilder<Builder> {
+
+        private Builder(JestHttpClient client) {
+            super(client, 100, TimeUnit.MICROSECONDS.toNanos(500));
+        }
+
+        @Override
+        protected Builder self() {
+            return this;
+        }
+
+        public MultiGetBatcher build() {
+            return new MultiGetBatcher(this);
+        }
+    }
+}
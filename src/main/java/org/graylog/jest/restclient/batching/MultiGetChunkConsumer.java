@@ -0,0 +1,20 @@
+package org.graylog.jest.restclient.batching;
+
+import com.google.gson.JsonArray;
+
+/**
+ * Receives the documents of a {@link ChunkedMultiGet} chunk by chunk.
+ */
+@FunctionalInterface
+public interface MultiGetChunkConsumer {
+
+    /**
+     * Called with the documents of every chunk as soon as it has arrived, for one chunk at a time and on the consumer
+     * executor of the multi get. Chunks arrive in the order they complete, the documents of a chunk are in the order
+     * of their ids.
+     *
+     * @param docs the <code>docs</code> array of the multi get response, including documents which weren't found
+     * @throws Exception to stop the multi get, which then fails with the exception
+     */
+    void accept(JsonArray docs) throws Exception;
+}
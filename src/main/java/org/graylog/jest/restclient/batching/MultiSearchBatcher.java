@@ -0,0 +1,110 @@
+package org.graylog.jest.restclient.batching;
+
+import com.google.gson.JsonObject;
+import io.searchbox.core.MultiSearch;
+import io.searchbox.core.Search;
+import io.searchbox.core.SearchResult;
+import org.graylog.jest.restclient.decoding.MultiResponseDecoder;
+import org.graylog.jest.restclient.http.JestHttpClient;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Combines concurrently submitted {@link Search} actions into {@link MultiSearch} requests, saving a round trip
+ * and the coordinating overhead per search, e.g. for the dozens of independent searches of a dashboard.
+ * <p>
+ * The first search submitted opens a batch, which is sent once the window has passed or the maximum batch size is
+ * reached, whichever comes first. A batch of a single search is sent as the search itself. Every search gets its
+ * own {@link SearchResult}, created from its response within the multi search response, so a failing search
+ * doesn't fail the others of its batch.
+ * </p>
+ * <p>
+ * Searches which can't be expressed in a multi search are sent on their own right away: searches with URL
+ * parameters other than <code>ignore_unavailable</code>, <code>allow_no_indices</code> and
+ * <code>expand_wildcards</code>, searches without an index, search templates and queries spanning several lines.
+ * </p>
+ */
+public class MultiSearchBatcher extends AbstractBatcher<Void, Search, SearchResult> {
+
+    // the only parameters MultiSearch carries over into the header of a search
+    private static final Set<String> HEADER_PARAMETERS = new HashSet<>(Arrays.asList(
+            "ignore_unavailable", "allow_no_indices", "expand_wildcards"));
+
+    private MultiSearchBatcher(Builder builder) {
+        super(builder, "jest-msearch-batcher", "Multi search", "search", "searches", "responses");
+    }
+
+    public static Builder builder(JestHttpClient client) {
+        return new Builder(client);
+    }
+
+    /**
+     * Adds the search to the current batch.
+     *
+     * @return future completing with the result of the search, or exceptionally if its batch failed as a whole
+     * @throws IllegalStateException if the batcher has been closed
+     */
+    public CompletableFuture<SearchResult> submit(Search search) {
+        return isBatchable(search) ? enqueue(null, search) : submitDirectly(search);
+    }
+
+    private boolean isBatchable(Search search) {
+        final String uri = search.getURI();
+        final int query = uri.indexOf('?');
+        final String path = query < 0 ? uri : uri.substring(0, query);
+        if (!path.endsWith("/_search") || search.getIndex() == null || search.getIndex().isEmpty()) {
+            return false;
+        }
+        if (query >= 0) {
+            for (String parameter : uri.substring(query + 1).split("&")) {
+                final int equals = parameter.indexOf('=');
+                if (!HEADER_PARAMETERS.contains(equals < 0 ? parameter : parameter.substring(0, equals))) {
+                    return false;
+                }
+            }
+        }
+        // the multi search format is newline delimited
+        final String data = search.getData(gson);
+        return data == null || data.indexOf('\n') < 0;
+    }
+
+    @Override
+    protected MultiSearch batchAction(List<Pending<Void, Search, SearchResult>> pending) {
+        final List<Search> actions = new ArrayList<>(pending.size());
+        for (Pending<Void, Search, SearchResult> search : pending) {
+            actions.add(search.action);
+        }
+        return new MultiSearch.Builder(actions).build();
+    }
+
+    @Override
+    protected SearchResult decode(Search search, JsonObject response) {
+        return MultiResponseDecoder.searchResult(search, response, gson);
+    }
+
+    /**
+     * Builds a {@link MultiSearchBatcher}. Batches are sent once they hold 50 searches or after a window of 2
+     * milliseconds by default.
+     */
+    public static class Builder extends BatcherBuilder<Builder> {
+
+        private Builder(JestHttpClient client) {
+            super(client, 50, TimeUnit.MILLISECONDS.toNanos(2));
+        }
+
+        @Override
+        protected Builder self() {
+            return this;
+        }
+
+        public MultiSearchBatcher build() {
+            return new MultiSearchBatcher(this);
+        }
+    }
+}
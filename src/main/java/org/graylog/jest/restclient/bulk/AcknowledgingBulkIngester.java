@@ -0,0 +1,273 @@
+package org.graylog.jest.restclient.bulk;
+
+import io.searchbox.action.BulkableAction;
+import io.searchbox.core.BulkResult;
+import io.searchbox.core.BulkResult.BulkResultItem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Sends documents read from a journal through a {@link BulkProcessor} and tracks up to which offset of the journal
+ * all of them have been indexed.
+ * <p>
+ * Every document is submitted with its offset in the journal and gets a future which completes once the item
+ * has been indexed, or completes exceptionally with a {@link BulkItemException} if the cluster rejected it or with
+ * the failure of the whole bulk. Offsets must increase with every submitted document but need not be contiguous.
+ * </p>
+ * <p>
+ * {@link #getCommittedOffset()} is the highest offset up to which all submitted documents have been indexed,
+ * regardless of the order in which concurrent bulks complete, so the journal may safely be committed up to it.
+ * A failed document holds the watermark back until it is {@link #release(long) released}, e.g. after it has been
+ * written to a dead letter queue or re-submitted with a new offset. No lock is taken per document.
+ * </p>
+ * <p>
+ * Example:
+ * </p>
+ * <pre>
+ * AcknowledgingBulkIngester ingester = AcknowledgingBulkIngester.create(listener -&gt;
+ *         BulkProcessor.builder(client, listener).bulkActions(5000).concurrentRequests(4).build(), journal.committedOffset());
+ * ingester.submit(new Index.Builder(source).index("logs").type("message").build(), offset);
+ * ...
+ * journal.commit(ingester.getCommittedOffset());
+ * </pre>
+ */
+public class AcknowledgingBulkIngester implements Closeable {
+
+    private final BulkProcessor processor;
+    // documents submitted to the processor, by identity, until their bulk completes
+    private final ConcurrentMap<ActionKey, Document> inFlight = new ConcurrentHashMap<>();
+    // documents which have not been indexed yet, including failed ones which have not been released
+    private final ConcurrentSkipListMap<Long, Document> outstanding = new ConcurrentSkipListMap<>();
+    private final AtomicLong lastOffset;
+    private final AtomicLong committedOffset;
+
+    private AcknowledgingBulkIngester(Function<BulkProcessor.Listener, BulkProcessor> processorFactory, long committedOffset) {
+        this.lastOffset = new AtomicLong(committedOffset);
+        this.committedOffset = new AtomicLong(committedOffset);
+        this.processor = processorFactory.apply(new AcknowledgingListener());
+    }
+
+    /**
+     * Creates an ingester for a journal of which nothing has been committed yet, i.e. the committed offset is -1.
+     *
+     * @param processorFactory creates the bulk processor with the given listener
+     */
+    public static AcknowledgingBulkIngester create(Function<BulkProcessor.Listener, BulkProcessor> processorFactory) {
+        return create(processorFactory, -1);
+    }
+
+    /**
+     * @param processorFactory creates the bulk processor with the given listener
+     * @param committedOffset  offset up to which the journal has already been committed; submitted offsets must be
+     *                         higher
+     */
+    public static AcknowledgingBulkIngester create(Function<BulkProcessor.Listener, BulkProcessor> processorFactory,
+                                                   long committedOffset) {
+        if (processorFactory == null) {
+            throw new IllegalArgumentException("processorFactory must not be null");
+        }
+        return new AcknowledgingBulkIngester(processorFactory, committedOffset);
+    }
+
+    /**
+     * Adds a document to the bulk processor.
+     * <p>
+     * If the processor refuses the document, e.g. because it has been closed, its exception is rethrown and
+     * the document counts as failed. If the thread is interrupted while waiting for a bulk to complete, the document
+     * has been buffered nonetheless and is acknowledged like any other, only its future isn't returned.
+     * </p>
+     *
+     * @param offset offset of the document in the journal, higher than the offset of any document submitted before
+     * @return future completing with the offset once the document has been indexed
+     * @throws IllegalArgumentException if the offset is not higher than all submitted offsets or the action has
+     *                                  already been submitted and is still in flight
+     * @throws InterruptedException     if interrupted while waiting for a bulk to complete
+     */
+    public CompletableFuture<Long> submit(BulkableAction action, long offset) throws InterruptedException {
+        final Document document = new Document(offset);
+        final ActionKey key = new ActionKey(action);
+        if (inFlight.putIfAbsent(key, document) != null) {
+            throw new IllegalArgumentException("Action is already in flight");
+        }
+        // Registered before the offset is published so the watermark never passes a document being submitted.
+        if (outstanding.putIfAbsent(offset, document) != null) {
+            inFlight.remove(key, document);
+            throw new IllegalArgumentException("Offset " + offset + " has already been submitted");
+        }
+        long last;
+        do {
+            last = lastOffset.get();
+            if (offset <= last) {
+                outstanding.remove(offset, document);
+                inFlight.remove(key, document);
+                throw new IllegalArgumentException("Offset " + offset + " must be higher than " + last);
+            }
+        } while (!lastOffset.compareAndSet(last, offset));
+
+        try {
+            processor.add(action);
+        } catch (RuntimeException e) {
+            // the processor did not buffer the action
+            inFlight.remove(key, document);
+            document.fail(e);
+            throw e;
+        }
+        return document.future;
+    }
+
+    /**
+     * @return offset up to which all submitted documents have been indexed; never decreases
+     */
+    public long getCommittedOffset() {
+        // read before looking at the outstanding documents, every document up to it is registered by then
+        final long last = lastOffset.get();
+        final Map.Entry<Long, Document> first = outstanding.firstEntry();
+        final long watermark = first == null ? last : Math.min(last, first.getKey() - 1);
+        return committedOffset.accumulateAndGet(watermark, Math::max);
+    }
+
+    /**
+     * @return highest offset submitted so far
+     */
+    public long getSubmittedOffset() {
+        return lastOffset.get();
+    }
+
+    /**
+     * @return number of documents which have not been indexed or released yet; not a constant-time operation
+     */
+    public int getPendingDocuments() {
+        return outstanding.size();
+    }
+
+    /**
+     * Lets the watermark move past a failed document.
+     *
+     * @return <code>false</code> if there is no document with the offset pending
+     * @throws IllegalStateException if the document has not failed
+     */
+    public boolean release(long offset) {
+        final Document document = outstanding.get(offset);
+        if (document == null) {
+            return false;
+        }
+        if (!document.future.isCompletedExceptionally()) {
+            throw new IllegalStateException("Document with offset " + offset + " has not failed");
+        }
+        return outstanding.remove(offset, document);
+    }
+
+    public BulkProcessor getProcessor() {
+        return processor;
+    }
+
+    /**
+     * Closes the bulk processor, see {@link BulkProcessor#awaitClose}.
+     */
+    public boolean awaitClose(long timeout, TimeUnit unit) throws InterruptedException {
+        return processor.awaitClose(timeout, unit);
+    }
+
+    @Override
+    public void close() {
+        processor.close();
+    }
+
+    private void acknowledge(List<BulkableAction> actions, BulkResult result) {
+        if (result.isSucceeded()) {
+            for (BulkableAction action : actions) {
+                final Document document = inFlight.remove(new ActionKey(action));
+                if (document != null) {
+                    document.succeed();
+                }
+            }
+            return;
+        }
+
+        final BulkResultItem[] failedItems = BulkResults.failedItems(actions.size(), result);
+        if (failedItems == null) {
+            fail(actions, new IOException(result.getErrorMessage()));
+            return;
+        }
+        for (int i = 0; i < actions.size(); i++) {
+            final Document document = inFlight.remove(new ActionKey(actions.get(i)));
+            if (document == null) {
+                continue;
+            }
+            if (failedItems[i] == null) {
+                document.succeed();
+            } else {
+                document.fail(new BulkItemException(failedItems[i]));
+            }
+        }
+    }
+
+    private void fail(List<BulkableAction> actions, Throwable failure) {
+        for (BulkableAction action : actions) {
+            final Document document = inFlight.remove(new ActionKey(action));
+            if (document != null) {
+                document.fail(failure);
+            }
+        }
+    }
+
+    private class AcknowledgingListener implements BulkProcessor.Listener {
+        @Override
+        public void afterBulk(long executionId, List<BulkableAction> actions, BulkResult result) {
+            acknowledge(actions, result);
+        }
+
+        @Override
+        public void afterBulk(long executionId, List<BulkableAction> actions, Throwable failure) {
+            fail(actions, failure);
+        }
+    }
+
+    private final class Document {
+        private final long offset;
+        private final CompletableFuture<Long> future = new CompletableFuture<>();
+
+        private Document(long offset) {
+            this.offset = offset;
+        }
+
+        void succeed() {
+            // removed first so callbacks of the future see the watermark moving
+            outstanding.remove(offset, this);
+            future.complete(offset);
+        }
+
+        void fail(Throwable failure) {
+            future.completeExceptionally(failure);
+        }
+    }
+
+    // Jest actions are equal if their requests are, so two identical documents are told apart by instance.
+    private static final class ActionKey {
+        private final BulkableAction action;
+
+        private ActionKey(BulkableAction action) {
+            this.action = action;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ActionKey && ((ActionKey) o).action == action;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(action);
+        }
+    }
+}
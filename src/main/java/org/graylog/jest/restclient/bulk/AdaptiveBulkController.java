@@ -0,0 +1,256 @@
+package org.graylog.jest.restclient.bulk;
+
+import io.searchbox.client.JestResultHandler;
+import io.searchbox.core.BulkResult;
+import io.searchbox.core.BulkResult.BulkResultItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Adapts bulk size and number of concurrent bulks to the load of the cluster using additive increase and
+ * multiplicative decrease (AIMD).
+ * <p>
+ * Every bulk request sent through {@link #observe(BulkExecutor)} is a sample. A bulk is congested if the cluster
+ * rejected it or any of its items with {@code 429}, if it failed as a whole, or if it took longer than the latency
+ * threshold. A congested sample multiplies bulk size and concurrency by the decrease factor. Samples of bulks
+ * which were sent before the last decrease are ignored for this, so a burst of rejections from the bulks in flight
+ * results in a single decrease. After as many healthy samples as there are concurrent bulks, the bulk size grows by
+ * the increment and the concurrency by one, up to the configured maximums.
+ * </p>
+ * <p>
+ * {@link #getBulkSize()} and {@link #getConcurrency()} are the current operating point and can be published as
+ * gauges.
+ * </p>
+ */
+public class AdaptiveBulkController {
+
+    private static final Logger log = LoggerFactory.getLogger(AdaptiveBulkController.class);
+
+    private final long minBulkSize;
+    private final long maxBulkSize;
+    private final long bulkSizeIncrement;
+    private final int minConcurrency;
+    private final int maxConcurrency;
+    private final long latencyThresholdNanos;
+    private final double decreaseFactor;
+
+    private final LongAdder increases = new LongAdder();
+    private final LongAdder decreases = new LongAdder();
+    private final LongAdder rejectedItems = new LongAdder();
+
+    private volatile long bulkSize;
+    private volatile int concurrency;
+    private volatile long meanLatencyNanos;
+    private long epoch;
+    private int healthySamples;
+
+    private AdaptiveBulkController(Builder builder) {
+        this.minBulkSize = builder.minBulkSize;
+        this.maxBulkSize = builder.maxBulkSize;
+        this.bulkSizeIncrement = builder.bulkSizeIncrement;
+        this.minConcurrency = builder.minConcurrency;
+        this.maxConcurrency = builder.maxConcurrency;
+        this.latencyThresholdNanos = builder.latencyThresholdNanos;
+        this.decreaseFactor = builder.decreaseFactor;
+        this.bulkSize = builder.initialBulkSize;
+        this.concurrency = builder.initialConcurrency;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Decorates the executor so that every bulk it sends adjusts the operating point.
+     */
+    public BulkExecutor observe(BulkExecutor delegate) {
+        return (actions, resultHandler) -> {
+            final long sampleEpoch = currentEpoch();
+            final long start = System.nanoTime();
+            delegate.execute(actions, new JestResultHandler<BulkResult>() {
+                @Override
+                public void completed(BulkResult result) {
+                    onCompleted(sampleEpoch, System.nanoTime() - start, result);
+                    resultHandler.completed(result);
+                }
+
+                @Override
+                public void failed(Exception ex) {
+                    onFailed(sampleEpoch, System.nanoTime() - start);
+                    resultHandler.failed(ex);
+                }
+            });
+        };
+    }
+
+    /**
+     * @return estimated request size in bytes at which a bulk should be sent
+     */
+    public long getBulkSize() {
+        return bulkSize;
+    }
+
+    /**
+     * @return number of bulks which may be in flight at the same time
+     */
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * @return exponentially weighted moving average of the bulk latency in milliseconds
+     */
+    public long getMeanLatencyMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(meanLatencyNanos);
+    }
+
+    public long getIncreases() {
+        return increases.sum();
+    }
+
+    public long getDecreases() {
+        return decreases.sum();
+    }
+
+    public long getRejectedItems() {
+        return rejectedItems.sum();
+    }
+
+    void onCompleted(long sampleEpoch, long latencyNanos, BulkResult result) {
+        int rejected = 0;
+        if (result.getResponseCode() == 429) {
+            rejected = 1;
+        } else if (!result.isSucceeded()) {
+            for (BulkResultItem item : BulkResults.failedItems(result)) {
+                if (item.status == 429 || "es_rejected_execution_exception".equals(item.errorType)) {
+                    rejected++;
+                }
+            }
+        }
+        rejectedItems.add(rejected);
+        sample(sampleEpoch, latencyNanos, rejected > 0 || latencyNanos > latencyThresholdNanos);
+    }
+
+    void onFailed(long sampleEpoch, long latencyNanos) {
+        sample(sampleEpoch, latencyNanos, true);
+    }
+
+    private synchronized long currentEpoch() {
+        return epoch;
+    }
+
+    private synchronized void sample(long sampleEpoch, long latencyNanos, boolean congested) {
+        meanLatencyNanos = meanLatencyNanos == 0 ? latencyNanos : (meanLatencyNanos * 7 + latencyNanos) / 8;
+
+        if (congested) {
+            if (sampleEpoch == epoch) {
+                epoch++;
+                healthySamples = 0;
+                bulkSize = Math.max(minBulkSize, (long) (bulkSize * decreaseFactor));
+                concurrency = Math.max(minConcurrency, (int) (concurrency * decreaseFactor));
+                decreases.increment();
+                log.debug("Bulk congestion, decreased bulk size to {} bytes and concurrency to {}.", bulkSize, concurrency);
+            }
+        } else if (++healthySamples >= concurrency) {
+            healthySamples = 0;
+            if (bulkSize < maxBulkSize || concurrency < maxConcurrency) {
+                bulkSize = Math.min(maxBulkSize, bulkSize + bulkSizeIncrement);
+                concurrency = Math.min(maxConcurrency, concurrency + 1);
+                increases.increment();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveBulkController{" +
+                "bulkSize=" + bulkSize +
+                ", concurrency=" + concurrency +
+                ", meanLatencyMillis=" + getMeanLatencyMillis() +
+                ", increases=" + getIncreases() +
+                ", decreases=" + getDecreases() +
+                ", rejectedItems=" + getRejectedItems() +
+                '}';
+    }
+
+    public static class Builder {
+        private long minBulkSize = 1024 * 1024;
+        private long initialBulkSize = 5 * 1024 * 1024;
+        private long maxBulkSize = 25 * 1024 * 1024;
+        private long bulkSizeIncrement = 1024 * 1024;
+        private int minConcurrency = 1;
+        private int initialConcurrency = 1;
+        private int maxConcurrency = 8;
+        private long latencyThresholdNanos = TimeUnit.SECONDS.toNanos(2);
+        private double decreaseFactor = 0.5;
+
+        private Builder() {
+        }
+
+        /**
+         * Range and start of the bulk size in bytes, default to 1 MB, 5 MB and 25 MB.
+         */
+        public Builder bulkSize(long min, long initial, long max) {
+            if (min <= 0 || initial < min || max < initial) {
+                throw new IllegalArgumentException("bulk sizes must be positive and satisfy min <= initial <= max");
+            }
+            this.minBulkSize = min;
+            this.initialBulkSize = initial;
+            this.maxBulkSize = max;
+            return this;
+        }
+
+        /**
+         * Growth of the bulk size per healthy round, defaults to 1 MB.
+         */
+        public Builder bulkSizeIncrement(long bulkSizeIncrement) {
+            if (bulkSizeIncrement <= 0) {
+                throw new IllegalArgumentException("bulkSizeIncrement must be positive");
+            }
+            this.bulkSizeIncrement = bulkSizeIncrement;
+            return this;
+        }
+
+        /**
+         * Range and start of the number of concurrent bulks, default to 1, 1 and 8.
+         */
+        public Builder concurrency(int min, int initial, int max) {
+            if (min <= 0 || initial < min || max < initial) {
+                throw new IllegalArgumentException("concurrency must be positive and satisfy min <= initial <= max");
+            }
+            this.minConcurrency = min;
+            this.initialConcurrency = initial;
+            this.maxConcurrency = max;
+            return this;
+        }
+
+        /**
+         * Bulks taking longer than this count as congested, defaults to 2 seconds.
+         */
+        public Builder latencyThreshold(long latencyThreshold, TimeUnit unit) {
+            if (latencyThreshold <= 0) {
+                throw new IllegalArgumentException("latencyThreshold must be positive");
+            }
+            this.latencyThresholdNanos = unit.toNanos(latencyThreshold);
+            return this;
+        }
+
+        /**
+         * Factor applied to bulk size and concurrency on congestion, defaults to 0.5.
+         */
+        public Builder decreaseFactor(double decreaseFactor) {
+            if (decreaseFactor <= 0 || decreaseFactor >= 1) {
+                throw new IllegalArgumentException("decreaseFactor must be between 0 and 1");
+            }
+            this.decreaseFactor = decreaseFactor;
+            return this;
+        }
+
+        public AdaptiveBulkController build() {
+            return new AdaptiveBulkController(this);
+        }
+    }
+}
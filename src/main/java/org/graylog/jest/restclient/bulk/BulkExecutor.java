@@ -0,0 +1,20 @@
+package org.graylog.jest.restclient.bulk;
+
+import io.searchbox.action.BulkableAction;
+import io.searchbox.client.JestResultHandler;
+import io.searchbox.core.BulkResult;
+
+import java.util.List;
+
+/**
+ * Sends a batch of actions as a bulk request. Implementations may decorate another executor, e.g. to retry
+ * failed items.
+ */
+public interface BulkExecutor {
+
+    /**
+     * Sends the actions asynchronously. The items of the result reported to the handler are in the order of the
+     * given actions.
+     */
+    void execute(List<BulkableAction> actions, JestResultHandler<BulkResult> resultHandler);
+}
@@ -0,0 +1,328 @@
+package org.graylog.jest.restclient.bulk;
+
+import io.searchbox.action.BulkableAction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free front-end of a {@link BulkProcessor} for many producer threads.
+ * <p>
+ * Producers put actions into bounded ring buffers without taking a lock: a slot is claimed with a compare-and-set
+ * on the tail of a ring and published through the slot's sequence number. To spread the compare-and-sets, there
+ * are several rings and every thread always uses the same one, so the actions of a thread stay in order. The source
+ * of an action is serialized by the producer, which also estimates its size.
+ * </p>
+ * <p>
+ * A single consumer thread drains the rings into the bulk processor, so the processor's lock is never contended
+ * by producers. If the processor runs out of concurrent bulks, the consumer blocks and the rings fill up;
+ * {@link #add} then waits for room while {@link #offer} refuses the action.
+ * </p>
+ */
+public class BulkIngestBuffer implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(BulkIngestBuffer.class);
+
+    private static final long MAX_PRODUCER_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long CONSUMER_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final BulkProcessor processor;
+    private final Ring[] rings;
+    private final int ringMask;
+    private final Thread consumer;
+    private final BulkIngestStats stats = new BulkIngestStats();
+    // producers between the closed check and publishing their action
+    private final LongAdder activeProducers = new LongAdder();
+
+    private volatile boolean consumerParked;
+    private volatile boolean closed;
+
+    private BulkIngestBuffer(Builder builder) {
+        this.processor = builder.processor;
+        this.rings = new Ring[builder.stripes];
+        for (int i = 0; i < rings.length; i++) {
+            rings[i] = new Ring(builder.capacity / builder.stripes);
+        }
+        this.ringMask = rings.length - 1;
+        this.consumer = new Thread(this::consume, "jest-bulk-ingest");
+        this.consumer.setDaemon(true);
+        this.consumer.start();
+    }
+
+    public static Builder builder(BulkProcessor processor) {
+        return new Builder(processor);
+    }
+
+    /**
+     * Adds the action if there is room in the buffer.
+     *
+     * @return <code>false</code> if the buffer is full
+     * @throws IllegalStateException if the buffer has been closed
+     */
+    public boolean offer(BulkableAction action) {
+        final SerializedBulkAction serialized = processor.serialize(action);
+        final Ring ring = ring();
+        activeProducers.increment();
+        try {
+            ensureOpen();
+            if (!ring.offer(serialized)) {
+                stats.rejectedActions.increment();
+                return false;
+            }
+        } finally {
+            activeProducers.decrement();
+        }
+        accepted();
+        return true;
+    }
+
+    /**
+     * Adds the action, waiting for room in the buffer if it is full.
+     *
+     * @throws InterruptedException  if interrupted while waiting
+     * @throws IllegalStateException if the buffer has been closed
+     */
+    public void add(BulkableAction action) throws InterruptedException {
+        final SerializedBulkAction serialized = processor.serialize(action);
+        final Ring ring = ring();
+        long waitNanos = 1000;
+        while (true) {
+            activeProducers.increment();
+            try {
+                ensureOpen();
+                if (ring.offer(serialized)) {
+                    break;
+                }
+            } finally {
+                activeProducers.decrement();
+            }
+
+            stats.producerWaits.increment();
+            LockSupport.parkNanos(this, waitNanos);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            waitNanos = Math.min(waitNanos * 2, MAX_PRODUCER_WAIT_NANOS);
+        }
+        accepted();
+    }
+
+    /**
+     * @return number of actions in the buffer, may be inaccurate while producers are adding actions
+     */
+    public long size() {
+        long size = 0;
+        for (Ring ring : rings) {
+            size += ring.size();
+        }
+        return size;
+    }
+
+    public BulkIngestStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Hands the buffered actions to the bulk processor and closes it, see {@link BulkProcessor#awaitClose}.
+     * No further actions are accepted afterwards.
+     *
+     * @return <code>true</code> if all actions have been sent within the timeout
+     */
+    public boolean awaitClose(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        closed = true;
+        LockSupport.unpark(consumer);
+        consumer.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+        if (consumer.isAlive()) {
+            return false;
+        }
+        return processor.awaitClose(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Closes the buffer and the bulk processor, waiting up to a minute for buffered actions and bulks in flight.
+     */
+    @Override
+    public void close() {
+        try {
+            if (!awaitClose(1, TimeUnit.MINUTES)) {
+                log.warn("Bulk actions still pending after closing the ingest buffer.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Ring ring() {
+        return rings[(int) Thread.currentThread().getId() & ringMask];
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("Bulk ingest buffer is already closed");
+        }
+    }
+
+    private void accepted() {
+        stats.acceptedActions.increment();
+        if (consumerParked) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    private void consume() {
+        try {
+            while (true) {
+                if (drain() > 0) {
+                    continue;
+                }
+                if (closed && activeProducers.sum() == 0) {
+                    // a producer which passed the closed check has published its action by now
+                    if (drain() == 0) {
+                        return;
+                    }
+                    continue;
+                }
+                consumerParked = true;
+                if (size() == 0 && !closed) {
+                    LockSupport.parkNanos(this, CONSUMER_PARK_NANOS);
+                }
+                consumerParked = false;
+            }
+        } catch (InterruptedException e) {
+            log.warn("Bulk ingest consumer interrupted, {} actions not sent.", size());
+        }
+    }
+
+    private int drain() throws InterruptedException {
+        int drained = 0;
+        for (Ring ring : rings) {
+            SerializedBulkAction action;
+            while ((action = ring.peekAction()) != null) {
+                ring.advance();
+                drained++;
+                try {
+                    processor.add(action);
+                } catch (IllegalStateException e) {
+                    log.error("Dropping bulk action, the bulk processor has been closed.");
+                }
+            }
+        }
+        stats.drainedActions.add(drained);
+        return drained;
+    }
+
+    /**
+     * Bounded multi-producer single-consumer queue. The sequence of a slot tells whether it is free for the
+     * producer claiming position <code>p</code> (sequence <code>p</code>) or holds the action of position
+     * <code>p</code> (sequence <code>p + 1</code>).
+     */
+    private static final class Ring {
+        private final int capacity;
+        private final int mask;
+        private final SerializedBulkAction[] actions;
+        private final AtomicLongArray sequences;
+        private final AtomicLong tail = new AtomicLong();
+        private volatile long head;
+
+        private Ring(int capacity) {
+            this.capacity = capacity;
+            this.mask = capacity - 1;
+            this.actions = new SerializedBulkAction[capacity];
+            this.sequences = new AtomicLongArray(capacity);
+            for (int i = 0; i < capacity; i++) {
+                sequences.set(i, i);
+            }
+        }
+
+        boolean offer(SerializedBulkAction action) {
+            long position = tail.get();
+            while (true) {
+                final int index = (int) position & mask;
+                final long difference = sequences.get(index) - position;
+                if (difference == 0) {
+                    if (tail.compareAndSet(position, position + 1)) {
+                        actions[index] = action;
+                        // publishes the plain writes above to the consumer
+                        sequences.set(index, position + 1);
+                        return true;
+                    }
+                    position = tail.get();
+                } else if (difference < 0) {
+                    // the consumer has not freed the slot yet
+                    return false;
+                } else {
+                    position = tail.get();
+                }
+            }
+        }
+
+        // Consumer only.
+        SerializedBulkAction peekAction() {
+            final int index = (int) head & mask;
+            return sequences.get(index) == head + 1 ? actions[index] : null;
+        }
+
+        // Consumer only, after peekAction() returned an action.
+        void advance() {
+            final long position = head;
+            final int index = (int) position & mask;
+            actions[index] = null;
+            sequences.set(index, position + capacity);
+            head = position + 1;
+        }
+
+        long size() {
+            return Math.max(0, tail.get() - head);
+        }
+    }
+
+    public static class Builder {
+        private final BulkProcessor processor;
+        private int capacity = 64 * 1024;
+        private int stripes = Math.min(16, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1));
+
+        private Builder(BulkProcessor processor) {
+            if (processor == null) {
+                throw new IllegalArgumentException("processor must not be null");
+            }
+            this.processor = processor;
+        }
+
+        /**
+         * Total number of buffered actions across all stripes, a power of two, defaults to 65536.
+         */
+        public Builder capacity(int capacity) {
+            if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+                throw new IllegalArgumentException("capacity must be a positive power of two");
+            }
+            this.capacity = capacity;
+            return this;
+        }
+
+        /**
+         * Number of ring buffers producers are spread across, a power of two, defaults to the number of cores
+         * rounded up to a power of two but at most 16.
+         */
+        public Builder stripes(int stripes) {
+            if (stripes <= 0 || Integer.bitCount(stripes) != 1) {
+                throw new IllegalArgumentException("stripes must be a positive power of two");
+            }
+            this.stripes = stripes;
+            return this;
+        }
+
+        public BulkIngestBuffer build() {
+            if (stripes > capacity) {
+                throw new IllegalArgumentException("capacity must be at least the number of stripes");
+            }
+            return new BulkIngestBuffer(this);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package org.graylog.jest.restclient.bulk;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of a {@link BulkIngestBuffer}.
+ */
+public class BulkIngestStats {
+    final LongAdder acceptedActions = new LongAdder();
+    final LongAdder rejectedActions = new LongAdder();
+    final LongAdder producerWaits = new LongAdder();
+    final LongAdder drainedActions = new LongAdder();
+
+    /**
+     * @return number of actions put into the buffer
+     */
+    public long getAcceptedActions() {
+        return acceptedActions.sum();
+    }
+
+    /**
+     * @return number of actions refused by {@link BulkIngestBuffer#offer} because the buffer was full
+     */
+    public long getRejectedActions() {
+        return rejectedActions.sum();
+    }
+
+    /**
+     * @return number of times a producer had to wait for room in the buffer
+     */
+    public long getProducerWaits() {
+        return producerWaits.sum();
+    }
+
+    /**
+     * @return number of actions handed to the bulk processor
+     */
+    public long getDrainedActions() {
+        return drainedActions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "BulkIngestStats{" +
+                "accepted=" + getAcceptedActions() +
+                ", rejected=" + getRejectedActions() +
+                ", producerWaits=" + getProducerWaits() +
+                ", drained=" + getDrainedActions() +
+                '}';
+    }
+}
@@ -0,0 +1,22 @@
+package org.graylog.jest.restclient.bulk;
+
+import io.searchbox.core.BulkResult.BulkResultItem;
+
+import java.io.IOException;
+
+/**
+ * Thrown if a single item of a bulk has been rejected by the cluster.
+ */
+public class BulkItemException extends IOException {
+    private final BulkResultItem item;
+
+    public BulkItemException(BulkResultItem item) {
+        super("Bulk item " + item.index + "/" + item.type + "/" + item.id + " failed with status " + item.status
+                + ": " + item.error);
+        this.item = item;
+    }
+
+    public BulkResultItem getItem() {
+        return item;
+    }
+}
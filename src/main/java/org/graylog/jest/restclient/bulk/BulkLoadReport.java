@@ -0,0 +1,79 @@
+package org.graylog.jest.restclient.bulk;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Indexing stats of the primary shards of the indices of a {@link BulkLoadSession}, taken before the load settings
+ * were applied and after the original settings were restored.
+ */
+public class BulkLoadReport {
+    private final long indexedBefore;
+    private final long indexedAfter;
+    private final long refreshesBefore;
+    private final long refreshesAfter;
+    private final long elapsedNanos;
+
+    BulkLoadReport(long indexedBefore, long indexedAfter, long refreshesBefore, long refreshesAfter, long elapsedNanos) {
+        this.indexedBefore = indexedBefore;
+        this.indexedAfter = indexedAfter;
+        this.refreshesBefore = refreshesBefore;
+        this.refreshesAfter = refreshesAfter;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return total number of index operations before the load, -1 if the stats couldn't be read
+     */
+    public long getIndexedBefore() {
+        return indexedBefore;
+    }
+
+    /**
+     * @return total number of index operations after the load, -1 if the stats couldn't be read
+     */
+    public long getIndexedAfter() {
+        return indexedAfter;
+    }
+
+    /**
+     * @return number of documents indexed during the load, including those of other clients; -1 if unknown
+     */
+    public long getIndexedDocuments() {
+        return indexedBefore < 0 || indexedAfter < 0 ? -1 : indexedAfter - indexedBefore;
+    }
+
+    /**
+     * @return number of refreshes during the load, -1 if unknown
+     */
+    public long getRefreshes() {
+        return refreshesBefore < 0 || refreshesAfter < 0 ? -1 : refreshesAfter - refreshesBefore;
+    }
+
+    /**
+     * @return time between applying the load settings and restoring the original settings
+     */
+    public long getElapsed(TimeUnit unit) {
+        return unit.convert(elapsedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return indexed documents per second during the load, -1 if unknown
+     */
+    public double getDocumentsPerSecond() {
+        final long documents = getIndexedDocuments();
+        if (documents < 0) {
+            return -1;
+        }
+        return elapsedNanos == 0 ? 0 : documents * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkLoadReport{" +
+                "indexedDocuments=" + getIndexedDocuments() +
+                ", refreshes=" + getRefreshes() +
+                ", elapsedMillis=" + getElapsed(TimeUnit.MILLISECONDS) +
+                ", documentsPerSecond=" + String.format("%.1f", getDocumentsPerSecond()) +
+                '}';
+    }
+}
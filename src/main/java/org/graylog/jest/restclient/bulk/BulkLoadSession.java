@@ -0,0 +1,302 @@
+package org.graylog.jest.restclient.bulk;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import io.searchbox.client.JestResult;
+import io.searchbox.indices.Refresh;
+import io.searchbox.indices.Stats;
+import io.searchbox.indices.settings.GetSettings;
+import io.searchbox.indices.settings.UpdateSettings;
+import org.graylog.jest.restclient.http.JestHttpClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Relaxes the settings of indices for loading a large amount of documents, e.g. for a reindex or a backfill, and
+ * restores them afterwards.
+ * <p>
+ * {@link #start()} remembers the current settings of the indices and applies the load settings, by default a
+ * <code>refresh_interval</code> of -1 and no replicas. {@link #finish()} restores the original settings, also after
+ * a failed load, refreshes the indices and reports how many documents have been indexed in the meantime according
+ * to the indexing stats of the primary shards. Settings which weren't set on an index are reset to their default.
+ * </p>
+ * <p>
+ * Example:
+ * </p>
+ * <pre>
+ * BulkLoadSession session = BulkLoadSession.builder(client, "logs-2017").build();
+ * session.start();
+ * try {
+ *     // add the documents to a BulkProcessor and wait for it to close
+ * } finally {
+ *     BulkLoadReport report = session.finish();
+ * }
+ * </pre>
+ */
+public class BulkLoadSession implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(BulkLoadSession.class);
+
+    private static final String INDEX_SETTINGS_PREFIX = "index.";
+    private static final String STATS_FILTER = "_all.primaries.indexing.index_total,_all.primaries.refresh.total";
+
+    private final JestHttpClient client;
+    private final List<String> indices;
+    private final Map<String, Object> loadSettings;
+    private final boolean refresh;
+
+    // original values of the load settings per index
+    private final Map<String, JsonObject> originalSettings = new LinkedHashMap<>();
+    private long startNanos;
+    private long indexedBefore;
+    private long refreshesBefore;
+    private boolean started;
+    private BulkLoadReport report;
+
+    private BulkLoadSession(Builder builder) {
+        this.client = builder.client;
+        this.indices = builder.indices;
+        this.loadSettings = builder.loadSettings;
+        this.refresh = builder.refresh;
+    }
+
+    public static Builder builder(JestHttpClient client, String... indices) {
+        return new Builder(client, indices);
+    }
+
+    /**
+     * Applies the load settings to the indices.
+     *
+     * @throws IOException           if the settings couldn't be read or applied; settings applied to some of the
+     *                               indices already have been restored and the session may be started again
+     * @throws IllegalStateException if the session has already been started
+     */
+    public synchronized void start() throws IOException {
+        if (started) {
+            throw new IllegalStateException("Bulk load session has already been started");
+        }
+        originalSettings.clear();
+
+        final JestResult settings = checked(client.execute(new GetSettings.Builder()
+                .addIndex(indices)
+                .setParameter("flat_settings", true)
+                .build()), "read settings of");
+        // keyed by the concrete indices, the session may have been created for aliases or patterns
+        for (Map.Entry<String, JsonElement> index : settings.getJsonObject().entrySet()) {
+            final JsonObject indexSettings = index.getValue().getAsJsonObject().getAsJsonObject("settings");
+            final JsonObject original = new JsonObject();
+            for (String key : loadSettings.keySet()) {
+                final JsonElement value = indexSettings == null ? null : indexSettings.get(key);
+                original.add(key, value == null ? JsonNull.INSTANCE : value);
+            }
+            originalSettings.put(index.getKey(), original);
+        }
+        if (originalSettings.isEmpty()) {
+            throw new IOException("No settings returned for " + indices);
+        }
+
+        final long[] stats = indexingStats();
+        indexedBefore = stats[0];
+        refreshesBefore = stats[1];
+        startNanos = System.nanoTime();
+
+        try {
+            final JsonObject load = new JsonObject();
+            for (Map.Entry<String, Object> setting : loadSettings.entrySet()) {
+                load.add(setting.getKey(), client.getGson().toJsonTree(setting.getValue()));
+            }
+            checked(client.execute(new UpdateSettings.Builder(load.toString()).addIndex(indices).build()),
+                    "apply load settings to");
+            started = true;
+            log.info("Started bulk load into {} with settings {}.", indices, loadSettings);
+        } catch (IOException | RuntimeException e) {
+            try {
+                restoreSettings();
+            } catch (IOException | RuntimeException restoreFailure) {
+                e.addSuppressed(restoreFailure);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Restores the original settings and refreshes the indices. Does nothing if already finished.
+     *
+     * @return the report of the load, or <code>null</code> if the session hasn't been started
+     * @throws IOException if the settings couldn't be restored or the indices couldn't be refreshed; the settings
+     *                     of all indices are attempted to be restored nevertheless
+     */
+    public synchronized BulkLoadReport finish() throws IOException {
+        if (!started || report != null) {
+            return report;
+        }
+        final long elapsedNanos = System.nanoTime() - startNanos;
+        restoreSettings();
+        if (refresh) {
+            checked(client.execute(new Refresh.Builder().addIndex(indices).build()), "refresh");
+        }
+
+        final long[] stats = indexingStats();
+        report = new BulkLoadReport(indexedBefore, stats[0], refreshesBefore, stats[1], elapsedNanos);
+        log.info("Finished bulk load into {}: {}", indices, report);
+        return report;
+    }
+
+    /**
+     * @return the report of the finished load, or <code>null</code> if it hasn't been finished yet
+     */
+    public synchronized BulkLoadReport getReport() {
+        return report;
+    }
+
+    /**
+     * Finishes the session, logging failures to restore the settings.
+     */
+    @Override
+    public void close() {
+        try {
+            finish();
+        } catch (IOException | RuntimeException e) {
+            log.error("Couldn't restore the settings of {} after the bulk load.", indices, e);
+        }
+    }
+
+    private void restoreSettings() throws IOException {
+        IOException failure = null;
+        for (Map.Entry<String, JsonObject> original : originalSettings.entrySet()) {
+            try {
+                final JestResult result = client.execute(new UpdateSettings.Builder(original.getValue().toString())
+                        .addIndex(original.getKey())
+                        .build());
+                if (!result.isSucceeded()) {
+                    throw new IOException("Couldn't restore settings of " + original.getKey() + ": " + result.getErrorMessage());
+                }
+            } catch (IOException e) {
+                // keep restoring the other indices
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // index_total and refresh total of the primary shards, -1 if unavailable
+    private long[] indexingStats() {
+        final long[] stats = {-1, -1};
+        try {
+            final JestResult result = client.execute(new Stats.Builder()
+                    .addIndex(indices)
+                    .indexing(true)
+                    .refresh(true)
+                    .setParameter("filter_path", STATS_FILTER)
+                    .build());
+            if (!result.isSucceeded()) {
+                log.warn("Couldn't read indexing stats of {}: {}", indices, result.getErrorMessage());
+                return stats;
+            }
+            final JsonObject primaries = result.getJsonObject().getAsJsonObject("_all").getAsJsonObject("primaries");
+            stats[0] = primaries.getAsJsonObject("indexing").get("index_total").getAsLong();
+            stats[1] = primaries.getAsJsonObject("refresh").get("total").getAsLong();
+        } catch (IOException | RuntimeException e) {
+            log.warn("Couldn't read indexing stats of {}: {}", indices, e.getMessage());
+        }
+        return stats;
+    }
+
+    private JestResult checked(JestResult result, String operation) throws IOException {
+        if (!result.isSucceeded()) {
+            throw new IOException("Couldn't " + operation + " " + indices + ": " + result.getErrorMessage());
+        }
+        return result;
+    }
+
+    public static class Builder {
+        private final JestHttpClient client;
+        private final List<String> indices;
+        private final Map<String, Object> loadSettings = new LinkedHashMap<>();
+        private boolean refresh = true;
+
+        private Builder(JestHttpClient client, String... indices) {
+            if (client == null) {
+                throw new IllegalArgumentException("client must not be null");
+            }
+            if (indices == null || indices.length == 0) {
+                throw new IllegalArgumentException("at least one index is required");
+            }
+            this.client = client;
+            this.indices = Collections.unmodifiableList(Arrays.asList(indices));
+            loadSettings.put("index.refresh_interval", "-1");
+            loadSettings.put("index.number_of_replicas", "0");
+        }
+
+        /**
+         * Refresh interval during the load, defaults to -1 which disables refreshes.
+         */
+        public Builder refreshInterval(String refreshInterval) {
+            return setting("refresh_interval", refreshInterval);
+        }
+
+        /**
+         * Number of replicas during the load, defaults to 0.
+         */
+        public Builder numberOfReplicas(int numberOfReplicas) {
+            if (numberOfReplicas < 0) {
+                throw new IllegalArgumentException("numberOfReplicas must not be negative");
+            }
+            return setting("number_of_replicas", String.valueOf(numberOfReplicas));
+        }
+
+        /**
+         * Translog durability during the load, e.g. <code>async</code>. Unchanged by default.
+         */
+        public Builder translogDurability(String durability) {
+            return setting("translog.durability", durability);
+        }
+
+        /**
+         * Any other dynamic index setting to apply during the load, with or without the <code>index.</code>
+         * prefix. A <code>null</code> value keeps the setting unchanged.
+         */
+        public Builder setting(String key, String value) {
+            if (key == null) {
+                throw new IllegalArgumentException("key must not be null");
+            }
+            final String flatKey = key.startsWith(INDEX_SETTINGS_PREFIX) ? key : INDEX_SETTINGS_PREFIX + key;
+            if (value == null) {
+                loadSettings.remove(flatKey);
+            } else {
+                loadSettings.put(flatKey, value);
+            }
+            return this;
+        }
+
+        /**
+         * Whether to refresh the indices after restoring their settings, defaults to <code>true</code>.
+         */
+        public Builder refresh(boolean refresh) {
+            this.refresh = refresh;
+            return this;
+        }
+
+        public BulkLoadSession build() {
+            if (loadSettings.isEmpty()) {
+                throw new IllegalArgumentException("at least one load setting is required");
+            }
+            return new BulkLoadSession(this);
+        }
+    }
+}
@@ -0,0 +1,477 @@
+package org.graylog.jest.restclient.bulk;
+
+import com.google.gson.Gson;
+import io.searchbox.action.BulkableAction;
+import io.searchbox.client.JestResultHandler;
+import io.searchbox.core.Bulk;
+import io.searchbox.core.BulkResult;
+import org.graylog.jest.restclient.http.JestHttpClient;
+import org.graylog.jest.restclient.routing.ShardRoutingCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects single {@link BulkableAction}s like {@link io.searchbox.core.Index}, {@link io.searchbox.core.Update}
+ * and {@link io.searchbox.core.Delete} and sends them as {@link Bulk} requests.
+ * <p>
+ * A bulk is sent as soon as the number of buffered actions or their estimated size in bytes reaches the
+ * configured limit, or when the flush interval elapses. Up to <code>concurrentRequests</code> bulks are in flight
+ * at the same time; once all of them are taken, the producer which has filled a bulk blocks until a bulk completes,
+ * while other producers keep adding actions to the next one. The listener is called after the slot of the bulk has
+ * been freed, so it may add actions itself. Actions added by the listener never wait for a slot: a bulk they fill is
+ * sent right away if a slot is free, and otherwise with the next bulk sent by a producer, a flush or closing.
+ * </p>
+ * <p>
+ * The source of an action is serialized once when it is added. The same string is used to estimate the bulk size
+ * and to send the bulk.
+ * </p>
+ * <p>
+ * With a {@link BulkRetryPolicy}, items rejected by the cluster are re-submitted before the listener is called,
+ * and the bulk keeps its slot while waiting for the retries.
+ * </p>
+ * <p>
+ * With an {@link AdaptiveBulkController}, the bulk size and the number of concurrent bulks follow the operating
+ * point of the controller instead of the static <code>bulkSize</code> and <code>concurrentRequests</code>.
+ * </p>
+ * <p>
+ * With a {@link ShardRoutingCache}, every bulk is split by the nodes holding the primary shards of its items,
+ * see {@link ShardRoutingBulkExecutor}.
+ * </p>
+ * <p>
+ * With a maximum request size, bulks exceeding it are sent in several requests and requests rejected as too large
+ * are bisected, see {@link SplittingBulkExecutor}.
+ * </p>
+ * <p>
+ * Example:
+ * </p>
+ * <pre>
+ * BulkProcessor processor = BulkProcessor.builder(client, listener)
+ *         .bulkActions(5000)
+ *         .bulkSize(10 * 1024 * 1024)
+ *         .flushInterval(5, TimeUnit.SECONDS)
+ *         .concurrentRequests(4)
+ *         .build();
+ * processor.add(new Index.Builder(source).index("twitter").type("tweet").build());
+ * ...
+ * processor.awaitClose(30, TimeUnit.SECONDS);
+ * </pre>
+ */
+public class BulkProcessor implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(BulkProcessor.class);
+
+    private final BulkExecutor executor;
+    private final RetryingBulkExecutor retryingExecutor;
+    private final AdaptiveBulkController controller;
+    private final Listener listener;
+    private final Gson gson;
+    private final int bulkActions;
+    private final long bulkSize;
+    private final ConcurrencyLimit inFlightBulks;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicLong executionIdGenerator = new AtomicLong();
+    // set while the listener is called, which runs on the I/O threads of the client and must not wait for a slot
+    private final ThreadLocal<Boolean> callingListener = new ThreadLocal<>();
+
+    private List<SerializedBulkAction> actions = new ArrayList<>();
+    private long actionsSize;
+    private volatile boolean closed;
+
+    private BulkProcessor(Builder builder) {
+        this.controller = builder.controller;
+        BulkExecutor clientExecutor = builder.shardRouting == null
+                ? new ClientBulkExecutor(builder.client, builder.defaultIndex, builder.defaultType)
+                : new ShardRoutingBulkExecutor(builder.client, builder.shardRouting, builder.defaultIndex, builder.defaultType);
+        if (controller != null) {
+            clientExecutor = controller.observe(clientExecutor);
+        }
+        if (builder.maxRequestSize > 0) {
+            clientExecutor = new SplittingBulkExecutor(clientExecutor, builder.maxRequestSize, this::estimateSize,
+                    builder.client.getGson(), builder.defaultIndex, builder.defaultType);
+        }
+        if (builder.retryPolicy != null) {
+            this.retryingExecutor = new RetryingBulkExecutor(clientExecutor, builder.retryPolicy);
+            this.executor = retryingExecutor;
+        } else {
+            this.retryingExecutor = null;
+            this.executor = clientExecutor;
+        }
+        this.listener = builder.listener;
+        this.gson = builder.client.getGson();
+        this.bulkActions = builder.bulkActions;
+        this.bulkSize = builder.bulkSize;
+        final int concurrentRequests = builder.concurrentRequests;
+        this.inFlightBulks = new ConcurrencyLimit(controller == null ? () -> concurrentRequests : controller::getConcurrency);
+
+        if (builder.flushIntervalMillis > 0) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "jest-bulk-processor-flush");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.scheduler.scheduleWithFixedDelay(this::flushQuietly,
+                    builder.flushIntervalMillis, builder.flushIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.scheduler = null;
+        }
+    }
+
+    public static Builder builder(JestHttpClient client, Listener listener) {
+        return new Builder(client, listener);
+    }
+
+    /**
+     * Adds an action to the current bulk, sending the bulk if one of the limits is reached.
+     *
+     * @throws InterruptedException  if interrupted while waiting for a bulk to complete; the action has been
+     *                               buffered nonetheless and is sent with the next bulk
+     * @throws IllegalStateException if the processor has been closed, the action has not been buffered
+     */
+    public void add(BulkableAction action) throws InterruptedException {
+        add(serialize(action));
+    }
+
+    // The action is serialized up front by callers which want to do so on another thread.
+    void add(SerializedBulkAction action) throws InterruptedException {
+        final boolean fromListener = callingListener.get() != null;
+        List<SerializedBulkAction> bulk = null;
+        synchronized (this) {
+            ensureOpen();
+            actions.add(action);
+            actionsSize += action.getSize();
+            if ((actions.size() >= bulkActions || actionsSize >= currentBulkSize())
+                    && (!fromListener || inFlightBulks.tryAcquire())) {
+                bulk = takeBulk();
+            }
+        }
+        if (bulk == null) {
+            return;
+        }
+        if (fromListener) {
+            send(bulk);
+        } else {
+            execute(bulk);
+        }
+    }
+
+    /**
+     * Sends the buffered actions, waiting for a free slot if all concurrent bulks are in flight.
+     */
+    public void flush() throws InterruptedException {
+        final List<SerializedBulkAction> bulk;
+        synchronized (this) {
+            ensureOpen();
+            bulk = actions.isEmpty() ? null : takeBulk();
+        }
+        if (bulk != null) {
+            execute(bulk);
+        }
+    }
+
+    /**
+     * Sends the buffered actions and waits until all bulks in flight have completed. No further actions are
+     * accepted afterwards. If the processor has already been closed, it only waits for the bulks in flight, e.g.
+     * after an earlier call timed out.
+     *
+     * @return <code>true</code> if all bulks completed within the timeout
+     */
+    public boolean awaitClose(long timeout, TimeUnit unit) throws InterruptedException {
+        List<SerializedBulkAction> bulk = null;
+        synchronized (this) {
+            if (!closed) {
+                if (scheduler != null) {
+                    scheduler.shutdownNow();
+                }
+                bulk = actions.isEmpty() ? null : takeBulk();
+                closed = true;
+            }
+        }
+        if (bulk != null) {
+            execute(bulk);
+        }
+
+        if (inFlightBulks.awaitIdle(timeout, unit)) {
+            if (retryingExecutor != null) {
+                retryingExecutor.close();
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return counters of retried bulk items or <code>null</code> if no retry policy is configured
+     */
+    public BulkRetryStats getRetryStats() {
+        return retryingExecutor == null ? null : retryingExecutor.getStats();
+    }
+
+    /**
+     * Closes the processor, waiting up to a minute for bulks in flight.
+     */
+    @Override
+    public void close() {
+        try {
+            if (!awaitClose(1, TimeUnit.MINUTES)) {
+                log.warn("Bulk requests still in flight after closing the bulk processor.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private long currentBulkSize() {
+        return controller == null ? bulkSize : controller.getBulkSize();
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("Bulk processor is already closed");
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            final List<SerializedBulkAction> bulk;
+            synchronized (this) {
+                bulk = closed || actions.isEmpty() ? null : takeBulk();
+            }
+            if (bulk != null) {
+                execute(bulk);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("Exception occurred while flushing bulk processor.", e);
+        }
+    }
+
+    // Must be called while holding the lock; the bulk is registered so closing waits for it to be sent.
+    private List<SerializedBulkAction> takeBulk() {
+        final List<SerializedBulkAction> bulk = actions;
+        actions = new ArrayList<>();
+        actionsSize = 0;
+        inFlightBulks.register();
+        return bulk;
+    }
+
+    // Must be called without holding the lock, so producers keep filling the next bulk while waiting for a slot.
+    private void execute(List<SerializedBulkAction> bulk) throws InterruptedException {
+        try {
+            inFlightBulks.acquire();
+        } catch (InterruptedException e) {
+            requeue(bulk);
+            throw e;
+        }
+        send(bulk);
+    }
+
+    // Puts the actions of a bulk which could not get a slot back in front of the buffer.
+    private void requeue(List<SerializedBulkAction> bulk) {
+        synchronized (this) {
+            if (!closed) {
+                bulk.addAll(actions);
+                actions = bulk;
+                for (SerializedBulkAction action : bulk) {
+                    actionsSize += action.getSize();
+                }
+                inFlightBulks.deregister();
+                return;
+            }
+        }
+        // the processor is closing and waits for this bulk, so it is sent anyway
+        inFlightBulks.acquireUninterruptibly();
+        send(bulk);
+    }
+
+    private void send(List<SerializedBulkAction> bulk) {
+        final List<BulkableAction> bulkActions = SerializedBulkAction.unwrap(bulk);
+        final long executionId = executionIdGenerator.incrementAndGet();
+        try {
+            listener.beforeBulk(executionId, bulkActions);
+            executor.execute(Collections.unmodifiableList(bulk), new JestResultHandler<BulkResult>() {
+                @Override
+                public void completed(BulkResult result) {
+                    afterBulk(executionId, bulkActions, result, null);
+                }
+
+                @Override
+                public void failed(Exception ex) {
+                    afterBulk(executionId, bulkActions, null, ex);
+                }
+            });
+        } catch (RuntimeException e) {
+            afterBulk(executionId, bulkActions, null, e);
+        }
+    }
+
+    // Frees the slot before calling the listener, the bulk stays registered until the listener has returned.
+    private void afterBulk(long executionId, List<BulkableAction> bulkActions, BulkResult result, Throwable failure) {
+        inFlightBulks.release();
+        final boolean nested = callingListener.get() != null;
+        callingListener.set(Boolean.TRUE);
+        try {
+            if (failure == null) {
+                listener.afterBulk(executionId, bulkActions, result);
+            } else {
+                listener.afterBulk(executionId, bulkActions, failure);
+            }
+        } finally {
+            if (!nested) {
+                callingListener.remove();
+            }
+            inFlightBulks.deregister();
+        }
+    }
+
+    SerializedBulkAction serialize(BulkableAction action) {
+        return new SerializedBulkAction(action, gson);
+    }
+
+    private long estimateSize(BulkableAction action) {
+        return action instanceof SerializedBulkAction ? ((SerializedBulkAction) action).getSize() : serialize(action).getSize();
+    }
+
+    /**
+     * Callbacks around the execution of a bulk, invoked on the thread sending the bulk respectively on the
+     * thread completing the request.
+     */
+    public interface Listener {
+        default void beforeBulk(long executionId, List<BulkableAction> actions) {
+        }
+
+        /**
+         * Called with the result of the bulk request, which may still contain failed items.
+         */
+        void afterBulk(long executionId, List<BulkableAction> actions, BulkResult result);
+
+        /**
+         * Called if the bulk request failed as a whole.
+         */
+        void afterBulk(long executionId, List<BulkableAction> actions, Throwable failure);
+    }
+
+    public static class Builder {
+        private final JestHttpClient client;
+        private final Listener listener;
+        private int bulkActions = 1000;
+        private long bulkSize = 5 * 1024 * 1024;
+        private long flushIntervalMillis;
+        private int concurrentRequests = 1;
+        private String defaultIndex;
+        private String defaultType;
+        private BulkRetryPolicy retryPolicy;
+        private AdaptiveBulkController controller;
+        private ShardRoutingCache shardRouting;
+        private long maxRequestSize;
+
+        private Builder(JestHttpClient client, Listener listener) {
+            if (client == null || listener == null) {
+                throw new IllegalArgumentException("client and listener must not be null");
+            }
+            this.client = client;
+            this.listener = listener;
+        }
+
+        /**
+         * Number of actions which triggers sending a bulk, defaults to 1000.
+         */
+        public Builder bulkActions(int bulkActions) {
+            if (bulkActions <= 0) {
+                throw new IllegalArgumentException("bulkActions must be positive");
+            }
+            this.bulkActions = bulkActions;
+            return this;
+        }
+
+        /**
+         * Estimated request size in bytes which triggers sending a bulk, defaults to 5 MB.
+         */
+        public Builder bulkSize(long bulkSize) {
+            if (bulkSize <= 0) {
+                throw new IllegalArgumentException("bulkSize must be positive");
+            }
+            this.bulkSize = bulkSize;
+            return this;
+        }
+
+        /**
+         * Interval after which buffered actions are sent regardless of the limits. Disabled by default.
+         */
+        public Builder flushInterval(long interval, TimeUnit unit) {
+            this.flushIntervalMillis = unit.toMillis(interval);
+            return this;
+        }
+
+        /**
+         * Number of bulks which may be in flight at the same time, defaults to 1.
+         */
+        public Builder concurrentRequests(int concurrentRequests) {
+            if (concurrentRequests <= 0) {
+                throw new IllegalArgumentException("concurrentRequests must be positive");
+            }
+            this.concurrentRequests = concurrentRequests;
+            return this;
+        }
+
+        public Builder defaultIndex(String defaultIndex) {
+            this.defaultIndex = defaultIndex;
+            return this;
+        }
+
+        public Builder defaultType(String defaultType) {
+            this.defaultType = defaultType;
+            return this;
+        }
+
+        /**
+         * Retries rejected items according to the policy. Disabled by default.
+         */
+        public Builder retryPolicy(BulkRetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * Lets the controller choose bulk size and concurrency, overriding {@link #bulkSize(long)} and
+         * {@link #concurrentRequests(int)}. Disabled by default.
+         */
+        public Builder adaptive(AdaptiveBulkController controller) {
+            this.controller = controller;
+            return this;
+        }
+
+        /**
+         * Sends the items of a bulk straight to the nodes holding their primary shards. Disabled by default.
+         */
+        public Builder routeToShards(ShardRoutingCache shardRouting) {
+            this.shardRouting = shardRouting;
+            return this;
+        }
+
+        /**
+         * Estimated size in bytes a single bulk request must not exceed, e.g. the <code>http.max_content_length</code>
+         * of the cluster. Larger bulks are split and bulks rejected with 413 are bisected. Disabled by default.
+         */
+        public Builder maxRequestSize(long maxRequestSize) {
+            if (maxRequestSize <= 0) {
+                throw new IllegalArgumentException("maxRequestSize must be positive");
+            }
+            this.maxRequestSize = maxRequestSize;
+            return this;
+        }
+
+        public BulkProcessor build() {
+            return new BulkProcessor(this);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package org.graylog.jest.restclient.bulk;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import io.searchbox.action.BulkableAction;
+import io.searchbox.core.BulkResult;
+import org.apache.commons.lang3.StringUtils;
+import org.graylog.jest.restclient.decoding.LazyBulkResult;
+
+import java.util.List;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * Merges the results of the bulks sent for parts of the actions of a bulk, reporting the actions of parts which
+ * failed as a whole as failed items, so a {@link RetryingBulkExecutor} can retry them. Not thread-safe.
+ */
+final class BulkResultMerger {
+
+    private final List<BulkableAction> actions;
+    private final String defaultIndex;
+    private final String defaultType;
+    private final LongBinaryOperator tookMerger;
+    private final LazyBulkResult.Merger merger;
+    private int responseCode;
+    private long took;
+
+    /**
+     * @param tookMerger combines the <code>took</code> fields of the parts, e.g. the sum for parts sent one after
+     *                   the other
+     */
+    BulkResultMerger(List<BulkableAction> actions, Gson gson, String defaultIndex, String defaultType,
+                     LongBinaryOperator tookMerger) {
+        this.actions = actions;
+        this.defaultIndex = defaultIndex;
+        this.defaultType = defaultType;
+        this.tookMerger = tookMerger;
+        this.merger = new LazyBulkResult.Merger(actions.size(), gson);
+    }
+
+    /**
+     * Adds the result of the bulk sent for the actions at the positions. If it failed as a whole, its actions are
+     * reported as failed with its HTTP status.
+     */
+    void add(List<Integer> positions, BulkResult result) {
+        if (merger.add(positions, result)) {
+            took = tookMerger.applyAsLong(took, BulkResults.took(result));
+            responseCode = Math.max(responseCode, result.getResponseCode());
+        } else {
+            reject(positions, result, "bulk_failed_exception");
+        }
+    }
+
+    /**
+     * Reports the actions at the positions as failed with the HTTP status of the result.
+     */
+    void reject(List<Integer> positions, BulkResult result, String type) {
+        fail(positions, failureStatus(result), type, result.getErrorMessage());
+        responseCode = Math.max(responseCode, result.getResponseCode());
+    }
+
+    /**
+     * Reports the actions at the positions as failed, e.g. if their bulk couldn't be sent.
+     */
+    void fail(List<Integer> positions, int status, String type, String reason) {
+        for (int position : positions) {
+            merger.set(position, failedOperation(actions.get(position), defaultIndex, defaultType, status, type, reason));
+        }
+    }
+
+    /**
+     * @return the status of the items of a bulk which failed as a whole: its HTTP status if it is an error, 500
+     * otherwise
+     */
+    static int failureStatus(BulkResult result) {
+        return result.getResponseCode() >= 300 ? result.getResponseCode() : 500;
+    }
+
+    /**
+     * @return the item of a bulk response reporting the action as failed
+     */
+    static JsonObject failedOperation(BulkableAction action, String defaultIndex, String defaultType,
+                                      int status, String type, String reason) {
+        final JsonObject error = new JsonObject();
+        error.addProperty("type", type);
+        error.addProperty("reason", reason);
+
+        final JsonObject item = new JsonObject();
+        item.addProperty("_index", StringUtils.isNotBlank(action.getIndex()) ? action.getIndex() : defaultIndex);
+        item.addProperty("_type", StringUtils.isNotBlank(action.getType()) ? action.getType() : defaultType);
+        item.add("_id", StringUtils.isNotBlank(action.getId()) ? new JsonPrimitive(action.getId()) : JsonNull.INSTANCE);
+        item.addProperty("status", status);
+        item.add("error", error);
+
+        final JsonObject operation = new JsonObject();
+        operation.add(action.getBulkMethodName(), item);
+        return operation;
+    }
+
+    /**
+     * @return the highest HTTP status of the results added so far, 0 if no bulk has been answered yet
+     */
+    int getResponseCode() {
+        return responseCode;
+    }
+
+    BulkResult merge() {
+        return merger.merge(responseCode, took);
+    }
+}
@@ -0,0 +1,79 @@
+package org.graylog.jest.restclient.bulk;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import io.searchbox.core.BulkResult;
+import io.searchbox.core.BulkResult.BulkResultItem;
+import org.graylog.jest.restclient.decoding.LazyBulkResult;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads bulk results without building the JSON tree of a {@link LazyBulkResult}.
+ */
+final class BulkResults {
+
+    private BulkResults() {
+    }
+
+    /**
+     * @return the failed items by position within the bulk or <code>null</code> if the result doesn't have an item
+     * for every action, i.e. the bulk failed as a whole
+     */
+    static BulkResultItem[] failedItems(int size, BulkResult result) {
+        final BulkResultItem[] failedItems = new BulkResultItem[size];
+        if (result instanceof LazyBulkResult) {
+            final LazyBulkResult lazyResult = (LazyBulkResult) result;
+            final int itemCount = lazyResult.getItemCount();
+            if (itemCount == -1 ? result.getResponseCode() / 100 != 2 : itemCount != size) {
+                return null;
+            }
+            final List<Integer> positions = lazyResult.getFailedPositions();
+            final List<BulkResultItem> items = lazyResult.getFailedItems();
+            for (int i = 0; i < positions.size(); i++) {
+                failedItems[positions.get(i)] = items.get(i);
+            }
+            return failedItems;
+        }
+
+        final JsonObject json = result.getJsonObject();
+        if (json == null || !json.has("items") || !json.get("items").isJsonArray()) {
+            return null;
+        }
+        final List<BulkResultItem> items = result.getItems();
+        if (items.size() != size) {
+            return null;
+        }
+        for (int i = 0; i < size; i++) {
+            final BulkResultItem item = items.get(i);
+            if (item.error != null) {
+                failedItems[i] = item;
+            }
+        }
+        return failedItems;
+    }
+
+    /**
+     * @return the failed items, none if the result has no items
+     */
+    static List<BulkResultItem> failedItems(BulkResult result) {
+        if (result instanceof LazyBulkResult) {
+            return ((LazyBulkResult) result).hasErrors() ? result.getFailedItems() : Collections.emptyList();
+        }
+        final JsonObject json = result.getJsonObject();
+        return json == null || !json.has("items") ? Collections.emptyList() : result.getFailedItems();
+    }
+
+    /**
+     * @return the <code>took</code> field of the result in milliseconds or 0 if it is missing
+     */
+    static long took(BulkResult result) {
+        if (result instanceof LazyBulkResult) {
+            return Math.max(((LazyBulkResult) result).getTook(), 0);
+        }
+        final JsonObject json = result.getJsonObject();
+        final JsonElement took = json == null ? null : json.get("took");
+        return took != null && took.isJsonPrimitive() ? took.getAsLong() : 0;
+    }
+}
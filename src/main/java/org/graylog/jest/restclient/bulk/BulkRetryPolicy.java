@@ -0,0 +1,153 @@
+package org.graylog.jest.restclient.bulk;
+
+import io.searchbox.core.BulkResult.BulkResultItem;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides which failed bulk items are re-submitted and how long to wait before doing so.
+ * <p>
+ * Items are retried if their status or error type indicates a transient condition, by default when the write
+ * thread pool rejected them ({@code 429 es_rejected_execution_exception}) or shards were unavailable. The wait
+ * before the n-th retry grows exponentially from the initial backoff up to the maximum backoff, with half of it
+ * randomized so rejected clients do not come back in lockstep. The retry budget caps the share of retried items
+ * relative to submitted items, so a cluster under sustained overload is not hammered with retries.
+ * </p>
+ */
+public class BulkRetryPolicy {
+
+    public static final Set<Integer> DEFAULT_RETRYABLE_STATUSES = Collections.unmodifiableSet(
+            new HashSet<>(Arrays.asList(429, 502, 503, 504)));
+    public static final Set<String> DEFAULT_RETRYABLE_ERROR_TYPES = Collections.unmodifiableSet(
+            new HashSet<>(Arrays.asList(
+                    "es_rejected_execution_exception",
+                    "unavailable_shards_exception",
+                    "node_not_connected_exception",
+                    "circuit_breaking_exception")));
+
+    private final int maxRetries;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final double retryBudgetRatio;
+    private final int retryBudgetCapacity;
+    private final Set<Integer> retryableStatuses;
+    private final Set<String> retryableErrorTypes;
+
+    private BulkRetryPolicy(Builder builder) {
+        this.maxRetries = builder.maxRetries;
+        this.initialBackoffMillis = builder.initialBackoffMillis;
+        this.maxBackoffMillis = builder.maxBackoffMillis;
+        this.retryBudgetRatio = builder.retryBudgetRatio;
+        this.retryBudgetCapacity = builder.retryBudgetCapacity;
+        this.retryableStatuses = new HashSet<>(builder.retryableStatuses);
+        this.retryableErrorTypes = new HashSet<>(builder.retryableErrorTypes);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public boolean isRetryable(BulkResultItem item) {
+        return retryableStatuses.contains(item.status)
+                || (item.errorType != null && retryableErrorTypes.contains(item.errorType));
+    }
+
+    /**
+     * @param responseCode HTTP status of a bulk request which failed as a whole
+     */
+    public boolean isRetryable(int responseCode) {
+        return retryableStatuses.contains(responseCode);
+    }
+
+    /**
+     * @param retry zero-based number of the retry
+     * @return milliseconds to wait before the retry
+     */
+    public long backoffMillis(int retry) {
+        final long upperBound = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(retry, 30));
+        final long half = upperBound / 2;
+        return half + ThreadLocalRandom.current().nextLong(upperBound - half + 1);
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public double getRetryBudgetRatio() {
+        return retryBudgetRatio;
+    }
+
+    public int getRetryBudgetCapacity() {
+        return retryBudgetCapacity;
+    }
+
+    public static class Builder {
+        private int maxRetries = 3;
+        private long initialBackoffMillis = 50;
+        private long maxBackoffMillis = TimeUnit.SECONDS.toMillis(5);
+        private double retryBudgetRatio = 0.2;
+        private int retryBudgetCapacity = 10000;
+        private Set<Integer> retryableStatuses = DEFAULT_RETRYABLE_STATUSES;
+        private Set<String> retryableErrorTypes = DEFAULT_RETRYABLE_ERROR_TYPES;
+
+        private Builder() {
+        }
+
+        /**
+         * Maximum number of times a single item is re-submitted, defaults to 3.
+         */
+        public Builder maxRetries(int maxRetries) {
+            if (maxRetries < 0) {
+                throw new IllegalArgumentException("maxRetries must not be negative");
+            }
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        /**
+         * Wait before the first retry and upper bound of the exponentially growing wait, default to
+         * 50 milliseconds and 5 seconds.
+         */
+        public Builder backoff(long initialBackoff, long maxBackoff, TimeUnit unit) {
+            if (initialBackoff <= 0 || maxBackoff < initialBackoff) {
+                throw new IllegalArgumentException("initialBackoff must be positive and not exceed maxBackoff");
+            }
+            this.initialBackoffMillis = unit.toMillis(initialBackoff);
+            this.maxBackoffMillis = unit.toMillis(maxBackoff);
+            return this;
+        }
+
+        /**
+         * Every submitted item earns <code>ratio</code> retries, up to <code>capacity</code> retries saved up.
+         * Defaults to 0.2 and 10000.
+         */
+        public Builder retryBudget(double ratio, int capacity) {
+            if (ratio < 0 || capacity < 0) {
+                throw new IllegalArgumentException("ratio and capacity must not be negative");
+            }
+            this.retryBudgetRatio = ratio;
+            this.retryBudgetCapacity = capacity;
+            return this;
+        }
+
+        public Builder retryableStatuses(Collection<Integer> retryableStatuses) {
+            this.retryableStatuses = new HashSet<>(retryableStatuses);
+            return this;
+        }
+
+        public Builder retryableErrorTypes(Collection<String> retryableErrorTypes) {
+            this.retryableErrorTypes = new HashSet<>(retryableErrorTypes);
+            return this;
+        }
+
+        public BulkRetryPolicy build() {
+            return new BulkRetryPolicy(this);
+        }
+    }
+}
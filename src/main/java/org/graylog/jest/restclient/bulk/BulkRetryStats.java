@@ -0,0 +1,51 @@
+package org.graylog.jest.restclient.bulk;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of a {@link RetryingBulkExecutor}.
+ */
+public class BulkRetryStats {
+    final LongAdder retriedItems = new LongAdder();
+    final LongAdder recoveredItems = new LongAdder();
+    final LongAdder permanentlyFailedItems = new LongAdder();
+    final LongAdder budgetExhaustedItems = new LongAdder();
+
+    /**
+     * @return number of item re-submissions
+     */
+    public long getRetriedItems() {
+        return retriedItems.sum();
+    }
+
+    /**
+     * @return number of items which succeeded after at least one retry
+     */
+    public long getRecoveredItems() {
+        return recoveredItems.sum();
+    }
+
+    /**
+     * @return number of items reported as failed, because their failure is not retryable or retries are exhausted
+     */
+    public long getPermanentlyFailedItems() {
+        return permanentlyFailedItems.sum();
+    }
+
+    /**
+     * @return number of retryable items which were not retried because the retry budget was used up
+     */
+    public long getBudgetExhaustedItems() {
+        return budgetExhaustedItems.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "BulkRetryStats{" +
+                "retried=" + getRetriedItems() +
+                ", recovered=" + getRecoveredItems() +
+                ", permanentlyFailed=" + getPermanentlyFailedItems() +
+                ", budgetExhausted=" + getBudgetExhaustedItems() +
+                '}';
+    }
+}
@@ -0,0 +1,37 @@
+package org.graylog.jest.restclient.bulk;
+
+import io.searchbox.action.BulkableAction;
+import io.searchbox.client.JestResultHandler;
+import io.searchbox.core.Bulk;
+import io.searchbox.core.BulkResult;
+import org.graylog.jest.restclient.encoding.DirectBulk;
+import org.graylog.jest.restclient.http.JestHttpClient;
+
+import java.util.List;
+
+/**
+ * Sends the actions as a single {@link Bulk} request through {@link JestHttpClient#executeAsyncForResult}. The request is a
+ * {@link DirectBulk}, so it is encoded into direct buffers if the client is configured for it.
+ */
+public class ClientBulkExecutor implements BulkExecutor {
+
+    private final JestHttpClient client;
+    private final String defaultIndex;
+    private final String defaultType;
+
+    public ClientBulkExecutor(JestHttpClient client, String defaultIndex, String defaultType) {
+        this.client = client;
+        this.defaultIndex = defaultIndex;
+        this.defaultType = defaultType;
+    }
+
+    @Override
+    public void execute(List<BulkableAction> actions, JestResultHandler<BulkResult> resultHandler) {
+        final Bulk bulk = new DirectBulk.Builder()
+                .defaultIndex(defaultIndex)
+                .defaultType(defaultType)
+                .addAction(actions)
+                .build();
+        client.executeAsyncForResult(bulk, resultHandler);
+    }
+}
@@ -0,0 +1,86 @@
+package org.graylog.jest.restclient.bulk;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * Counts bulks in flight against a limit which may change while bulks are in flight.
+ * <p>
+ * A bulk is registered when it is taken from the buffer, acquires a slot before it is sent and releases it when
+ * its request has completed. It stays registered until its listener has been called, which is what
+ * {@link #awaitIdle(long, TimeUnit)} waits for.
+ * </p>
+ */
+class ConcurrencyLimit {
+
+    private final IntSupplier limit;
+    private int inFlight;
+    private int registered;
+
+    ConcurrencyLimit(IntSupplier limit) {
+        this.limit = limit;
+    }
+
+    synchronized void register() {
+        registered++;
+    }
+
+    synchronized void deregister() {
+        registered--;
+        notifyAll();
+    }
+
+    synchronized void acquire() throws InterruptedException {
+        while (inFlight >= limit.getAsInt()) {
+            wait();
+        }
+        inFlight++;
+    }
+
+    synchronized boolean tryAcquire() {
+        if (inFlight >= limit.getAsInt()) {
+            return false;
+        }
+        inFlight++;
+        return true;
+    }
+
+    synchronized void acquireUninterruptibly() {
+        boolean interrupted = false;
+        while (inFlight >= limit.getAsInt()) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        inFlight++;
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    synchronized void release() {
+        inFlight--;
+        notifyAll();
+    }
+
+    /**
+     * @return <code>true</code> if no bulk was registered anymore within the timeout
+     */
+    synchronized boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (registered > 0) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+    }
+
+    synchronized int getInFlight() {
+        return inFlight;
+    }
+}
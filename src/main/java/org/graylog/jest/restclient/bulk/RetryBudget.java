@@ -0,0 +1,41 @@
+package org.graylog.jest.restclient.bulk;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket which is filled by submitted items and drained by retries.
+ */
+class RetryBudget {
+    private static final long TOKEN = 1000L;
+
+    private final long capacity;
+    private final long depositPerItem;
+    private final AtomicLong balance;
+
+    RetryBudget(double ratio, int capacity) {
+        this.capacity = capacity * TOKEN;
+        this.depositPerItem = Math.round(ratio * TOKEN);
+        this.balance = new AtomicLong(this.capacity);
+    }
+
+    void deposit(int items) {
+        final long amount = depositPerItem * items;
+        balance.accumulateAndGet(amount, (current, add) -> Math.min(capacity, current + add));
+    }
+
+    boolean tryWithdraw() {
+        while (true) {
+            final long current = balance.get();
+            if (current < TOKEN) {
+                return false;
+            }
+            if (balance.compareAndSet(current, current - TOKEN)) {
+                return true;
+            }
+        }
+    }
+
+    long getAvailableRetries() {
+        return balance.get() / TOKEN;
+    }
+}
@@ -0,0 +1,243 @@
+package org.graylog.jest.restclient.bulk;
+
+import io.searchbox.action.BulkableAction;
+import io.searchbox.client.JestResultHandler;
+import io.searchbox.core.BulkResult;
+import io.searchbox.core.BulkResult.BulkResultItem;
+import org.graylog.jest.restclient.decoding.LazyBulkResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Re-submits the retryable failed items of a bulk according to a {@link BulkRetryPolicy}.
+ * <p>
+ * Only the failed items are sent again. The result handed to the caller is the result of the first attempt with
+ * every retried item replaced by the outcome of its last attempt, so its items are still in the order of the
+ * submitted actions.
+ * </p>
+ */
+public class RetryingBulkExecutor implements BulkExecutor, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(RetryingBulkExecutor.class);
+
+    private final BulkExecutor delegate;
+    private final BulkRetryPolicy policy;
+    private final RetryBudget budget;
+    private final ScheduledExecutorService scheduler;
+    private final BulkRetryStats stats = new BulkRetryStats();
+
+    public RetryingBulkExecutor(BulkExecutor delegate, BulkRetryPolicy policy) {
+        this.delegate = delegate;
+        this.policy = policy;
+        this.budget = new RetryBudget(policy.getRetryBudgetRatio(), policy.getRetryBudgetCapacity());
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "jest-bulk-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void execute(List<BulkableAction> actions, JestResultHandler<BulkResult> resultHandler) {
+        budget.deposit(actions.size());
+        final int[] positions = new int[actions.size()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = i;
+        }
+        new RetryingBulk(actions, resultHandler).send(positions, 0);
+    }
+
+    public BulkRetryStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Stops scheduling retries. Bulks waiting for a retry complete with the outcome of their last attempt.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdown();
+    }
+
+    private class RetryingBulk {
+        private final List<BulkableAction> actions;
+        private final JestResultHandler<BulkResult> resultHandler;
+        private final Set<Integer> retriedPositions = new HashSet<>();
+        private BulkResult firstResult;
+        private LazyBulkResult.Merger merger;
+
+        private RetryingBulk(List<BulkableAction> actions, JestResultHandler<BulkResult> resultHandler) {
+            this.actions = actions;
+            this.resultHandler = resultHandler;
+        }
+
+        private void send(int[] positions, int retry) {
+            final List<BulkableAction> batch = new ArrayList<>(positions.length);
+            for (int position : positions) {
+                batch.add(actions.get(position));
+            }
+
+            delegate.execute(batch, new JestResultHandler<BulkResult>() {
+                @Override
+                public void completed(BulkResult result) {
+                    onResult(positions, retry, result);
+                }
+
+                @Override
+                public void failed(Exception ex) {
+                    onFailure(positions, retry, ex);
+                }
+            });
+        }
+
+        private void onResult(int[] positions, int retry, BulkResult result) {
+            if (merger == null && result.isSucceeded()) {
+                // nothing to retry, don't look at the items
+                if (retry > 0) {
+                    // the bulk has been retried as a whole
+                    stats.recoveredItems.add(positions.length);
+                }
+                complete(result);
+                return;
+            }
+
+            final BulkResultItem[] failedItems = BulkResults.failedItems(positions.length, result);
+            if (failedItems == null) {
+                // the bulk failed as a whole
+                if (policy.isRetryable(result.getResponseCode())) {
+                    retryAll(positions, retry, result);
+                } else if (merger == null) {
+                    complete(result);
+                } else {
+                    failAll(positions, result);
+                    stats.permanentlyFailedItems.add(positions.length);
+                    complete(mergedResult());
+                }
+                return;
+            }
+
+            if (merger == null) {
+                firstResult = result;
+                merger = new LazyBulkResult.Merger(result, positions.length);
+            } else {
+                final List<Integer> mergedPositions = new ArrayList<>(positions.length);
+                for (int position : positions) {
+                    mergedPositions.add(position);
+                }
+                merger.add(mergedPositions, result);
+            }
+
+            final List<Integer> retryPositions = new ArrayList<>();
+            for (int i = 0; i < positions.length; i++) {
+                final BulkResultItem item = failedItems[i];
+                final int position = positions[i];
+                if (item == null) {
+                    if (retriedPositions.contains(position)) {
+                        stats.recoveredItems.increment();
+                    }
+                } else if (policy.isRetryable(item) && retry < policy.getMaxRetries() && tryAcquireRetry()) {
+                    retryPositions.add(position);
+                } else {
+                    stats.permanentlyFailedItems.increment();
+                }
+            }
+
+            if (retryPositions.isEmpty()) {
+                complete(mergedResult());
+            } else {
+                scheduleRetry(retryPositions.stream().mapToInt(Integer::intValue).toArray(), retry, result);
+            }
+        }
+
+        private void onFailure(int[] positions, int retry, Exception ex) {
+            if (merger == null) {
+                // nothing has been indexed yet, report the failure of the whole bulk
+                resultHandler.failed(ex);
+                return;
+            }
+            log.debug("Retry of {} bulk items failed.", positions.length, ex);
+            retryAll(positions, retry, firstResult);
+        }
+
+        private void retryAll(int[] positions, int retry, BulkResult lastResult) {
+            final List<Integer> retryPositions = new ArrayList<>();
+            for (int position : positions) {
+                if (retry < policy.getMaxRetries() && tryAcquireRetry()) {
+                    retryPositions.add(position);
+                } else {
+                    stats.permanentlyFailedItems.increment();
+                }
+            }
+            if (retryPositions.size() < positions.length && merger == null) {
+                // a partial retry would produce an incomplete result
+                complete(lastResult);
+            } else if (retryPositions.isEmpty()) {
+                complete(merger == null ? lastResult : mergedResult());
+            } else {
+                scheduleRetry(retryPositions.stream().mapToInt(Integer::intValue).toArray(), retry, lastResult);
+            }
+        }
+
+        /**
+         * Reports the retried actions at the positions as failed with the HTTP status of the result of their bulk.
+         */
+        private void failAll(int[] positions, BulkResult result) {
+            // retried actions have failed in the first result, whose items tell their index and type
+            final BulkResultItem[] firstFailures = BulkResults.failedItems(actions.size(), firstResult);
+            final int status = BulkResultMerger.failureStatus(result);
+            for (int position : positions) {
+                final BulkResultItem firstFailure = firstFailures == null ? null : firstFailures[position];
+                merger.set(position, BulkResultMerger.failedOperation(actions.get(position),
+                        firstFailure == null ? null : firstFailure.index, firstFailure == null ? null : firstFailure.type,
+                        status, "bulk_failed_exception", result.getErrorMessage()));
+            }
+        }
+
+        private boolean tryAcquireRetry() {
+            if (budget.tryWithdraw()) {
+                return true;
+            }
+            stats.budgetExhaustedItems.increment();
+            return false;
+        }
+
+        /**
+         * @param lastResult result of the last attempt, completing the bulk if no merged result is available
+         */
+        private void scheduleRetry(int[] positions, int retry, BulkResult lastResult) {
+            for (int position : positions) {
+                retriedPositions.add(position);
+            }
+            stats.retriedItems.add(positions.length);
+            final long delay = policy.backoffMillis(retry);
+            log.debug("Retrying {} bulk items in {} ms.", positions.length, delay);
+            try {
+                scheduler.schedule(() -> send(positions, retry + 1), delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                stats.permanentlyFailedItems.add(positions.length);
+                complete(merger == null ? lastResult : mergedResult());
+            }
+        }
+
+        private void complete(BulkResult result) {
+            resultHandler.completed(result);
+        }
+
+        private BulkResult mergedResult() {
+            if (retriedPositions.isEmpty()) {
+                return firstResult;
+            }
+            return merger.merge(firstResult.getResponseCode(), BulkResults.took(firstResult));
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package org.graylog.jest.restclient.bulk;
+
+import com.google.common.base.Utf8;
+import com.google.gson.Gson;
+import io.searchbox.action.BulkableAction;
+import io.searchbox.client.JestResult;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bulk action whose source has been serialized when it was added, so sizing the bulk and sending it use the same
+ * string instead of serializing the source twice. Listeners only ever see the wrapped action.
+ */
+final class SerializedBulkAction implements BulkableAction<JestResult> {
+
+    // Approximation of the action and metadata line overhead of a single bulk item.
+    private static final int ACTION_LINE_OVERHEAD = 64;
+
+    private final BulkableAction<?> action;
+    private final String data;
+    private final long size;
+
+    SerializedBulkAction(BulkableAction<?> action, Gson gson) {
+        this.action = action;
+        this.data = action.getData(gson);
+        this.size = ACTION_LINE_OVERHEAD
+                + length(action.getIndex()) + length(action.getType()) + length(action.getId())
+                + length(data);
+    }
+
+    // Length of the value encoded as UTF-8, as it is sent.
+    private static int length(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Utf8.encodedLength(value);
+        } catch (IllegalArgumentException e) {
+            // unpaired surrogates, which the encoder replaces
+            return value.getBytes(StandardCharsets.UTF_8).length;
+        }
+    }
+
+    static List<BulkableAction> unwrap(List<SerializedBulkAction> actions) {
+        final List<BulkableAction> unwrapped = new ArrayList<>(actions.size());
+        for (SerializedBulkAction action : actions) {
+            unwrapped.add(action.action);
+        }
+        return unwrapped;
+    }
+
+    BulkableAction<?> getAction() {
+        return action;
+    }
+
+    /**
+     * @return estimated size of the action in the request body in bytes
+     */
+    long getSize() {
+        return size;
+    }
+
+    @Override
+    public String getData(Gson gson) {
+        return data;
+    }
+
+    @Override
+    public String getBulkMethodName() {
+        return action.getBulkMethodName();
+    }
+
+    @Override
+    public Collection<Object> getParameter(String parameter) {
+        return action.getParameter(parameter);
+    }
+
+    @Override
+    public String getIndex() {
+        return action.getIndex();
+    }
+
+    @Override
+    public String getType() {
+        return action.getType();
+    }
+
+    @Override
+    public String getId() {
+        return action.getId();
+    }
+
+    @Override
+    public String getURI() {
+        return action.getURI();
+    }
+
+    @Override
+    public String getRestMethodName() {
+        return action.getRestMethodName();
+    }
+
+    @Override
+    public String getPathToResult() {
+        return action.getPathToResult();
+    }
+
+    @Override
+    public Map<String, Object> getHeaders() {
+        return action.getHeaders();
+    }
+
+    @Override
+    public JestResult createNewElasticSearchResult(String responseBody, int statusCode, String reasonPhrase, Gson gson) {
+        return action.createNewElasticSearchResult(responseBody, statusCode, reasonPhrase, gson);
+    }
+
+    @Override
+    public String toString() {
+        return action.toString();
+    }
+}
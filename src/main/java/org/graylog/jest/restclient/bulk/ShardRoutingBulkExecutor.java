@@ -0,0 +1,188 @@
+package org.graylog.jest.restclient.bulk;
+
+import io.searchbox.action.BulkableAction;
+import io.searchbox.client.JestResultHandler;
+import io.searchbox.core.Bulk;
+import io.searchbox.core.BulkResult;
+import io.searchbox.params.Parameters;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpHost;
+import org.graylog.jest.restclient.encoding.DirectBulk;
+import org.graylog.jest.restclient.http.JestHttpClient;
+import org.graylog.jest.restclient.routing.ShardRoutingCache;
+import org.graylog.jest.restclient.routing.ShardRoutingTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splits the actions into one sub-bulk per node holding the primary shards of their documents and sends the
+ * sub-bulks in parallel through {@link JestHttpClient#executeAsyncForResult(HttpHost, io.searchbox.action.Action, JestResultHandler)},
+ * which saves the coordinating node from forwarding the items. The item results are merged into a single
+ * {@link BulkResult} in the order of the actions.
+ * <p>
+ * Shards are computed from the routing value of an action, its parent or its id, using the routing table of a
+ * {@link ShardRoutingCache}. Actions without id and routing and actions of indices missing from the routing
+ * table are sent to any node of the client in one more sub-bulk; an unknown index also invalidates the cache.
+ * The cache is refreshed in the background, until the first routing table has been fetched all actions are sent
+ * to any node.
+ * </p>
+ * <p>
+ * If a sub-bulk fails as a whole, its items are reported as failed with the HTTP status of the sub-bulk, or with
+ * status 503 if the node couldn't be reached, so a {@link RetryingBulkExecutor} can retry them. The bulk only
+ * fails if all sub-bulks failed with an exception.
+ * </p>
+ */
+public class ShardRoutingBulkExecutor implements BulkExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(ShardRoutingBulkExecutor.class);
+
+    private final JestHttpClient client;
+    private final ShardRoutingCache routing;
+    private final String defaultIndex;
+    private final String defaultType;
+
+    public ShardRoutingBulkExecutor(JestHttpClient client, ShardRoutingCache routing, String defaultIndex, String defaultType) {
+        this.client = client;
+        this.routing = routing;
+        this.defaultIndex = defaultIndex;
+        this.defaultType = defaultType;
+    }
+
+    @Override
+    public void execute(List<BulkableAction> actions, JestResultHandler<BulkResult> resultHandler) {
+        final Map<HttpHost, List<Integer>> positionsByNode = partition(actions);
+        if (positionsByNode.size() == 1) {
+            send(positionsByNode.keySet().iterator().next(), actions, resultHandler);
+            return;
+        }
+
+        final MergedBulk mergedBulk = new MergedBulk(actions, positionsByNode.size(), resultHandler);
+        for (Map.Entry<HttpHost, List<Integer>> entry : positionsByNode.entrySet()) {
+            final List<Integer> positions = entry.getValue();
+            final List<BulkableAction> subActions = new ArrayList<>(positions.size());
+            for (int position : positions) {
+                subActions.add(actions.get(position));
+            }
+            send(entry.getKey(), subActions, new JestResultHandler<BulkResult>() {
+                @Override
+                public void completed(BulkResult result) {
+                    mergedBulk.onResult(positions, result);
+                }
+
+                @Override
+                public void failed(Exception ex) {
+                    if (entry.getKey() != null) {
+                        routing.invalidate();
+                    }
+                    mergedBulk.onFailure(positions, ex);
+                }
+            });
+        }
+    }
+
+    // Positions of the actions per node, the null key holds actions for any node.
+    private Map<HttpHost, List<Integer>> partition(List<BulkableAction> actions) {
+        final Map<HttpHost, List<Integer>> positionsByNode = new LinkedHashMap<>();
+        final ShardRoutingTable table = routing.get();
+        boolean unknownIndex = false;
+        for (int i = 0; i < actions.size(); i++) {
+            final BulkableAction action = actions.get(i);
+            HttpHost node = null;
+            if (table != null) {
+                final String index = StringUtils.isNotBlank(action.getIndex()) ? action.getIndex() : defaultIndex;
+                if (table.hasIndex(index)) {
+                    final String id = StringUtils.isNotBlank(action.getId()) ? action.getId() : null;
+                    node = table.getPrimaryNode(index, id, routingOf(action));
+                } else {
+                    unknownIndex = true;
+                }
+            }
+            positionsByNode.computeIfAbsent(node, key -> new ArrayList<>()).add(i);
+        }
+        if (unknownIndex) {
+            routing.invalidate();
+        }
+        return positionsByNode;
+    }
+
+    private static String routingOf(BulkableAction action) {
+        final String routing = singleParameter(action, Parameters.ROUTING);
+        // documents with a parent are routed by the parent id
+        return routing != null ? routing : singleParameter(action, Parameters.PARENT);
+    }
+
+    private static String singleParameter(BulkableAction action, String name) {
+        final Collection<Object> values = action.getParameter(name);
+        return values == null || values.size() != 1 ? null : values.iterator().next().toString();
+    }
+
+    private void send(HttpHost node, List<BulkableAction> actions, JestResultHandler<BulkResult> resultHandler) {
+        final Bulk bulk = new DirectBulk.Builder()
+                .defaultIndex(defaultIndex)
+                .defaultType(defaultType)
+                .addAction(actions)
+                .build();
+        if (node == null) {
+            client.executeAsyncForResult(bulk, resultHandler);
+        } else {
+            client.executeAsyncForResult(node, bulk, resultHandler);
+        }
+    }
+
+    private class MergedBulk {
+        private final JestResultHandler<BulkResult> resultHandler;
+        private final BulkResultMerger merger;
+        private int pendingSubBulks;
+        private Exception failure;
+
+        private MergedBulk(List<BulkableAction> actions, int subBulks, JestResultHandler<BulkResult> resultHandler) {
+            this.resultHandler = resultHandler;
+            this.merger = new BulkResultMerger(actions, client.getGson(), defaultIndex, defaultType, Math::max);
+            this.pendingSubBulks = subBulks;
+        }
+
+        void onResult(List<Integer> positions, BulkResult result) {
+            synchronized (this) {
+                merger.add(positions, result);
+            }
+            completeIfDone();
+        }
+
+        void onFailure(List<Integer> positions, Exception ex) {
+            log.debug("Sub-bulk of {} items failed.", positions.size(), ex);
+            synchronized (this) {
+                if (failure == null) {
+                    failure = ex;
+                }
+                merger.fail(positions, 503, "node_unavailable_exception", String.valueOf(ex.getMessage()));
+            }
+            completeIfDone();
+        }
+
+        private void completeIfDone() {
+            final BulkResult result;
+            synchronized (this) {
+                if (--pendingSubBulks > 0) {
+                    return;
+                }
+                if (merger.getResponseCode() == 0) {
+                    // no sub-bulk has been answered by Elasticsearch
+                    result = null;
+                } else {
+                    result = merger.merge();
+                }
+            }
+            if (result == null) {
+                resultHandler.failed(failure);
+            } else {
+                resultHandler.completed(result);
+            }
+        }
+    }
+}
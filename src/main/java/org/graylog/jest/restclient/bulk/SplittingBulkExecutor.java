@@ -0,0 +1,174 @@
+package org.graylog.jest.restclient.bulk;
+
+import com.google.gson.Gson;
+import io.searchbox.action.BulkableAction;
+import io.searchbox.client.JestResultHandler;
+import io.searchbox.core.BulkResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+/**
+ * Keeps bulk requests below a size limit, like the <code>http.max_content_length</code> of the cluster.
+ * <p>
+ * Actions whose estimated size exceeds the limit are split into consecutive chunks which are sent one after the
+ * other, so the coordinating node never holds more than one chunk of the bulk at a time. A chunk rejected with
+ * 413 (Request Entity Too Large) is bisected and its halves are sent again; a single action rejected with 413 is
+ * reported as a failed item. The item results of all chunks are merged into a single {@link BulkResult} in the
+ * order of the actions.
+ * </p>
+ * <p>
+ * If a chunk fails with an exception, its items and those of the chunks not sent yet are reported as failed with
+ * status 503, so a {@link RetryingBulkExecutor} can retry them. The bulk only fails if no chunk has been answered
+ * by the cluster before.
+ * </p>
+ */
+public class SplittingBulkExecutor implements BulkExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(SplittingBulkExecutor.class);
+
+    private static final int REQUEST_ENTITY_TOO_LARGE = 413;
+
+    private final BulkExecutor delegate;
+    private final long maxBulkSize;
+    private final ToLongFunction<BulkableAction> sizeEstimator;
+    private final Gson gson;
+    private final String defaultIndex;
+    private final String defaultType;
+
+    /**
+     * @param maxBulkSize   maximum estimated size of a request in bytes
+     * @param sizeEstimator estimated size of an action in the request body in bytes
+     */
+    public SplittingBulkExecutor(BulkExecutor delegate, long maxBulkSize, ToLongFunction<BulkableAction> sizeEstimator,
+                                 Gson gson, String defaultIndex, String defaultType) {
+        if (maxBulkSize <= 0) {
+            throw new IllegalArgumentException("maxBulkSize must be positive");
+        }
+        this.delegate = delegate;
+        this.maxBulkSize = maxBulkSize;
+        this.sizeEstimator = sizeEstimator;
+        this.gson = gson;
+        this.defaultIndex = defaultIndex;
+        this.defaultType = defaultType;
+    }
+
+    @Override
+    public void execute(List<BulkableAction> actions, JestResultHandler<BulkResult> resultHandler) {
+        new SplitBulk(actions, resultHandler).sendNext();
+    }
+
+    private class SplitBulk {
+        private final List<BulkableAction> actions;
+        private final JestResultHandler<BulkResult> resultHandler;
+        // ranges of actions [from, to) still to be sent, in order
+        private final Deque<int[]> ranges = new ArrayDeque<>();
+        private BulkResultMerger merger;
+
+        private SplitBulk(List<BulkableAction> actions, JestResultHandler<BulkResult> resultHandler) {
+            this.actions = actions;
+            this.resultHandler = resultHandler;
+            split();
+        }
+
+        private void split() {
+            int from = 0;
+            long size = 0;
+            for (int i = 0; i < actions.size(); i++) {
+                final long actionSize = sizeEstimator.applyAsLong(actions.get(i));
+                if (i > from && size + actionSize > maxBulkSize) {
+                    ranges.add(new int[]{from, i});
+                    from = i;
+                    size = 0;
+                }
+                size += actionSize;
+            }
+            ranges.add(new int[]{from, actions.size()});
+            if (ranges.size() > 1) {
+                log.debug("Splitting bulk of {} actions into {} requests.", actions.size(), ranges.size());
+            }
+        }
+
+        // Only called once the previous chunk completed, so no synchronization is needed.
+        void sendNext() {
+            final int[] range = ranges.poll();
+            if (range == null) {
+                resultHandler.completed(mergedResult());
+                return;
+            }
+            delegate.execute(actions.subList(range[0], range[1]), new JestResultHandler<BulkResult>() {
+                @Override
+                public void completed(BulkResult result) {
+                    onResult(range, result);
+                }
+
+                @Override
+                public void failed(Exception ex) {
+                    onFailure(range, ex);
+                }
+            });
+        }
+
+        private void onResult(int[] range, BulkResult result) {
+            if (result.getResponseCode() == REQUEST_ENTITY_TOO_LARGE) {
+                if (range[1] - range[0] > 1) {
+                    final int middle = (range[0] + range[1]) >>> 1;
+                    log.debug("Bulk of {} actions too large, bisecting it.", range[1] - range[0]);
+                    ranges.addFirst(new int[]{middle, range[1]});
+                    ranges.addFirst(new int[]{range[0], middle});
+                } else {
+                    log.warn("Bulk action of estimated {} bytes is too large for the cluster.",
+                            sizeEstimator.applyAsLong(actions.get(range[0])));
+                    merger().reject(positions(range[0], range[1]), result, "request_entity_too_large");
+                }
+                sendNext();
+                return;
+            }
+
+            if (merger == null && range[0] == 0 && range[1] == actions.size()) {
+                // sent in one piece, pass the result on as it is
+                resultHandler.completed(result);
+                return;
+            }
+
+            merger().add(positions(range[0], range[1]), result);
+            sendNext();
+        }
+
+        private void onFailure(int[] range, Exception ex) {
+            if (merger == null || merger.getResponseCode() == 0) {
+                // nothing has been answered by Elasticsearch
+                resultHandler.failed(ex);
+                return;
+            }
+            log.debug("Bulk request of {} actions failed, failing the remaining actions.", range[1] - range[0], ex);
+            merger().fail(positions(range[0], actions.size()), 503, "node_unavailable_exception", String.valueOf(ex.getMessage()));
+            ranges.clear();
+            sendNext();
+        }
+
+        private BulkResultMerger merger() {
+            if (merger == null) {
+                merger = new BulkResultMerger(actions, gson, defaultIndex, defaultType, Long::sum);
+            }
+            return merger;
+        }
+
+        private BulkResult mergedResult() {
+            return merger().merge();
+        }
+    }
+
+    private static List<Integer> positions(int from, int to) {
+        final List<Integer> positions = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            positions.add(i);
+        }
+        return positions;
+    }
+}
@@ -0,0 +1,89 @@
+package org.graylog.jest.restclient.bulk;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates document ids which index about as fast as the ids Elasticsearch generates itself, to be used with
+ * {@link io.searchbox.core.Index.Builder#id(String)}.
+ * <p>
+ * Random ids like UUIDs spread over the whole term dictionary of the <code>_uid</code> field and share no prefixes,
+ * which makes both writing the terms and looking up the version of a document slower. Like the time-based UUIDs of
+ * Elasticsearch, the ids consist of a sequence number, a timestamp in milliseconds and a node id. The least
+ * significant byte of the sequence number comes first, so consecutive ids are spread evenly over 256 blocks of the
+ * term dictionary; within a block they share the following bytes of the sequence number, the timestamp and the
+ * node id, and only the fast changing bytes at the end differ. The 15 bytes are encoded as 20 characters of
+ * URL-safe Base64.
+ * </p>
+ * <p>
+ * The sequence number starts at a random value and is incremented atomically; the timestamp never goes backwards,
+ * even if the clock does, and advances by one whenever the sequence number wraps around, so ids are unique within
+ * a generator without locking. The node id is random per generator, so generators of different processes on the
+ * same host don't collide either.
+ * </p>
+ * <p>
+ * Example:
+ * </p>
+ * <pre>
+ * TimeBasedIdGenerator ids = new TimeBasedIdGenerator();
+ * processor.add(new Index.Builder(source).index("logs").type("message").id(ids.nextId()).build());
+ * </pre>
+ */
+public class TimeBasedIdGenerator {
+
+    private static final int ID_LENGTH = 15;
+    private static final int NODE_ID_LENGTH = 6;
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+    private final AtomicInteger sequenceNumber;
+    private final AtomicLong lastTimestamp = new AtomicLong();
+    private final byte[] nodeId;
+
+    public TimeBasedIdGenerator() {
+        this(new SecureRandom());
+    }
+
+    TimeBasedIdGenerator(SecureRandom random) {
+        this.sequenceNumber = new AtomicInteger(random.nextInt());
+        this.nodeId = new byte[NODE_ID_LENGTH];
+        random.nextBytes(nodeId);
+    }
+
+    /**
+     * @return a new id of 20 characters
+     */
+    public String nextId() {
+        return ENCODER.encodeToString(nextIdBytes());
+    }
+
+    byte[] nextIdBytes() {
+        final int sequence = sequenceNumber.incrementAndGet() & 0xffffff;
+        final long now = currentTimeMillis();
+        final long timestamp = lastTimestamp.updateAndGet(last -> {
+            final long notBackwards = Math.max(last, now);
+            // a wrapped sequence number could repeat an id within the same millisecond
+            return sequence == 0 ? notBackwards + 1 : notBackwards;
+        });
+
+        final byte[] id = new byte[ID_LENGTH];
+        int i = 0;
+        id[i++] = (byte) sequence;
+        id[i++] = (byte) (sequence >>> 16);
+        id[i++] = (byte) (timestamp >>> 16);
+        id[i++] = (byte) (timestamp >>> 24);
+        id[i++] = (byte) (timestamp >>> 32);
+        id[i++] = (byte) (timestamp >>> 40);
+        System.arraycopy(nodeId, 0, id, i, NODE_ID_LENGTH);
+        i += NODE_ID_LENGTH;
+        id[i++] = (byte) (timestamp >>> 8);
+        id[i++] = (byte) (sequence >>> 8);
+        id[i] = (byte) timestamp;
+        return id;
+    }
+
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,78 @@
+package org.graylog.jest.restclient.cache;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of a client-side cache.
+ */
+public class CacheStats {
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+    final LongAdder puts = new LongAdder();
+    final LongAdder evictions = new LongAdder();
+    final LongAdder expirations = new LongAdder();
+    final LongAdder invalidations = new LongAdder();
+
+    /**
+     * @return number of lookups answered from the cache
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of lookups which had to go to Elasticsearch, including those of expired or invalidated entries
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return number of entries stored
+     */
+    public long getPuts() {
+        return puts.sum();
+    }
+
+    /**
+     * @return number of entries evicted to stay within the maximum size
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return number of entries dropped because their time to live had passed
+     */
+    public long getExpirations() {
+        return expirations.sum();
+    }
+
+    /**
+     * @return number of entries dropped because the client changed their indices
+     */
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    /**
+     * @return share of lookups answered from the cache, between 0 and 1
+     */
+    public double getHitRate() {
+        final long hitCount = getHits();
+        final long lookups = hitCount + getMisses();
+        return lookups == 0 ? 0 : (double) hitCount / lookups;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats{" +
+                "hits=" + getHits() +
+                ", misses=" + getMisses() +
+                ", puts=" + getPuts() +
+                ", evictions=" + getEvictions() +
+                ", expirations=" + getExpirations() +
+                ", invalidations=" + getInvalidations() +
+                '}';
+    }
+}
@@ -0,0 +1,574 @@
+package org.graylog.jest.restclient.cache;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import io.searchbox.action.Action;
+import io.searchbox.client.JestResult;
+import io.searchbox.core.Delete;
+import io.searchbox.core.Get;
+import io.searchbox.core.Index;
+import io.searchbox.core.MultiGet;
+import io.searchbox.core.Update;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicStatusLine;
+import org.graylog.jest.restclient.http.BufferedResponse;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caches documents fetched by {@link Get} and {@link MultiGet} on the client, so repeated gets of the same few
+ * documents, e.g. configuration or lookup tables, are answered without a request.
+ * <p>
+ * Documents are cached by index, type and id together with their version. Only gets without parameters are
+ * answered from the cache, as routing, source filtering or stored fields change the response. Missing documents
+ * are cached as well.
+ * </p>
+ * <p>
+ * {@link Index} requests executed through the client write the new source through to the cache, {@link Update},
+ * {@link Delete} and bulk requests mark the document as changed with its new version. A response of an older
+ * version, e.g. of a get which was in flight during the write, never replaces a newer one. Requests changing whole
+ * indices, like a delete by query or deleting the index, invalidate all documents of the index. Documents changed
+ * by other clients are only picked up once they expire, see {@link Builder#expireAfterWrite(long, TimeUnit)}.
+ * </p>
+ * <p>
+ * The cache is bounded by the size of the cached sources in bytes, see {@link TinyLfuCache} for the eviction
+ * policy. Sources can be kept in direct buffers outside of the heap, which are freed once the garbage collector
+ * finds the buffers of evicted documents.
+ * </p>
+ */
+public class DocumentCache {
+
+    // endpoints which change indices without changing their documents
+    private static final Set<String> DOCUMENT_PRESERVING_ENDPOINTS = new HashSet<>(Arrays.asList(
+            "_refresh", "_flush", "_forcemerge", "_optimize", "_cache", "_settings", "_mapping", "_mappings",
+            "_open", "_close", "_upgrade", "_segments", "_stats", "_recovery"));
+    private static final Set<String> PLAIN_MULTI_GET_FIELDS = new HashSet<>(Arrays.asList("_index", "_type", "_id"));
+    // estimated heap size of an entry besides its source and identifiers
+    private static final int ENTRY_OVERHEAD = 128;
+
+    private final boolean offHeap;
+    private final long maximumBytes;
+    private final long expireAfterWriteNanos;
+    private final CacheStats stats = new CacheStats();
+    private final LongAdder offHeapBytes = new LongAdder();
+    private final TinyLfuCache<DocumentKey, CachedDocument> documents;
+    // the names documents of an index have been fetched by, e.g. aliases, including the index itself
+    private final ConcurrentMap<String, Set<String>> namesByIndex = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> indexGenerations = new ConcurrentHashMap<>();
+
+    private DocumentCache(Builder builder) {
+        this.offHeap = builder.offHeap;
+        this.maximumBytes = builder.maximumBytes;
+        this.expireAfterWriteNanos = builder.expireAfterWriteNanos;
+        this.documents = new TinyLfuCache<>(builder.maximumBytes, builder.expectedDocuments, CachedDocument::weight,
+                (key, document, evicted) -> {
+                    if (evicted) {
+                        stats.evictions.increment();
+                    }
+                    if (document.source instanceof ByteBuffer) {
+                        offHeapBytes.add(-document.sourceLength);
+                    }
+                });
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return whether the action is a get which may be answered from the cache
+     */
+    public boolean isEnabledFor(Action<?> action) {
+        if (!(action instanceof Get) || action.getURI().contains("?")) {
+            return false;
+        }
+        final Get get = (Get) action;
+        return get.getIndex() != null && get.getType() != null && get.getId() != null && !"_all".equals(get.getType());
+    }
+
+    /**
+     * @return the response of the get built from the cached document, or null if the document isn't cached
+     */
+    public BufferedResponse get(Action<?> action) {
+        final Get get = (Get) action;
+        final DocumentKey key = new DocumentKey(get.getIndex(), get.getType(), get.getId());
+        final CachedDocument document = documents.get(key);
+        if (document != null && !document.changed) {
+            if (expireAfterWriteNanos > 0 && System.nanoTime() - document.storedAtNanos >= expireAfterWriteNanos) {
+                documents.remove(key, document);
+                stats.expirations.increment();
+            } else if (document.generation != generationOf(key.index)) {
+                documents.remove(key, document);
+                stats.invalidations.increment();
+            } else {
+                stats.hits.increment();
+                return document.toResponse(key);
+            }
+        }
+        stats.misses.increment();
+        return null;
+    }
+
+    /**
+     * Fills the cache with the documents of gets and multi gets and updates or invalidates the documents changed
+     * by writes. Called with the result of every request executed by the client.
+     */
+    public void onResult(Action<?> action, JestResult result, Gson gson) {
+        if (action instanceof Get) {
+            if (isEnabledFor(action) && result.getJsonObject() != null) {
+                fill(((Get) action).getIndex(), ((Get) action).getType(), result.getJsonObject());
+            }
+            return;
+        }
+        if (action instanceof MultiGet) {
+            fill((MultiGet) action, result, gson);
+            return;
+        }
+
+        final String method = action.getRestMethodName();
+        final String uri = action.getURI();
+        if ("GET".equals(method) || "HEAD".equals(method)) {
+            return;
+        }
+        if (action instanceof Index) {
+            onIndex((Index) action, result, gson);
+        } else if (action instanceof Update || action instanceof Delete) {
+            onDocumentChange(result.getJsonObject(), action instanceof Delete);
+        } else if (endpointOf(uri).equals("_bulk")) {
+            onBulk(result.getJsonString());
+        } else if (!QueryCache.isReadEndpoint(uri) && !DOCUMENT_PRESERVING_ENDPOINTS.contains(endpointOf(uri))) {
+            final String[] indices = QueryCache.indicesOf(uri);
+            if (indices == null) {
+                invalidateAll();
+            } else {
+                invalidate(Arrays.asList(indices));
+            }
+        }
+    }
+
+    /**
+     * Invalidates all cached documents of the given indices or aliases.
+     */
+    public void invalidate(Collection<String> indices) {
+        for (String index : indices) {
+            for (String name : namesOf(index)) {
+                indexGenerations.computeIfAbsent(name, n -> new AtomicLong()).incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Invalidates all cached documents.
+     */
+    public void invalidateAll() {
+        for (AtomicLong generation : indexGenerations.values()) {
+            generation.incrementAndGet();
+        }
+        stats.invalidations.add(documents.size());
+        documents.clear();
+    }
+
+    /**
+     * @return number of cached documents, including documents marked as changed
+     */
+    public int size() {
+        return documents.size();
+    }
+
+    /**
+     * @return estimated size of the cached documents in bytes
+     */
+    public long getWeight() {
+        return documents.weight();
+    }
+
+    /**
+     * @return bytes of the sources held in direct buffers
+     */
+    public long getOffHeapBytes() {
+        return offHeapBytes.sum();
+    }
+
+    public CacheStats getStats() {
+        return stats;
+    }
+
+    private void fill(MultiGet multiGet, JestResult result, Gson gson) {
+        final JsonObject json = result.getJsonObject();
+        final JsonElement docs = json == null ? null : json.get("docs");
+        final String uri = multiGet.getURI();
+        if (!result.isSucceeded() || docs == null || !docs.isJsonArray() || uri.contains("?")) {
+            return;
+        }
+        // index and type of the URL apply to documents without their own
+        final String[] path = uri.split("/");
+        final String urlIndex = path.length > 1 && !path[0].isEmpty() ? path[0] : null;
+        final String urlType = path.length > 2 ? path[1] : null;
+
+        final JsonObject payload = new JsonParser().parse(multiGet.getData(gson)).getAsJsonObject();
+        final List<String[]> requested = new ArrayList<>();
+        if (payload.has("docs")) {
+            for (JsonElement doc : payload.getAsJsonArray("docs")) {
+                for (Map.Entry<String, JsonElement> field : doc.getAsJsonObject().entrySet()) {
+                    if (!PLAIN_MULTI_GET_FIELDS.contains(field.getKey())) {
+                        return;
+                    }
+                }
+                requested.add(new String[]{
+                        stringOf(doc.getAsJsonObject(), "_index", urlIndex), stringOf(doc.getAsJsonObject(), "_type", urlType)});
+            }
+        } else if (payload.has("ids")) {
+            for (int i = 0; i < payload.getAsJsonArray("ids").size(); i++) {
+                requested.add(new String[]{urlIndex, urlType});
+            }
+        }
+
+        for (int i = 0; i < Math.min(requested.size(), docs.getAsJsonArray().size()); i++) {
+            final String[] indexAndType = requested.get(i);
+            final JsonElement doc = docs.getAsJsonArray().get(i);
+            if (indexAndType[0] != null && indexAndType[1] != null && !"_all".equals(indexAndType[1]) && doc.isJsonObject()) {
+                fill(indexAndType[0], indexAndType[1], doc.getAsJsonObject());
+            }
+        }
+    }
+
+    private void fill(String name, String type, JsonObject doc) {
+        final JsonElement found = doc.get("found");
+        final String index = stringOf(doc, "_index", null);
+        final String id = stringOf(doc, "_id", null);
+        if (found == null || !found.isJsonPrimitive() || index == null || id == null || !type.equals(stringOf(doc, "_type", type))) {
+            // an error
+            return;
+        }
+        final boolean isFound = found.getAsBoolean();
+        final JsonElement source = doc.get("_source");
+        if (isFound && source == null) {
+            // the source is disabled
+            return;
+        }
+
+        namesByIndex.computeIfAbsent(index, i -> ConcurrentHashMap.newKeySet()).add(name);
+        final DocumentKey key = new DocumentKey(name, type, id);
+        final long version = versionOf(doc);
+        store(key, new CachedDocument(index, version, isFound, false, isFound ? sourceOf(source.toString()) : null, generationOf(name)));
+    }
+
+    private void onIndex(Index index, JestResult result, Gson gson) {
+        final JsonObject json = result.getJsonObject();
+        if (!result.isSucceeded() || json == null) {
+            onDocumentChange(json, false);
+            return;
+        }
+        final String concreteIndex = stringOf(json, "_index", null);
+        if (concreteIndex == null || !namesByIndex.containsKey(concreteIndex) || index.getURI().contains("pipeline=")) {
+            onDocumentChange(json, false);
+            return;
+        }
+        final String type = stringOf(json, "_type", null);
+        final String id = stringOf(json, "_id", null);
+        final long version = versionOf(json);
+        String source = null;
+        for (String name : namesOf(concreteIndex)) {
+            final DocumentKey key = new DocumentKey(name, type, id);
+            if (documents.peek(key) == null) {
+                store(key, CachedDocument.changed(concreteIndex, version, generationOf(name)));
+            } else {
+                if (source == null) {
+                    source = index.getData(gson);
+                }
+                store(key, new CachedDocument(concreteIndex, version, true, false, sourceOf(source), generationOf(name)));
+            }
+        }
+    }
+
+    private void onDocumentChange(JsonObject json, boolean deleted) {
+        if (json == null) {
+            return;
+        }
+        final String concreteIndex = stringOf(json, "_index", null);
+        final String type = stringOf(json, "_type", null);
+        final String id = stringOf(json, "_id", null);
+        if (concreteIndex == null || type == null || id == null || !namesByIndex.containsKey(concreteIndex)) {
+            return;
+        }
+        final long version = versionOf(json);
+        for (String name : namesOf(concreteIndex)) {
+            final DocumentKey key = new DocumentKey(name, type, id);
+            if (version < 0 || json.has("error")) {
+                documents.remove(key);
+            } else if (deleted) {
+                store(key, new CachedDocument(concreteIndex, version, false, false, null, generationOf(name)));
+            } else {
+                store(key, CachedDocument.changed(concreteIndex, version, generationOf(name)));
+            }
+        }
+    }
+
+    private void onBulk(String response) {
+        if (response == null || response.isEmpty() || namesByIndex.isEmpty()) {
+            return;
+        }
+        final JsonParser parser = new JsonParser();
+        try (JsonReader reader = new JsonReader(new StringReader(response))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if ("items".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        for (Map.Entry<String, JsonElement> operation : parser.parse(reader).getAsJsonObject().entrySet()) {
+                            if (operation.getValue().isJsonObject()) {
+                                onDocumentChange(operation.getValue().getAsJsonObject(), false);
+                            }
+                        }
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            invalidateAll();
+        }
+    }
+
+    // replaces the cached document unless it is of a newer version
+    private void store(DocumentKey key, CachedDocument document) {
+        if (document.weight() > maximumBytes) {
+            documents.remove(key);
+            return;
+        }
+        synchronized (documents) {
+            final CachedDocument existing = documents.peek(key);
+            if (existing == null
+                    || existing.generation != document.generation
+                    || document.version > existing.version
+                    || (document.version == existing.version && existing.changed && !document.changed)) {
+                if (document.source instanceof ByteBuffer) {
+                    offHeapBytes.add(document.sourceLength);
+                }
+                documents.put(key, document);
+                stats.puts.increment();
+            }
+        }
+    }
+
+    private Object sourceOf(String source) {
+        final byte[] bytes = source.getBytes(StandardCharsets.UTF_8);
+        if (!offHeap) {
+            return bytes;
+        }
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes);
+        buffer.flip();
+        return buffer;
+    }
+
+    private Set<String> namesOf(String index) {
+        final Set<String> names = namesByIndex.get(index);
+        if (names == null) {
+            return Collections.singleton(index);
+        }
+        final Set<String> all = new HashSet<>(names);
+        all.add(index);
+        return all;
+    }
+
+    private long generationOf(String name) {
+        final AtomicLong generation = indexGenerations.get(name);
+        return generation == null ? 0 : generation.get();
+    }
+
+    private static long versionOf(JsonObject json) {
+        final JsonElement version = json.get("_version");
+        return version != null && version.isJsonPrimitive() ? version.getAsLong() : -1;
+    }
+
+    private static String stringOf(JsonObject json, String field, String defaultValue) {
+        final JsonElement value = json.get(field);
+        return value != null && value.isJsonPrimitive() ? value.getAsString() : defaultValue;
+    }
+
+    private static String endpointOf(String uri) {
+        final int query = uri.indexOf('?');
+        final String path = query < 0 ? uri : uri.substring(0, query);
+        for (String segment : path.split("/")) {
+            if (segment.startsWith("_")) {
+                return segment;
+            }
+        }
+        return "";
+    }
+
+    private static final class CachedDocument {
+        private final String index;
+        private final long version;
+        private final boolean found;
+        // changed through the client without knowing the new source, only guards against older versions
+        private final boolean changed;
+        // UTF-8 bytes of the source, either a byte array or a direct buffer
+        private final Object source;
+        private final int sourceLength;
+        private final long generation;
+        private final long storedAtNanos = System.nanoTime();
+
+        private CachedDocument(String index, long version, boolean found, boolean changed, Object source, long generation) {
+            this.index = index;
+            this.version = version;
+            this.found = found;
+            this.changed = changed;
+            this.source = source;
+            this.sourceLength = source instanceof byte[] ? ((byte[]) source).length
+                    : source instanceof ByteBuffer ? ((ByteBuffer) source).remaining() : 0;
+            this.generation = generation;
+        }
+
+        private static CachedDocument changed(String index, long version, long generation) {
+            return new CachedDocument(index, version, false, true, null, generation);
+        }
+
+        private int weight() {
+            return ENTRY_OVERHEAD + index.length() * 2 + sourceLength;
+        }
+
+        private BufferedResponse toResponse(DocumentKey key) {
+            final JsonObject meta = new JsonObject();
+            meta.addProperty("_index", index);
+            meta.addProperty("_type", key.type);
+            meta.addProperty("_id", key.id);
+            if (version >= 0) {
+                meta.addProperty("_version", version);
+            }
+            meta.addProperty("found", found);
+            String body = meta.toString();
+            if (found) {
+                body = body.substring(0, body.length() - 1) + ",\"_source\":" + sourceAsString() + "}";
+            }
+            return new BufferedResponse(
+                    new BasicStatusLine(HttpVersion.HTTP_1_1, found ? 200 : 404, found ? "OK" : "Not Found"),
+                    "application/json; charset=UTF-8",
+                    body);
+        }
+
+        private String sourceAsString() {
+            if (source instanceof byte[]) {
+                return new String((byte[]) source, StandardCharsets.UTF_8);
+            }
+            final ByteBuffer buffer = ((ByteBuffer) source).duplicate();
+            final byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static final class DocumentKey {
+        private final String index;
+        private final String type;
+        private final String id;
+        private final int hashCode;
+
+        private DocumentKey(String index, String type, String id) {
+            this.index = index;
+            this.type = type;
+            this.id = id;
+            this.hashCode = Objects.hash(index, type, id);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final DocumentKey key = (DocumentKey) o;
+            return hashCode == key.hashCode
+                    && Objects.equals(index, key.index)
+                    && Objects.equals(type, key.type)
+                    && Objects.equals(id, key.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    public static class Builder {
+        private long maximumBytes = 16 * 1024 * 1024;
+        private int expectedDocuments = 10000;
+        private boolean offHeap;
+        private long expireAfterWriteNanos;
+
+        private Builder() {
+        }
+
+        /**
+         * Maximum estimated size of the cached documents, mostly their sources, defaults to 16 MiB.
+         */
+        public Builder maximumBytes(long maximumBytes) {
+            if (maximumBytes <= 0) {
+                throw new IllegalArgumentException("maximumBytes must be positive");
+            }
+            this.maximumBytes = maximumBytes;
+            return this;
+        }
+
+        /**
+         * Expected number of cached documents, which sizes the access frequency sketch, defaults to 10000.
+         */
+        public Builder expectedDocuments(int expectedDocuments) {
+            if (expectedDocuments <= 0) {
+                throw new IllegalArgumentException("expectedDocuments must be positive");
+            }
+            this.expectedDocuments = expectedDocuments;
+            return this;
+        }
+
+        /**
+         * Keeps the sources in direct buffers instead of the heap, which takes large caches out of the work of the
+         * garbage collector. The direct memory is limited by <code>-XX:MaxDirectMemorySize</code>.
+         */
+        public Builder offHeap(boolean offHeap) {
+            this.offHeap = offHeap;
+            return this;
+        }
+
+        /**
+         * Drops documents the given time after they were cached, so changes made by other clients are picked up.
+         * Documents don't expire by default.
+         */
+        public Builder expireAfterWrite(long duration, TimeUnit unit) {
+            if (duration < 0) {
+                throw new IllegalArgumentException("duration must not be negative");
+            }
+            this.expireAfterWriteNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        public DocumentCache build() {
+            return new DocumentCache(this);
+        }
+    }
+}
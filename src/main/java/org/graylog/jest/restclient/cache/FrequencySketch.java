@@ -0,0 +1,61 @@
+package org.graylog.jest.restclient.cache;
+
+/**
+ * Approximate access frequencies of keys, a count-min sketch with four counters per key which are capped at 15.
+ * <p>
+ * All counters are halved once the number of increments reaches ten times the size of the cache, so the
+ * frequencies reflect recent accesses and keys which were popular long ago fade out.
+ * </p>
+ */
+final class FrequencySketch {
+
+    private static final int MAX_COUNT = 15;
+    private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+    private final int[] table;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(int maximumSize) {
+        final int capacity = Math.max(16, Integer.highestOneBit(Math.max(1, maximumSize) - 1) << 2);
+        this.table = new int[capacity];
+        this.mask = capacity - 1;
+        this.sampleSize = (int) Math.min(Integer.MAX_VALUE, 10L * Math.max(1, maximumSize));
+    }
+
+    int frequency(int hash) {
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < SEEDS.length; i++) {
+            frequency = Math.min(frequency, table[index(hash, i)]);
+        }
+        return frequency;
+    }
+
+    void increment(int hash) {
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            final int index = index(hash, i);
+            if (table[index] < MAX_COUNT) {
+                table[index]++;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] >>>= 1;
+        }
+        additions >>>= 1;
+    }
+
+    private int index(int hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return (int) h & mask;
+    }
+}
@@ -0,0 +1,491 @@
+package org.graylog.jest.restclient.cache;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import io.searchbox.action.Action;
+import io.searchbox.client.JestResult;
+import io.searchbox.core.Count;
+import io.searchbox.core.Search;
+import org.graylog.jest.restclient.http.BufferedResponse;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Caches the responses of read requests, e.g. searches over indices which don't change any more, on the client.
+ * <p>
+ * Responses are cached by method, URL, headers and payload of the request and kept for the time to live of their
+ * indices, see {@link Builder#ttl(String, long, TimeUnit)}. The number of cached responses is bounded, see
+ * {@link TinyLfuCache} for the eviction policy. Every request gets its own result created from the cached
+ * response.
+ * </p>
+ * <p>
+ * Writes executed through the client, like index, update, delete or bulk requests, and refreshes invalidate the
+ * cached responses of the indices they touch, including responses of requests which were in flight during the
+ * write. Requests over several indices through a wildcard or <code>_all</code> are invalidated by every write.
+ * Changes made by other clients, through aliases other than the one searched or becoming visible by the periodic
+ * refresh of Elasticsearch are only picked up once the entries expire, so the time to live of indices which still
+ * change should be short.
+ * </p>
+ */
+public class QueryCache {
+
+    // endpoints which are executed as POST without changing anything
+    private static final Set<String> READ_ENDPOINTS = new HashSet<>(Arrays.asList(
+            "_search", "_msearch", "_count", "_mget", "_analyze", "_validate", "_explain", "_field_stats",
+            "_field_caps", "_termvectors", "_mtermvectors", "_suggest", "_percolate", "_mpercolate", "_render"));
+
+    private final List<Class<? extends Action>> actionTypes;
+    private final long defaultTtlNanos;
+    private final Map<Pattern, Long> ttlNanos;
+    private final int maxResponseLength;
+    private final CacheStats stats = new CacheStats();
+    private final TinyLfuCache<Key, Entry> entries;
+    private final ConcurrentMap<String, AtomicLong> indexGenerations = new ConcurrentHashMap<>();
+    // incremented by every invalidation, for requests over all or a pattern of indices
+    private final AtomicLong writeGeneration = new AtomicLong();
+
+    private QueryCache(Builder builder) {
+        this.actionTypes = new ArrayList<>(builder.actionTypes);
+        this.defaultTtlNanos = builder.defaultTtlNanos;
+        this.ttlNanos = builder.ttlNanos;
+        this.maxResponseLength = builder.maxResponseLength;
+        this.entries = new TinyLfuCache<>(builder.maximumSize, (key, entry, evicted) -> {
+            if (evicted) {
+                stats.evictions.increment();
+            }
+        });
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return whether responses of the action may be cached, which excludes searches opening a scroll context
+     */
+    public boolean isEnabledFor(Action<?> action) {
+        final String method = action.getRestMethodName();
+        if ((!"GET".equals(method) && !"POST".equals(method)) || action.getURI().contains("scroll=")) {
+            return false;
+        }
+        for (Class<? extends Action> actionType : actionTypes) {
+            if (actionType.isInstance(action)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Looks up the cached response of a request. The returned lookup stores the response of the request if it
+     * wasn't cached yet.
+     */
+    public Lookup lookup(String method, String url, Map<String, Object> headers, String payload) {
+        final Key key = new Key(method, url, headers, payload);
+        final Entry entry = entries.get(key);
+        if (entry != null) {
+            if (entry.expiresAtNanos - System.nanoTime() <= 0) {
+                entries.remove(key, entry);
+                stats.expirations.increment();
+            } else if (!isCurrent(entry.indices, entry.generations, entry.writeGeneration)) {
+                entries.remove(key, entry);
+                stats.invalidations.increment();
+            } else {
+                stats.hits.increment();
+                return new Lookup(key, entry.response, null, null, 0);
+            }
+        }
+        stats.misses.increment();
+
+        // taken before the request is sent, so writes completing in the meantime make the response stale
+        final String[] indices = indicesOf(url);
+        return new Lookup(key, null, indices, generationsOf(indices), writeGeneration.get());
+    }
+
+    /**
+     * Invalidates the cached responses of the indices changed by the given request, unless it is a read request.
+     * Called with the result of every request executed by the client.
+     */
+    public void onResult(Action<?> action, JestResult result) {
+        final String method = action.getRestMethodName();
+        if ("GET".equals(method) || "HEAD".equals(method) || isEnabledFor(action) || isReadEndpoint(action.getURI())) {
+            return;
+        }
+
+        final String[] indices = indicesOf(action.getURI());
+        if (indices != null) {
+            invalidate(Arrays.asList(indices));
+            return;
+        }
+        // e.g. bulk requests without a default index, the response names the indices
+        final Set<String> written = indicesOfResponse(result.getJsonString());
+        if (written.isEmpty()) {
+            invalidateAll();
+        } else {
+            invalidate(written);
+        }
+    }
+
+    /**
+     * Invalidates the cached responses of requests including the given indices.
+     */
+    public void invalidate(Collection<String> indices) {
+        for (String index : indices) {
+            indexGenerations.computeIfAbsent(index, i -> new AtomicLong()).incrementAndGet();
+        }
+        writeGeneration.incrementAndGet();
+    }
+
+    /**
+     * Invalidates all cached responses.
+     */
+    public void invalidateAll() {
+        writeGeneration.incrementAndGet();
+        for (AtomicLong generation : indexGenerations.values()) {
+            generation.incrementAndGet();
+        }
+        stats.invalidations.add(entries.size());
+        entries.clear();
+    }
+
+    /**
+     * @return number of cached responses, including expired and invalidated ones not evicted yet
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    public CacheStats getStats() {
+        return stats;
+    }
+
+    private boolean isCurrent(String[] indices, long[] generations, long writeGenerationOfEntry) {
+        if (indices == null) {
+            return writeGeneration.get() == writeGenerationOfEntry;
+        }
+        for (int i = 0; i < indices.length; i++) {
+            if (generationOf(indices[i]) != generations[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long[] generationsOf(String[] indices) {
+        if (indices == null) {
+            return null;
+        }
+        final long[] generations = new long[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            generations[i] = generationOf(indices[i]);
+        }
+        return generations;
+    }
+
+    private long generationOf(String index) {
+        final AtomicLong generation = indexGenerations.get(index);
+        return generation == null ? 0 : generation.get();
+    }
+
+    private long ttlNanosOf(String[] indices) {
+        if (indices == null) {
+            return defaultTtlNanos;
+        }
+        long ttl = Long.MAX_VALUE;
+        for (String index : indices) {
+            ttl = Math.min(ttl, ttlNanosOf(index));
+        }
+        return ttl;
+    }
+
+    private long ttlNanosOf(String index) {
+        for (Map.Entry<Pattern, Long> rule : ttlNanos.entrySet()) {
+            if (rule.getKey().matcher(index).matches()) {
+                return rule.getValue();
+            }
+        }
+        return defaultTtlNanos;
+    }
+
+    /**
+     * @return the indices in the path of the URL, or null if the request goes to all indices or uses a pattern
+     */
+    static String[] indicesOf(String url) {
+        final int start = url.startsWith("/") ? 1 : 0;
+        int end = start;
+        while (end < url.length() && url.charAt(end) != '/' && url.charAt(end) != '?') {
+            end++;
+        }
+        final String path = decode(url.substring(start, end));
+        if (path.isEmpty() || path.startsWith("_")) {
+            return null;
+        }
+        final String[] indices = path.split(",");
+        for (String index : indices) {
+            if (index.isEmpty() || index.contains("*") || index.startsWith("-") || index.startsWith("+") || index.equals("_all")) {
+                return null;
+            }
+        }
+        return indices;
+    }
+
+    static boolean isReadEndpoint(String uri) {
+        final int query = uri.indexOf('?');
+        for (String segment : (query < 0 ? uri : uri.substring(0, query)).split("/")) {
+            if (READ_ENDPOINTS.contains(segment)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // the _index fields of the response and of the items of a bulk response
+    static Set<String> indicesOfResponse(String response) {
+        final Set<String> indices = new LinkedHashSet<>();
+        if (response == null || response.isEmpty()) {
+            return indices;
+        }
+        try (JsonReader reader = new JsonReader(new StringReader(response))) {
+            collectIndices(reader, 0, indices);
+        } catch (IOException | IllegalStateException e) {
+            // not JSON, invalidate everything
+            indices.clear();
+        }
+        return indices;
+    }
+
+    private static void collectIndices(JsonReader reader, int depth, Set<String> indices) throws IOException {
+        final JsonToken token = reader.peek();
+        if (token == JsonToken.BEGIN_ARRAY && depth < 3) {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                collectIndices(reader, depth, indices);
+            }
+            reader.endArray();
+        } else if (token == JsonToken.BEGIN_OBJECT && depth < 3) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                final String name = reader.nextName();
+                if ("_index".equals(name) && reader.peek() == JsonToken.STRING) {
+                    indices.add(reader.nextString());
+                } else {
+                    collectIndices(reader, depth + 1, indices);
+                }
+            }
+            reader.endObject();
+        } else {
+            reader.skipValue();
+        }
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            return value;
+        }
+    }
+
+    /**
+     * Outcome of a lookup: the cached response or the means to store the response once it arrives.
+     */
+    public class Lookup {
+        private final Key key;
+        private final BufferedResponse response;
+        private final String[] indices;
+        private final long[] generations;
+        private final long writeGenerationOfLookup;
+
+        private Lookup(Key key, BufferedResponse response, String[] indices, long[] generations, long writeGenerationOfLookup) {
+            this.key = key;
+            this.response = response;
+            this.indices = indices;
+            this.generations = generations;
+            this.writeGenerationOfLookup = writeGenerationOfLookup;
+        }
+
+        /**
+         * @return the cached response or null if the request has to be executed
+         */
+        public BufferedResponse getResponse() {
+            return response;
+        }
+
+        /**
+         * Caches the response of the executed request, unless it is an error, too long, or an index of the request
+         * has been changed since the lookup.
+         */
+        public void store(BufferedResponse executedResponse) {
+            final int statusCode = executedResponse.getStatusLine().getStatusCode();
+            final String body = executedResponse.getBody();
+            if (response != null || statusCode / 100 != 2 || body == null || body.length() > maxResponseLength) {
+                return;
+            }
+            final long ttl = ttlNanosOf(indices);
+            if (ttl <= 0 || !isCurrent(indices, generations, writeGenerationOfLookup)) {
+                return;
+            }
+            entries.put(key, new Entry(executedResponse, System.nanoTime() + ttl, indices, generations, writeGenerationOfLookup));
+            stats.puts.increment();
+        }
+    }
+
+    private static final class Entry {
+        private final BufferedResponse response;
+        private final long expiresAtNanos;
+        private final String[] indices;
+        private final long[] generations;
+        private final long writeGeneration;
+
+        private Entry(BufferedResponse response, long expiresAtNanos, String[] indices, long[] generations, long writeGeneration) {
+            this.response = response;
+            this.expiresAtNanos = expiresAtNanos;
+            this.indices = indices;
+            this.generations = generations;
+            this.writeGeneration = writeGeneration;
+        }
+    }
+
+    private static final class Key {
+        private final String method;
+        private final String url;
+        private final Map<String, Object> headers;
+        private final String payload;
+        private final int hashCode;
+
+        private Key(String method, String url, Map<String, Object> headers, String payload) {
+            this.method = method;
+            this.url = url;
+            this.headers = headers;
+            this.payload = payload;
+            this.hashCode = Objects.hash(method, url, headers, payload);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return hashCode == key.hashCode
+                    && Objects.equals(method, key.method)
+                    && Objects.equals(url, key.url)
+                    && Objects.equals(headers, key.headers)
+                    && Objects.equals(payload, key.payload);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    public static class Builder {
+        private final Set<Class<? extends Action>> actionTypes = new LinkedHashSet<>();
+        private final Map<Pattern, Long> ttlNanos = new LinkedHashMap<>();
+        private int maximumSize = 1000;
+        private long defaultTtlNanos = TimeUnit.MINUTES.toNanos(1);
+        private int maxResponseLength = 1024 * 1024;
+
+        private Builder() {
+        }
+
+        /**
+         * Maximum number of cached responses, defaults to 1000.
+         */
+        public Builder maximumSize(int maximumSize) {
+            if (maximumSize <= 0) {
+                throw new IllegalArgumentException("maximumSize must be positive");
+            }
+            this.maximumSize = maximumSize;
+            return this;
+        }
+
+        /**
+         * Caches the responses of the given read-only action types, defaults to <code>Search</code> and
+         * <code>Count</code>.
+         */
+        @SafeVarargs
+        public final Builder cacheActions(Class<? extends Action>... actionTypes) {
+            this.actionTypes.addAll(Arrays.asList(actionTypes));
+            return this;
+        }
+
+        /**
+         * Time to live of responses of indices without a matching {@link #ttl(String, long, TimeUnit)} and of
+         * requests over all indices or index patterns, defaults to one minute.
+         */
+        public Builder defaultTtl(long ttl, TimeUnit unit) {
+            if (ttl < 0) {
+                throw new IllegalArgumentException("ttl must not be negative");
+            }
+            this.defaultTtlNanos = unit.toNanos(ttl);
+            return this;
+        }
+
+        /**
+         * Time to live of responses of the indices matching the pattern, in which <code>*</code> matches any
+         * characters, e.g. a long one for <code>logs-2017.*</code> if those indices have been rolled over. The first
+         * matching pattern applies, a response of several indices lives as long as the shortest of them. A time to
+         * live of 0 disables caching for the indices.
+         */
+        public Builder ttl(String indexPattern, long ttl, TimeUnit unit) {
+            if (indexPattern == null || indexPattern.isEmpty()) {
+                throw new IllegalArgumentException("indexPattern must not be empty");
+            }
+            if (ttl < 0) {
+                throw new IllegalArgumentException("ttl must not be negative");
+            }
+            final StringBuilder regex = new StringBuilder();
+            final String[] parts = indexPattern.split("\\*", -1);
+            for (int i = 0; i < parts.length; i++) {
+                if (i > 0) {
+                    regex.append(".*");
+                }
+                regex.append(Pattern.quote(parts[i]));
+            }
+            ttlNanos.put(Pattern.compile(regex.toString()), unit.toNanos(ttl));
+            return this;
+        }
+
+        /**
+         * Responses with longer bodies aren't cached, defaults to one million characters.
+         */
+        public Builder maxResponseLength(int maxResponseLength) {
+            if (maxResponseLength <= 0) {
+                throw new IllegalArgumentException("maxResponseLength must be positive");
+            }
+            this.maxResponseLength = maxResponseLength;
+            return this;
+        }
+
+        public QueryCache build() {
+            if (actionTypes.isEmpty()) {
+                actionTypes.add(Search.class);
+                actionTypes.add(Count.class);
+            }
+            return new QueryCache(this);
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package org.graylog.jest.restclient.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.ToIntFunction;
+
+/**
+ * Size-bounded map with the W-TinyLFU eviction policy.
+ * <p>
+ * The size is the number of entries or, with a weigher, the sum of their weights, e.g. their length in bytes.
+ * New entries enter a small LRU window of 1% of the size. An entry leaving the window becomes a candidate for the
+ * main part, which is a segmented LRU of a probation and a protected segment: the candidate is only admitted if it
+ * has been accessed more often than the least recently used entry of the probation segment, which is evicted
+ * instead. So entries which are accessed once, e.g. by a scan over many keys, can't push out frequently used ones.
+ * Entries accessed again in the probation segment move to the protected segment of 80% of the main part.
+ * </p>
+ * <p>
+ * Access frequencies are estimated by a {@link FrequencySketch} over the hash codes of the keys. All methods are
+ * synchronized, the removal listener is called while holding the lock.
+ * </p>
+ */
+final class TinyLfuCache<K, V> {
+
+    interface RemovalListener<K, V> {
+        /**
+         * @param evicted whether the entry was evicted by the policy rather than removed, replaced or cleared
+         */
+        void onRemoval(K key, V value, boolean evicted);
+    }
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private final Map<K, Node<K, V>> nodes = new HashMap<>();
+    private final FrequencySketch sketch;
+    private final ToIntFunction<V> weigher;
+    private final RemovalListener<K, V> removalListener;
+    private final long maximumSize;
+    private final long maximumWindowSize;
+    private final long maximumProtectedSize;
+    private final Node<K, V>[] queues;
+    private final long[] sizes = new long[3];
+
+    TinyLfuCache(int maximumSize, RemovalListener<K, V> removalListener) {
+        this(maximumSize, maximumSize, value -> 1, removalListener);
+    }
+
+    /**
+     * @param expectedEntries expected number of entries, which sizes the frequency sketch
+     * @param weigher         weight of a value, which must not change while it is cached
+     */
+    @SuppressWarnings("unchecked")
+    TinyLfuCache(long maximumSize, int expectedEntries, ToIntFunction<V> weigher, RemovalListener<K, V> removalListener) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize must be positive");
+        }
+        this.maximumSize = maximumSize;
+        this.maximumWindowSize = Math.max(1, maximumSize / 100);
+        this.maximumProtectedSize = (maximumSize - maximumWindowSize) / 100 * 80;
+        this.sketch = new FrequencySketch(expectedEntries);
+        this.weigher = weigher;
+        this.removalListener = removalListener;
+        this.queues = new Node[]{new Node<>(), new Node<>(), new Node<>()};
+    }
+
+    synchronized V get(K key) {
+        sketch.increment(hash(key));
+        final Node<K, V> node = nodes.get(key);
+        if (node == null) {
+            return null;
+        }
+        onAccess(node);
+        return node.value;
+    }
+
+    /**
+     * @return the value without counting it as an access
+     */
+    synchronized V peek(K key) {
+        final Node<K, V> node = nodes.get(key);
+        return node == null ? null : node.value;
+    }
+
+    /**
+     * Adds or replaces the entry. A value heavier than the maximum size is not added and removes the entry.
+     */
+    synchronized void put(K key, V value) {
+        final int weight = weigher.applyAsInt(value);
+        if (weight > maximumSize) {
+            remove(key);
+            return;
+        }
+        final Node<K, V> existing = nodes.get(key);
+        if (existing != null) {
+            final V replaced = existing.value;
+            sizes[existing.queue] += weight - existing.weight;
+            existing.value = value;
+            existing.weight = weight;
+            onAccess(existing);
+            removalListener.onRemoval(key, replaced, false);
+            evict(null);
+            return;
+        }
+
+        sketch.increment(hash(key));
+        final Node<K, V> node = new Node<>(key, value, weight);
+        nodes.put(key, node);
+        append(WINDOW, node);
+        while (sizes[WINDOW] > maximumWindowSize && queues[WINDOW].next != node) {
+            final Node<K, V> candidate = queues[WINDOW].next;
+            unlink(candidate);
+            append(PROBATION, candidate);
+            evict(candidate);
+        }
+        evict(null);
+    }
+
+    synchronized V remove(K key) {
+        final Node<K, V> node = nodes.remove(key);
+        if (node == null) {
+            return null;
+        }
+        unlink(node);
+        removalListener.onRemoval(key, node.value, false);
+        return node.value;
+    }
+
+    /**
+     * Removes the entry if it is still mapped to the given value.
+     */
+    synchronized boolean remove(K key, V value) {
+        final Node<K, V> node = nodes.get(key);
+        if (node == null || node.value != value) {
+            return false;
+        }
+        remove(key);
+        return true;
+    }
+
+    synchronized void clear() {
+        for (Node<K, V> node : nodes.values()) {
+            removalListener.onRemoval(node.key, node.value, false);
+        }
+        nodes.clear();
+        for (int queue = 0; queue < queues.length; queue++) {
+            queues[queue].next = queues[queue];
+            queues[queue].prev = queues[queue];
+            sizes[queue] = 0;
+        }
+    }
+
+    synchronized int size() {
+        return nodes.size();
+    }
+
+    /**
+     * @return sum of the weights of all entries, the number of entries without a weigher
+     */
+    synchronized long weight() {
+        return sizes[WINDOW] + sizes[PROBATION] + sizes[PROTECTED];
+    }
+
+    private void onAccess(Node<K, V> node) {
+        if (node.queue == PROBATION) {
+            unlink(node);
+            append(PROTECTED, node);
+            while (sizes[PROTECTED] > maximumProtectedSize && queues[PROTECTED].next != node) {
+                final Node<K, V> demoted = queues[PROTECTED].next;
+                unlink(demoted);
+                append(PROBATION, demoted);
+            }
+        } else {
+            final int queue = node.queue;
+            unlink(node);
+            append(queue, node);
+        }
+    }
+
+    // The candidate, if any, has just been appended to the probation segment. Its least recently used entry is the
+    // victim, or the least recently used entry of the other segments if it is empty.
+    private void evict(Node<K, V> candidate) {
+        while (weight() > maximumSize) {
+            final Node<K, V> victim = first(PROBATION, PROTECTED, WINDOW);
+            final Node<K, V> evicted;
+            if (candidate != null && candidate.queue == PROBATION && victim != candidate) {
+                evicted = sketch.frequency(hash(candidate.key)) > sketch.frequency(hash(victim.key)) ? victim : candidate;
+            } else {
+                evicted = victim;
+            }
+            if (evicted == candidate) {
+                candidate = null;
+            }
+            unlink(evicted);
+            nodes.remove(evicted.key);
+            removalListener.onRemoval(evicted.key, evicted.value, true);
+        }
+    }
+
+    private Node<K, V> first(int... queueOrder) {
+        for (int queue : queueOrder) {
+            if (queues[queue].next != queues[queue]) {
+                return queues[queue].next;
+            }
+        }
+        throw new IllegalStateException("no entries");
+    }
+
+    private void append(int queue, Node<K, V> node) {
+        final Node<K, V> head = queues[queue];
+        node.queue = queue;
+        node.prev = head.prev;
+        node.next = head;
+        head.prev.next = node;
+        head.prev = node;
+        sizes[queue] += node.weight;
+    }
+
+    private void unlink(Node<K, V> node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+        sizes[node.queue] -= node.weight;
+    }
+
+    private static int hash(Object key) {
+        final int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static final class Node<K, V> {
+        private final K key;
+        private V value;
+        private int weight;
+        private int queue;
+        private Node<K, V> prev = this;
+        private Node<K, V> next = this;
+
+        // sentinel of a queue
+        private Node() {
+            this.key = null;
+        }
+
+        private Node(K key, V value, int weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package org.graylog.jest.restclient.config;
 
+import io.searchbox.action.Action;
 import io.searchbox.client.config.ClientConfig;
 import org.apache.http.HttpHost;
 import org.apache.http.auth.AuthScope;
@@ -18,12 +19,18 @@ import org.apache.http.impl.conn.SystemDefaultRoutePlanner;
 import org.apache.http.nio.conn.NoopIOSessionStrategy;
 import org.apache.http.nio.conn.SchemeIOSessionStrategy;
 import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.graylog.jest.restclient.encoding.ByteBufferPool;
+import org.graylog.jest.restclient.encoding.ParallelGzipCompressor;
+import org.graylog.jest.restclient.cache.DocumentCache;
+import org.graylog.jest.restclient.cache.QueryCache;
+import org.graylog.jest.restclient.scheduling.TenantScheduler;
 
 import java.net.ProxySelector;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 
@@ -44,6 +51,12 @@ public class HttpClientConfig extends ClientConfig {
     private final SchemeIOSessionStrategy httpIOSessionStrategy;
     private final SchemeIOSessionStrategy httpsIOSessionStrategy;
     private Set<HttpHost> preemptiveAuthTargetHosts;
+    private final TenantScheduler tenantScheduler;
+    private final Set<Class<? extends Action>> coalescedActionTypes;
+    private final QueryCache queryCache;
+    private final DocumentCache documentCache;
+    private final ByteBufferPool bulkBufferPool;
+    private final ParallelGzipCompressor parallelGzipCompressor;
 
     public HttpClientConfig(Builder builder) {
         super(builder);
@@ -58,6 +71,12 @@ public class HttpClientConfig extends ClientConfig {
         this.httpIOSessionStrategy = builder.httpIOSessionStrategy;
         this.httpsIOSessionStrategy = builder.httpsIOSessionStrategy;
         this.preemptiveAuthTargetHosts = builder.preemptiveAuthTargetHosts;
+        this.tenantScheduler = builder.tenantScheduler;
+        this.coalescedActionTypes = builder.coalescedActionTypes;
+        this.queryCache = builder.queryCache;
+        this.documentCache = builder.documentCache;
+        this.bulkBufferPool = builder.bulkBufferPool;
+        this.parallelGzipCompressor = builder.parallelGzipCompressor;
     }
 
     public Map<HttpRoute, Integer> getMaxTotalConnectionPerRoute() {
@@ -104,6 +123,30 @@ public class HttpClientConfig extends ClientConfig {
         return preemptiveAuthTargetHosts;
     }
 
+    public TenantScheduler getTenantScheduler() {
+        return tenantScheduler;
+    }
+
+    public Set<Class<? extends Action>> getCoalescedActionTypes() {
+        return coalescedActionTypes;
+    }
+
+    public QueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    public DocumentCache getDocumentCache() {
+        return documentCache;
+    }
+
+    public ByteBufferPool getBulkBufferPool() {
+        return bulkBufferPool;
+    }
+
+    public ParallelGzipCompressor getParallelGzipCompressor() {
+        return parallelGzipCompressor;
+    }
+
     public static class Builder extends ClientConfig.AbstractBuilder<HttpClientConfig, Builder> {
 
         private Integer maxTotalConnection;
@@ -117,6 +160,12 @@ public class HttpClientConfig extends ClientConfig {
         private SchemeIOSessionStrategy httpIOSessionStrategy;
         private SchemeIOSessionStrategy httpsIOSessionStrategy;
         private Set<HttpHost> preemptiveAuthTargetHosts = Collections.emptySet();
+        private TenantScheduler tenantScheduler;
+        private Set<Class<? extends Action>> coalescedActionTypes = new LinkedHashSet<>();
+        private QueryCache queryCache;
+        private DocumentCache documentCache;
+        private ByteBufferPool bulkBufferPool;
+        private ParallelGzipCompressor parallelGzipCompressor;
 
         public Builder(HttpClientConfig httpClientConfig) {
             super(httpClientConfig);
@@ -270,6 +319,70 @@ public class HttpClientConfig extends ClientConfig {
             return this;
         }
 
+        /**
+         * Sets the scheduler which shares the concurrent requests of the client between tenants.
+         * <p>
+         * Requests executed without a tenant are accounted to {@link TenantScheduler#DEFAULT_TENANT}.
+         * The scheduler's concurrency should not exceed <code>maxTotalConnection</code>, otherwise requests
+         * will still queue up in the connection pool regardless of their tenant.
+         * </p>
+         */
+        public Builder tenantScheduler(TenantScheduler tenantScheduler) {
+            this.tenantScheduler = tenantScheduler;
+            return this;
+        }
+
+        /**
+         * Enables coalescing of concurrent identical requests for the given action types, e.g.
+         * <code>Search.class</code> or <code>Count.class</code>: requests with equal method, URL, headers and
+         * payload which are executed while another one is in flight share its response.
+         * <p>
+         * Only read-only actions may be coalesced.
+         * </p>
+         */
+        @SafeVarargs
+        public final Builder coalesceRequests(Class<? extends Action>... actionTypes) {
+            Collections.addAll(this.coalescedActionTypes, actionTypes);
+            return this;
+        }
+
+        /**
+         * Caches the responses of read requests like searches and counts on the client, see {@link QueryCache}.
+         * Writes executed through the client invalidate the cached responses of their indices.
+         */
+        public Builder queryCache(QueryCache queryCache) {
+            this.queryCache = queryCache;
+            return this;
+        }
+
+        /**
+         * Caches the documents fetched by gets and multi gets on the client, see {@link DocumentCache}. Index,
+         * update, delete and bulk requests executed through the client update or invalidate the cached documents.
+         */
+        public Builder documentCache(DocumentCache documentCache) {
+            this.documentCache = documentCache;
+            return this;
+        }
+
+        /**
+         * Encodes {@link org.graylog.jest.restclient.encoding.DirectBulk} requests into direct buffers of the
+         * given pool, which are written to the connection without further copies. Has no effect if request
+         * compression is enabled.
+         */
+        public Builder directBulkEncoding(ByteBufferPool bulkBufferPool) {
+            this.bulkBufferPool = bulkBufferPool;
+            return this;
+        }
+
+        /**
+         * Compresses large request payloads with the given compressor, which gzips blocks of the payload on
+         * several cores. Only has an effect if request compression is enabled.
+         */
+        public Builder parallelRequestCompression(ParallelGzipCompressor parallelGzipCompressor) {
+            this.parallelGzipCompressor = parallelGzipCompressor;
+            return this;
+        }
+
         public Builder proxy(HttpHost proxy) {
             return proxy(proxy, null);
         }
@@ -0,0 +1,482 @@
+package org.graylog.jest.restclient.decoding;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import io.searchbox.core.BulkResult;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Supplier;
+
+/**
+ * {@link BulkResult} which reads the top-level <code>took</code> and <code>errors</code> fields of a bulk response
+ * without building the JSON tree of its items.
+ * <p>
+ * Elasticsearch writes <code>errors</code> before <code>items</code>, so a response without errors is not read any
+ * further. Otherwise the items are streamed over and only the failed ones are materialized, which keeps
+ * {@link #hasErrors()}, {@link #getFailedPositions()} and {@link #getFailedItems()} cheap. The JSON tree of the
+ * whole response is built on the first call of a method which needs it, like {@link #getJsonObject()} or
+ * {@link #getItems()}.
+ * </p>
+ * <p>
+ * A {@link Merger} combines the results of bulks sent for parts of the actions of a bulk the same way.
+ * </p>
+ * <p>
+ * Responses with an HTTP error status are parsed right away, like by {@link io.searchbox.core.Bulk}.
+ * </p>
+ */
+public class LazyBulkResult extends BulkResult {
+
+    public static final String ITEMS_FAILED_MESSAGE =
+            "One or more of the items in the Bulk request failed, check BulkResult.getItems() for more information.";
+    // the fields of an item read by BulkResultItem besides the error
+    private static final String[] ITEM_FIELDS = {"_index", "_type", "_id", "_version", "status"};
+
+    private long took = -1;
+    private boolean errors;
+    private boolean itemsScanned;
+    private int itemCount;
+    private final List<Integer> failedPositions = new ArrayList<>();
+    private final List<JsonObject> failedItems = new ArrayList<>();
+    // builds the JSON tree of a merged result
+    private Supplier<JsonObject> tree;
+
+    private LazyBulkResult(Gson gson) {
+        super(gson);
+    }
+
+    // Takes the Gson instance of the template, everything else is reset.
+    private LazyBulkResult(BulkResult template) {
+        super(template);
+        jsonObject = null;
+        jsonString = null;
+    }
+
+    /**
+     * Decodes a bulk response like {@link io.searchbox.core.Bulk#createNewElasticSearchResult(String, int, String, Gson)}.
+     *
+     * @throws JsonSyntaxException if the response body is not valid JSON
+     */
+    public static LazyBulkResult decode(String responseBody, int statusCode, String reasonPhrase, Gson gson) {
+        final LazyBulkResult result = new LazyBulkResult(gson);
+        result.setResponseCode(statusCode);
+        result.setJsonString(responseBody);
+        result.setPathToResult("items");
+
+        if (statusCode / 100 != 2) {
+            result.materialize();
+            result.setSucceeded(false);
+            result.setErrorMessage(statusCode + " " + (reasonPhrase == null ? "null" : reasonPhrase));
+            return result;
+        }
+
+        if (StringUtils.isNotBlank(responseBody)) {
+            try {
+                result.scan(responseBody);
+            } catch (IOException | IllegalStateException e) {
+                throw new JsonSyntaxException(e);
+            }
+        }
+        result.setSucceeded(!result.errors);
+        result.setErrorMessage(result.errors ? ITEMS_FAILED_MESSAGE : null);
+        return result;
+    }
+
+    /**
+     * @return the <code>took</code> field of the response in milliseconds or -1 if it is missing
+     */
+    public long getTook() {
+        return took;
+    }
+
+    /**
+     * @return the <code>errors</code> field of the response
+     */
+    public boolean hasErrors() {
+        return errors;
+    }
+
+    /**
+     * @return the number of items of the response, or -1 if they have been skipped because none of them failed
+     */
+    public synchronized int getItemCount() {
+        if (jsonObject != null) {
+            final JsonElement items = jsonObject.get("items");
+            return items != null && items.isJsonArray() ? items.getAsJsonArray().size() : 0;
+        }
+        if (itemsScanned) {
+            return itemCount;
+        }
+        return errors ? 0 : -1;
+    }
+
+    /**
+     * @return the positions of the failed items within the bulk
+     */
+    public synchronized List<Integer> getFailedPositions() {
+        if (jsonObject != null) {
+            // the tree may have been modified
+            return positionsFromTree();
+        }
+        return itemsScanned ? Collections.unmodifiableList(failedPositions) : Collections.emptyList();
+    }
+
+    @Override
+    public synchronized List<BulkResultItem> getFailedItems() {
+        if (jsonObject != null) {
+            return super.getFailedItems();
+        }
+        final List<BulkResultItem> items = new ArrayList<>(failedItems.size());
+        for (JsonObject item : failedItems) {
+            final Map.Entry<String, JsonElement> operation = item.entrySet().iterator().next();
+            items.add(new BulkResultItem(operation.getKey(), operation.getValue().getAsJsonObject()));
+        }
+        return items;
+    }
+
+    @Override
+    public List<BulkResultItem> getItems() {
+        materialize();
+        return super.getItems();
+    }
+
+    @Override
+    public JsonObject getJsonObject() {
+        materialize();
+        return super.getJsonObject();
+    }
+
+    @Override
+    public String getJsonString() {
+        if (tree != null) {
+            materialize();
+        }
+        return super.getJsonString();
+    }
+
+    @Override
+    public Map getJsonMap() {
+        materialize();
+        return super.getJsonMap();
+    }
+
+    @Override
+    public Object getValue(String key) {
+        materialize();
+        return super.getValue(key);
+    }
+
+    @Override
+    protected List<JsonElement> extractSource(boolean addEsMetadataFields) {
+        materialize();
+        return super.extractSource(addEsMetadataFields);
+    }
+
+    private synchronized void materialize() {
+        if (jsonObject != null) {
+            return;
+        }
+        if (tree != null) {
+            jsonObject = tree.get();
+            jsonString = jsonObject.toString();
+            tree = null;
+        } else if (StringUtils.isBlank(jsonString)) {
+            jsonObject = new JsonObject();
+        } else {
+            jsonObject = new JsonParser().parse(jsonString).getAsJsonObject();
+        }
+    }
+
+    private void scan(String responseBody) throws IOException {
+        try (JsonReader reader = new JsonReader(new StringReader(responseBody))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                final String name = reader.nextName();
+                if ("took".equals(name) && reader.peek() == JsonToken.NUMBER) {
+                    took = reader.nextLong();
+                } else if ("errors".equals(name) && reader.peek() == JsonToken.BOOLEAN) {
+                    errors = reader.nextBoolean();
+                    if (!errors) {
+                        // the common case, nothing else to look at
+                        return;
+                    }
+                } else if ("items".equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    scanItems(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+        }
+    }
+
+    private void scanItems(JsonReader reader) throws IOException {
+        final JsonParser parser = new JsonParser();
+        final JsonElement[] fields = new JsonElement[ITEM_FIELDS.length];
+        boolean failed = false;
+        int position = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            final JsonObject item = scanItem(reader, parser, fields);
+            if (item != null) {
+                failedPositions.add(position);
+                failedItems.add(item);
+                failed = true;
+            }
+            position++;
+        }
+        reader.endArray();
+        itemsScanned = true;
+        itemCount = position;
+        // items may precede the errors field in responses not written by Elasticsearch
+        errors |= failed;
+    }
+
+    /**
+     * Reads an item token by token. Only the fields read by {@link BulkResultItem} are kept, and only put into a
+     * JSON tree if the item failed.
+     *
+     * @return the item if it failed, <code>null</code> otherwise
+     */
+    private static JsonObject scanItem(JsonReader reader, JsonParser parser, JsonElement[] fields) throws IOException {
+        JsonObject failedItem = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String operation = reader.nextName();
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+            Arrays.fill(fields, null);
+            JsonElement error = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                final String name = reader.nextName();
+                final int field = itemField(name);
+                if ("error".equals(name)) {
+                    error = parser.parse(reader);
+                } else if (field >= 0 && reader.peek() != JsonToken.BEGIN_OBJECT && reader.peek() != JsonToken.BEGIN_ARRAY) {
+                    fields[field] = parser.parse(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (error != null) {
+                final JsonObject result = new JsonObject();
+                for (int i = 0; i < fields.length; i++) {
+                    if (fields[i] != null) {
+                        result.add(ITEM_FIELDS[i], fields[i]);
+                    }
+                }
+                result.add("error", error);
+                failedItem = new JsonObject();
+                failedItem.add(operation, result);
+            }
+        }
+        reader.endObject();
+        return failedItem;
+    }
+
+    private static int itemField(String name) {
+        for (int i = 0; i < ITEM_FIELDS.length; i++) {
+            if (ITEM_FIELDS[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private List<Integer> positionsFromTree() {
+        final List<Integer> positions = new ArrayList<>();
+        final JsonElement items = jsonObject.get("items");
+        if (items != null && items.isJsonArray()) {
+            for (int i = 0; i < items.getAsJsonArray().size(); i++) {
+                for (Map.Entry<String, JsonElement> operation : items.getAsJsonArray().get(i).getAsJsonObject().entrySet()) {
+                    if (operation.getValue().getAsJsonObject().has("error")) {
+                        positions.add(i);
+                    }
+                }
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * Passes the failed items with their positions within the bulk to the consumer.
+     */
+    private static void forEachFailedItem(BulkResult result, ObjIntConsumer<JsonObject> consumer) {
+        if (result instanceof LazyBulkResult) {
+            final LazyBulkResult lazyResult = (LazyBulkResult) result;
+            synchronized (lazyResult) {
+                if (lazyResult.jsonObject == null) {
+                    for (int i = 0; i < lazyResult.failedPositions.size(); i++) {
+                        consumer.accept(lazyResult.failedItems.get(i), lazyResult.failedPositions.get(i));
+                    }
+                    return;
+                }
+            }
+        }
+        final JsonArray items = itemsOf(result.getJsonObject());
+        for (int i = 0; items != null && i < items.size(); i++) {
+            final JsonObject item = items.get(i).getAsJsonObject();
+            for (Map.Entry<String, JsonElement> operation : item.entrySet()) {
+                if (operation.getValue().isJsonObject() && operation.getValue().getAsJsonObject().has("error")) {
+                    consumer.accept(item, i);
+                    break;
+                }
+            }
+        }
+    }
+
+    private static int itemCountOf(BulkResult result) {
+        if (result instanceof LazyBulkResult) {
+            return ((LazyBulkResult) result).getItemCount();
+        }
+        final JsonArray items = itemsOf(result.getJsonObject());
+        return items == null ? 0 : items.size();
+    }
+
+    private static JsonArray itemsOf(JsonObject json) {
+        final JsonElement items = json == null ? null : json.get("items");
+        return items != null && items.isJsonArray() ? items.getAsJsonArray() : null;
+    }
+
+    /**
+     * Merges the results of bulks sent for parts of the actions of a bulk into one result with the items in the
+     * order of the actions. Only the failed items of the parts are looked at; the JSON tree of the merged result is
+     * built from the parts once it is needed.
+     */
+    public static class Merger {
+        private final LazyBulkResult template;
+        private final BulkResult[] parts;
+        private final int[] partPositions;
+        private final JsonObject[] items;
+        private final JsonObject[] failedItems;
+
+        /**
+         * @param size number of actions of the bulk
+         */
+        public Merger(int size, Gson gson) {
+            this(size, new LazyBulkResult(gson));
+        }
+
+        /**
+         * Starts with the items of the result of the whole bulk, e.g. to replace the items of retried actions.
+         *
+         * @param size number of actions of the bulk
+         */
+        public Merger(BulkResult result, int size) {
+            this(size, new LazyBulkResult(result));
+            final List<Integer> positions = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                positions.add(i);
+            }
+            add(positions, result);
+        }
+
+        private Merger(int size, LazyBulkResult template) {
+            this.template = template;
+            this.parts = new BulkResult[size];
+            this.partPositions = new int[size];
+            this.items = new JsonObject[size];
+            this.failedItems = new JsonObject[size];
+        }
+
+        /**
+         * Adds the result of a bulk sent for the actions at the given positions. Items added before at these positions
+         * are replaced.
+         *
+         * @return <code>false</code> if the result doesn't have an item for every action, i.e. the bulk failed as a
+         * whole, and nothing has been added
+         */
+        public synchronized boolean add(List<Integer> positions, BulkResult result) {
+            final int itemCount = itemCountOf(result);
+            if (itemCount == -1 ? result.getResponseCode() / 100 != 2 : itemCount != positions.size()) {
+                return false;
+            }
+            for (int i = 0; i < positions.size(); i++) {
+                final int position = positions.get(i);
+                parts[position] = result;
+                partPositions[position] = i;
+                items[position] = null;
+                failedItems[position] = null;
+            }
+            forEachFailedItem(result, (item, i) -> failedItems[positions.get(i)] = item);
+            return true;
+        }
+
+        /**
+         * Sets the item at the position, e.g. a failure of an action which couldn't be sent.
+         */
+        public synchronized void set(int position, JsonObject item) {
+            parts[position] = null;
+            items[position] = item;
+            failedItems[position] = null;
+            for (Map.Entry<String, JsonElement> operation : item.entrySet()) {
+                if (operation.getValue().isJsonObject() && operation.getValue().getAsJsonObject().has("error")) {
+                    failedItems[position] = item;
+                }
+            }
+        }
+
+        /**
+         * @param responseCode HTTP status of the merged result
+         * @param took         <code>took</code> field of the merged result in milliseconds
+         */
+        public synchronized LazyBulkResult merge(int responseCode, long took) {
+            final LazyBulkResult result = new LazyBulkResult(template);
+            result.setResponseCode(responseCode);
+            result.setPathToResult("items");
+            result.took = took;
+            for (int position = 0; position < failedItems.length; position++) {
+                if (failedItems[position] != null) {
+                    result.failedPositions.add(position);
+                    result.failedItems.add(failedItems[position]);
+                }
+            }
+            result.errors = !result.failedPositions.isEmpty();
+            result.itemsScanned = true;
+            result.itemCount = items.length;
+            result.setSucceeded(!result.errors && responseCode / 100 == 2);
+            result.setErrorMessage(result.errors ? ITEMS_FAILED_MESSAGE : null);
+
+            final BulkResult[] mergedParts = parts.clone();
+            final int[] mergedPartPositions = partPositions.clone();
+            final JsonObject[] mergedItems = items.clone();
+            final boolean errors = result.errors;
+            result.tree = () -> {
+                final Map<BulkResult, JsonArray> partItems = new IdentityHashMap<>();
+                final JsonArray array = new JsonArray();
+                for (int position = 0; position < mergedItems.length; position++) {
+                    final BulkResult part = mergedParts[position];
+                    if (part == null) {
+                        array.add(mergedItems[position]);
+                    } else {
+                        final JsonArray itemsOfPart = partItems.computeIfAbsent(part, p -> itemsOf(p.getJsonObject()));
+                        array.add(itemsOfPart.get(mergedPartPositions[position]));
+                    }
+                }
+                final JsonObject json = new JsonObject();
+                json.addProperty("took", took);
+                json.addProperty("errors", errors);
+                json.add("items", array);
+                return json;
+            };
+            return result;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package org.graylog.jest.restclient.decoding;
+
+import io.searchbox.client.JestResult;
+
+/**
+ * Receives the sub-results of a multi search or multi get one at a time, see {@link MultiResponseDecoder}.
+ *
+ * @param <T> type of the sub-results
+ */
+@FunctionalInterface
+public interface MultiItemHandler<T extends JestResult> {
+
+    /**
+     * Called for every sub-result as soon as it has been decoded, in the order of the requests.
+     *
+     * @param position position of the sub-request within the multi request
+     * @param result   result of the sub-request, which may have failed on its own
+     * @throws Exception to stop decoding, which then fails with the exception
+     */
+    void onItem(int position, T result) throws Exception;
+}
@@ -0,0 +1,164 @@
+package org.graylog.jest.restclient.decoding;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import io.searchbox.client.JestResult;
+import io.searchbox.core.DocumentResult;
+import io.searchbox.core.Get;
+import io.searchbox.core.Search;
+import io.searchbox.core.SearchResult;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.function.BiFunction;
+
+/**
+ * Decodes the <code>responses</code> of a multi search or the <code>docs</code> of a multi get response element by
+ * element, handing every sub-result to a {@link MultiItemHandler} as soon as it has been read instead of building
+ * the JSON tree of the whole response first.
+ * <p>
+ * This doesn't stream the response from the network: the REST client buffers the whole body before decoding
+ * starts, so the raw response is held in memory throughout. What is saved is the response string and the JSON tree
+ * of all sub-results, and the handler sees the first sub-results before the following ones have been decoded.
+ * Sub-results the handler keeps stay in memory as well.
+ * </p>
+ * <p>
+ * The sub-results are the same as those of a single request: a failed search is an unsuccessful
+ * {@link SearchResult} with the status of the sub-response or 500, a missing document an unsuccessful
+ * {@link DocumentResult} with status 404.
+ * </p>
+ *
+ * @param <T> type of the sub-results
+ */
+public class MultiResponseDecoder<T extends JestResult> {
+
+    private static final Search SEARCH = new Search.Builder("").build();
+
+    private final String arrayField;
+    private final BiFunction<JsonObject, Gson, T> toResult;
+    private final Gson gson;
+
+    private MultiResponseDecoder(String arrayField, BiFunction<JsonObject, Gson, T> toResult, Gson gson) {
+        this.arrayField = arrayField;
+        this.toResult = toResult;
+        this.gson = gson;
+    }
+
+    /**
+     * @return decoder of multi search responses
+     */
+    public static MultiResponseDecoder<SearchResult> multiSearch(Gson gson) {
+        return new MultiResponseDecoder<>("responses", (response, g) -> searchResult(SEARCH, response, g), gson);
+    }
+
+    /**
+     * @return decoder of multi get responses
+     */
+    public static MultiResponseDecoder<DocumentResult> multiGet(Gson gson) {
+        return new MultiResponseDecoder<>("docs", (doc, g) -> documentResult(getOf(doc), doc, g), gson);
+    }
+
+    /**
+     * Decodes a successful multi response, calling the handler for every sub-result on the calling thread.
+     *
+     * @return number of sub-results
+     * @throws JsonSyntaxException if the response is not valid JSON
+     * @throws Exception           thrown by the handler
+     */
+    public int decode(Reader response, MultiItemHandler<? super T> handler) throws Exception {
+        final JsonParser parser = new JsonParser();
+        int position = 0;
+        try (JsonReader reader = new JsonReader(response)) {
+            beginObject(reader);
+            while (hasNext(reader)) {
+                if (arrayField.equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    while (hasNext(reader)) {
+                        handler.onItem(position++, toResult.apply(nextItem(reader, parser), gson));
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+        }
+        return position;
+    }
+
+    private static void beginObject(JsonReader reader) throws IOException {
+        try {
+            reader.beginObject();
+        } catch (IllegalStateException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    private static boolean hasNext(JsonReader reader) throws IOException {
+        try {
+            return reader.hasNext();
+        } catch (IllegalStateException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    private static JsonObject nextItem(JsonReader reader, JsonParser parser) {
+        final JsonElement item = parser.parse(reader);
+        if (!item.isJsonObject()) {
+            throw new JsonSyntaxException("Expected an object as sub-response but was " + item);
+        }
+        return item.getAsJsonObject();
+    }
+
+    private static Get getOf(JsonObject doc) {
+        final String type = stringOf(doc, "_type");
+        return new Get.Builder(stringOf(doc, "_index"), stringOf(doc, "_id")).type(type.isEmpty() ? null : type).build();
+    }
+
+    private static String stringOf(JsonObject object, String field) {
+        final JsonElement value = object.get(field);
+        return value == null || !value.isJsonPrimitive() ? "" : value.getAsString();
+    }
+
+    /**
+     * Turns a sub-response of a multi search into the result of the search.
+     */
+    public static SearchResult searchResult(Search search, JsonObject response, Gson gson) {
+        final JsonElement status = response.get("status");
+        final int statusCode;
+        if (status != null && status.isJsonPrimitive()) {
+            statusCode = status.getAsInt();
+        } else {
+            // older versions only report errors, without a status
+            statusCode = response.has("error") ? 500 : 200;
+        }
+        // becomes part of the error message of a failed result
+        final JsonElement error = response.get("error");
+        final String reasonPhrase = error == null ? null : error.isJsonPrimitive() ? error.getAsString() : error.toString();
+        return search.createNewElasticSearchResult(response.toString(), statusCode, reasonPhrase, gson);
+    }
+
+    /**
+     * Turns a document of a multi get into the result of the get.
+     */
+    public static DocumentResult documentResult(Get get, JsonObject doc, Gson gson) {
+        final JsonElement error = doc.get("error");
+        final int statusCode;
+        final String reasonPhrase;
+        if (error != null) {
+            final JsonElement status = doc.get("status");
+            statusCode = status != null && status.isJsonPrimitive() ? status.getAsInt() : 500;
+            reasonPhrase = error.isJsonPrimitive() ? error.getAsString() : error.toString();
+        } else {
+            final JsonElement found = doc.get("found");
+            final boolean isFound = found != null && found.isJsonPrimitive() && found.getAsBoolean();
+            statusCode = isFound ? 200 : 404;
+            reasonPhrase = isFound ? "OK" : "Not Found";
+        }
+        return get.createNewElasticSearchResult(doc.toString(), statusCode, reasonPhrase, gson);
+    }
+}
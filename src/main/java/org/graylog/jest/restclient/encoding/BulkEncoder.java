@@ -0,0 +1,206 @@
+package org.graylog.jest.restclient.encoding;
+
+import com.google.gson.Gson;
+import io.searchbox.action.BulkableAction;
+import io.searchbox.params.Parameters;
+import org.apache.commons.lang3.StringUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Encodes bulk actions as NDJSON into pooled direct buffers.
+ * <p>
+ * The payload of a {@link io.searchbox.core.Bulk} is rendered as one string holding all actions, which the HTTP
+ * client copies once more into its output buffer. This encoder writes every line straight into chunks of a
+ * {@link ByteBufferPool} instead, so the request body never exists as a whole on the heap. The start of the
+ * metadata line, which only depends on operation, index and type, is encoded once and reused.
+ * </p>
+ * <p>
+ * Metadata lines carry the same fields as those of {@link io.searchbox.core.Bulk#getData(Gson)}, but with
+ * <code>_index</code> and <code>_type</code> before <code>_id</code>.
+ * </p>
+ */
+public class BulkEncoder {
+
+    private static final int MAX_CACHED_METADATA_PREFIXES = 1024;
+    private static final byte[] METADATA_SUFFIX = "}}\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte NEWLINE = '\n';
+
+    private final ByteBufferPool pool;
+    private final ConcurrentMap<String, byte[]> metadataPrefixes = new ConcurrentHashMap<>();
+    private final ThreadLocal<CharsetEncoder> charsetEncoder = ThreadLocal.withInitial(() -> StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE));
+
+    public BulkEncoder(ByteBufferPool pool) {
+        this.pool = pool;
+    }
+
+    public DirectBulkEntity encode(DirectBulk bulk, Gson gson) {
+        return encode(bulk.getActions(), gson);
+    }
+
+    public DirectBulkEntity encode(Collection<? extends BulkableAction> actions, Gson gson) {
+        final ChunkWriter writer = new ChunkWriter(charsetEncoder.get());
+        try {
+            for (BulkableAction action : actions) {
+                writeMetadata(writer, action, gson);
+                final String source = action.getData(gson);
+                if (source != null) {
+                    writer.write(source);
+                    writer.write(NEWLINE);
+                }
+            }
+        } catch (RuntimeException e) {
+            writer.release();
+            throw e;
+        }
+        return new DirectBulkEntity(writer.finish(), pool);
+    }
+
+    public ByteBufferPool getPool() {
+        return pool;
+    }
+
+    private void writeMetadata(ChunkWriter writer, BulkableAction action, Gson gson) {
+        final byte[] prefix = metadataPrefix(action.getBulkMethodName(), action.getIndex(), action.getType(), gson);
+        writer.write(prefix);
+        boolean first = prefix[prefix.length - 1] == '{';
+
+        if (StringUtils.isNotBlank(action.getId())) {
+            writer.write(first ? "\"_id\":" : ",\"_id\":");
+            writer.write(gson.toJson(action.getId()));
+            first = false;
+        }
+        for (String parameter : Parameters.ACCEPTED_IN_BULK) {
+            final Collection<Object> values = action.getParameter(parameter);
+            if (values == null || values.isEmpty()) {
+                continue;
+            }
+            if (values.size() > 1) {
+                throw new IllegalArgumentException("Expecting a single value for '" + parameter + "' parameter, you provided: " + values.size());
+            }
+            writer.write(first ? "\"_" : ",\"_");
+            writer.write(parameter);
+            writer.write("\":");
+            writer.write(gson.toJson(values.iterator().next().toString()));
+            first = false;
+        }
+        writer.write(METADATA_SUFFIX);
+    }
+
+    private byte[] metadataPrefix(String operation, String index, String type, Gson gson) {
+        final String key = operation + '\u0000' + index + '\u0000' + type;
+        final byte[] cached = metadataPrefixes.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        final StringBuilder prefix = new StringBuilder("{").append(gson.toJson(operation)).append(":{");
+        String separator = "";
+        if (StringUtils.isNotBlank(index)) {
+            prefix.append("\"_index\":").append(gson.toJson(index));
+            separator = ",";
+        }
+        if (StringUtils.isNotBlank(type)) {
+            prefix.append(separator).append("\"_type\":").append(gson.toJson(type));
+        }
+        final byte[] bytes = prefix.toString().getBytes(StandardCharsets.UTF_8);
+        if (metadataPrefixes.size() >= MAX_CACHED_METADATA_PREFIXES) {
+            // e.g. daily indices, drop the prefixes of old ones
+            metadataPrefixes.clear();
+        }
+        metadataPrefixes.put(key, bytes);
+        return bytes;
+    }
+
+    private class ChunkWriter {
+        private final CharsetEncoder encoder;
+        private final List<ByteBuffer> chunks = new ArrayList<>();
+        private ByteBuffer current;
+
+        private ChunkWriter(CharsetEncoder encoder) {
+            this.encoder = encoder;
+        }
+
+        private ByteBuffer current() {
+            if (current == null || !current.hasRemaining()) {
+                nextChunk();
+            }
+            return current;
+        }
+
+        private void nextChunk() {
+            current = pool.acquire();
+            chunks.add(current);
+        }
+
+        void write(byte value) {
+            current().put(value);
+        }
+
+        void write(byte[] bytes) {
+            int offset = 0;
+            while (offset < bytes.length) {
+                final ByteBuffer target = current();
+                final int length = Math.min(target.remaining(), bytes.length - offset);
+                target.put(bytes, offset, length);
+                offset += length;
+            }
+        }
+
+        void write(String value) {
+            final CharBuffer input = CharBuffer.wrap(value);
+            encoder.reset();
+            encode(() -> encoder.encode(input, current(), true));
+            encode(() -> encoder.flush(current()));
+        }
+
+        private void encode(Coding coding) {
+            while (true) {
+                final CoderResult result = coding.run();
+                if (result.isUnderflow()) {
+                    return;
+                }
+                if (result.isOverflow()) {
+                    // a multi-byte character may not fit into the rest of the chunk
+                    nextChunk();
+                } else {
+                    try {
+                        result.throwException();
+                    } catch (CharacterCodingException e) {
+                        throw new IllegalArgumentException("Couldn't encode bulk action", e);
+                    }
+                }
+            }
+        }
+
+        List<ByteBuffer> finish() {
+            for (ByteBuffer chunk : chunks) {
+                chunk.flip();
+            }
+            return chunks;
+        }
+
+        void release() {
+            for (ByteBuffer chunk : chunks) {
+                pool.release(chunk);
+            }
+        }
+    }
+
+    private interface Coding {
+        CoderResult run();
+    }
+}
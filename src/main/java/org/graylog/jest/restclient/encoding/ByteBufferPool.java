@@ -0,0 +1,77 @@
+package org.graylog.jest.restclient.encoding;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of direct {@link ByteBuffer}s of a fixed size.
+ * <p>
+ * Allocating direct buffers is expensive and their memory is only freed when the garbage collector finds them,
+ * so released buffers are kept for reuse up to the configured number. Buffers requested while the pool is
+ * empty are allocated.
+ * </p>
+ */
+public class ByteBufferPool {
+
+    private final int bufferSize;
+    private final int maxPooledBuffers;
+    private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooledBuffers = new AtomicInteger();
+    private final LongAdder allocatedBuffers = new LongAdder();
+
+    public ByteBufferPool(int bufferSize, int maxPooledBuffers) {
+        if (bufferSize <= 0 || maxPooledBuffers < 0) {
+            throw new IllegalArgumentException("bufferSize must be positive and maxPooledBuffers not negative");
+        }
+        this.bufferSize = bufferSize;
+        this.maxPooledBuffers = maxPooledBuffers;
+    }
+
+    /**
+     * @return a cleared buffer of {@link #getBufferSize()} bytes
+     */
+    public ByteBuffer acquire() {
+        final ByteBuffer buffer = buffers.poll();
+        if (buffer != null) {
+            pooledBuffers.decrementAndGet();
+            return buffer;
+        }
+        allocatedBuffers.increment();
+        return ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    /**
+     * Returns a buffer to the pool. The buffer must not be used by the caller afterwards.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() != bufferSize) {
+            return;
+        }
+        if (pooledBuffers.incrementAndGet() <= maxPooledBuffers) {
+            buffer.clear();
+            buffers.offer(buffer);
+        } else {
+            pooledBuffers.decrementAndGet();
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return number of buffers available for reuse
+     */
+    public int getPooledBuffers() {
+        return pooledBuffers.get();
+    }
+
+    /**
+     * @return number of buffers allocated because the pool was empty
+     */
+    public long getAllocatedBuffers() {
+        return allocatedBuffers.sum();
+    }
+}
@@ -0,0 +1,63 @@
+package org.graylog.jest.restclient.encoding;
+
+import com.google.gson.Gson;
+import io.searchbox.action.BulkableAction;
+import io.searchbox.core.Bulk;
+import io.searchbox.core.BulkResult;
+import org.graylog.jest.restclient.decoding.LazyBulkResult;
+
+import java.util.Collection;
+
+/**
+ * {@link Bulk} whose actions can be encoded by a {@link BulkEncoder} instead of rendering the payload as a single
+ * string. Clients without a bulk encoder send it like any other bulk.
+ * <p>
+ * Responses are decoded into a {@link LazyBulkResult}, which skips the items of bulks without errors.
+ * </p>
+ */
+public class DirectBulk extends Bulk {
+
+    protected DirectBulk(Builder builder) {
+        super(builder);
+    }
+
+    public Collection<BulkableAction> getActions() {
+        return bulkableActions;
+    }
+
+    @Override
+    public BulkResult createNewElasticSearchResult(String responseBody, int statusCode, String reasonPhrase, Gson gson) {
+        return LazyBulkResult.decode(responseBody, statusCode, reasonPhrase, gson);
+    }
+
+    public static class Builder extends Bulk.Builder {
+        @Override
+        public Builder defaultIndex(String defaultIndex) {
+            super.defaultIndex(defaultIndex);
+            return this;
+        }
+
+        @Override
+        public Builder defaultType(String defaultType) {
+            super.defaultType(defaultType);
+            return this;
+        }
+
+        @Override
+        public Builder addAction(BulkableAction action) {
+            super.addAction(action);
+            return this;
+        }
+
+        @Override
+        public Builder addAction(Collection<? extends BulkableAction> actions) {
+            super.addAction(actions);
+            return this;
+        }
+
+        @Override
+        public DirectBulk build() {
+            return new DirectBulk(this);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package org.graylog.jest.restclient.encoding;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.HttpAsyncContentProducer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Request entity backed by the direct buffers of a {@link BulkEncoder}.
+ * <p>
+ * As an {@link HttpAsyncContentProducer}, the request producer of the async HTTP client hands the buffers to the
+ * content encoder of the connection, which writes them to the socket channel without copying them to the heap.
+ * The entity is repeatable: every request attempt starts at the first buffer. The buffers are returned to the
+ * pool by {@link #release()} once the request has completed; producing or rewinding the content fails afterwards.
+ * </p>
+ */
+public class DirectBulkEntity extends AbstractHttpEntity implements HttpAsyncContentProducer {
+
+    private final List<ByteBuffer> chunks;
+    private final ByteBufferPool pool;
+    private final long contentLength;
+    private int currentChunk;
+    private boolean released;
+
+    DirectBulkEntity(List<ByteBuffer> chunks, ByteBufferPool pool) {
+        this.chunks = chunks;
+        this.pool = pool;
+        long length = 0;
+        for (ByteBuffer chunk : chunks) {
+            length += chunk.remaining();
+        }
+        this.contentLength = length;
+    }
+
+    @Override
+    public synchronized void produceContent(ContentEncoder encoder, IOControl ioControl) throws IOException {
+        ensureNotReleased();
+        while (currentChunk < chunks.size()) {
+            final ByteBuffer chunk = chunks.get(currentChunk);
+            encoder.write(chunk);
+            if (chunk.hasRemaining()) {
+                // the channel is full, continue when it is writable again
+                return;
+            }
+            currentChunk++;
+        }
+        encoder.complete();
+    }
+
+    /**
+     * Rewinds the entity for the next request attempt.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        ensureNotReleased();
+        for (ByteBuffer chunk : chunks) {
+            chunk.rewind();
+        }
+        currentChunk = 0;
+    }
+
+    /**
+     * Returns the buffers to the pool. The entity must not be sent anymore afterwards.
+     */
+    public synchronized void release() {
+        if (!released) {
+            released = true;
+            for (ByteBuffer chunk : chunks) {
+                pool.release(chunk);
+            }
+        }
+    }
+
+    private void ensureNotReleased() throws IOException {
+        if (released) {
+            throw new IOException("Bulk entity has already been released");
+        }
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    @Override
+    public InputStream getContent() {
+        return new ChunksInputStream();
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        final byte[] buffer = new byte[8192];
+        for (ByteBuffer chunk : chunks) {
+            final ByteBuffer source = chunk.duplicate();
+            source.rewind();
+            while (source.hasRemaining()) {
+                final int length = Math.min(buffer.length, source.remaining());
+                source.get(buffer, 0, length);
+                outputStream.write(buffer, 0, length);
+            }
+        }
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    private class ChunksInputStream extends InputStream {
+        private int chunk;
+        private ByteBuffer source;
+
+        private ByteBuffer current() {
+            while ((source == null || !source.hasRemaining()) && chunk < chunks.size()) {
+                source = chunks.get(chunk++).duplicate();
+                source.rewind();
+            }
+            return source != null && source.hasRemaining() ? source : null;
+        }
+
+        @Override
+        public int read() {
+            final ByteBuffer current = current();
+            return current == null ? -1 : current.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            final ByteBuffer current = current();
+            if (current == null) {
+                return -1;
+            }
+            final int count = Math.min(length, current.remaining());
+            current.get(bytes, offset, count);
+            return count;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package org.graylog.jest.restclient.encoding;
+
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzips large request payloads on several cores.
+ * <p>
+ * The payload is split into fixed-size blocks which are deflated concurrently on a {@link ForkJoinPool}. Each
+ * block is primed with the last 32 KB of the block before it as dictionary, so the compression ratio stays close
+ * to that of a single deflater, and all but the last block end with a sync flush, which aligns them to a byte
+ * boundary. The deflated blocks are concatenated into a single gzip member, like <code>pigz</code> does.
+ * </p>
+ * <p>
+ * A single member is used instead of one gzip member per block, because some HTTP servers, e.g. those built on
+ * Netty's default zlib decoder, silently stop after the first member of a concatenated gzip stream.
+ * </p>
+ */
+public class ParallelGzipCompressor {
+
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final byte[] GZIP_HEADER = {
+            0x1f, (byte) 0x8b, // magic
+            Deflater.DEFLATED, // compression method
+            0, // flags
+            0, 0, 0, 0, // modification time
+            0, // extra flags
+            (byte) 0xff // operating system: unknown
+    };
+    private static final int GZIP_TRAILER_SIZE = 8;
+
+    private final ForkJoinPool pool;
+    private final int blockSize;
+    private final int minPayloadSize;
+    private final int level;
+
+    private ParallelGzipCompressor(Builder builder) {
+        this.pool = builder.pool;
+        this.blockSize = builder.blockSize;
+        this.minPayloadSize = builder.minPayloadSize;
+        this.level = builder.level;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return whether a payload of the given size is large enough to be compressed in parallel
+     */
+    public boolean isParallel(long payloadSize) {
+        return payloadSize >= minPayloadSize;
+    }
+
+    /**
+     * @return the gzipped payload as entity with <code>Content-Encoding: gzip</code>
+     */
+    public ByteArrayEntity compress(byte[] payload, ContentType contentType) {
+        final ByteArrayEntity entity = new ByteArrayEntity(compress(payload), contentType);
+        entity.setContentEncoding("gzip");
+        return entity;
+    }
+
+    /**
+     * @return the payload as gzip stream of a single member
+     */
+    public byte[] compress(byte[] payload) {
+        final int blocks = Math.max(1, (payload.length + blockSize - 1) / blockSize);
+        final List<ForkJoinTask<byte[]>> tasks = new ArrayList<>(blocks);
+        for (int i = 0; i < blocks; i++) {
+            final int offset = i * blockSize;
+            final int length = Math.min(blockSize, payload.length - offset);
+            final boolean last = i == blocks - 1;
+            tasks.add(pool.submit(() -> deflate(payload, offset, length, last)));
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+
+        final List<byte[]> deflated = new ArrayList<>(blocks);
+        int size = GZIP_HEADER.length + GZIP_TRAILER_SIZE;
+        for (ForkJoinTask<byte[]> task : tasks) {
+            final byte[] block = task.join();
+            deflated.add(block);
+            size += block.length;
+        }
+
+        final byte[] gzip = Arrays.copyOf(GZIP_HEADER, size);
+        int position = GZIP_HEADER.length;
+        for (byte[] block : deflated) {
+            System.arraycopy(block, 0, gzip, position, block.length);
+            position += block.length;
+        }
+        writeIntLE(gzip, position, (int) crc.getValue());
+        writeIntLE(gzip, position + 4, payload.length);
+        return gzip;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    private byte[] deflate(byte[] payload, int offset, int length, boolean last) {
+        final Deflater deflater = new Deflater(level, true);
+        try {
+            if (offset > 0) {
+                final int dictionaryLength = Math.min(DICTIONARY_SIZE, offset);
+                deflater.setDictionary(payload, offset - dictionaryLength, dictionaryLength);
+            }
+            deflater.setInput(payload, offset, length);
+            final int flush = last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH;
+            if (last) {
+                deflater.finish();
+            }
+
+            byte[] output = new byte[Math.max(64, length / 2)];
+            int outputLength = 0;
+            while (true) {
+                if (outputLength == output.length) {
+                    output = Arrays.copyOf(output, output.length * 2);
+                }
+                outputLength += deflater.deflate(output, outputLength, output.length - outputLength, flush);
+                // a flush is complete if it left room in the output buffer
+                final boolean done = last ? deflater.finished() : outputLength < output.length && deflater.needsInput();
+                if (done) {
+                    return Arrays.copyOf(output, outputLength);
+                }
+            }
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void writeIntLE(byte[] target, int offset, int value) {
+        target[offset] = (byte) value;
+        target[offset + 1] = (byte) (value >>> 8);
+        target[offset + 2] = (byte) (value >>> 16);
+        target[offset + 3] = (byte) (value >>> 24);
+    }
+
+    public static class Builder {
+        private ForkJoinPool pool = ForkJoinPool.commonPool();
+        private int blockSize = 1024 * 1024;
+        private int minPayloadSize = 4 * 1024 * 1024;
+        private int level = Deflater.DEFAULT_COMPRESSION;
+
+        private Builder() {
+        }
+
+        /**
+         * Pool compressing the blocks, defaults to the common pool.
+         */
+        public Builder pool(ForkJoinPool pool) {
+            if (pool == null) {
+                throw new IllegalArgumentException("pool must not be null");
+            }
+            this.pool = pool;
+            return this;
+        }
+
+        /**
+         * Size of the blocks compressed concurrently, defaults to 1 MB. Smaller blocks spread better across
+         * cores but compress slightly worse.
+         */
+        public Builder blockSize(int blockSize) {
+            if (blockSize < DICTIONARY_SIZE) {
+                throw new IllegalArgumentException("blockSize must be at least " + DICTIONARY_SIZE);
+            }
+            this.blockSize = blockSize;
+            return this;
+        }
+
+        /**
+         * Smaller payloads are compressed on the calling thread as before, defaults to 4 MB.
+         */
+        public Builder minPayloadSize(int minPayloadSize) {
+            if (minPayloadSize < 0) {
+                throw new IllegalArgumentException("minPayloadSize must not be negative");
+            }
+            this.minPayloadSize = minPayloadSize;
+            return this;
+        }
+
+        /**
+         * Deflate compression level from 0 to 9, defaults to {@link Deflater#DEFAULT_COMPRESSION}.
+         */
+        public Builder level(int level) {
+            if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+                throw new IllegalArgumentException("level must be between 0 and 9");
+            }
+            this.level = level;
+            return this;
+        }
+
+        public ParallelGzipCompressor build() {
+            return new ParallelGzipCompressor(this);
+        }
+    }
+}
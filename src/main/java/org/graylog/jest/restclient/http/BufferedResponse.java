@@ -0,0 +1,70 @@
+package org.graylog.jest.restclient.http;
+
+import org.apache.http.StatusLine;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+
+import java.io.IOException;
+
+/**
+ * Status line, content type and body of a response read into memory, so it can be turned into results
+ * of several actions.
+ */
+public class BufferedResponse {
+    private final StatusLine statusLine;
+    private final String contentType;
+    private final String body;
+    private final ResponseException responseException;
+
+    public BufferedResponse(StatusLine statusLine, String contentType, String body) {
+        this(statusLine, contentType, body, null);
+    }
+
+    private BufferedResponse(StatusLine statusLine, String contentType, String body, ResponseException responseException) {
+        this.statusLine = statusLine;
+        this.contentType = contentType;
+        this.body = body;
+        this.responseException = responseException;
+    }
+
+    public static BufferedResponse read(Response response) throws IOException {
+        return read(response, null);
+    }
+
+    /**
+     * Reads the error response the REST client has reported as exception.
+     */
+    public static BufferedResponse read(ResponseException responseException) throws IOException {
+        return read(responseException.getResponse(), responseException);
+    }
+
+    private static BufferedResponse read(Response response, ResponseException responseException) throws IOException {
+        return new BufferedResponse(
+                response.getStatusLine(),
+                response.getHeader("Content-Type"),
+                response.getEntity() == null ? null : EntityUtils.toString(response.getEntity()),
+                responseException
+        );
+    }
+
+    public StatusLine getStatusLine() {
+        return statusLine;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    /**
+     * @return the exception the REST client has reported the response with, or {@code null} if it was not an
+     * error response
+     */
+    public ResponseException getResponseException() {
+        return responseException;
+    }
+}
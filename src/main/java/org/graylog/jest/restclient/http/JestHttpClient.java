@@ -7,6 +7,11 @@ import io.searchbox.client.AbstractJestClient;
 import io.searchbox.client.JestResult;
 import io.searchbox.client.JestResultHandler;
 import io.searchbox.client.config.exception.CouldNotConnectException;
+import io.searchbox.core.DocumentResult;
+import io.searchbox.core.MultiGet;
+import io.searchbox.core.MultiSearch;
+import io.searchbox.core.SearchResult;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpHost;
@@ -21,10 +26,22 @@ import org.elasticsearch.client.Response;
 import org.elasticsearch.client.ResponseException;
 import org.elasticsearch.client.ResponseListener;
 import org.elasticsearch.client.RestClient;
+import org.graylog.jest.restclient.cache.DocumentCache;
+import org.graylog.jest.restclient.cache.QueryCache;
+import org.graylog.jest.restclient.decoding.MultiItemHandler;
+import org.graylog.jest.restclient.decoding.MultiResponseDecoder;
+import org.graylog.jest.restclient.encoding.BulkEncoder;
+import org.graylog.jest.restclient.encoding.DirectBulk;
+import org.graylog.jest.restclient.encoding.DirectBulkEntity;
+import org.graylog.jest.restclient.encoding.ParallelGzipCompressor;
+import org.graylog.jest.restclient.scheduling.TenantScheduler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -32,6 +49,16 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * @author Dogukan Sonmez
@@ -41,12 +68,42 @@ public class JestHttpClient extends AbstractJestClient {
 
     protected static final Logger log = LoggerFactory.getLogger(JestHttpClient.class);
 
+    private static final Executor DEFAULT_STREAMING_EXECUTOR = defaultStreamingExecutor();
+
     protected ContentType requestContentType = ContentType.APPLICATION_JSON.withCharset(StandardCharsets.UTF_8);
 
     private RestClient restClient;
 
     private HttpClientContext httpClientContextTemplate;
 
+    private TenantScheduler tenantScheduler;
+
+    private RequestCoalescer requestCoalescer;
+
+    private QueryCache queryCache;
+
+    private DocumentCache documentCache;
+
+    private BulkEncoder bulkEncoder;
+
+    private ParallelGzipCompressor parallelGzipCompressor;
+
+    private Function<HttpHost, RestClient> nodeRestClientFactory;
+
+    private final ConcurrentMap<HttpHost, RestClient> nodeRestClients = new ConcurrentHashMap<>();
+
+    private final ScrollRegistry scrollRegistry = new ScrollRegistry(this);
+
+    private static ExecutorService defaultStreamingExecutor() {
+        final AtomicInteger threads = new AtomicInteger();
+        // idle threads terminate on their own
+        return Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "jest-streaming-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
     /**
      * @throws IOException              in case of a problem or the connection was aborted during request,
      *                                  or in case of a problem while reading the response stream
@@ -54,13 +111,54 @@ public class JestHttpClient extends AbstractJestClient {
      */
     @Override
     public <T extends JestResult> T execute(Action<T> clientRequest) throws IOException {
+        return execute(TenantScheduler.DEFAULT_TENANT, clientRequest);
+    }
+
+    /**
+     * Executes the request on behalf of the given tenant. If a {@link TenantScheduler} is configured the calling
+     * thread waits until the tenant's turn comes up, otherwise the tenant is ignored.
+     *
+     * @see #execute(Action)
+     */
+    public <T extends JestResult> T execute(String tenant, Action<T> clientRequest) throws IOException {
+        if (tenantScheduler == null && !isCoalesced(clientRequest) && !isCached(clientRequest)) {
+            if (isDocumentCached(clientRequest)) {
+                final BufferedResponse cached = documentCache.get(clientRequest);
+                if (cached != null) {
+                    return deserializeResponse(cached, clientRequest);
+                }
+            }
+            return executeDirectly(clientRequest);
+        }
+
+        final JestResultFuture<T> future = new JestResultFuture<>();
+        executeAsync(tenant, clientRequest, future, true);
+        return future.getResult();
+    }
+
+    private <T extends JestResult> T executeDirectly(Action<T> clientRequest) throws IOException {
         final String elasticSearchRestUrl = getRequestURL("", clientRequest.getURI()); // getRequestURL(getNextServer(), clientRequest.getURI());
         final String methodName = clientRequest.getRestMethodName();
         log.debug("Request method={} url={}", methodName, elasticSearchRestUrl);
 
         final List<Header> headers = constructHeaders(clientRequest.getHeaders());
-        final String payload = clientRequest.getData(gson);
-        final HttpEntity entity = constructEntity(payload);
+        final HttpEntity entity = constructEntity(clientRequest);
+
+        if (entity instanceof DirectBulkEntity) {
+            // The synchronous call may give up waiting while the exchange still writes from the pooled buffers,
+            // so they are released by the completion of the exchange only.
+            final JestResultFuture<T> future = new JestResultFuture<>();
+            restClient.performRequestAsync(
+                    methodName,
+                    elasticSearchRestUrl,
+                    Collections.emptyMap(),
+                    entity,
+                    new EntityReleasingResponseListener((DirectBulkEntity) entity,
+                            new DefaultResponseListener<>(clientRequest, future, true)),
+                    headers.toArray(new Header[0])
+            );
+            return future.getResult();
+        }
 
         try {
             final Response response = restClient.performRequest(
@@ -79,9 +177,21 @@ public class JestHttpClient extends AbstractJestClient {
         }
     }
 
+    private HttpEntity constructEntity(Action<?> clientRequest) {
+        if (bulkEncoder != null && clientRequest instanceof DirectBulk && !isRequestCompressionEnabled()) {
+            final DirectBulkEntity entity = bulkEncoder.encode((DirectBulk) clientRequest, gson);
+            entity.setContentType(requestContentType.toString());
+            return entity;
+        }
+        return constructEntity(clientRequest.getData(gson));
+    }
+
     private HttpEntity constructEntity(String payload) {
         final HttpEntity entity;
-        if (payload != null) {
+        if (payload != null && isRequestCompressionEnabled()
+                && parallelGzipCompressor != null && parallelGzipCompressor.isParallel(payload.length())) {
+            entity = parallelGzipCompressor.compress(payload.getBytes(requestContentType.getCharset()), requestContentType);
+        } else if (payload != null) {
             EntityBuilder entityBuilder = EntityBuilder.create()
                     .setText(payload)
                     .setContentType(requestContentType);
@@ -106,29 +216,247 @@ public class JestHttpClient extends AbstractJestClient {
         return headers;
     }
 
+    /**
+     * Error responses of Elasticsearch are reported to the result handler as {@link ResponseException}.
+     *
+     * @see #executeAsyncForResult(Action, JestResultHandler)
+     */
     @Override
     public <T extends JestResult> void executeAsync(final Action<T> clientRequest, final JestResultHandler<? super T> resultHandler) {
+        executeAsync(TenantScheduler.DEFAULT_TENANT, clientRequest, resultHandler, false);
+    }
+
+    /**
+     * Executes the request asynchronously on behalf of the given tenant. If a {@link TenantScheduler} is configured
+     * the request is queued until the tenant's turn comes up, otherwise the tenant is ignored.
+     * <p>
+     * A request refused because the tenant's queue is full is reported as {@link RejectedExecutionException}
+     * to the result handler, error responses of Elasticsearch as {@link ResponseException}.
+     * </p>
+     */
+    public <T extends JestResult> void executeAsync(final String tenant, final Action<T> clientRequest, final JestResultHandler<? super T> resultHandler) {
+        executeAsync(tenant, clientRequest, resultHandler, false);
+    }
+
+    /**
+     * Executes the request asynchronously like {@link #executeAsync(Action, JestResultHandler)}, but hands error
+     * responses of Elasticsearch to the result handler as unsuccessful results, the same way {@link #execute(Action)}
+     * returns them. Only requests which could not be exchanged with Elasticsearch are reported as failures.
+     */
+    public <T extends JestResult> void executeAsyncForResult(final Action<T> clientRequest, final JestResultHandler<? super T> resultHandler) {
+        executeAsync(TenantScheduler.DEFAULT_TENANT, clientRequest, resultHandler, true);
+    }
+
+    private <T extends JestResult> void executeAsync(final String tenant, final Action<T> clientRequest, final JestResultHandler<? super T> resultHandler,
+                                                     final boolean errorResponsesAsResults) {
         final String elasticSearchRestUrl = getRequestURL("", clientRequest.getURI()); // getRequestURL(getNextServer(), clientRequest.getURI());
         final String methodName = clientRequest.getRestMethodName();
-        log.debug("Request method={} url={}", methodName, elasticSearchRestUrl);
 
-        final List<Header> headers = constructHeaders(clientRequest.getHeaders());
-        final String payload = clientRequest.getData(gson);
-        final HttpEntity entity = constructEntity(payload);
+        if (isDocumentCached(clientRequest)) {
+            final BufferedResponse cached = documentCache.get(clientRequest);
+            // a cached missing document can only be reported as result, a failure needs the response of the request
+            if (cached != null && (errorResponsesAsResults || cached.getStatusLine().getStatusCode() / 100 == 2)) {
+                new BufferedResultListener<>(clientRequest, resultHandler, errorResponsesAsResults).onResponse(cached);
+                return;
+            }
+        }
+
+        if (isCached(clientRequest) || isCoalesced(clientRequest)) {
+            final String payload = clientRequest.getData(gson);
+            RequestCoalescer.Listener resultListener = new BufferedResultListener<>(clientRequest, resultHandler, errorResponsesAsResults);
+            if (isCached(clientRequest)) {
+                final QueryCache.Lookup lookup = queryCache.lookup(methodName, elasticSearchRestUrl, clientRequest.getHeaders(), payload);
+                if (lookup.getResponse() != null) {
+                    resultListener.onResponse(lookup.getResponse());
+                    return;
+                }
+                resultListener = new CachingResponseListener(lookup, resultListener);
+            }
+            if (isCoalesced(clientRequest)) {
+                requestCoalescer.execute(
+                        clientRequest.getClass(),
+                        methodName,
+                        elasticSearchRestUrl,
+                        clientRequest.getHeaders(),
+                        payload,
+                        resultListener,
+                        listener -> schedule(tenant, restClient, methodName, elasticSearchRestUrl, clientRequest.getHeaders(),
+                                () -> constructEntity(payload), new BufferingResponseListener(listener))
+                );
+            } else {
+                schedule(tenant, restClient, methodName, elasticSearchRestUrl, clientRequest.getHeaders(),
+                        () -> constructEntity(payload), new BufferingResponseListener(resultListener));
+            }
+        } else {
+            schedule(tenant, restClient, methodName, elasticSearchRestUrl, clientRequest.getHeaders(),
+                    () -> constructEntity(clientRequest), new DefaultResponseListener<>(clientRequest, resultHandler, errorResponsesAsResults));
+        }
+    }
+
+    /**
+     * Executes the request asynchronously on the given node instead of the next node of the server pool, e.g. to
+     * send bulk items straight to the node holding their shards. Requests to a node are never coalesced.
+     * <p>
+     * Without a node REST client factory, see {@link #setNodeRestClientFactory(Function)}, the node is ignored.
+     * Error responses of Elasticsearch are reported to the result handler as {@link ResponseException}.
+     * </p>
+     */
+    public <T extends JestResult> void executeAsync(final HttpHost node, final Action<T> clientRequest, final JestResultHandler<? super T> resultHandler) {
+        executeAsync(node, clientRequest, resultHandler, false);
+    }
+
+    /**
+     * Executes the request asynchronously on the given node, handing error responses of Elasticsearch to the
+     * result handler as unsuccessful results.
+     *
+     * @see #executeAsync(HttpHost, Action, JestResultHandler)
+     * @see #executeAsyncForResult(Action, JestResultHandler)
+     */
+    public <T extends JestResult> void executeAsyncForResult(final HttpHost node, final Action<T> clientRequest, final JestResultHandler<? super T> resultHandler) {
+        executeAsync(node, clientRequest, resultHandler, true);
+    }
 
-        restClient.performRequestAsync(
+    private <T extends JestResult> void executeAsync(final HttpHost node, final Action<T> clientRequest, final JestResultHandler<? super T> resultHandler,
+                                                     final boolean errorResponsesAsResults) {
+        final String elasticSearchRestUrl = getRequestURL("", clientRequest.getURI());
+        schedule(TenantScheduler.DEFAULT_TENANT, nodeRestClient(node), clientRequest.getRestMethodName(), elasticSearchRestUrl,
+                clientRequest.getHeaders(), () -> constructEntity(clientRequest),
+                new DefaultResponseListener<>(clientRequest, resultHandler, errorResponsesAsResults));
+    }
+
+    /**
+     * Executes the multi search asynchronously, handing the result of every search to the handler as soon as it has
+     * been decoded instead of decoding the whole response into a {@link io.searchbox.core.MultiSearchResult} first,
+     * see {@link MultiResponseDecoder}. The handler is called on a pool of daemon threads.
+     *
+     * @see #executeStreaming(MultiSearch, MultiItemHandler, Executor)
+     */
+    public CompletableFuture<Integer> executeStreaming(MultiSearch multiSearch, MultiItemHandler<? super SearchResult> handler) {
+        return executeStreaming(multiSearch, handler, DEFAULT_STREAMING_EXECUTOR);
+    }
+
+    /**
+     * Executes the multi search asynchronously, handing the result of every search to the handler as soon as it has
+     * been decoded instead of decoding the whole response into a {@link io.searchbox.core.MultiSearchResult} first,
+     * see {@link MultiResponseDecoder}.
+     * <p>
+     * The REST client still receives the whole response before decoding starts, as it doesn't accept response
+     * consumers of other packages, but neither the response string nor the JSON tree of all searches is built, and
+     * the first results are handled while the others are decoded. Streaming requests are never coalesced and bypass
+     * the query cache and the document cache, so a streamed multi get doesn't fill the latter.
+     * </p>
+     *
+     * @param executor decodes the response and calls the handler, keeping both off the I/O threads of the client
+     * @return future completing with the number of searches once all have been handled, or exceptionally if the
+     * multi search failed as a whole or the handler threw an exception
+     */
+    public CompletableFuture<Integer> executeStreaming(MultiSearch multiSearch, MultiItemHandler<? super SearchResult> handler,
+                                                      Executor executor) {
+        return executeStreaming(multiSearch, MultiResponseDecoder.multiSearch(gson), handler, executor);
+    }
+
+    /**
+     * Executes the multi get asynchronously, handing every document to the handler as soon as it has been decoded.
+     * The handler is called on a pool of daemon threads.
+     *
+     * @see #executeStreaming(MultiSearch, MultiItemHandler, Executor)
+     */
+    public CompletableFuture<Integer> executeStreaming(MultiGet multiGet, MultiItemHandler<? super DocumentResult> handler) {
+        return executeStreaming(multiGet, handler, DEFAULT_STREAMING_EXECUTOR);
+    }
+
+    /**
+     * Executes the multi get asynchronously, handing every document to the handler as soon as it has been decoded.
+     *
+     * @see #executeStreaming(MultiSearch, MultiItemHandler, Executor)
+     */
+    public CompletableFuture<Integer> executeStreaming(MultiGet multiGet, MultiItemHandler<? super DocumentResult> handler,
+                                                      Executor executor) {
+        return executeStreaming(multiGet, MultiResponseDecoder.multiGet(gson), handler, executor);
+    }
+
+    private <R extends JestResult> CompletableFuture<Integer> executeStreaming(Action<?> clientRequest, MultiResponseDecoder<R> decoder,
+                                                                               MultiItemHandler<? super R> handler, Executor executor) {
+        final CompletableFuture<Integer> future = new CompletableFuture<>();
+        final String elasticSearchRestUrl = getRequestURL("", clientRequest.getURI());
+        schedule(TenantScheduler.DEFAULT_TENANT, restClient, clientRequest.getRestMethodName(), elasticSearchRestUrl,
+                clientRequest.getHeaders(), () -> constructEntity(clientRequest),
+                new StreamingResponseListener<>(decoder, handler, executor, future));
+        return future;
+    }
+
+    private RestClient nodeRestClient(HttpHost node) {
+        if (nodeRestClientFactory == null) {
+            return restClient;
+        }
+        return nodeRestClients.computeIfAbsent(node, nodeRestClientFactory);
+    }
+
+    private boolean isCoalesced(Action<?> clientRequest) {
+        return requestCoalescer != null && requestCoalescer.isEnabledFor(clientRequest);
+    }
+
+    private boolean isCached(Action<?> clientRequest) {
+        return queryCache != null && queryCache.isEnabledFor(clientRequest);
+    }
+
+    private boolean isDocumentCached(Action<?> clientRequest) {
+        return documentCache != null && documentCache.isEnabledFor(clientRequest);
+    }
+
+    private void schedule(String tenant, RestClient target, String methodName, String elasticSearchRestUrl,
+                          Map<String, Object> headers, Supplier<HttpEntity> entity, ResponseListener responseListener) {
+        if (tenantScheduler == null) {
+            performRequestAsync(target, methodName, elasticSearchRestUrl, headers, entity, responseListener);
+            return;
+        }
+
+        try {
+            tenantScheduler.submit(tenant, permit -> {
+                try {
+                    performRequestAsync(target, methodName, elasticSearchRestUrl, headers, entity,
+                            new PermitReleasingResponseListener(permit, responseListener));
+                } catch (RuntimeException e) {
+                    permit.release(false);
+                    responseListener.onFailure(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            responseListener.onFailure(e);
+        }
+    }
+
+    private void performRequestAsync(RestClient target, String methodName, String elasticSearchRestUrl, Map<String, Object> headers,
+                                     Supplier<HttpEntity> entitySupplier, ResponseListener responseListener) {
+        log.debug("Request method={} url={}", methodName, elasticSearchRestUrl);
+
+        final HttpEntity entity = entitySupplier.get();
+        target.performRequestAsync(
                 methodName,
                 elasticSearchRestUrl,
                 Collections.emptyMap(),
                 entity,
-                new DefaultResponseListener<>(clientRequest, resultHandler),
-                headers.toArray(new Header[0])
+                entity instanceof DirectBulkEntity
+                        ? new EntityReleasingResponseListener((DirectBulkEntity) entity, responseListener)
+                        : responseListener,
+                constructHeaders(headers).toArray(new Header[0])
         );
     }
 
     @Override
     public void shutdownClient() {
+        // the contexts are cleared while the REST client is still open
+        scrollRegistry.shutdown();
         super.shutdownClient();
+        // the clients of the nodes may share the connection pool of the REST client
+        for (RestClient nodeRestClient : nodeRestClients.values()) {
+            try {
+                nodeRestClient.close();
+            } catch (IOException ex) {
+                log.error("Exception occurred while shutting down the REST client of a node.", ex);
+            }
+        }
+        nodeRestClients.clear();
         try {
             restClient.close();
         } catch (IOException ex) {
@@ -146,17 +474,29 @@ public class JestHttpClient extends AbstractJestClient {
     }
 
     private <T extends JestResult> T deserializeResponse(Response response, Action<T> clientRequest) throws IOException {
+        return deserializeResponse(BufferedResponse.read(response), clientRequest);
+    }
+
+    private <T extends JestResult> T deserializeResponse(BufferedResponse response, Action<T> clientRequest) throws IOException {
         StatusLine statusLine = response.getStatusLine();
         try {
-            return clientRequest.createNewElasticSearchResult(
-                    response.getEntity() == null ? null : EntityUtils.toString(response.getEntity()),
+            final T result = clientRequest.createNewElasticSearchResult(
+                    response.getBody(),
                     statusLine.getStatusCode(),
                     statusLine.getReasonPhrase(),
                     gson
             );
+            scrollRegistry.onResult(clientRequest, result, gson);
+            if (queryCache != null) {
+                queryCache.onResult(clientRequest, result);
+            }
+            if (documentCache != null) {
+                documentCache.onResult(clientRequest, result, gson);
+            }
+            return result;
         } catch (com.google.gson.JsonSyntaxException e) {
-            String mimeType = response.getHeader("Content-Type");
-            if (!mimeType.startsWith("application/json")) {
+            String mimeType = response.getContentType();
+            if (mimeType == null || !mimeType.startsWith("application/json")) {
                 // probably a proxy that responded in text/html
                 final String message = "Request yielded " + mimeType + ", should be json: " + statusLine.toString();
                 throw new IOException(message, e);
@@ -184,6 +524,89 @@ public class JestHttpClient extends AbstractJestClient {
         this.restClient = restClient;
     }
 
+    /**
+     * @return the registry of the scroll contexts opened through this client
+     */
+    public ScrollRegistry getScrollRegistry() {
+        return scrollRegistry;
+    }
+
+    public TenantScheduler getTenantScheduler() {
+        return tenantScheduler;
+    }
+
+    public void setTenantScheduler(TenantScheduler tenantScheduler) {
+        this.tenantScheduler = tenantScheduler;
+    }
+
+    public RequestCoalescer getRequestCoalescer() {
+        return requestCoalescer;
+    }
+
+    public void setRequestCoalescer(RequestCoalescer requestCoalescer) {
+        this.requestCoalescer = requestCoalescer;
+    }
+
+    public QueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * Answers repeated read requests from the given cache, which is invalidated by the writes executed through
+     * this client.
+     */
+    public void setQueryCache(QueryCache queryCache) {
+        this.queryCache = queryCache;
+    }
+
+    public DocumentCache getDocumentCache() {
+        return documentCache;
+    }
+
+    /**
+     * Answers gets of recently fetched documents from the given cache, which is updated by the writes executed
+     * through this client.
+     */
+    public void setDocumentCache(DocumentCache documentCache) {
+        this.documentCache = documentCache;
+    }
+
+    public BulkEncoder getBulkEncoder() {
+        return bulkEncoder;
+    }
+
+    /**
+     * Encodes {@link DirectBulk} requests into pooled direct buffers instead of a string. Ignored if request
+     * compression is enabled.
+     */
+    public void setBulkEncoder(BulkEncoder bulkEncoder) {
+        this.bulkEncoder = bulkEncoder;
+    }
+
+    public ParallelGzipCompressor getParallelGzipCompressor() {
+        return parallelGzipCompressor;
+    }
+
+    /**
+     * Gzips large payloads on several cores instead of the calling thread. Ignored unless request compression is
+     * enabled.
+     */
+    public void setParallelGzipCompressor(ParallelGzipCompressor parallelGzipCompressor) {
+        this.parallelGzipCompressor = parallelGzipCompressor;
+    }
+
+    public Function<HttpHost, RestClient> getNodeRestClientFactory() {
+        return nodeRestClientFactory;
+    }
+
+    /**
+     * Creates the REST clients used by {@link #executeAsync(HttpHost, Action, JestResultHandler)}, one per node.
+     * They are created on first use and closed on shutdown.
+     */
+    public void setNodeRestClientFactory(Function<HttpHost, RestClient> nodeRestClientFactory) {
+        this.nodeRestClientFactory = nodeRestClientFactory;
+    }
+
     public Gson getGson() {
         return gson;
     }
@@ -217,10 +640,16 @@ public class JestHttpClient extends AbstractJestClient {
     protected class DefaultResponseListener<T extends JestResult> implements ResponseListener {
         private final Action<T> clientRequest;
         private final JestResultHandler<? super T> resultHandler;
+        private final boolean errorResponsesAsResults;
 
         public DefaultResponseListener(Action<T> clientRequest, JestResultHandler<? super T> resultHandler) {
+            this(clientRequest, resultHandler, false);
+        }
+
+        public DefaultResponseListener(Action<T> clientRequest, JestResultHandler<? super T> resultHandler, boolean errorResponsesAsResults) {
             this.clientRequest = clientRequest;
             this.resultHandler = resultHandler;
+            this.errorResponsesAsResults = errorResponsesAsResults;
         }
 
         @Override
@@ -240,12 +669,215 @@ public class JestHttpClient extends AbstractJestClient {
 
         @Override
         public void onFailure(Exception ex) {
+            if (errorResponsesAsResults && ex instanceof ResponseException) {
+                // same as the synchronous execution, error responses are reported as unsuccessful results
+                log.debug("Request failed", ex);
+                onSuccess(((ResponseException) ex).getResponse());
+                return;
+            }
+            log.error("Exception occurred during async execution.", ex);
+            resultHandler.failed(translateFailure(ex));
+        }
+    }
+
+    private static Exception translateFailure(Exception ex) {
+        if (ex instanceof HttpHostConnectException) {
+            String host = ((HttpHostConnectException) ex).getHost().toURI();
+            return new CouldNotConnectException(host, ex);
+        }
+        return ex;
+    }
+
+    private static class PermitReleasingResponseListener implements ResponseListener {
+        private final TenantScheduler.Permit permit;
+        private final ResponseListener delegate;
+
+        private PermitReleasingResponseListener(TenantScheduler.Permit permit, ResponseListener delegate) {
+            this.permit = permit;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void onSuccess(Response response) {
+            permit.release(true);
+            delegate.onSuccess(response);
+        }
+
+        @Override
+        public void onFailure(Exception ex) {
+            // error responses have been served by Elasticsearch, only transport failures count as failed
+            permit.release(ex instanceof ResponseException);
+            delegate.onFailure(ex);
+        }
+    }
+
+    private static class EntityReleasingResponseListener implements ResponseListener {
+        private final DirectBulkEntity entity;
+        private final ResponseListener delegate;
+
+        private EntityReleasingResponseListener(DirectBulkEntity entity, ResponseListener delegate) {
+            this.entity = entity;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void onSuccess(Response response) {
+            entity.release();
+            delegate.onSuccess(response);
+        }
+
+        @Override
+        public void onFailure(Exception ex) {
+            entity.release();
+            delegate.onFailure(ex);
+        }
+    }
+
+    private static class BufferingResponseListener implements ResponseListener {
+        private final RequestCoalescer.Listener listener;
+
+        private BufferingResponseListener(RequestCoalescer.Listener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void onSuccess(Response response) {
+            final BufferedResponse bufferedResponse;
+            try {
+                bufferedResponse = BufferedResponse.read(response);
+            } catch (Exception e) {
+                listener.onFailure(e);
+                return;
+            }
+            listener.onResponse(bufferedResponse);
+        }
+
+        @Override
+        public void onFailure(Exception ex) {
+            if (ex instanceof ResponseException) {
+                // buffered like any other response, each listener decides whether it is a failure
+                final BufferedResponse bufferedResponse;
+                try {
+                    bufferedResponse = BufferedResponse.read((ResponseException) ex);
+                } catch (Exception e) {
+                    listener.onFailure(e);
+                    return;
+                }
+                listener.onResponse(bufferedResponse);
+                return;
+            }
             log.error("Exception occurred during async execution.", ex);
-            if (ex instanceof HttpHostConnectException) {
-                String host = ((HttpHostConnectException) ex).getHost().toURI();
-                resultHandler.failed(new CouldNotConnectException(host, ex));
+            listener.onFailure(translateFailure(ex));
+        }
+    }
+
+    private static class StreamingResponseListener<R extends JestResult> implements ResponseListener {
+        private static final int MAX_ERROR_BODY_LENGTH = 1000;
+
+        private final MultiResponseDecoder<R> decoder;
+        private final MultiItemHandler<? super R> handler;
+        private final Executor executor;
+        private final CompletableFuture<Integer> future;
+
+        private StreamingResponseListener(MultiResponseDecoder<R> decoder, MultiItemHandler<? super R> handler,
+                                          Executor executor, CompletableFuture<Integer> future) {
+            this.decoder = decoder;
+            this.handler = handler;
+            this.executor = executor;
+            this.future = future;
+        }
+
+        @Override
+        public void onSuccess(Response response) {
+            // called on an I/O thread, which mustn't wait for the handler
+            try {
+                executor.execute(() -> decode(response));
+            } catch (RejectedExecutionException e) {
+                future.completeExceptionally(e);
+            }
+        }
+
+        @Override
+        public void onFailure(Exception ex) {
+            if (ex instanceof ResponseException) {
+                onSuccess(((ResponseException) ex).getResponse());
                 return;
             }
+            log.error("Exception occurred during async execution.", ex);
+            future.completeExceptionally(translateFailure(ex));
+        }
+
+        private void decode(Response response) {
+            final StatusLine statusLine = response.getStatusLine();
+            final HttpEntity entity = response.getEntity();
+            try {
+                if (statusLine.getStatusCode() / 100 != 2 || entity == null) {
+                    final String body = entity == null ? "" : EntityUtils.toString(entity);
+                    future.completeExceptionally(new IOException("Request failed: " + statusLine + " "
+                            + StringUtils.abbreviate(body, MAX_ERROR_BODY_LENGTH)));
+                    return;
+                }
+                final Charset charset = ContentType.getOrDefault(entity).getCharset();
+                try (Reader reader = new InputStreamReader(entity.getContent(), charset == null ? StandardCharsets.UTF_8 : charset)) {
+                    future.complete(decoder.decode(reader, handler));
+                }
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static class CachingResponseListener implements RequestCoalescer.Listener {
+        private final QueryCache.Lookup lookup;
+        private final RequestCoalescer.Listener delegate;
+
+        private CachingResponseListener(QueryCache.Lookup lookup, RequestCoalescer.Listener delegate) {
+            this.lookup = lookup;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void onResponse(BufferedResponse response) {
+            lookup.store(response);
+            delegate.onResponse(response);
+        }
+
+        @Override
+        public void onFailure(Exception ex) {
+            delegate.onFailure(ex);
+        }
+    }
+
+    private class BufferedResultListener<T extends JestResult> implements RequestCoalescer.Listener {
+        private final Action<T> clientRequest;
+        private final JestResultHandler<? super T> resultHandler;
+        private final boolean errorResponsesAsResults;
+
+        private BufferedResultListener(Action<T> clientRequest, JestResultHandler<? super T> resultHandler, boolean errorResponsesAsResults) {
+            this.clientRequest = clientRequest;
+            this.resultHandler = resultHandler;
+            this.errorResponsesAsResults = errorResponsesAsResults;
+        }
+
+        @Override
+        public void onResponse(BufferedResponse response) {
+            if (!errorResponsesAsResults && response.getResponseException() != null) {
+                log.error("Exception occurred during async execution.", response.getResponseException());
+                resultHandler.failed(response.getResponseException());
+                return;
+            }
+            final T jestResult;
+            try {
+                jestResult = deserializeResponse(response, clientRequest);
+            } catch (Exception e) {
+                resultHandler.failed(e);
+                return;
+            }
+            resultHandler.completed(jestResult);
+        }
+
+        @Override
+        public void onFailure(Exception ex) {
             resultHandler.failed(ex);
         }
     }
@@ -0,0 +1,52 @@
+package org.graylog.jest.restclient.http;
+
+import io.searchbox.client.JestResultHandler;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A {@link JestResultHandler} which can be waited upon like a {@link java.util.concurrent.Future}.
+ * <p>
+ * {@link #getResult()} unwraps failures the same way the synchronous {@code execute} methods report them,
+ * so asynchronous code paths can be exposed with blocking semantics.
+ * </p>
+ */
+public class JestResultFuture<T> extends CompletableFuture<T> implements JestResultHandler<T> {
+
+    @Override
+    public void completed(T result) {
+        complete(result);
+    }
+
+    @Override
+    public void failed(Exception ex) {
+        completeExceptionally(ex);
+    }
+
+    /**
+     * Waits for the result.
+     *
+     * @throws IOException if the request failed with an {@link IOException} or the waiting thread was interrupted
+     */
+    public T getResult() throws IOException {
+        try {
+            return get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the response");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
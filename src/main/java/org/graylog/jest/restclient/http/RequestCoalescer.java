@@ -0,0 +1,191 @@
+package org.graylog.jest.restclient.http;
+
+import io.searchbox.action.Action;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Lets concurrent executions of identical read requests share a single HTTP exchange.
+ * <p>
+ * Requests are identical if method, URL, headers and payload are equal. The first request starts the exchange,
+ * every identical request arriving before its response is joined to it and gets its own result created from the
+ * shared response. Only actions of the configured types are coalesced, which must never include actions with
+ * side effects.
+ * </p>
+ */
+public class RequestCoalescer {
+
+    private final List<Class<? extends Action>> actionTypes;
+    private final ConcurrentMap<Key, InFlightRequest> inFlightRequests = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Class<?>, CoalescingStats> stats = new ConcurrentHashMap<>();
+
+    public RequestCoalescer(Collection<Class<? extends Action>> actionTypes) {
+        this.actionTypes = new ArrayList<>(actionTypes);
+    }
+
+    public boolean isEnabledFor(Action<?> action) {
+        for (Class<? extends Action> actionType : actionTypes) {
+            if (actionType.isInstance(action)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Joins the listener to an identical request in flight or, if there is none, starts a new exchange.
+     *
+     * @param exchange starts the HTTP exchange and reports its outcome to the given listener
+     */
+    public void execute(Class<?> actionType, String method, String url, Map<String, Object> headers, String payload,
+                        Listener listener, Consumer<Listener> exchange) {
+        final CoalescingStats actionStats = stats.computeIfAbsent(actionType, type -> new CoalescingStats());
+        final Key key = new Key(method, url, headers, payload);
+        while (true) {
+            final InFlightRequest request = new InFlightRequest(key);
+            final InFlightRequest existing = inFlightRequests.putIfAbsent(key, request);
+            if (existing == null) {
+                request.join(listener);
+                actionStats.exchanges.increment();
+                try {
+                    exchange.accept(request);
+                } catch (RuntimeException e) {
+                    request.onFailure(e);
+                }
+                return;
+            }
+            if (existing.join(listener)) {
+                actionStats.coalescedRequests.increment();
+                return;
+            }
+            // the existing request has just completed, start over
+            inFlightRequests.remove(key, existing);
+        }
+    }
+
+    public Map<Class<?>, CoalescingStats> getStats() {
+        return Collections.unmodifiableMap(stats);
+    }
+
+    public CoalescingStats getStats(Class<?> actionType) {
+        return stats.get(actionType);
+    }
+
+    public int getInFlightRequests() {
+        return inFlightRequests.size();
+    }
+
+    public interface Listener {
+        void onResponse(BufferedResponse response);
+
+        void onFailure(Exception ex);
+    }
+
+    public static class CoalescingStats {
+        private final LongAdder exchanges = new LongAdder();
+        private final LongAdder coalescedRequests = new LongAdder();
+
+        /**
+         * @return number of HTTP exchanges started
+         */
+        public long getExchanges() {
+            return exchanges.sum();
+        }
+
+        /**
+         * @return number of requests which were answered by an exchange started for an identical request
+         */
+        public long getCoalescedRequests() {
+            return coalescedRequests.sum();
+        }
+
+        @Override
+        public String toString() {
+            return "CoalescingStats{exchanges=" + getExchanges() + ", coalescedRequests=" + getCoalescedRequests() + '}';
+        }
+    }
+
+    private class InFlightRequest implements Listener {
+        private final Key key;
+        private final List<Listener> listeners = new ArrayList<>();
+        private boolean completed;
+
+        private InFlightRequest(Key key) {
+            this.key = key;
+        }
+
+        private synchronized boolean join(Listener listener) {
+            if (completed) {
+                return false;
+            }
+            listeners.add(listener);
+            return true;
+        }
+
+        private synchronized List<Listener> complete() {
+            completed = true;
+            inFlightRequests.remove(key, this);
+            return listeners;
+        }
+
+        @Override
+        public void onResponse(BufferedResponse response) {
+            for (Listener listener : complete()) {
+                listener.onResponse(response);
+            }
+        }
+
+        @Override
+        public void onFailure(Exception ex) {
+            for (Listener listener : complete()) {
+                listener.onFailure(ex);
+            }
+        }
+    }
+
+    private static class Key {
+        private final String method;
+        private final String url;
+        private final Map<String, Object> headers;
+        private final String payload;
+        private final int hashCode;
+
+        private Key(String method, String url, Map<String, Object> headers, String payload) {
+            this.method = method;
+            this.url = url;
+            this.headers = headers;
+            this.payload = payload;
+            this.hashCode = Objects.hash(method, url, headers, payload);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return hashCode == key.hashCode
+                    && Objects.equals(method, key.method)
+                    && Objects.equals(url, key.url)
+                    && Objects.equals(headers, key.headers)
+                    && Objects.equals(payload, key.payload);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -0,0 +1,445 @@
+package org.graylog.jest.restclient.http;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import io.searchbox.action.Action;
+import io.searchbox.client.JestResult;
+import io.searchbox.client.JestResultHandler;
+import io.searchbox.core.ClearScroll;
+import io.searchbox.core.Search;
+import io.searchbox.core.SearchScroll;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.UnsupportedEncodingException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps track of the scroll contexts opened through a {@link JestHttpClient}, so they are cleared instead of
+ * pinning search contexts and segment files on the data nodes until their keep-alive expires.
+ * <p>
+ * Every scroll id returned by a {@link Search} or {@link SearchScroll} is registered as live until a following
+ * {@link SearchScroll} replaces it or a {@link ClearScroll} clears it. Contexts still live when the client is
+ * shut down are cleared with a single clear scroll request. Every id is registered with the keep-alive it was
+ * requested with, contexts whose keep-alive has passed have been freed by Elasticsearch and are dropped without a
+ * request, so scrolls which are neither continued nor cleared don't accumulate.
+ * </p>
+ * <p>
+ * Scroll iterators additionally open a {@link Scope} which holds the ids of their contexts. Closing the scope
+ * clears them with a single request. If the iterator is garbage collected without having been closed, its contexts
+ * are cleared by a background thread, together with those of all other iterators collected at the same time.
+ * </p>
+ */
+public class ScrollRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(ScrollRegistry.class);
+
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
+    // assumed for scroll ids whose keep-alive can't be read, long enough not to drop contexts still in use
+    private static final long DEFAULT_KEEP_ALIVE_NANOS = TimeUnit.DAYS.toNanos(1);
+    private static final long EXPIRY_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final JestHttpClient client;
+    // scroll id to the System#nanoTime its keep-alive passes at
+    private final Map<String, Long> liveContexts = new ConcurrentHashMap<>();
+    private final AtomicLong lastExpiry = new AtomicLong(System.nanoTime());
+    // keeps the references themselves reachable until their owner has been collected
+    private final Set<OwnerReference> owners = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final ReferenceQueue<Object> collectedOwners = new ReferenceQueue<>();
+    private final LongAdder openedContexts = new LongAdder();
+    private final LongAdder clearedContexts = new LongAdder();
+    private final LongAdder abandonedScopes = new LongAdder();
+    private final LongAdder expiredContexts = new LongAdder();
+    private Thread reaper;
+    private boolean shutdown;
+
+    ScrollRegistry(JestHttpClient client) {
+        this.client = client;
+    }
+
+    /**
+     * Opens a scope for the scroll contexts of the given owner, usually a scroll iterator. The scope must not
+     * reference the owner, otherwise the owner is never collected.
+     */
+    public Scope open(Object owner) {
+        final Scope scope = new Scope();
+        owners.add(new OwnerReference(owner, scope, collectedOwners));
+        startReaper();
+        return scope;
+    }
+
+    /**
+     * @return number of scroll contexts which are open and haven't been cleared or expired yet
+     */
+    public int getLiveContexts() {
+        expire(System.nanoTime());
+        return liveContexts.size();
+    }
+
+    /**
+     * @return number of scroll contexts opened so far
+     */
+    public long getOpenedContexts() {
+        return openedContexts.sum();
+    }
+
+    /**
+     * @return number of scroll contexts cleared so far
+     */
+    public long getClearedContexts() {
+        return clearedContexts.sum();
+    }
+
+    /**
+     * @return number of scroll contexts dropped because their keep-alive passed before they were cleared
+     */
+    public long getExpiredContexts() {
+        return expiredContexts.sum();
+    }
+
+    /**
+     * @return number of scopes whose owner was garbage collected without closing them
+     */
+    public long getAbandonedScopes() {
+        return abandonedScopes.sum();
+    }
+
+    /**
+     * @return number of scopes which have been opened and neither closed nor abandoned yet
+     */
+    public int getOpenScopes() {
+        return owners.size();
+    }
+
+    /**
+     * Updates the live scroll contexts with the result of an action.
+     */
+    void onResult(Action<?> action, JestResult result, Gson gson) {
+        if (action instanceof ClearScroll) {
+            // 404 if none of the contexts existed anymore
+            if (result.isSucceeded() || result.getResponseCode() == 404) {
+                remove(clearedScrollIds(action.getData(gson)));
+            }
+            return;
+        }
+        final JsonObject json = result.getJsonObject();
+        final JsonElement returned = json == null || !result.isSucceeded() ? null : json.get("_scroll_id");
+        final String scrollId = returned != null && returned.isJsonPrimitive() ? returned.getAsString() : null;
+        final long now = System.nanoTime();
+        final long expiresAt = now + keepAliveNanos(action.getURI());
+        if (action instanceof SearchScroll) {
+            // the context lives on under the returned id, which is often the same, or is gone if it wasn't found
+            final String previous = scrollIdOf((SearchScroll) action, gson);
+            if (previous != null && !previous.equals(scrollId) && (scrollId != null || result.getResponseCode() == 404)) {
+                liveContexts.remove(previous);
+            }
+            if (scrollId != null) {
+                liveContexts.put(scrollId, expiresAt);
+            }
+        } else if (action instanceof Search && scrollId != null && liveContexts.put(scrollId, expiresAt) == null) {
+            openedContexts.increment();
+        }
+        if (now - lastExpiry.get() >= EXPIRY_INTERVAL_NANOS) {
+            expire(now);
+        }
+    }
+
+    /**
+     * Clears all live scroll contexts and stops the background thread, waiting a few seconds at most.
+     */
+    void shutdown() {
+        final Thread thread;
+        synchronized (this) {
+            shutdown = true;
+            thread = reaper;
+        }
+        if (thread != null) {
+            thread.interrupt();
+        }
+        expire(System.nanoTime());
+        final Set<String> ids = new LinkedHashSet<>(liveContexts.keySet());
+        if (ids.isEmpty()) {
+            return;
+        }
+        log.info("Clearing {} scroll contexts left open on shutdown.", ids.size());
+        try {
+            clear(ids).get(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            log.warn("Couldn't clear {} scroll contexts on shutdown: {}", ids.size(), e.getMessage());
+        }
+    }
+
+    /**
+     * Clears the given scroll contexts with a single request.
+     *
+     * @return future completing once the request has completed, never exceptionally
+     */
+    CompletableFuture<Void> clear(Collection<String> ids) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        if (ids.isEmpty()) {
+            future.complete(null);
+            return future;
+        }
+        try {
+            client.executeAsyncForResult(new ClearScroll.Builder().addScrollIds(new LinkedHashSet<>(ids)).build(), new JestResultHandler<JestResult>() {
+                @Override
+                public void completed(JestResult result) {
+                    if (!result.isSucceeded() && result.getResponseCode() != 404) {
+                        log.warn("Couldn't clear {} scroll contexts: {}", ids.size(), result.getErrorMessage());
+                    }
+                    future.complete(null);
+                }
+
+                @Override
+                public void failed(Exception ex) {
+                    log.warn("Couldn't clear {} scroll contexts: {}", ids.size(), ex.getMessage());
+                    future.complete(null);
+                }
+            });
+        } catch (RuntimeException e) {
+            log.warn("Couldn't clear {} scroll contexts: {}", ids.size(), e.getMessage());
+            future.complete(null);
+        }
+        return future;
+    }
+
+    private void remove(Collection<String> ids) {
+        for (String id : ids) {
+            if (liveContexts.remove(id) != null) {
+                clearedContexts.increment();
+            }
+        }
+    }
+
+    // Drops the contexts whose keep-alive has passed, Elasticsearch has freed them already.
+    private void expire(long now) {
+        lastExpiry.set(now);
+        for (Map.Entry<String, Long> context : liveContexts.entrySet()) {
+            if (now - context.getValue() >= 0 && liveContexts.remove(context.getKey(), context.getValue())) {
+                expiredContexts.increment();
+            }
+        }
+    }
+
+    private synchronized void startReaper() {
+        if (reaper != null || shutdown) {
+            return;
+        }
+        reaper = new Thread(this::reap, "jest-scroll-reaper");
+        reaper.setDaemon(true);
+        reaper.start();
+    }
+
+    private void reap() {
+        while (!Thread.currentThread().isInterrupted()) {
+            final List<String> ids = new ArrayList<>();
+            int scopes = 0;
+            try {
+                Reference<?> reference = collectedOwners.remove();
+                // everything collected in the same cycle is cleared with a single request
+                while (reference != null) {
+                    final OwnerReference owner = (OwnerReference) reference;
+                    if (owners.remove(owner)) {
+                        ids.addAll(owner.scope.abandon());
+                        scopes++;
+                    }
+                    reference = collectedOwners.poll();
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (scopes > 0) {
+                abandonedScopes.add(scopes);
+            }
+            if (!ids.isEmpty()) {
+                log.warn("Clearing {} scroll contexts of {} scroll iterators which haven't been closed.", ids.size(), scopes);
+                clear(ids);
+            }
+        }
+    }
+
+    private static Set<String> clearedScrollIds(String payload) {
+        final Set<String> ids = new LinkedHashSet<>();
+        if (payload == null) {
+            return ids;
+        }
+        try {
+            final JsonElement scrollIds = new JsonParser().parse(payload).getAsJsonObject().get("scroll_id");
+            if (scrollIds != null && scrollIds.isJsonArray()) {
+                for (JsonElement id : scrollIds.getAsJsonArray()) {
+                    ids.add(id.getAsString());
+                }
+            } else if (scrollIds != null) {
+                ids.add(scrollIds.getAsString());
+            }
+        } catch (JsonParseException | IllegalStateException e) {
+            log.debug("Couldn't read the scroll ids of a clear scroll request.", e);
+        }
+        return ids;
+    }
+
+    // Short scroll ids are sent as URL parameter, long ones as payload.
+    private static String scrollIdOf(SearchScroll action, Gson gson) {
+        final String scrollId = parameter(action.getURI(), "scroll_id");
+        if (scrollId != null) {
+            return scrollId;
+        }
+        final String payload = action.getData(gson);
+        return payload == null || payload.isEmpty() ? null : payload;
+    }
+
+    // The keep-alive of the scroll parameter, e.g. "1m" or "500ms".
+    private static long keepAliveNanos(String uri) {
+        final String keepAlive = parameter(uri, "scroll");
+        if (keepAlive == null) {
+            return DEFAULT_KEEP_ALIVE_NANOS;
+        }
+        int digits = 0;
+        while (digits < keepAlive.length() && Character.isDigit(keepAlive.charAt(digits))) {
+            digits++;
+        }
+        if (digits == 0 || digits > 18) {
+            return DEFAULT_KEEP_ALIVE_NANOS;
+        }
+        final long value = Long.parseLong(keepAlive.substring(0, digits));
+        switch (keepAlive.substring(digits).trim()) {
+            case "nanos":
+                return value;
+            case "micros":
+                return TimeUnit.MICROSECONDS.toNanos(value);
+            case "ms":
+                return TimeUnit.MILLISECONDS.toNanos(value);
+            case "s":
+                return TimeUnit.SECONDS.toNanos(value);
+            case "m":
+                return TimeUnit.MINUTES.toNanos(value);
+            case "h":
+                return TimeUnit.HOURS.toNanos(value);
+            case "d":
+                return TimeUnit.DAYS.toNanos(value);
+            default:
+                return DEFAULT_KEEP_ALIVE_NANOS;
+        }
+    }
+
+    private static String parameter(String uri, String name) {
+        final int query = uri.indexOf('?');
+        if (query < 0) {
+            return null;
+        }
+        for (String parameter : uri.substring(query + 1).split("&")) {
+            if (parameter.startsWith(name + "=")) {
+                try {
+                    return URLDecoder.decode(parameter.substring(name.length() + 1), "UTF-8");
+                } catch (UnsupportedEncodingException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "ScrollRegistry{liveContexts=" + getLiveContexts() + ", openedContexts=" + getOpenedContexts()
+                + ", clearedContexts=" + getClearedContexts() + ", expiredContexts=" + getExpiredContexts() + ", openScopes=" + getOpenScopes()
+                + ", abandonedScopes=" + getAbandonedScopes() + '}';
+    }
+
+    /**
+     * The scroll contexts of a single owner, see {@link #open(Object)}.
+     */
+    public class Scope {
+        private final Set<String> ids = new LinkedHashSet<>();
+        private OwnerReference reference;
+        private boolean closed;
+
+        private Scope() {
+        }
+
+        /**
+         * Registers the id returned for a context, replacing the id it was requested with, if any.
+         *
+         * @return whether the id was registered, false if the scope has been closed already
+         */
+        public synchronized boolean replace(String previous, String current) {
+            if (previous != null) {
+                ids.remove(previous);
+            }
+            if (closed) {
+                return false;
+            }
+            if (current != null) {
+                ids.add(current);
+            }
+            return true;
+        }
+
+        /**
+         * Clears all contexts of the scope with a single request. Ids registered afterwards are ignored.
+         *
+         * @return future completing once the contexts have been cleared, never exceptionally
+         */
+        public CompletableFuture<Void> close() {
+            final List<String> cleared;
+            final OwnerReference owner;
+            synchronized (this) {
+                if (closed) {
+                    return CompletableFuture.completedFuture(null);
+                }
+                closed = true;
+                cleared = new ArrayList<>(ids);
+                ids.clear();
+                owner = reference;
+            }
+            if (owner != null) {
+                owners.remove(owner);
+                owner.clear();
+            }
+            return clear(cleared);
+        }
+
+        private synchronized List<String> abandon() {
+            closed = true;
+            final List<String> abandoned = new ArrayList<>(ids);
+            ids.clear();
+            return abandoned;
+        }
+
+        private synchronized void setReference(OwnerReference reference) {
+            this.reference = reference;
+        }
+    }
+
+    private static class OwnerReference extends PhantomReference<Object> {
+        private final Scope scope;
+
+        private OwnerReference(Object owner, Scope scope, ReferenceQueue<Object> queue) {
+            super(owner, queue);
+            this.scope = scope;
+            scope.setReference(this);
+        }
+    }
+}
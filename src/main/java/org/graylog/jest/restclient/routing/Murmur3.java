@@ -0,0 +1,51 @@
+package org.graylog.jest.restclient.routing;
+
+/**
+ * The routing hash of Elasticsearch: 32-bit MurmurHash3 with seed 0 over the UTF-16 code units of the routing
+ * value, each written as two bytes in little-endian order.
+ */
+final class Murmur3 {
+
+    private static final int C1 = 0xcc9e2d51;
+    private static final int C2 = 0x1b873593;
+
+    private Murmur3() {
+    }
+
+    static int hash(String routing) {
+        final int length = routing.length() * 2;
+        int h1 = 0;
+
+        // every block of four bytes holds two chars
+        final int blocks = routing.length() / 2;
+        for (int i = 0; i < blocks; i++) {
+            final char low = routing.charAt(i * 2);
+            final char high = routing.charAt(i * 2 + 1);
+            int k1 = (low & 0xffff) | (high << 16);
+            k1 *= C1;
+            k1 = Integer.rotateLeft(k1, 15);
+            k1 *= C2;
+
+            h1 ^= k1;
+            h1 = Integer.rotateLeft(h1, 13);
+            h1 = h1 * 5 + 0xe6546b64;
+        }
+
+        // an odd number of chars leaves a tail of two bytes
+        if ((routing.length() & 1) != 0) {
+            int k1 = routing.charAt(routing.length() - 1) & 0xffff;
+            k1 *= C1;
+            k1 = Integer.rotateLeft(k1, 15);
+            k1 *= C2;
+            h1 ^= k1;
+        }
+
+        h1 ^= length;
+        h1 ^= h1 >>> 16;
+        h1 *= 0x85ebca6b;
+        h1 ^= h1 >>> 13;
+        h1 *= 0xc2b2ae35;
+        h1 ^= h1 >>> 16;
+        return h1;
+    }
+}
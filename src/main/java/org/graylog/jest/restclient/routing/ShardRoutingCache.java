@@ -0,0 +1,166 @@
+package org.graylog.jest.restclient.routing;
+
+import io.searchbox.client.JestResult;
+import io.searchbox.client.JestResultHandler;
+import io.searchbox.cluster.NodesInfo;
+import io.searchbox.cluster.State;
+import org.apache.http.HttpHost;
+import org.graylog.jest.restclient.http.JestHttpClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a {@link ShardRoutingTable} of the cluster and refreshes it when it gets older than the refresh interval
+ * or has been invalidated, e.g. after a request to a node failed or an unknown index showed up.
+ * <p>
+ * The first caller finding the table stale starts an asynchronous refresh; callers never wait for it and keep using
+ * the old table, or no table at all before the first refresh has completed. {@link #refresh()} can be used to wait
+ * for the table, e.g. before starting to send requests. Refreshes are at least a second apart, also if the cluster
+ * can't be reached. Only the primary shard locations, shard counts and aliases are requested from the cluster state.
+ * </p>
+ */
+public class ShardRoutingCache {
+
+    private static final Logger log = LoggerFactory.getLogger(ShardRoutingCache.class);
+
+    private static final long MIN_REFRESH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final String CLUSTER_STATE_FILTER = "metadata.indices.*.settings.index.number_of_shards,"
+            + "metadata.indices.*.settings.index.routing_partition_size,"
+            + "metadata.indices.*.routing_num_shards,"
+            + "metadata.indices.*.aliases,"
+            + "routing_table.indices.*.shards.*.primary,"
+            + "routing_table.indices.*.shards.*.node,"
+            + "routing_table.indices.*.shards.*.state";
+    private static final String NODES_FILTER = "nodes.*.http.publish_address,nodes.*.http_address";
+
+    private final JestHttpClient client;
+    private final long refreshIntervalNanos;
+
+    private volatile ShardRoutingTable table;
+    private volatile long lastRefreshNanos;
+    private volatile boolean invalidated = true;
+    private CompletableFuture<ShardRoutingTable> pendingRefresh;
+
+    public ShardRoutingCache(JestHttpClient client, long refreshInterval, TimeUnit unit) {
+        if (refreshInterval <= 0) {
+            throw new IllegalArgumentException("refreshInterval must be positive");
+        }
+        this.client = client;
+        this.refreshIntervalNanos = unit.toNanos(refreshInterval);
+    }
+
+    /**
+     * Returns the current routing table without waiting and starts refreshing it in the background if it is stale.
+     *
+     * @return the current routing table, or <code>null</code> if it couldn't be fetched yet
+     */
+    public ShardRoutingTable get() {
+        if (isStale()) {
+            refresh();
+        }
+        return table;
+    }
+
+    /**
+     * Starts refreshing the routing table unless a refresh is running already.
+     *
+     * @return future completed with the routing table once the refresh has finished; the table is the previous one,
+     * or <code>null</code>, if the refresh failed
+     */
+    public CompletableFuture<ShardRoutingTable> refresh() {
+        final CompletableFuture<ShardRoutingTable> refresh;
+        synchronized (this) {
+            if (pendingRefresh != null) {
+                return pendingRefresh;
+            }
+            lastRefreshNanos = System.nanoTime();
+            invalidated = false;
+            refresh = new CompletableFuture<>();
+            pendingRefresh = refresh;
+        }
+
+        client.executeAsyncForResult(new State.Builder()
+                .withRoutingTable()
+                .withMetadata()
+                .setParameter("filter_path", CLUSTER_STATE_FILTER)
+                .build(), new JestResultHandler<JestResult>() {
+            @Override
+            public void completed(JestResult state) {
+                if (!state.isSucceeded()) {
+                    log.warn("Couldn't fetch shard routing: {}", state.getErrorMessage());
+                    complete(refresh, null);
+                    return;
+                }
+                fetchNodes(state, refresh);
+            }
+
+            @Override
+            public void failed(Exception ex) {
+                log.warn("Couldn't fetch shard routing: {}", ex.getMessage());
+                complete(refresh, null);
+            }
+        });
+        return refresh;
+    }
+
+    /**
+     * Refreshes the routing table with the next call of {@link #get()}.
+     */
+    public void invalidate() {
+        invalidated = true;
+    }
+
+    private boolean isStale() {
+        final long age = System.nanoTime() - lastRefreshNanos;
+        if (age < MIN_REFRESH_INTERVAL_NANOS) {
+            return false;
+        }
+        return invalidated || age >= refreshIntervalNanos;
+    }
+
+    private void fetchNodes(JestResult state, CompletableFuture<ShardRoutingTable> refresh) {
+        client.executeAsyncForResult(new NodesInfo.Builder()
+                .withHttp()
+                .setParameter("filter_path", NODES_FILTER)
+                .build(), new JestResultHandler<JestResult>() {
+            @Override
+            public void completed(JestResult nodes) {
+                if (!nodes.isSucceeded()) {
+                    log.warn("Couldn't fetch shard routing: {}", nodes.getErrorMessage());
+                    complete(refresh, null);
+                    return;
+                }
+                ShardRoutingTable refreshed = null;
+                try {
+                    final String scheme = HttpHost.create(client.getNextServer()).getSchemeName();
+                    refreshed = ShardRoutingTable.parse(state.getJsonObject(), nodes.getJsonObject(), scheme);
+                    log.debug("Refreshed shard routing of {} nodes.", refreshed.getNodes().size());
+                } catch (RuntimeException e) {
+                    log.warn("Couldn't fetch shard routing: {}", e.getMessage());
+                }
+                complete(refresh, refreshed);
+            }
+
+            @Override
+            public void failed(Exception ex) {
+                log.warn("Couldn't fetch shard routing: {}", ex.getMessage());
+                complete(refresh, null);
+            }
+        });
+    }
+
+    private void complete(CompletableFuture<ShardRoutingTable> refresh, ShardRoutingTable refreshed) {
+        final ShardRoutingTable current;
+        synchronized (this) {
+            if (refreshed != null) {
+                table = refreshed;
+            }
+            current = table;
+            pendingRefresh = null;
+        }
+        refresh.complete(current);
+    }
+}
@@ -0,0 +1,215 @@
+package org.graylog.jest.restclient.routing;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import org.apache.http.HttpHost;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable snapshot of the primary shard locations of a cluster, built from the metadata and routing table of
+ * the cluster state and the HTTP addresses of the nodes.
+ * <p>
+ * Documents are assigned to shards the way Elasticsearch does it: the Murmur3 hash of the routing value, which
+ * is the document id unless a custom routing is given, modulo the number of routing shards. Indices with a
+ * <code>routing_partition_size</code> add the partition offset of the id to the hash of custom routing values.
+ * Aliases pointing to a single index are resolved to that index.
+ * </p>
+ */
+public class ShardRoutingTable {
+
+    private static final Logger log = LoggerFactory.getLogger(ShardRoutingTable.class);
+
+    private final Map<String, IndexRouting> indices;
+    private final Set<HttpHost> nodes;
+
+    private ShardRoutingTable(Map<String, IndexRouting> indices, Set<HttpHost> nodes) {
+        this.indices = indices;
+        this.nodes = nodes;
+    }
+
+    /**
+     * @param clusterState response of <code>_cluster/state/routing_table,metadata</code>
+     * @param nodesInfo    response of <code>_nodes/http</code>
+     * @param scheme       scheme used to talk to the nodes, <code>http</code> or <code>https</code>
+     */
+    public static ShardRoutingTable parse(JsonObject clusterState, JsonObject nodesInfo, String scheme) {
+        final Map<String, HttpHost> nodeAddresses = parseNodes(nodesInfo, scheme);
+        final JsonObject metadata = object(object(clusterState, "metadata"), "indices");
+        final JsonObject routingTable = object(object(clusterState, "routing_table"), "indices");
+
+        final Map<String, IndexRouting> indices = new HashMap<>();
+        final Map<String, String> aliases = new HashMap<>();
+        final Set<String> ambiguousAliases = new HashSet<>();
+        for (Map.Entry<String, JsonElement> entry : metadata.entrySet()) {
+            final String index = entry.getKey();
+            final JsonObject indexMetadata = entry.getValue().getAsJsonObject();
+            final JsonObject shards = object(object(routingTable, index), "shards");
+            final int numberOfShards = setting(indexMetadata, "number_of_shards", -1);
+            if (numberOfShards <= 0 || shards.entrySet().isEmpty()) {
+                // closed index or incomplete cluster state
+                continue;
+            }
+
+            final HttpHost[] primaries = new HttpHost[numberOfShards];
+            for (Map.Entry<String, JsonElement> shard : shards.entrySet()) {
+                final int shardId = Integer.parseInt(shard.getKey());
+                if (shardId < numberOfShards) {
+                    primaries[shardId] = primaryNode(shard.getValue().getAsJsonArray(), nodeAddresses);
+                }
+            }
+            final int routingNumShards = indexMetadata.has("routing_num_shards")
+                    ? indexMetadata.get("routing_num_shards").getAsInt()
+                    : numberOfShards;
+            indices.put(index, new IndexRouting(primaries, routingNumShards,
+                    setting(indexMetadata, "routing_partition_size", 1)));
+
+            final JsonElement indexAliases = indexMetadata.get("aliases");
+            if (indexAliases != null && indexAliases.isJsonArray()) {
+                for (JsonElement alias : indexAliases.getAsJsonArray()) {
+                    if (aliases.put(alias.getAsString(), index) != null) {
+                        ambiguousAliases.add(alias.getAsString());
+                    }
+                }
+            }
+        }
+        for (Map.Entry<String, String> alias : aliases.entrySet()) {
+            if (!ambiguousAliases.contains(alias.getKey()) && !indices.containsKey(alias.getKey())) {
+                indices.put(alias.getKey(), indices.get(alias.getValue()));
+            }
+        }
+
+        return new ShardRoutingTable(indices, Collections.unmodifiableSet(new HashSet<>(nodeAddresses.values())));
+    }
+
+    /**
+     * @param id      id of the document, may be <code>null</code> if a routing value is given
+     * @param routing custom routing value or <code>null</code>
+     * @return the node holding the primary shard of the document or <code>null</code> if the index is unknown or
+     * the primary is unassigned
+     */
+    public HttpHost getPrimaryNode(String index, String id, String routing) {
+        final IndexRouting indexRouting = indices.get(index);
+        if (indexRouting == null) {
+            return null;
+        }
+        final int shardId = indexRouting.shardId(id, routing);
+        return shardId < 0 ? null : indexRouting.primaries[shardId];
+    }
+
+    /**
+     * @return the shard the document is routed to or <code>-1</code> if the index is unknown
+     * @see #getPrimaryNode(String, String, String)
+     */
+    public int getShardId(String index, String id, String routing) {
+        final IndexRouting indexRouting = indices.get(index);
+        return indexRouting == null ? -1 : indexRouting.shardId(id, routing);
+    }
+
+    public boolean hasIndex(String index) {
+        return indices.containsKey(index);
+    }
+
+    /**
+     * @return HTTP addresses of all nodes of the cluster
+     */
+    public Collection<HttpHost> getNodes() {
+        return nodes;
+    }
+
+    private static Map<String, HttpHost> parseNodes(JsonObject nodesInfo, String scheme) {
+        final Map<String, HttpHost> addresses = new HashMap<>();
+        for (Map.Entry<String, JsonElement> entry : object(nodesInfo, "nodes").entrySet()) {
+            final JsonObject node = entry.getValue().getAsJsonObject();
+            final JsonObject http = object(node, "http");
+            final String address = http.has("publish_address")
+                    ? http.get("publish_address").getAsString()
+                    : node.has("http_address") ? node.get("http_address").getAsString() : null;
+            if (address == null) {
+                // node without HTTP, e.g. a dedicated master with http.enabled: false
+                continue;
+            }
+            try {
+                addresses.put(entry.getKey(), HttpHost.create(scheme + "://" + hostAndPort(address)));
+            } catch (IllegalArgumentException e) {
+                log.warn("Ignoring node {} with unexpected HTTP address {}", entry.getKey(), address);
+            }
+        }
+        return addresses;
+    }
+
+    // Handles "127.0.0.1:9200", "hostname/127.0.0.1:9200" and the "inet[/127.0.0.1:9200]" format of old versions.
+    private static String hostAndPort(String address) {
+        String value = address;
+        if (value.startsWith("inet[") && value.endsWith("]")) {
+            value = value.substring(5, value.length() - 1);
+        }
+        final int slash = value.indexOf('/');
+        return slash >= 0 ? value.substring(slash + 1) : value;
+    }
+
+    private static HttpHost primaryNode(JsonArray copies, Map<String, HttpHost> nodeAddresses) {
+        for (JsonElement element : copies) {
+            final JsonObject copy = element.getAsJsonObject();
+            final JsonElement node = copy.get("node");
+            final String state = copy.has("state") ? copy.get("state").getAsString() : "STARTED";
+            if (copy.get("primary").getAsBoolean() && node != null && !node.isJsonNull()
+                    && ("STARTED".equals(state) || "RELOCATING".equals(state))) {
+                return nodeAddresses.get(node.getAsString());
+            }
+        }
+        return null;
+    }
+
+    // Reads index.<name> from nested or flat settings.
+    private static int setting(JsonObject indexMetadata, String name, int defaultValue) {
+        final JsonObject settings = object(indexMetadata, "settings");
+        JsonElement value = object(settings, "index").get(name);
+        if (value == null) {
+            value = settings.get("index." + name);
+        }
+        return value == null || value.isJsonNull() ? defaultValue : Integer.parseInt(value.getAsString());
+    }
+
+    private static JsonObject object(JsonObject parent, String name) {
+        final JsonElement value = parent == null ? null : parent.get(name);
+        return value != null && value.isJsonObject() ? value.getAsJsonObject() : new JsonObject();
+    }
+
+    private static final class IndexRouting {
+        private final HttpHost[] primaries;
+        private final int routingNumShards;
+        private final int routingFactor;
+        private final int partitionSize;
+
+        private IndexRouting(HttpHost[] primaries, int routingNumShards, int partitionSize) {
+            this.primaries = primaries;
+            this.routingNumShards = routingNumShards;
+            this.routingFactor = routingNumShards / primaries.length;
+            this.partitionSize = partitionSize;
+        }
+
+        int shardId(String id, String routing) {
+            if (routing == null) {
+                return id == null ? -1 : shardId(Murmur3.hash(id));
+            }
+            if (partitionSize <= 1) {
+                return shardId(Murmur3.hash(routing));
+            }
+            // the shard within the partition depends on the id
+            return id == null ? -1 : shardId(Murmur3.hash(routing) + Math.floorMod(Murmur3.hash(id), partitionSize));
+        }
+
+        private int shardId(int hash) {
+            return Math.floorMod(hash, routingNumShards) / routingFactor;
+        }
+    }
+}
@@ -0,0 +1,413 @@
+package org.graylog.jest.restclient.scheduling;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Schedules requests of several tenants onto a bounded number of concurrent requests using deficit round robin.
+ * <p>
+ * Every tenant owns a FIFO queue. Whenever a request slot becomes free the scheduler visits the tenants with
+ * queued requests in turn and lets each of them dispatch as many requests as its weight allows, so a tenant with
+ * weight 2 gets twice the share of a tenant with weight 1 while all of them have work queued. A tenant which has
+ * reached its own concurrency cap is skipped until one of its requests finishes.
+ * </p><p>
+ * Dispatched tasks receive a {@link Permit} which must be released once the request has finished. Permits are
+ * usually released on I/O threads of the HTTP client, so requests which have been waiting for a slot are dispatched
+ * on a separate executor instead of the releasing thread.
+ * </p><p>
+ * The queue of a tenant is dropped once it has neither queued nor in-flight requests, and the statistics of such a
+ * tenant once the stats retention has passed, so tenants may be created on the fly, e.g. one per user.
+ * </p>
+ */
+public class TenantScheduler {
+
+    public static final String DEFAULT_TENANT = "default";
+
+    private static final Logger log = LoggerFactory.getLogger(TenantScheduler.class);
+    private static final long MAX_STATS_EXPIRY_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final int maxConcurrentRequests;
+    private final int defaultWeight;
+    private final int defaultMaxConcurrentRequests;
+    private final int maxQueuedRequests;
+    private final Map<String, TenantSettings> tenantSettings;
+    private final Executor dispatchExecutor;
+    private final long statsRetentionNanos;
+
+    private final Object lock = new Object();
+    private final Map<String, TenantQueue> tenants = new HashMap<>();
+    private final ArrayDeque<TenantQueue> activeTenants = new ArrayDeque<>();
+    private final Map<String, TenantStats> stats = new ConcurrentHashMap<>();
+    private final ThreadLocal<ArrayDeque<Pending>> dispatching = new ThreadLocal<>();
+    private int inFlightRequests;
+    private long lastStatsExpiry = System.nanoTime();
+
+    private TenantScheduler(Builder builder) {
+        this.maxConcurrentRequests = builder.maxConcurrentRequests;
+        this.defaultWeight = builder.defaultWeight;
+        this.defaultMaxConcurrentRequests = builder.defaultMaxConcurrentRequests;
+        this.maxQueuedRequests = builder.maxQueuedRequests;
+        this.tenantSettings = new HashMap<>(builder.tenantSettings);
+        this.dispatchExecutor = builder.dispatchExecutor == null ? defaultDispatchExecutor() : builder.dispatchExecutor;
+        this.statsRetentionNanos = builder.statsRetentionNanos;
+    }
+
+    private static ExecutorService defaultDispatchExecutor() {
+        final AtomicInteger threads = new AtomicInteger();
+        // idle threads terminate on their own, the number of busy ones is bounded by the number of request slots
+        return Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "jest-tenant-dispatch-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues a task for the given tenant. The task is run as soon as the tenant's turn comes up, either on the
+     * calling thread if a slot is free or on the dispatch executor once a {@link Permit} has been released.
+     *
+     * @throws RejectedExecutionException if the tenant's queue is full
+     */
+    public void submit(String tenant, Consumer<Permit> task) {
+        final String tenantName = tenant == null ? DEFAULT_TENANT : tenant;
+        final List<Pending> ready;
+        synchronized (lock) {
+            expireStats(System.nanoTime());
+            final TenantQueue queue = tenants.computeIfAbsent(tenantName, this::createQueue);
+            queue.stats.onSubmitted();
+            if (maxQueuedRequests > 0 && queue.pending.size() >= maxQueuedRequests) {
+                queue.stats.onRejected();
+                throw new RejectedExecutionException("Request queue of tenant " + tenantName + " is full");
+            }
+            queue.pending.add(new Pending(queue, task));
+            queue.stats.queuedRequests.incrementAndGet();
+            if (!queue.active) {
+                queue.active = true;
+                activeTenants.addLast(queue);
+            }
+            ready = pollReady();
+        }
+        run(ready);
+    }
+
+    /**
+     * @return statistics of all tenants which have requests queued or in flight or have had some within the stats
+     * retention
+     */
+    public Collection<TenantStats> getStats() {
+        return Collections.unmodifiableCollection(stats.values());
+    }
+
+    /**
+     * @return statistics of the given tenant or {@code null} if the tenant has not submitted any request yet or
+     * its statistics have expired
+     */
+    public TenantStats getStats(String tenant) {
+        return stats.get(tenant);
+    }
+
+    public int getInFlightRequests() {
+        synchronized (lock) {
+            return inFlightRequests;
+        }
+    }
+
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    @VisibleForTesting
+    int getTenantQueues() {
+        synchronized (lock) {
+            return tenants.size();
+        }
+    }
+
+    private TenantQueue createQueue(String tenant) {
+        final TenantSettings settings = tenantSettings.get(tenant);
+        final TenantStats tenantStats = stats.computeIfAbsent(tenant, TenantStats::new);
+        if (settings == null) {
+            return new TenantQueue(defaultWeight, defaultMaxConcurrentRequests, tenantStats);
+        }
+        return new TenantQueue(settings.weight, settings.maxConcurrentRequests, tenantStats);
+    }
+
+    // Must be called while holding the lock.
+    private void expireStats(long now) {
+        if (now - lastStatsExpiry < Math.min(statsRetentionNanos, MAX_STATS_EXPIRY_INTERVAL_NANOS)) {
+            return;
+        }
+        lastStatsExpiry = now;
+        stats.values().removeIf(tenantStats -> !tenants.containsKey(tenantStats.getTenant())
+                && now - tenantStats.idleSince >= statsRetentionNanos);
+    }
+
+    // Must be called while holding the lock.
+    private List<Pending> pollReady() {
+        List<Pending> ready = Collections.emptyList();
+        int skipped = 0;
+        while (inFlightRequests < maxConcurrentRequests && skipped < activeTenants.size()) {
+            final TenantQueue queue = activeTenants.peekFirst();
+            if (queue.inFlight >= queue.maxConcurrentRequests) {
+                // keep the remaining deficit, the tenant continues its turn once a request of it has finished
+                activeTenants.addLast(activeTenants.pollFirst());
+                skipped++;
+                continue;
+            }
+            if (queue.deficit <= 0) {
+                queue.deficit += queue.weight;
+            }
+
+            final Pending pending = queue.pending.poll();
+            queue.deficit--;
+            queue.inFlight++;
+            inFlightRequests++;
+            queue.stats.queuedRequests.decrementAndGet();
+            queue.stats.inFlightRequests.incrementAndGet();
+            if (ready.isEmpty()) {
+                ready = new ArrayList<>();
+            }
+            ready.add(pending);
+            skipped = 0;
+
+            if (queue.pending.isEmpty()) {
+                activeTenants.pollFirst();
+                queue.active = false;
+                queue.deficit = 0;
+            } else if (queue.deficit <= 0) {
+                activeTenants.addLast(activeTenants.pollFirst());
+            }
+        }
+        return ready;
+    }
+
+    private void run(List<Pending> ready) {
+        if (ready.isEmpty()) {
+            return;
+        }
+        // Tasks may release their permit synchronously, collect work dispatched from within a task
+        // instead of recursing into it.
+        final ArrayDeque<Pending> current = dispatching.get();
+        if (current != null) {
+            current.addAll(ready);
+            return;
+        }
+
+        final ArrayDeque<Pending> work = new ArrayDeque<>(ready);
+        dispatching.set(work);
+        try {
+            Pending pending;
+            while ((pending = work.poll()) != null) {
+                dispatch(pending);
+            }
+        } finally {
+            dispatching.remove();
+        }
+    }
+
+    private void dispatch(Pending pending) {
+        final long now = System.nanoTime();
+        pending.queue.stats.onDispatched(now - pending.enqueuedAt);
+        final Permit permit = new Permit(pending.queue, now);
+        try {
+            pending.task.accept(permit);
+        } catch (RuntimeException e) {
+            log.error("Exception occurred while dispatching request of tenant {}.", pending.queue.stats.getTenant(), e);
+            permit.release(false);
+        }
+    }
+
+    private void release(TenantQueue queue) {
+        final List<Pending> ready;
+        synchronized (lock) {
+            queue.inFlight--;
+            inFlightRequests--;
+            queue.stats.inFlightRequests.decrementAndGet();
+            if (queue.inFlight == 0 && !queue.active) {
+                // nothing queued and no deficit left, a later request of the tenant starts a new queue
+                tenants.remove(queue.stats.getTenant());
+                queue.stats.idleSince = System.nanoTime();
+            }
+            ready = pollReady();
+        }
+        if (ready.isEmpty()) {
+            return;
+        }
+        try {
+            dispatchExecutor.execute(() -> run(ready));
+        } catch (RejectedExecutionException e) {
+            log.warn("Dispatch executor rejected {} requests, dispatching them on the releasing thread.", ready.size());
+            run(ready);
+        }
+    }
+
+    /**
+     * Handle to a request slot. Exactly one call to {@link #release(boolean)} frees the slot, further calls
+     * are ignored.
+     */
+    public class Permit {
+        private final TenantQueue queue;
+        private final long dispatchedAt;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(TenantQueue queue, long dispatchedAt) {
+            this.queue = queue;
+            this.dispatchedAt = dispatchedAt;
+        }
+
+        public String getTenant() {
+            return queue.stats.getTenant();
+        }
+
+        public void release(boolean succeeded) {
+            if (released.compareAndSet(false, true)) {
+                queue.stats.onFinished(System.nanoTime() - dispatchedAt, succeeded);
+                TenantScheduler.this.release(queue);
+            }
+        }
+    }
+
+    private static class TenantQueue {
+        private final int weight;
+        private final int maxConcurrentRequests;
+        private final TenantStats stats;
+        private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+        private boolean active;
+        private int deficit;
+        private int inFlight;
+
+        private TenantQueue(int weight, int maxConcurrentRequests, TenantStats stats) {
+            this.weight = weight;
+            this.maxConcurrentRequests = maxConcurrentRequests;
+            this.stats = stats;
+        }
+    }
+
+    private static class Pending {
+        private final TenantQueue queue;
+        private final Consumer<Permit> task;
+        private final long enqueuedAt = System.nanoTime();
+
+        private Pending(TenantQueue queue, Consumer<Permit> task) {
+            this.queue = queue;
+            this.task = task;
+        }
+    }
+
+    private static class TenantSettings {
+        private final int weight;
+        private final int maxConcurrentRequests;
+
+        private TenantSettings(int weight, int maxConcurrentRequests) {
+            this.weight = weight;
+            this.maxConcurrentRequests = maxConcurrentRequests;
+        }
+    }
+
+    public static class Builder {
+        private final int maxConcurrentRequests;
+        private int defaultWeight = 1;
+        private int defaultMaxConcurrentRequests;
+        private int maxQueuedRequests;
+        private Executor dispatchExecutor;
+        private long statsRetentionNanos = TimeUnit.HOURS.toNanos(1);
+        private final Map<String, TenantSettings> tenantSettings = new HashMap<>();
+
+        /**
+         * @param maxConcurrentRequests number of requests in flight across all tenants, usually the size of
+         *                              the connection pool
+         */
+        public Builder(int maxConcurrentRequests) {
+            if (maxConcurrentRequests <= 0) {
+                throw new IllegalArgumentException("maxConcurrentRequests must be positive");
+            }
+            this.maxConcurrentRequests = maxConcurrentRequests;
+            this.defaultMaxConcurrentRequests = maxConcurrentRequests;
+        }
+
+        /**
+         * Weight of tenants without explicit settings, defaults to 1.
+         */
+        public Builder defaultWeight(int defaultWeight) {
+            if (defaultWeight <= 0) {
+                throw new IllegalArgumentException("defaultWeight must be positive");
+            }
+            this.defaultWeight = defaultWeight;
+            return this;
+        }
+
+        /**
+         * Concurrency cap of tenants without explicit settings, defaults to the total number of concurrent requests.
+         */
+        public Builder defaultMaxConcurrentRequests(int defaultMaxConcurrentRequests) {
+            if (defaultMaxConcurrentRequests <= 0) {
+                throw new IllegalArgumentException("defaultMaxConcurrentRequests must be positive");
+            }
+            this.defaultMaxConcurrentRequests = defaultMaxConcurrentRequests;
+            return this;
+        }
+
+        /**
+         * Upper bound of queued requests per tenant, further submissions are rejected. Unbounded by default.
+         */
+        public Builder maxQueuedRequests(int maxQueuedRequests) {
+            this.maxQueuedRequests = maxQueuedRequests;
+            return this;
+        }
+
+        /**
+         * Executor dispatching the queued requests once a slot has been released, which runs the serialization and
+         * compression of their payloads. Defaults to a pool of daemon threads.
+         */
+        public Builder dispatchExecutor(Executor dispatchExecutor) {
+            this.dispatchExecutor = dispatchExecutor;
+            return this;
+        }
+
+        /**
+         * Time the statistics of a tenant are kept once it has neither queued nor in-flight requests, defaults to
+         * an hour.
+         */
+        public Builder statsRetention(long statsRetention, TimeUnit unit) {
+            if (statsRetention < 0) {
+                throw new IllegalArgumentException("statsRetention must not be negative");
+            }
+            this.statsRetentionNanos = unit.toNanos(statsRetention);
+            return this;
+        }
+
+        public Builder tenant(String tenant, int weight) {
+            return tenant(tenant, weight, maxConcurrentRequests);
+        }
+
+        public Builder tenant(String tenant, int weight, int maxConcurrentRequests) {
+            if (weight <= 0 || maxConcurrentRequests <= 0) {
+                throw new IllegalArgumentException("weight and maxConcurrentRequests must be positive");
+            }
+            this.tenantSettings.put(tenant, new TenantSettings(weight, maxConcurrentRequests));
+            return this;
+        }
+
+        public TenantScheduler build() {
+            return new TenantScheduler(this);
+        }
+    }
+}
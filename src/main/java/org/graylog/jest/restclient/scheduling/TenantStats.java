@@ -0,0 +1,119 @@
+package org.graylog.jest.restclient.scheduling;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request counters and latencies of a single tenant of a {@link TenantScheduler}.
+ * <p>
+ * All counters are cumulative since the tenant was first seen or its statistics last expired; throughput can be
+ * derived by sampling {@link #getCompletedRequests()} periodically.
+ * </p>
+ */
+public class TenantStats {
+
+    private final String tenant;
+    private final LongAdder submittedRequests = new LongAdder();
+    private final LongAdder rejectedRequests = new LongAdder();
+    private final LongAdder completedRequests = new LongAdder();
+    private final LongAdder failedRequests = new LongAdder();
+    private final LongAdder queueTimeNanos = new LongAdder();
+    private final LongAdder serviceTimeNanos = new LongAdder();
+    private final LongAccumulator maxServiceTimeNanos = new LongAccumulator(Math::max, 0L);
+    final AtomicInteger queuedRequests = new AtomicInteger();
+    final AtomicInteger inFlightRequests = new AtomicInteger();
+    // when the tenant last ran out of requests, guarded by the lock of the scheduler
+    long idleSince;
+
+    TenantStats(String tenant) {
+        this.tenant = tenant;
+    }
+
+    void onSubmitted() {
+        submittedRequests.increment();
+    }
+
+    void onRejected() {
+        rejectedRequests.increment();
+    }
+
+    void onDispatched(long queueTime) {
+        queueTimeNanos.add(queueTime);
+    }
+
+    void onFinished(long serviceTime, boolean succeeded) {
+        if (succeeded) {
+            completedRequests.increment();
+        } else {
+            failedRequests.increment();
+        }
+        serviceTimeNanos.add(serviceTime);
+        maxServiceTimeNanos.accumulate(serviceTime);
+    }
+
+    public String getTenant() {
+        return tenant;
+    }
+
+    public long getSubmittedRequests() {
+        return submittedRequests.sum();
+    }
+
+    /**
+     * @return number of requests refused because the tenant's queue was full
+     */
+    public long getRejectedRequests() {
+        return rejectedRequests.sum();
+    }
+
+    public long getCompletedRequests() {
+        return completedRequests.sum();
+    }
+
+    public long getFailedRequests() {
+        return failedRequests.sum();
+    }
+
+    public int getQueuedRequests() {
+        return queuedRequests.get();
+    }
+
+    public int getInFlightRequests() {
+        return inFlightRequests.get();
+    }
+
+    /**
+     * @return mean time a request spent waiting in the tenant's queue before it was dispatched
+     */
+    public long getMeanQueueTime(TimeUnit unit) {
+        final long finished = completedRequests.sum() + failedRequests.sum() + inFlightRequests.get();
+        return finished == 0 ? 0L : unit.convert(queueTimeNanos.sum() / finished, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return mean time between dispatching a request and receiving its response
+     */
+    public long getMeanServiceTime(TimeUnit unit) {
+        final long finished = completedRequests.sum() + failedRequests.sum();
+        return finished == 0 ? 0L : unit.convert(serviceTimeNanos.sum() / finished, TimeUnit.NANOSECONDS);
+    }
+
+    public long getMaxServiceTime(TimeUnit unit) {
+        return unit.convert(maxServiceTimeNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return "TenantStats{" +
+                "tenant='" + tenant + '\'' +
+                ", submitted=" + getSubmittedRequests() +
+                ", rejected=" + getRejectedRequests() +
+                ", completed=" + getCompletedRequests() +
+                ", failed=" + getFailedRequests() +
+                ", queued=" + getQueuedRequests() +
+                ", inFlight=" + getInFlightRequests() +
+                '}';
+    }
+}
@@ -0,0 +1,65 @@
+package org.graylog.jest.restclient.scroll;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Limits the number of pages requested ahead of a consumer without blocking the threads completing requests: a
+ * request which can't get a permit is parked and sent once the consumer {@link #release() releases} one.
+ */
+class PageGate {
+    private final Semaphore permits;
+    private final Queue<Runnable> parked = new ConcurrentLinkedQueue<>();
+    private volatile boolean cancelled;
+
+    PageGate(int permits) {
+        this.permits = new Semaphore(permits);
+    }
+
+    /**
+     * Runs the request right away if a permit is available, otherwise once one is released.
+     */
+    void proceed(Runnable request) {
+        if (cancelled || permits.tryAcquire()) {
+            request.run();
+            return;
+        }
+        parked.add(request);
+        // a permit released in the meantime might have missed the parked request
+        if (cancelled || permits.tryAcquire()) {
+            runParked();
+        }
+    }
+
+    /**
+     * Returns the permit of a page which has been consumed.
+     */
+    void release() {
+        permits.release();
+        if (!parked.isEmpty() && permits.tryAcquire()) {
+            runParked();
+        }
+    }
+
+    /**
+     * Runs all parked requests and any further ones right away.
+     */
+    void cancel() {
+        cancelled = true;
+        Runnable request;
+        while ((request = parked.poll()) != null) {
+            request.run();
+        }
+    }
+
+    // Must be called with an acquired permit.
+    private void runParked() {
+        final Runnable request = parked.poll();
+        if (request == null) {
+            permits.release();
+        } else {
+            request.run();
+        }
+    }
+}
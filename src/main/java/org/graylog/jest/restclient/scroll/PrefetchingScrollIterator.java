@@ -0,0 +1,425 @@
+package org.graylog.jest.restclient.scroll;
+
+import com.google.common.base.Utf8;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.searchbox.action.Action;
+import io.searchbox.client.JestResult;
+import io.searchbox.client.JestResultHandler;
+import io.searchbox.core.Search;
+import io.searchbox.core.SearchScroll;
+import io.searchbox.params.Parameters;
+import org.graylog.jest.restclient.http.JestHttpClient;
+import org.graylog.jest.restclient.http.ScrollRegistry;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Iterates over the hits of a scroll while fetching the following pages in the background, so the round trips to
+ * Elasticsearch overlap with processing the hits.
+ * <p>
+ * The next page is requested as soon as the previous one has arrived, until the configured number of pages or
+ * bytes of response bodies are buffered ahead of the consumer; the scroll context only allows one request at a
+ * time. Buffered pages are handed out in order.
+ * </p>
+ * <p>
+ * The keep-alive of the scroll context is adapted to the speed of the consumer: while the buffer is full, the
+ * context stays idle until the consumer has worked through the buffered pages, so every scroll request asks for
+ * twice the time the consumer took for that many pages recently, within the configured bounds.
+ * </p>
+ * <p>
+ * The scroll context is cleared once the scroll is exhausted, fails or the iterator is closed, or by the client's
+ * {@link ScrollRegistry} if the iterator is garbage collected without having been closed. Failures are thrown by
+ * {@link #hasNext()} wrapped into an {@link UncheckedIOException}.
+ * </p>
+ * <p>
+ * Example:
+ * </p>
+ * <pre>
+ * try (PrefetchingScrollIterator hits = PrefetchingScrollIterator.builder(client, query)
+ *         .addIndex("logs")
+ *         .prefetchPages(4)
+ *         .build()) {
+ *     while (hits.hasNext()) {
+ *         process(hits.next());
+ *     }
+ * }
+ * </pre>
+ */
+public class PrefetchingScrollIterator implements Iterator<JsonObject>, Closeable {
+
+    // weight of the latest page in the average time the consumer takes per page
+    private static final double CONSUMER_TIME_WEIGHT = 0.3;
+
+    private final JestHttpClient client;
+    private final int prefetchPages;
+    private final long maxBufferedBytes;
+    private final long minKeepAliveMillis;
+    private final long maxKeepAliveMillis;
+    private final ScrollRegistry.Scope scope;
+
+    private final Deque<Page> buffer = new ArrayDeque<>();
+    private long bufferedBytes;
+    private String scrollId;
+    private boolean inFlight;
+    private boolean exhausted;
+    private boolean closed;
+    private boolean cleared;
+    private Throwable failure;
+    private double nanosPerPage = -1;
+    private long keepAliveMillis;
+
+    // consumer only
+    private Iterator<JsonElement> page;
+    private long pageTakenNanos;
+
+    private PrefetchingScrollIterator(Builder builder) {
+        this.client = builder.client;
+        this.prefetchPages = builder.prefetchPages;
+        this.maxBufferedBytes = builder.maxBufferedBytes;
+        this.minKeepAliveMillis = builder.minKeepAliveMillis;
+        this.maxKeepAliveMillis = builder.maxKeepAliveMillis;
+        this.keepAliveMillis = minKeepAliveMillis;
+        this.scope = client.getScrollRegistry().open(this);
+
+        synchronized (this) {
+            inFlight = true;
+        }
+        send(builder.search(keepAliveMillis + "ms"));
+    }
+
+    public static Builder builder(JestHttpClient client, String query) {
+        return new Builder(client, query);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (page != null && page.hasNext()) {
+            return true;
+        }
+        final long now = System.nanoTime();
+        final Page next;
+        final Action<? extends JestResult> request;
+        synchronized (this) {
+            if (page != null) {
+                // time spent on the previous page, without waiting for the next one
+                final long consumed = now - pageTakenNanos;
+                nanosPerPage = nanosPerPage < 0
+                        ? consumed
+                        : CONSUMER_TIME_WEIGHT * consumed + (1 - CONSUMER_TIME_WEIGHT) * nanosPerPage;
+                page = null;
+            }
+            while (buffer.isEmpty() && !exhausted && failure == null && !closed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for the next page of the scroll", e);
+                }
+            }
+            next = buffer.poll();
+            if (next != null) {
+                bufferedBytes -= next.bytes;
+            }
+            request = nextRequest();
+        }
+        if (request != null) {
+            send(request);
+        }
+
+        if (next == null) {
+            throwFailure();
+            return false;
+        }
+        page = next.hits.iterator();
+        pageTakenNanos = System.nanoTime();
+        return page.hasNext();
+    }
+
+    @Override
+    public JsonObject next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return page.next().getAsJsonObject();
+    }
+
+    /**
+     * @return number of pages buffered ahead of the consumer
+     */
+    public synchronized int getBufferedPages() {
+        return buffer.size();
+    }
+
+    /**
+     * @return bytes of the response bodies of the buffered pages
+     */
+    public synchronized long getBufferedBytes() {
+        return bufferedBytes;
+    }
+
+    /**
+     * @return keep-alive of the latest scroll request in milliseconds
+     */
+    public synchronized long getKeepAliveMillis() {
+        return keepAliveMillis;
+    }
+
+    /**
+     * Stops prefetching and clears the scroll context, once the request in flight has completed.
+     */
+    @Override
+    public void close() {
+        final boolean clear;
+        synchronized (this) {
+            closed = true;
+            buffer.clear();
+            bufferedBytes = 0;
+            notifyAll();
+            clear = !inFlight && markCleared();
+        }
+        if (clear) {
+            clearScroll();
+        }
+    }
+
+    // Must be called while holding the lock; returns the next page to request, if any.
+    private Action<? extends JestResult> nextRequest() {
+        if (inFlight || exhausted || closed || failure != null || scrollId == null
+                || buffer.size() >= prefetchPages || bufferedBytes >= maxBufferedBytes) {
+            return null;
+        }
+        inFlight = true;
+        keepAliveMillis = keepAliveMillis();
+        return new SearchScroll.Builder(scrollId, keepAliveMillis + "ms").build();
+    }
+
+    // Must be called while holding the lock.
+    private long keepAliveMillis() {
+        if (nanosPerPage < 0) {
+            return minKeepAliveMillis;
+        }
+        // the context is idle while the consumer works through a full buffer and the page in hand
+        final double idleNanos = nanosPerPage * (prefetchPages + 1);
+        final long millis = (long) Math.ceil(2 * idleNanos / TimeUnit.MILLISECONDS.toNanos(1));
+        return Math.max(minKeepAliveMillis, Math.min(maxKeepAliveMillis, millis));
+    }
+
+    // Must be called while holding the lock; returns whether the context is to be cleared by the caller.
+    private boolean markCleared() {
+        if (cleared || scrollId == null) {
+            return false;
+        }
+        cleared = true;
+        return true;
+    }
+
+    private void send(Action<? extends JestResult> request) {
+        try {
+            client.executeAsyncForResult(request, new JestResultHandler<JestResult>() {
+                @Override
+                public void completed(JestResult result) {
+                    onResult(result);
+                }
+
+                @Override
+                public void failed(Exception ex) {
+                    onFailure(ex);
+                }
+            });
+        } catch (RuntimeException e) {
+            onFailure(e);
+        }
+    }
+
+    private void onResult(JestResult result) {
+        final JsonObject json = result.getJsonObject();
+        final Action<? extends JestResult> request;
+        final boolean clear;
+        synchronized (this) {
+            inFlight = false;
+            if (json != null && json.has("_scroll_id")) {
+                final String previous = scrollId;
+                scrollId = json.get("_scroll_id").getAsString();
+                scope.replace(previous, scrollId);
+            }
+            if (!result.isSucceeded()) {
+                failure = new IOException("Scroll failed: " + result.getErrorMessage());
+            } else if (!closed) {
+                final JsonArray hits = SlicedScroll.hitsOf(json);
+                if (hits == null || hits.size() == 0) {
+                    exhausted = true;
+                } else {
+                    final long bytes = result.getJsonString() == null ? 0 : Utf8.encodedLength(result.getJsonString());
+                    buffer.add(new Page(hits, bytes));
+                    bufferedBytes += bytes;
+                }
+            }
+            notifyAll();
+            request = nextRequest();
+            clear = request == null && !inFlight && (closed || exhausted || failure != null) && markCleared();
+        }
+        if (request != null) {
+            send(request);
+        } else if (clear) {
+            clearScroll();
+        }
+    }
+
+    private void onFailure(Exception ex) {
+        final boolean clear;
+        synchronized (this) {
+            inFlight = false;
+            failure = ex;
+            notifyAll();
+            clear = markCleared();
+        }
+        if (clear) {
+            clearScroll();
+        }
+    }
+
+    private void clearScroll() {
+        scope.close();
+    }
+
+    private void throwFailure() {
+        final Throwable t;
+        synchronized (this) {
+            t = failure;
+        }
+        if (t == null) {
+            return;
+        }
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof IOException) {
+            throw new UncheckedIOException((IOException) t);
+        }
+        throw new UncheckedIOException(new IOException(t));
+    }
+
+    private static final class Page {
+        private final JsonArray hits;
+        private final long bytes;
+
+        private Page(JsonArray hits, long bytes) {
+            this.hits = hits;
+            this.bytes = bytes;
+        }
+    }
+
+    public static class Builder {
+        private final JestHttpClient client;
+        private final String query;
+        private final Set<String> indices = new LinkedHashSet<>();
+        private final Set<String> types = new LinkedHashSet<>();
+        private int size = 1000;
+        private int prefetchPages = 2;
+        private long maxBufferedBytes = 64 * 1024 * 1024;
+        private long minKeepAliveMillis = TimeUnit.SECONDS.toMillis(30);
+        private long maxKeepAliveMillis = TimeUnit.MINUTES.toMillis(10);
+
+        private Builder(JestHttpClient client, String query) {
+            if (client == null) {
+                throw new IllegalArgumentException("client must not be null");
+            }
+            final JsonElement parsed = query == null ? null : new JsonParser().parse(query);
+            if (parsed == null || !parsed.isJsonObject()) {
+                throw new IllegalArgumentException("query must be a JSON object");
+            }
+            this.client = client;
+            this.query = query;
+        }
+
+        public Builder addIndex(String index) {
+            indices.add(index);
+            return this;
+        }
+
+        public Builder addType(String type) {
+            types.add(type);
+            return this;
+        }
+
+        /**
+         * Number of hits per page, defaults to 1000.
+         */
+        public Builder size(int size) {
+            if (size <= 0) {
+                throw new IllegalArgumentException("size must be positive");
+            }
+            this.size = size;
+            return this;
+        }
+
+        /**
+         * Number of pages fetched ahead of the consumer, defaults to 2.
+         */
+        public Builder prefetchPages(int prefetchPages) {
+            if (prefetchPages <= 0) {
+                throw new IllegalArgumentException("prefetchPages must be positive");
+            }
+            this.prefetchPages = prefetchPages;
+            return this;
+        }
+
+        /**
+         * Size of the response bodies of the buffered pages in bytes at which prefetching pauses, defaults to
+         * 64 MB. At least one page is always fetched ahead.
+         */
+        public Builder maxBufferedBytes(long maxBufferedBytes) {
+            if (maxBufferedBytes <= 0) {
+                throw new IllegalArgumentException("maxBufferedBytes must be positive");
+            }
+            this.maxBufferedBytes = maxBufferedBytes;
+            return this;
+        }
+
+        /**
+         * Bounds of the keep-alive of the scroll context, defaults to 30 seconds and 10 minutes. The minimum is
+         * used until the speed of the consumer is known.
+         */
+        public Builder keepAlive(long min, long max, TimeUnit unit) {
+            if (min <= 0 || max < min) {
+                throw new IllegalArgumentException("keep-alive bounds must be positive and min must not exceed max");
+            }
+            this.minKeepAliveMillis = unit.toMillis(min);
+            this.maxKeepAliveMillis = unit.toMillis(max);
+            return this;
+        }
+
+        /**
+         * Sends the search and starts prefetching.
+         */
+        public PrefetchingScrollIterator build() {
+            return new PrefetchingScrollIterator(this);
+        }
+
+        private Search search(String keepAlive) {
+            final JsonObject body = new JsonParser().parse(query).getAsJsonObject();
+            if (!body.has("sort")) {
+                final JsonArray sort = new JsonArray();
+                sort.add("_doc");
+                body.add("sort", sort);
+            }
+            return new Search.Builder(body.toString())
+                    .addIndex(indices)
+                    .addType(types)
+                    .setParameter(Parameters.SCROLL, keepAlive)
+                    .setParameter(Parameters.SIZE, size)
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package org.graylog.jest.restclient.scroll;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Iterates over the hits of all slices of a {@link SlicedScroll}, see {@link SlicedScroll#iterator(int)}.
+ * <p>
+ * {@link #hasNext()} blocks until the next page of any slice has arrived. If a slice fails, the iterator throws
+ * the failure wrapped into an {@link UncheckedIOException} or as it is if it is a runtime exception. Closing the
+ * iterator before all hits have been read stops the scroll and clears its contexts.
+ * </p>
+ */
+public class ScrollHitIterator implements Iterator<JsonObject>, Closeable {
+
+    private static final JsonArray END = new JsonArray();
+
+    private final PageGate gate;
+    // pages of all slices, the unbounded queue is limited by the gate
+    private final BlockingQueue<JsonArray> pages = new LinkedBlockingQueue<>();
+    private SlicedScroll.Run run;
+    private Iterator<JsonElement> page;
+    private boolean ended;
+
+    ScrollHitIterator(PageGate gate) {
+        this.gate = gate;
+    }
+
+    void setRun(SlicedScroll.Run run) {
+        this.run = run;
+        run.future.whenComplete((hits, failure) -> pages.add(END));
+    }
+
+    void offer(int slice, JsonArray hits) {
+        pages.add(hits);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (page == null || !page.hasNext()) {
+            if (ended) {
+                return false;
+            }
+            final JsonArray next;
+            try {
+                next = pages.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+                throw new IllegalStateException("Interrupted while waiting for the next page of the scroll", e);
+            }
+            if (next == END) {
+                ended = true;
+                page = null;
+                throwFailure();
+                return false;
+            }
+            // the page left the buffer, another one may be requested
+            gate.release();
+            page = next.iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public JsonObject next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return page.next().getAsJsonObject();
+    }
+
+    /**
+     * @return number of hits read by all slices so far
+     */
+    public long getHits() {
+        return run.getHits();
+    }
+
+    /**
+     * Stops the scroll if it hasn't ended yet. The scroll contexts are cleared once the requests in flight have
+     * completed.
+     */
+    @Override
+    public void close() {
+        run.cancel();
+    }
+
+    private void throwFailure() {
+        final Throwable failure = run.getFailure();
+        if (failure == null) {
+            return;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof IOException) {
+            throw new UncheckedIOException((IOException) failure);
+        }
+        throw new UncheckedIOException(new IOException(failure));
+    }
+}
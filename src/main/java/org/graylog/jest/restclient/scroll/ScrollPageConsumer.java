@@ -0,0 +1,21 @@
+package org.graylog.jest.restclient.scroll;
+
+import com.google.gson.JsonArray;
+
+/**
+ * Receives the pages of a {@link SlicedScroll}.
+ */
+@FunctionalInterface
+public interface ScrollPageConsumer {
+
+    /**
+     * Called with every non-empty page of hits of a slice. Pages of the same slice are passed one after the other
+     * and in order, pages of different slices concurrently. The next page of the slice is only requested once the
+     * method returns.
+     *
+     * @param slice number of the slice, starting at 0
+     * @param hits  the <code>hits.hits</code> array of the page
+     * @throws Exception to stop the scroll, which then fails with the exception
+     */
+    void accept(int slice, JsonArray hits) throws Exception;
+}
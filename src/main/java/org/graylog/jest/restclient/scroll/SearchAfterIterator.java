@@ -0,0 +1,255 @@
+package org.graylog.jest.restclient.scroll;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.searchbox.client.JestResult;
+import io.searchbox.core.Search;
+import org.graylog.jest.restclient.http.JestHttpClient;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Pages through the results of a search with <code>search_after</code>, which costs the same for every page no matter
+ * how deep, unlike <code>from</code> and <code>size</code>, and isn't limited by
+ * <code>index.max_result_window</code>. Unlike a scroll, it doesn't keep a context open on the cluster, so it
+ * suits paging on behalf of users, e.g. resuming with the {@link #getSearchAfter() position} of a previous request.
+ * <p>
+ * The sort of the query gets a unique tiebreaker appended, <code>_uid</code> by default, unless it already sorts
+ * on it, so hits with equal sort values are neither skipped nor repeated between pages. Without a sort, hits are
+ * sorted by score. The sort values of the last hit of a page are sent as <code>search_after</code> of the next one.
+ * </p>
+ * <p>
+ * Pages are requested when the iterator runs out of hits, on the calling thread. Failures are thrown by
+ * {@link #hasNext()} wrapped into an {@link UncheckedIOException}, or as {@link IOException} by
+ * {@link #nextPage()}.
+ * </p>
+ * <p>
+ * Example:
+ * </p>
+ * <pre>
+ * SearchAfterIterator hits = SearchAfterIterator.builder(client, "{\"query\":{\"match_all\":{}},\"sort\":[{\"timestamp\":\"desc\"}]}")
+ *         .addIndex("logs")
+ *         .size(100)
+ *         .build();
+ * while (hits.hasNext()) {
+ *     JsonObject hit = hits.next();
+ *     ...
+ * }
+ * </pre>
+ */
+public class SearchAfterIterator implements Iterator<JsonObject> {
+
+    private final JestHttpClient client;
+    // the request body with the tiebreaker in its sort
+    private final String query;
+    private final Set<String> indices;
+    private final Set<String> types;
+    private final int size;
+
+    private JsonArray searchAfter;
+    private Iterator<JsonElement> page;
+    private boolean exhausted;
+    private long pages;
+
+    private SearchAfterIterator(Builder builder) {
+        this.client = builder.client;
+        final JsonObject body = new JsonParser().parse(builder.query).getAsJsonObject();
+        body.add("sort", sortWithTiebreaker(body.get("sort"), builder.tiebreaker));
+        body.remove("from");
+        this.query = body.toString();
+        this.indices = new LinkedHashSet<>(builder.indices);
+        this.types = new LinkedHashSet<>(builder.types);
+        this.size = builder.size;
+        this.searchAfter = builder.searchAfter;
+    }
+
+    /**
+     * @param query the search request body; must not contain <code>from</code> other than 0
+     */
+    public static Builder builder(JestHttpClient client, String query) {
+        return new Builder(client, query);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (page == null || !page.hasNext()) {
+            if (exhausted) {
+                return false;
+            }
+            try {
+                page = nextPage().iterator();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public JsonObject next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return page.next().getAsJsonObject();
+    }
+
+    /**
+     * Requests the next page, skipping any hits of the current page which haven't been read by {@link #next()}.
+     *
+     * @return the hits of the page, empty once all hits have been read
+     */
+    public JsonArray nextPage() throws IOException {
+        page = null;
+        if (exhausted) {
+            return new JsonArray();
+        }
+        final JestResult result = client.execute(search());
+        if (!result.isSucceeded()) {
+            throw new IOException("Search after " + searchAfter + " failed: " + result.getErrorMessage());
+        }
+        final JsonArray hits = SlicedScroll.hitsOf(result.getJsonObject());
+        pages++;
+        if (hits == null || hits.size() == 0) {
+            exhausted = true;
+            return new JsonArray();
+        }
+        final JsonElement sortValues = hits.get(hits.size() - 1).getAsJsonObject().get("sort");
+        if (sortValues == null || !sortValues.isJsonArray()) {
+            throw new IOException("Hit without sort values, can't continue after it");
+        }
+        searchAfter = sortValues.getAsJsonArray();
+        // a short page is the last one, saving the request for the empty page
+        exhausted = hits.size() < size;
+        return hits;
+    }
+
+    /**
+     * @return the sort values of the last hit returned so far, to resume with {@link Builder#searchAfter(JsonArray)},
+     * or null if no page has been read yet
+     */
+    public JsonArray getSearchAfter() {
+        return searchAfter;
+    }
+
+    /**
+     * @return number of pages requested so far
+     */
+    public long getPages() {
+        return pages;
+    }
+
+    Search search() {
+        final JsonObject body = new JsonParser().parse(query).getAsJsonObject();
+        body.addProperty("size", size);
+        if (searchAfter != null) {
+            body.add("search_after", searchAfter);
+        }
+        return new Search.Builder(body.toString())
+                .addIndex(indices)
+                .addType(types)
+                .build();
+    }
+
+    // Normalizes the sort into an array and appends the tiebreaker, unless it is sorted on already.
+    private static JsonArray sortWithTiebreaker(JsonElement sort, String tiebreaker) {
+        final JsonArray sorts = new JsonArray();
+        if (sort == null) {
+            sorts.add("_score");
+        } else if (sort.isJsonArray()) {
+            sorts.addAll(sort.getAsJsonArray());
+        } else {
+            sorts.add(sort);
+        }
+        for (JsonElement element : sorts) {
+            final boolean sortsOnTiebreaker = element.isJsonPrimitive()
+                    ? tiebreaker.equals(element.getAsString())
+                    : element.isJsonObject() && element.getAsJsonObject().has(tiebreaker);
+            if (sortsOnTiebreaker) {
+                return sorts;
+            }
+        }
+        final JsonObject tiebreakerSort = new JsonObject();
+        tiebreakerSort.addProperty(tiebreaker, "asc");
+        sorts.add(tiebreakerSort);
+        return sorts;
+    }
+
+    public static class Builder {
+        private final JestHttpClient client;
+        private final String query;
+        private final Set<String> indices = new LinkedHashSet<>();
+        private final Set<String> types = new LinkedHashSet<>();
+        private String tiebreaker = "_uid";
+        private int size = 100;
+        private JsonArray searchAfter;
+
+        private Builder(JestHttpClient client, String query) {
+            if (client == null) {
+                throw new IllegalArgumentException("client must not be null");
+            }
+            final JsonElement parsed = query == null ? null : new JsonParser().parse(query);
+            if (parsed == null || !parsed.isJsonObject()) {
+                throw new IllegalArgumentException("query must be a JSON object");
+            }
+            final JsonElement from = parsed.getAsJsonObject().get("from");
+            if (from != null && !(from.isJsonPrimitive() && from.getAsInt() == 0)) {
+                throw new IllegalArgumentException("query must not set from, pages are continued with search_after");
+            }
+            this.client = client;
+            this.query = query;
+        }
+
+        public Builder addIndex(String index) {
+            indices.add(index);
+            return this;
+        }
+
+        public Builder addType(String type) {
+            types.add(type);
+            return this;
+        }
+
+        /**
+         * Number of hits per page, defaults to 100.
+         */
+        public Builder size(int size) {
+            if (size <= 0) {
+                throw new IllegalArgumentException("size must be positive");
+            }
+            this.size = size;
+            return this;
+        }
+
+        /**
+         * Field with a unique value per document appended to the sort, defaults to <code>_uid</code>. Should be a
+         * field with doc values, e.g. a copy of the id, on large indices.
+         */
+        public Builder tiebreaker(String tiebreaker) {
+            if (tiebreaker == null || tiebreaker.isEmpty()) {
+                throw new IllegalArgumentException("tiebreaker must not be empty");
+            }
+            this.tiebreaker = tiebreaker;
+            return this;
+        }
+
+        /**
+         * Starts after the hit with the given sort values, as returned by {@link SearchAfterIterator#getSearchAfter()}
+         * for the same query.
+         */
+        public Builder searchAfter(JsonArray searchAfter) {
+            this.searchAfter = searchAfter;
+            return this;
+        }
+
+        public SearchAfterIterator build() {
+            return new SearchAfterIterator(this);
+        }
+    }
+}
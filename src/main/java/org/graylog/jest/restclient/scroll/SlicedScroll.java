@@ -0,0 +1,364 @@
+package org.graylog.jest.restclient.scroll;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.searchbox.action.Action;
+import io.searchbox.client.JestResult;
+import io.searchbox.client.JestResultHandler;
+import io.searchbox.core.Search;
+import io.searchbox.core.SearchScroll;
+import io.searchbox.params.Parameters;
+import org.graylog.jest.restclient.http.JestHttpClient;
+import org.graylog.jest.restclient.http.ScrollRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Scrolls over the results of a search with several sliced scrolls at the same time, see the <code>slice</code>
+ * parameter of the scroll API.
+ * <p>
+ * Every slice is a scroll of its own which is driven by {@link JestHttpClient#executeAsyncForResult}, requesting its next
+ * page as soon as the previous one has been consumed, so the slices are read in parallel without a thread per
+ * slice. The hits are passed to a {@link ScrollPageConsumer} per page, or merged into a single
+ * {@link ScrollHitIterator}. The scroll contexts of all slices are cleared with a single clear scroll request once
+ * all slices are exhausted, and also if a slice fails or the scroll is cancelled. An iterator which is garbage
+ * collected without having been closed has its contexts cleared by the client's {@link ScrollRegistry}.
+ * </p>
+ * <p>
+ * Without a sort in the query, hits are sorted by <code>_doc</code>, the cheapest order to scroll in.
+ * </p>
+ * <p>
+ * Example:
+ * </p>
+ * <pre>
+ * SlicedScroll scroll = SlicedScroll.builder(client, "{\"query\":{\"match_all\":{}}}")
+ *         .addIndex("logs")
+ *         .slices(8)
+ *         .size(1000)
+ *         .build();
+ * try (ScrollHitIterator hits = scroll.iterator()) {
+ *     while (hits.hasNext()) {
+ *         JsonObject hit = hits.next();
+ *         ...
+ *     }
+ * }
+ * </pre>
+ */
+public class SlicedScroll {
+
+    private static final Logger log = LoggerFactory.getLogger(SlicedScroll.class);
+
+    private final JestHttpClient client;
+    private final String query;
+    private final List<String> indices;
+    private final List<String> types;
+    private final int slices;
+    private final String keepAlive;
+    private final int size;
+
+    private SlicedScroll(Builder builder) {
+        this.client = builder.client;
+        this.query = builder.query;
+        this.indices = new ArrayList<>(builder.indices);
+        this.types = new ArrayList<>(builder.types);
+        this.slices = builder.slices;
+        this.keepAlive = builder.keepAlive;
+        this.size = builder.size;
+    }
+
+    public static Builder builder(JestHttpClient client, String query) {
+        return new Builder(client, query);
+    }
+
+    /**
+     * Starts scrolling, passing the pages of all slices to the consumer.
+     *
+     * @return future completing with the number of hits once all slices are exhausted and the scroll contexts have
+     * been cleared, or completing exceptionally with the first failure of a slice or the consumer
+     */
+    public CompletableFuture<Long> forEachPage(ScrollPageConsumer consumer) {
+        final Run run = new Run(consumer, null, null);
+        run.start();
+        return run.future;
+    }
+
+    /**
+     * Starts scrolling, merging the hits of all slices into an iterator. The hits of a page are in order, the
+     * pages of the slices are interleaved in the order they arrive.
+     *
+     * @param bufferedPages number of pages which may be requested ahead of the consumer of the iterator, in
+     *                      addition to one per slice
+     */
+    public ScrollHitIterator iterator(int bufferedPages) {
+        if (bufferedPages < 0) {
+            throw new IllegalArgumentException("bufferedPages must not be negative");
+        }
+        final PageGate gate = new PageGate(bufferedPages);
+        final ScrollHitIterator iterator = new ScrollHitIterator(gate);
+        final Run run = new Run(iterator::offer, gate, iterator);
+        iterator.setRun(run);
+        run.start();
+        return iterator;
+    }
+
+    /**
+     * Starts scrolling, merging the hits of all slices into an iterator with as many pages buffered as there are
+     * slices.
+     */
+    public ScrollHitIterator iterator() {
+        return iterator(slices);
+    }
+
+    Search search(int slice) {
+        final JsonObject body = new JsonParser().parse(query).getAsJsonObject();
+        if (slices > 1) {
+            final JsonObject sliceObject = new JsonObject();
+            sliceObject.addProperty("id", slice);
+            sliceObject.addProperty("max", slices);
+            body.add("slice", sliceObject);
+        }
+        if (!body.has("sort")) {
+            final JsonArray sort = new JsonArray();
+            sort.add("_doc");
+            body.add("sort", sort);
+        }
+        return new Search.Builder(body.toString())
+                .addIndex(indices)
+                .addType(types)
+                .setParameter(Parameters.SCROLL, keepAlive)
+                .setParameter(Parameters.SIZE, size)
+                .build();
+    }
+
+    /**
+     * A single pass over all slices.
+     */
+    class Run {
+        final CompletableFuture<Long> future = new CompletableFuture<>();
+        private final ScrollPageConsumer consumer;
+        // limits the pages requested ahead of the consumer, null if the consumer is the limit
+        private final PageGate gate;
+        private final AtomicReferenceArray<String> scrollIds = new AtomicReferenceArray<>(slices);
+        private final ScrollRegistry.Scope scope;
+        private final AtomicInteger activeSlices = new AtomicInteger(slices);
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private final LongAdder hits = new LongAdder();
+        private volatile boolean cancelled;
+
+        /**
+         * @param owner object whose garbage collection abandons the scroll, the run itself if null
+         */
+        Run(ScrollPageConsumer consumer, PageGate gate, Object owner) {
+            this.consumer = consumer;
+            this.gate = gate;
+            this.scope = client.getScrollRegistry().open(owner == null ? this : owner);
+        }
+
+        void start() {
+            for (int slice = 0; slice < slices; slice++) {
+                send(slice, search(slice));
+            }
+        }
+
+        /**
+         * Stops requesting pages, the scroll contexts are cleared once the requests in flight have completed.
+         */
+        void cancel() {
+            cancelled = true;
+            if (gate != null) {
+                gate.cancel();
+            }
+        }
+
+        void fail(Throwable t) {
+            if (failure.compareAndSet(null, t)) {
+                log.debug("Sliced scroll failed, stopping all slices.", t);
+            }
+            cancel();
+        }
+
+        Throwable getFailure() {
+            return failure.get();
+        }
+
+        long getHits() {
+            return hits.sum();
+        }
+
+        private void send(int slice, Action<? extends JestResult> action) {
+            try {
+                client.executeAsyncForResult(action, new JestResultHandler<JestResult>() {
+                    @Override
+                    public void completed(JestResult result) {
+                        onPage(slice, result);
+                    }
+
+                    @Override
+                    public void failed(Exception ex) {
+                        fail(ex);
+                        sliceDone();
+                    }
+                });
+            } catch (RuntimeException e) {
+                fail(e);
+                sliceDone();
+            }
+        }
+
+        private void onPage(int slice, JestResult result) {
+            final JsonObject json = result.getJsonObject();
+            if (json != null && json.has("_scroll_id")) {
+                final String scrollId = json.get("_scroll_id").getAsString();
+                scope.replace(scrollIds.getAndSet(slice, scrollId), scrollId);
+            }
+            if (!result.isSucceeded()) {
+                fail(new IOException("Scroll of slice " + slice + " failed: " + result.getErrorMessage()));
+                sliceDone();
+                return;
+            }
+            if (cancelled) {
+                sliceDone();
+                return;
+            }
+
+            final JsonArray pageHits = hitsOf(json);
+            if (pageHits == null || pageHits.size() == 0) {
+                sliceDone();
+                return;
+            }
+            hits.add(pageHits.size());
+            try {
+                consumer.accept(slice, pageHits);
+            } catch (Exception e) {
+                fail(e);
+                sliceDone();
+                return;
+            }
+
+            final Runnable next = () -> {
+                if (cancelled) {
+                    sliceDone();
+                } else {
+                    send(slice, new SearchScroll.Builder(scrollIds.get(slice), keepAlive).build());
+                }
+            };
+            if (gate == null) {
+                next.run();
+            } else {
+                gate.proceed(next);
+            }
+        }
+
+        private void sliceDone() {
+            if (activeSlices.decrementAndGet() == 0) {
+                clearScrolls();
+            }
+        }
+
+        private void clearScrolls() {
+            scope.close().thenRun(this::complete);
+        }
+
+        private void complete() {
+            final Throwable t = failure.get();
+            if (t == null) {
+                future.complete(hits.sum());
+            } else {
+                future.completeExceptionally(t);
+            }
+        }
+    }
+
+    // The hits.hits array of a search response, null if missing.
+    static JsonArray hitsOf(JsonObject json) {
+        final JsonElement hits = json == null ? null : json.get("hits");
+        if (hits == null || !hits.isJsonObject()) {
+            return null;
+        }
+        final JsonElement hitArray = hits.getAsJsonObject().get("hits");
+        return hitArray != null && hitArray.isJsonArray() ? hitArray.getAsJsonArray() : null;
+    }
+
+    public static class Builder {
+        private final JestHttpClient client;
+        private final String query;
+        private final Set<String> indices = new LinkedHashSet<>();
+        private final Set<String> types = new LinkedHashSet<>();
+        private int slices = 4;
+        private String keepAlive = "1m";
+        private int size = 1000;
+
+        private Builder(JestHttpClient client, String query) {
+            if (client == null) {
+                throw new IllegalArgumentException("client must not be null");
+            }
+            final JsonElement parsed = query == null ? null : new JsonParser().parse(query);
+            if (parsed == null || !parsed.isJsonObject()) {
+                throw new IllegalArgumentException("query must be a JSON object");
+            }
+            this.client = client;
+            this.query = query;
+        }
+
+        public Builder addIndex(String index) {
+            indices.add(index);
+            return this;
+        }
+
+        public Builder addType(String type) {
+            types.add(type);
+            return this;
+        }
+
+        /**
+         * Number of slices scrolled in parallel, defaults to 4. Elasticsearch works best with at most one slice per
+         * shard.
+         */
+        public Builder slices(int slices) {
+            if (slices <= 0) {
+                throw new IllegalArgumentException("slices must be positive");
+            }
+            this.slices = slices;
+            return this;
+        }
+
+        /**
+         * Time the scroll contexts are kept alive between two pages, defaults to <code>1m</code>.
+         */
+        public Builder keepAlive(String keepAlive) {
+            if (keepAlive == null) {
+                throw new IllegalArgumentException("keepAlive must not be null");
+            }
+            this.keepAlive = keepAlive;
+            return this;
+        }
+
+        /**
+         * Number of hits per page and slice, defaults to 1000.
+         */
+        public Builder size(int size) {
+            if (size <= 0) {
+                throw new IllegalArgumentException("size must be positive");
+            }
+            this.size = size;
+            return this;
+        }
+
+        public SlicedScroll build() {
+            return new SlicedScroll(this);
+        }
+    }
+}
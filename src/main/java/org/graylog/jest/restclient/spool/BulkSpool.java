@@ -0,0 +1,346 @@
+package org.graylog.jest.restclient.spool;
+
+import com.google.common.util.concurrent.RateLimiter;
+import io.searchbox.core.Bulk;
+import io.searchbox.core.BulkResult;
+import org.graylog.jest.restclient.http.JestHttpClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends bulk requests to the cluster and spools them to local disk while the cluster is unreachable or saturated.
+ * <p>
+ * A bulk is spooled if sending it fails with an {@link IOException}, e.g. a
+ * {@link io.searchbox.client.config.exception.CouldNotConnectException}, or the cluster answers with one of the
+ * saturation statuses (429, 502, 503 and 504 by default). While spooled bulks are pending, new bulks are appended
+ * to the spool as well, so no bulk overtakes an older one. A background thread replays the spooled bulks in order
+ * at the configured rate; a bulk is removed from the spool once the cluster accepted it, even if some of its items
+ * failed. Replayed results are reported to the {@link Listener}.
+ * </p>
+ * <p>
+ * The spool is a journal of memory-mapped segment files in the given directory, see {@link FsyncPolicy} for its
+ * durability. Bulks left in the directory by a previous process are replayed after opening the spool.
+ * </p>
+ */
+public class BulkSpool implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(BulkSpool.class);
+
+    private final JestHttpClient client;
+    private final SegmentJournal journal;
+    private final Listener listener;
+    private final RateLimiter replayRateLimiter;
+    private final long retryIntervalMillis;
+    private final Set<Integer> saturationStatuses;
+    private final ScheduledExecutorService executor;
+    private final ScheduledExecutorService syncExecutor;
+    private final SpoolStats stats = new SpoolStats();
+
+    private boolean spooling;
+    private volatile boolean closed;
+
+    private BulkSpool(Builder builder) throws IOException {
+        this.client = builder.client;
+        this.journal = new SegmentJournal(builder.directory, builder.segmentSize, builder.maxDiskUsage, builder.fsyncPolicy);
+        this.listener = builder.listener;
+        this.replayRateLimiter = RateLimiter.create(builder.replayBulksPerSecond);
+        this.retryIntervalMillis = builder.retryIntervalMillis;
+        this.saturationStatuses = new HashSet<>(builder.saturationStatuses);
+        final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            final Thread thread = new Thread(runnable, "jest-bulk-spool");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // a replay waiting for its retry interval must not delay closing
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.executor = executor;
+
+        // the replay thread blocks on the rate limiter and the bulk requests, so syncing has its own thread
+        if (builder.fsyncPolicy == FsyncPolicy.PERIODIC) {
+            this.syncExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "jest-bulk-spool-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            syncExecutor.scheduleWithFixedDelay(this::syncQuietly,
+                    builder.fsyncIntervalMillis, builder.fsyncIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.syncExecutor = null;
+        }
+        if (!journal.isEmpty()) {
+            startReplay(0);
+        }
+    }
+
+    public static Builder builder(JestHttpClient client, Path directory) {
+        return new Builder(client, directory);
+    }
+
+    /**
+     * Sends the bulk, or spools it if the cluster is unavailable or spooled bulks are still pending.
+     *
+     * @return the result of the bulk or <code>null</code> if it has been spooled
+     * @throws SpoolFullException if the bulk had to be spooled but the spool is full
+     */
+    public BulkResult execute(Bulk bulk) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Bulk spool is already closed");
+        }
+
+        if (!isSpooling()) {
+            try {
+                final BulkResult result = client.execute(bulk);
+                if (!saturationStatuses.contains(result.getResponseCode())) {
+                    stats.directBulks.increment();
+                    return result;
+                }
+                log.warn("Cluster answered bulk request with status {}, spooling bulk requests.", result.getResponseCode());
+            } catch (IOException e) {
+                log.warn("Couldn't send bulk request, spooling bulk requests: {}", e.getMessage());
+            }
+        }
+
+        spool(SpooledBulk.encode(bulk, client.getGson()));
+        return null;
+    }
+
+    /**
+     * @return number of bulks waiting for replay
+     */
+    public long getPendingBulks() {
+        return journal.getPendingRecords();
+    }
+
+    /**
+     * @return bytes of the bulks waiting for replay
+     */
+    public long getPendingBytes() {
+        return journal.getPendingBytes();
+    }
+
+    /**
+     * @return bytes allocated by the segment files
+     */
+    public long getDiskUsage() {
+        return journal.getDiskUsage();
+    }
+
+    public SpoolStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Stops the replay. Bulks still pending stay in the spool and are replayed when it is opened again.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        executor.shutdown();
+        if (syncExecutor != null) {
+            syncExecutor.shutdown();
+        }
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.warn("Replay of spooled bulks did not stop within a minute.");
+            }
+            if (syncExecutor != null && !syncExecutor.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.warn("Sync of the bulk spool did not stop within a minute.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        journal.close();
+    }
+
+    private synchronized boolean isSpooling() {
+        return spooling;
+    }
+
+    private synchronized void spool(byte[] record) throws IOException {
+        journal.append(record);
+        stats.spooledBulks.increment();
+        if (!spooling) {
+            startReplay(retryIntervalMillis);
+        }
+    }
+
+    // Must be called while holding the lock or from the constructor.
+    private void startReplay(long delayMillis) {
+        spooling = true;
+        executor.schedule(this::replay, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void replay() {
+        try {
+            while (!closed) {
+                final SegmentJournal.Record record;
+                synchronized (this) {
+                    record = journal.peek();
+                    if (record == null) {
+                        spooling = false;
+                        log.info("Replayed all spooled bulk requests.");
+                        return;
+                    }
+                }
+
+                replayRateLimiter.acquire();
+                final BulkResult result;
+                try {
+                    result = client.execute(SpooledBulk.decode(record.getData()));
+                } catch (IOException e) {
+                    retryReplay("Couldn't replay spooled bulk request: " + e.getMessage());
+                    return;
+                }
+                if (saturationStatuses.contains(result.getResponseCode())) {
+                    retryReplay("Cluster answered spooled bulk request with status " + result.getResponseCode());
+                    return;
+                }
+
+                journal.commit(record);
+                stats.replayedBulks.increment();
+                try {
+                    listener.afterReplay(result);
+                } catch (Exception e) {
+                    log.error("Exception occurred in spool listener.", e);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("Couldn't read spooled bulk requests.", e);
+            retryReplay(e.getMessage());
+        }
+    }
+
+    private void retryReplay(String reason) {
+        stats.failedReplays.increment();
+        log.debug("{}, retrying in {} ms.", reason, retryIntervalMillis);
+        if (!closed) {
+            executor.schedule(this::replay, retryIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void syncQuietly() {
+        try {
+            journal.sync();
+            stats.syncs.increment();
+        } catch (IOException e) {
+            log.error("Couldn't sync bulk spool.", e);
+        }
+    }
+
+    /**
+     * Receives the results of replayed bulks on the replay thread.
+     */
+    public interface Listener {
+        void afterReplay(BulkResult result);
+    }
+
+    public static class Builder {
+        private final JestHttpClient client;
+        private final Path directory;
+        private int segmentSize = 64 * 1024 * 1024;
+        private long maxDiskUsage = 1024L * 1024 * 1024;
+        private FsyncPolicy fsyncPolicy = FsyncPolicy.PERIODIC;
+        private long fsyncIntervalMillis = 1000;
+        private double replayBulksPerSecond = 10;
+        private long retryIntervalMillis = 5000;
+        private Set<Integer> saturationStatuses = new HashSet<>(Arrays.asList(429, 502, 503, 504));
+        private Listener listener = result -> {
+        };
+
+        private Builder(JestHttpClient client, Path directory) {
+            if (client == null || directory == null) {
+                throw new IllegalArgumentException("client and directory must not be null");
+            }
+            this.client = client;
+            this.directory = directory;
+        }
+
+        /**
+         * Size of a segment file in bytes, defaults to 64 MB. Larger bulks get a segment of their own.
+         */
+        public Builder segmentSize(int segmentSize) {
+            if (segmentSize <= 0) {
+                throw new IllegalArgumentException("segmentSize must be positive");
+            }
+            this.segmentSize = segmentSize;
+            return this;
+        }
+
+        /**
+         * Maximum bytes of all segment files, defaults to 1 GB.
+         */
+        public Builder maxDiskUsage(long maxDiskUsage) {
+            if (maxDiskUsage <= 0) {
+                throw new IllegalArgumentException("maxDiskUsage must be positive");
+            }
+            this.maxDiskUsage = maxDiskUsage;
+            return this;
+        }
+
+        /**
+         * Defaults to {@link FsyncPolicy#PERIODIC} every second.
+         */
+        public Builder fsyncPolicy(FsyncPolicy fsyncPolicy, long interval, TimeUnit unit) {
+            if (fsyncPolicy == FsyncPolicy.PERIODIC && interval <= 0) {
+                throw new IllegalArgumentException("interval must be positive");
+            }
+            this.fsyncPolicy = fsyncPolicy;
+            this.fsyncIntervalMillis = unit.toMillis(interval);
+            return this;
+        }
+
+        /**
+         * Maximum rate of replayed bulks, defaults to 10 per second.
+         */
+        public Builder replayRate(double bulksPerSecond) {
+            if (bulksPerSecond <= 0) {
+                throw new IllegalArgumentException("bulksPerSecond must be positive");
+            }
+            this.replayBulksPerSecond = bulksPerSecond;
+            return this;
+        }
+
+        /**
+         * Wait before replaying after a failed attempt, defaults to 5 seconds.
+         */
+        public Builder retryInterval(long retryInterval, TimeUnit unit) {
+            if (retryInterval < 0) {
+                throw new IllegalArgumentException("retryInterval must not be negative");
+            }
+            this.retryIntervalMillis = unit.toMillis(retryInterval);
+            return this;
+        }
+
+        /**
+         * HTTP statuses of bulk responses which mean the cluster is saturated, defaults to 429, 502, 503 and 504.
+         */
+        public Builder saturationStatuses(Collection<Integer> saturationStatuses) {
+            this.saturationStatuses = new HashSet<>(saturationStatuses);
+            return this;
+        }
+
+        public Builder listener(Listener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        /**
+         * @throws IOException if the spool directory can't be created or read
+         */
+        public BulkSpool build() throws IOException {
+            return new BulkSpool(this);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package org.graylog.jest.restclient.spool;
+
+/**
+ * When spooled records and the replay checkpoint are forced to disk.
+ */
+public enum FsyncPolicy {
+    /**
+     * After every appended record and every replayed record. No acknowledged record is lost if the machine
+     * crashes, at the cost of one sync per bulk.
+     */
+    ALWAYS,
+    /**
+     * In a fixed interval. A crash of the machine loses at most the records of the last interval.
+     */
+    PERIODIC,
+    /**
+     * Only when the spool is closed, otherwise it is left to the operating system.
+     */
+    NEVER
+}
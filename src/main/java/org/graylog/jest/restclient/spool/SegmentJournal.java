@@ -0,0 +1,372 @@
+package org.graylog.jest.restclient.spool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of records stored in memory-mapped segment files.
+ * <p>
+ * A record is written as its length, the CRC32 of its content and the content. Segments are pre-allocated files
+ * of a fixed size, so the unused tail of a segment reads as zeros and marks its end. The position of the oldest
+ * record which has not been committed is kept in a checkpoint file. Records are read in the order they were
+ * appended; segments are deleted once all of their records are committed.
+ * </p>
+ * <p>
+ * On opening an existing journal, every segment is scanned up to the first record with an invalid length or
+ * checksum, which drops a record torn by a crash. Committed records may be read again after a crash if the
+ * checkpoint had not been synced, so the journal provides at-least-once delivery.
+ * </p>
+ */
+class SegmentJournal implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(SegmentJournal.class);
+
+    static final String SEGMENT_SUFFIX = ".segment";
+    static final String CHECKPOINT_FILE = "checkpoint";
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int CHECKPOINT_SIZE = 16;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long maxDiskUsage;
+    private final FsyncPolicy fsyncPolicy;
+    private final FileChannel checkpointChannel;
+    private final Deque<Segment> segments = new ArrayDeque<>();
+
+    private long nextSegmentId;
+    private int readPosition;
+    private long pendingRecords;
+    private long pendingBytes;
+    private boolean dirty;
+
+    SegmentJournal(Path directory, int segmentSize, long maxDiskUsage, FsyncPolicy fsyncPolicy) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxDiskUsage = maxDiskUsage;
+        this.fsyncPolicy = fsyncPolicy;
+
+        Files.createDirectories(directory);
+        this.checkpointChannel = FileChannel.open(directory.resolve(CHECKPOINT_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        recover();
+    }
+
+    /**
+     * Appends a record.
+     *
+     * @throws SpoolFullException if the record would exceed the maximum disk usage
+     */
+    synchronized void append(byte[] data) throws IOException {
+        if (data.length == 0) {
+            throw new IllegalArgumentException("Records must not be empty");
+        }
+
+        final int recordSize = RECORD_HEADER_SIZE + data.length;
+        Segment tail = segments.peekLast();
+        if (tail == null || tail.remaining() < recordSize) {
+            final int size = Math.max(segmentSize, recordSize);
+            if (getDiskUsage() + size > maxDiskUsage) {
+                throw new SpoolFullException("Spool in " + directory + " exceeds " + maxDiskUsage + " bytes");
+            }
+            if (tail != null) {
+                tail.force();
+            }
+            tail = Segment.create(directory, nextSegmentId++, size);
+            segments.addLast(tail);
+        }
+
+        tail.write(data);
+        pendingRecords++;
+        pendingBytes += data.length;
+        if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+            tail.force();
+        } else {
+            dirty = true;
+        }
+    }
+
+    /**
+     * @return the oldest record which has not been committed yet or <code>null</code> if there is none
+     */
+    synchronized Record peek() throws IOException {
+        while (!segments.isEmpty()) {
+            final Segment head = segments.peekFirst();
+            if (readPosition < head.writePosition) {
+                final byte[] data = head.read(readPosition);
+                return new Record(head.id, readPosition, data);
+            }
+            if (head == segments.peekLast()) {
+                return null;
+            }
+            // all records of the segment are committed
+            segments.removeFirst();
+            readPosition = 0;
+            writeCheckpoint();
+            head.delete();
+        }
+        return null;
+    }
+
+    /**
+     * Marks the record and all records before it as processed.
+     */
+    synchronized void commit(Record record) throws IOException {
+        final Segment head = segments.peekFirst();
+        if (head == null || head.id != record.segmentId || readPosition != record.position) {
+            throw new IllegalStateException("Records must be committed in order");
+        }
+        readPosition += RECORD_HEADER_SIZE + record.data.length;
+        pendingRecords--;
+        pendingBytes -= record.data.length;
+        writeCheckpoint();
+    }
+
+    /**
+     * Forces appended records and the checkpoint to disk.
+     */
+    synchronized void sync() throws IOException {
+        if (dirty) {
+            final Segment tail = segments.peekLast();
+            if (tail != null) {
+                tail.force();
+            }
+            checkpointChannel.force(false);
+            dirty = false;
+        }
+    }
+
+    synchronized boolean isEmpty() {
+        return pendingRecords == 0;
+    }
+
+    synchronized long getPendingRecords() {
+        return pendingRecords;
+    }
+
+    synchronized long getPendingBytes() {
+        return pendingBytes;
+    }
+
+    synchronized long getDiskUsage() {
+        long diskUsage = 0;
+        for (Segment segment : segments) {
+            diskUsage += segment.size;
+        }
+        return diskUsage;
+    }
+
+    synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (fsyncPolicy != FsyncPolicy.NEVER) {
+            sync();
+        }
+        checkpointChannel.close();
+    }
+
+    private void writeCheckpoint() throws IOException {
+        final Segment head = segments.peekFirst();
+        final long segmentId = head == null ? nextSegmentId : head.id;
+        final ByteBuffer buffer = ByteBuffer.allocate(CHECKPOINT_SIZE);
+        buffer.putLong(segmentId).putInt(readPosition).putInt(checksum(segmentId, readPosition));
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            checkpointChannel.write(buffer, buffer.position());
+        }
+        if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+            checkpointChannel.force(false);
+        } else {
+            dirty = true;
+        }
+    }
+
+    private void recover() throws IOException {
+        final List<Long> segmentIds = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                final String name = file.getFileName().toString();
+                try {
+                    segmentIds.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    log.warn("Ignoring unexpected file {} in spool directory.", file);
+                }
+            }
+        }
+        Collections.sort(segmentIds);
+
+        long checkpointSegmentId = segmentIds.isEmpty() ? 0 : segmentIds.get(0);
+        int checkpointPosition = 0;
+        final ByteBuffer checkpoint = ByteBuffer.allocate(CHECKPOINT_SIZE);
+        if (checkpointChannel.read(checkpoint, 0) == CHECKPOINT_SIZE) {
+            checkpoint.flip();
+            final long segmentId = checkpoint.getLong();
+            final int position = checkpoint.getInt();
+            if (checkpoint.getInt() == checksum(segmentId, position)) {
+                checkpointSegmentId = segmentId;
+                checkpointPosition = position;
+            } else {
+                log.warn("Ignoring corrupt spool checkpoint in {}, records may be replayed twice.", directory);
+            }
+        }
+
+        nextSegmentId = checkpointSegmentId;
+        for (long segmentId : segmentIds) {
+            final Segment segment = Segment.open(directory, segmentId);
+            if (segmentId < checkpointSegmentId) {
+                segment.delete();
+                continue;
+            }
+            segments.addLast(segment);
+            nextSegmentId = segmentId + 1;
+
+            int position = segment.id == checkpointSegmentId ? Math.min(checkpointPosition, segment.writePosition) : 0;
+            while (position < segment.writePosition) {
+                final int length = segment.buffer.getInt(position);
+                pendingRecords++;
+                pendingBytes += length;
+                position += RECORD_HEADER_SIZE + length;
+            }
+        }
+
+        final Segment head = segments.peekFirst();
+        readPosition = head != null && head.id == checkpointSegmentId ? Math.min(checkpointPosition, head.writePosition) : 0;
+        if (pendingRecords > 0) {
+            log.info("Recovered {} spooled records ({} bytes) from {}.", pendingRecords, pendingBytes, directory);
+        }
+    }
+
+    private static int checksum(long segmentId, int position) {
+        final CRC32 crc = new CRC32();
+        final ByteBuffer buffer = ByteBuffer.allocate(12).putLong(segmentId).putInt(position);
+        crc.update(buffer.array(), 0, 12);
+        return (int) crc.getValue();
+    }
+
+    static final class Record {
+        private final long segmentId;
+        private final int position;
+        private final byte[] data;
+
+        private Record(long segmentId, int position, byte[] data) {
+            this.segmentId = segmentId;
+            this.position = position;
+            this.data = data;
+        }
+
+        byte[] getData() {
+            return data;
+        }
+    }
+
+    private static final class Segment {
+        private final long id;
+        private final Path path;
+        private final int size;
+        // The mapping is released by the garbage collector, deleting the file beforehand is fine on POSIX systems.
+        private final MappedByteBuffer buffer;
+        private int writePosition;
+
+        private Segment(long id, Path path, MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.size = buffer.capacity();
+            this.buffer = buffer;
+        }
+
+        static Segment create(Path directory, long id, int size) throws IOException {
+            final Path path = directory.resolve(fileName(id));
+            try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+                file.setLength(size);
+                return new Segment(id, path, file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size));
+            }
+        }
+
+        static Segment open(Path directory, long id) throws IOException {
+            final Path path = directory.resolve(fileName(id));
+            try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+                final Segment segment = new Segment(id, path,
+                        file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, file.length()));
+                segment.writePosition = segment.scan();
+                return segment;
+            }
+        }
+
+        private static String fileName(long id) {
+            return String.format("%020d%s", id, SEGMENT_SUFFIX);
+        }
+
+        int remaining() {
+            return size - writePosition;
+        }
+
+        void write(byte[] data) {
+            final CRC32 crc = new CRC32();
+            crc.update(data);
+            final ByteBuffer target = buffer.duplicate();
+            target.position(writePosition);
+            target.putInt(data.length).putInt((int) crc.getValue()).put(data);
+            writePosition = target.position();
+        }
+
+        byte[] read(int position) {
+            final ByteBuffer source = buffer.duplicate();
+            source.position(position);
+            final byte[] data = new byte[source.getInt()];
+            source.getInt();
+            source.get(data);
+            return data;
+        }
+
+        void force() {
+            buffer.force();
+        }
+
+        void delete() throws IOException {
+            Files.deleteIfExists(path);
+        }
+
+        // Finds the end of the valid records.
+        private int scan() {
+            int position = 0;
+            final CRC32 crc = new CRC32();
+            while (position + RECORD_HEADER_SIZE <= size) {
+                final int length = buffer.getInt(position);
+                if (length <= 0 || length > size - position - RECORD_HEADER_SIZE) {
+                    break;
+                }
+                final byte[] data = new byte[length];
+                final ByteBuffer source = buffer.duplicate();
+                source.position(position + RECORD_HEADER_SIZE);
+                source.get(data);
+                crc.reset();
+                crc.update(data);
+                if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                    log.warn("Spool segment {} has a corrupt record at offset {}, ignoring the rest of it.", path, position);
+                    break;
+                }
+                position += RECORD_HEADER_SIZE + length;
+            }
+            return position;
+        }
+    }
+}
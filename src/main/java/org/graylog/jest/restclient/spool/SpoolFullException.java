@@ -0,0 +1,12 @@
+package org.graylog.jest.restclient.spool;
+
+import java.io.IOException;
+
+/**
+ * Thrown if a bulk could neither be sent nor spooled because the spool reached its maximum disk usage.
+ */
+public class SpoolFullException extends IOException {
+    public SpoolFullException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,60 @@
+package org.graylog.jest.restclient.spool;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of a {@link BulkSpool}.
+ */
+public class SpoolStats {
+    final LongAdder directBulks = new LongAdder();
+    final LongAdder spooledBulks = new LongAdder();
+    final LongAdder replayedBulks = new LongAdder();
+    final LongAdder failedReplays = new LongAdder();
+    final LongAdder syncs = new LongAdder();
+
+    /**
+     * @return number of bulks sent to the cluster right away
+     */
+    public long getDirectBulks() {
+        return directBulks.sum();
+    }
+
+    /**
+     * @return number of bulks written to the spool
+     */
+    public long getSpooledBulks() {
+        return spooledBulks.sum();
+    }
+
+    /**
+     * @return number of spooled bulks sent to the cluster
+     */
+    public long getReplayedBulks() {
+        return replayedBulks.sum();
+    }
+
+    /**
+     * @return number of replay attempts which failed and were tried again later
+     */
+    public long getFailedReplays() {
+        return failedReplays.sum();
+    }
+
+    /**
+     * @return number of periodic syncs of the spool to disk
+     */
+    public long getSyncs() {
+        return syncs.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "SpoolStats{" +
+                "direct=" + getDirectBulks() +
+                ", spooled=" + getSpooledBulks() +
+                ", replayed=" + getReplayedBulks() +
+                ", failedReplays=" + getFailedReplays() +
+                ", syncs=" + getSyncs() +
+                '}';
+    }
+}
@@ -0,0 +1,55 @@
+package org.graylog.jest.restclient.spool;
+
+import com.google.gson.Gson;
+import io.searchbox.core.Bulk;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * Bulk request with a payload which has already been rendered as NDJSON.
+ */
+class SpooledBulk extends Bulk {
+
+    private final String payload;
+
+    private SpooledBulk(String uri, String payload) {
+        super(new Bulk.Builder());
+        this.payload = payload;
+        setURI(uri);
+    }
+
+    /**
+     * Encodes the URI and payload of the bulk as a single journal record.
+     */
+    static byte[] encode(Bulk bulk, Gson gson) {
+        return (bulk.getURI() + '\n' + bulk.getData(gson)).getBytes(StandardCharsets.UTF_8);
+    }
+
+    static SpooledBulk decode(byte[] record) {
+        final String content = new String(record, StandardCharsets.UTF_8);
+        final int separator = content.indexOf('\n');
+        return new SpooledBulk(content.substring(0, separator), content.substring(separator + 1));
+    }
+
+    @Override
+    public String getData(Gson gson) {
+        return payload;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(super.hashCode(), payload);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        return super.equals(obj) && Objects.equals(payload, ((SpooledBulk) obj).payload);
+    }
+}
@@ -0,0 +1,202 @@
+package org.graylog.jest.restclient.batching;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.graylog.jest.restclient.http.AbstractMockServerTest;
+import org.graylog.jest.restclient.http.MockElasticsearchServer.MockResponse;
+import org.graylog.jest.restclient.http.MockElasticsearchServer.RecordedRequest;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ChunkedMultiGetTest extends AbstractMockServerTest {
+
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        server.setHandler(this::handle);
+    }
+
+    // Documents with ids starting with "missing" don't exist, a chunk containing the id "fail" fails.
+    private MockResponse handle(RecordedRequest request) {
+        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+        try {
+            Thread.sleep(20);
+            final JsonArray docs = new JsonArray();
+            for (JsonElement requested : new JsonParser().parse(request.body).getAsJsonObject().getAsJsonArray("docs")) {
+                final String id = requested.getAsJsonObject().get("_id").getAsString();
+                if (id.equals("fail")) {
+                    return MockResponse.json(500, "{\"error\":\"boom\",\"status\":500}");
+                }
+                final JsonObject doc = new JsonObject();
+                doc.addProperty("_index", "users");
+                doc.addProperty("_type", "user");
+                doc.addProperty("_id", id);
+                doc.addProperty("found", !id.startsWith("missing"));
+                docs.add(doc);
+            }
+            final JsonObject response = new JsonObject();
+            response.add("docs", docs);
+            return MockResponse.json(200, response.toString());
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            running.decrementAndGet();
+        }
+    }
+
+    private static List<String> ids(int count) {
+        final List<String> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add("user-" + i);
+        }
+        return ids;
+    }
+
+    @Test
+    public void splitsIdsIntoChunks() throws Exception {
+        final ChunkedMultiGet multiGet = ChunkedMultiGet.builder(client, "users").type("user").chunkSize(100).build();
+        final List<Integer> chunkSizes = Collections.synchronizedList(new ArrayList<>());
+
+        final long found = multiGet.forEachChunk(ids(250), docs -> chunkSizes.add(docs.size())).get(10, TimeUnit.SECONDS);
+
+        assertEquals(250, found);
+        assertEquals(3, server.getRequests().size());
+        Collections.sort(chunkSizes);
+        assertEquals(50, (int) chunkSizes.get(0));
+        assertEquals(100, (int) chunkSizes.get(2));
+        final JsonObject doc = new JsonParser().parse(server.getRequests().get(0).body).getAsJsonObject()
+                .getAsJsonArray("docs").get(0).getAsJsonObject();
+        assertEquals("users", doc.get("_index").getAsString());
+        assertEquals("user", doc.get("_type").getAsString());
+    }
+
+    @Test
+    public void limitsChunksInFlight() throws Exception {
+        final ChunkedMultiGet multiGet = ChunkedMultiGet.builder(client, "users").chunkSize(10).concurrency(2).build();
+
+        assertEquals(200, (long) multiGet.forEachChunk(ids(200), docs -> { }).get(10, TimeUnit.SECONDS));
+
+        assertEquals(20, server.getRequests().size());
+        assertTrue("at most 2 in flight, was " + maxRunning.get(), maxRunning.get() <= 2);
+    }
+
+    @Test
+    public void consumesChunksAndReadsIdsOnConsumerExecutor() throws Exception {
+        final ChunkedMultiGet multiGet = ChunkedMultiGet.builder(client, "users").chunkSize(10).concurrency(2).build();
+        final Set<String> threads = Collections.synchronizedSet(new HashSet<>());
+        final Iterator<String> ids = ids(100).iterator();
+        final Iterator<String> recordingIds = new Iterator<String>() {
+            @Override
+            public boolean hasNext() {
+                return ids.hasNext();
+            }
+
+            @Override
+            public String next() {
+                threads.add(Thread.currentThread().getName());
+                return ids.next();
+            }
+        };
+
+        multiGet.forEachChunk(recordingIds, docs -> threads.add(Thread.currentThread().getName())).get(10, TimeUnit.SECONDS);
+
+        for (String thread : threads) {
+            assertTrue(thread, thread.equals(Thread.currentThread().getName()) || thread.startsWith("jest-chunked-mget-"));
+        }
+    }
+
+    @Test
+    public void passesDocumentsInIdOrderAndCountsFoundOnes() throws Exception {
+        final ChunkedMultiGet multiGet = ChunkedMultiGet.builder(client, "users").chunkSize(10).concurrency(1).build();
+        final List<String> ids = ids(15);
+        ids.add(3, "missing-1");
+        final List<String> received = new ArrayList<>();
+
+        final long found = multiGet.forEachChunk(ids, docs -> {
+            for (JsonElement doc : docs) {
+                received.add(doc.getAsJsonObject().get("_id").getAsString());
+            }
+        }).get(10, TimeUnit.SECONDS);
+
+        assertEquals(15, found);
+        assertEquals(ids, received);
+    }
+
+    @Test
+    public void failsWithFailedChunk() throws Exception {
+        final ChunkedMultiGet multiGet = ChunkedMultiGet.builder(client, "users").chunkSize(10).build();
+        final List<String> ids = ids(50);
+        ids.set(25, "fail");
+
+        try {
+            multiGet.forEachChunk(ids, docs -> { }).get(10, TimeUnit.SECONDS);
+            fail("expected failure");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage(), e.getCause().getMessage().startsWith("Multi get of 10 documents failed"));
+        }
+    }
+
+    @Test
+    public void failsWithConsumerException() throws Exception {
+        final ChunkedMultiGet multiGet = ChunkedMultiGet.builder(client, "users").chunkSize(10).concurrency(1).build();
+        final AtomicInteger chunks = new AtomicInteger();
+
+        try {
+            multiGet.forEachChunk(ids(50), docs -> {
+                if (chunks.incrementAndGet() == 2) {
+                    throw new IllegalStateException("stop");
+                }
+            }).get(10, TimeUnit.SECONDS);
+            fail("expected failure");
+        } catch (ExecutionException e) {
+            assertEquals("stop", e.getCause().getMessage());
+        }
+        assertEquals(2, server.getRequests().size());
+    }
+
+    @Test
+    public void dropsArrivedChunksOnceConsumerFailed() throws Exception {
+        final ChunkedMultiGet multiGet = ChunkedMultiGet.builder(client, "users").chunkSize(10).concurrency(3).build();
+        final AtomicInteger chunks = new AtomicInteger();
+
+        try {
+            multiGet.forEachChunk(ids(30), docs -> {
+                chunks.incrementAndGet();
+                // the other chunks arrive meanwhile
+                Thread.sleep(200);
+                throw new IllegalStateException("stop");
+            }).get(10, TimeUnit.SECONDS);
+            fail("expected failure");
+        } catch (ExecutionException e) {
+            assertEquals("stop", e.getCause().getMessage());
+        }
+        assertEquals(3, server.getRequests().size());
+        assertEquals(1, chunks.get());
+    }
+
+    @Test
+    public void completesWithoutIds() throws Exception {
+        final ChunkedMultiGet multiGet = ChunkedMultiGet.builder(client, "users").build();
+
+        assertEquals(0, (long) multiGet.forEachChunk(Collections.<String>emptyList(), docs -> { }).get(10, TimeUnit.SECONDS));
+        assertEquals(0, server.getRequests().size());
+    }
+}
@@ -0,0 +1,43 @@
+package org.graylog.jest.restclient.batching;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+
+    @Test
+    public void bucketsCoverAllValues() {
+        for (long value : new long[]{0, 1, 7, 8, 15, 16, 17, 1000, 123456789, Long.MAX_VALUE}) {
+            final long upper = Histogram.upperBound(Histogram.bucket(value));
+            assertTrue(value + " <= " + upper, value <= upper);
+            assertTrue(value + " within 12.5% of " + upper, upper - value <= value / 8);
+        }
+        assertEquals(Long.MAX_VALUE, Histogram.upperBound(Histogram.bucket(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void reportsPercentiles() {
+        final Histogram histogram = new Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000, histogram.getMax());
+        assertEquals(500.5, histogram.getMean(), 0.001);
+        final long median = histogram.getPercentile(50);
+        assertTrue(String.valueOf(median), median >= 500 && median <= 500 * 9 / 8);
+        final long p99 = histogram.getPercentile(99);
+        assertTrue(String.valueOf(p99), p99 >= 990 && p99 <= 1000);
+        assertEquals(1, histogram.getPercentile(0));
+    }
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        final Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getPercentile(99));
+        assertEquals(0, histogram.getMean(), 0);
+    }
+}
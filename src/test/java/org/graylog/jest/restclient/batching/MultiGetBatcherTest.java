@@ -0,0 +1,163 @@
+package org.graylog.jest.restclient.batching;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.searchbox.core.DocumentResult;
+import io.searchbox.core.Get;
+import io.searchbox.params.Parameters;
+import org.graylog.jest.restclient.http.AbstractMockServerTest;
+import org.graylog.jest.restclient.http.MockElasticsearchServer.MockResponse;
+import org.graylog.jest.restclient.http.MockElasticsearchServer.RecordedRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MultiGetBatcherTest extends AbstractMockServerTest {
+
+    private MultiGetBatcher batcher;
+
+    @Before
+    public void setUp() {
+        server.setHandler(MultiGetBatcherTest::handle);
+    }
+
+    @After
+    public void tearDown() {
+        if (batcher != null) {
+            batcher.close();
+        }
+    }
+
+    // Documents with ids starting with "missing" don't exist.
+    private static MockResponse handle(RecordedRequest request) {
+        if (!request.getPath().endsWith("/_mget")) {
+            final String[] path = request.getPath().split("/");
+            final JsonObject doc = document(path[1], path[2], path[3]);
+            return MockResponse.json(doc.get("found").getAsBoolean() ? 200 : 404, doc.toString());
+        }
+        final JsonArray docs = new JsonArray();
+        for (JsonElement requested : new JsonParser().parse(request.body).getAsJsonObject().getAsJsonArray("docs")) {
+            final JsonObject doc = requested.getAsJsonObject();
+            docs.add(document(doc.get("_index").getAsString(), doc.get("_type").getAsString(), doc.get("_id").getAsString()));
+        }
+        final JsonObject response = new JsonObject();
+        response.add("docs", docs);
+        return MockResponse.json(200, response.toString());
+    }
+
+    private static JsonObject document(String index, String type, String id) {
+        final JsonObject doc = new JsonObject();
+        doc.addProperty("_index", index);
+        doc.addProperty("_type", type);
+        doc.addProperty("_id", id);
+        final boolean found = !id.startsWith("missing");
+        doc.addProperty("found", found);
+        if (found) {
+            final JsonObject source = new JsonObject();
+            source.addProperty("name", index + "/" + id);
+            doc.add("_source", source);
+        }
+        return doc;
+    }
+
+    private static Get get(String index, String id) {
+        return new Get.Builder(index, id).type("message").build();
+    }
+
+    private static String name(DocumentResult result) {
+        return result.getJsonObject().getAsJsonObject("_source").get("name").getAsString();
+    }
+
+    private List<JsonObject> multiGetBodies() {
+        return server.getRequests().stream()
+                .filter(request -> request.getPath().endsWith("/_mget"))
+                .map(request -> new JsonParser().parse(request.body).getAsJsonObject())
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void sendsOneMultiGetPerIndex() throws Exception {
+        batcher = MultiGetBatcher.builder(client).window(50, TimeUnit.MILLISECONDS).build();
+        final List<CompletableFuture<DocumentResult>> futures = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            futures.add(batcher.submit(get("logs", "log-" + i)));
+            futures.add(batcher.submit(get("users", "user-" + i)));
+        }
+
+        for (int i = 0; i < 3; i++) {
+            final DocumentResult log = futures.get(2 * i).get(10, TimeUnit.SECONDS);
+            assertTrue(log.isSucceeded());
+            assertEquals("logs/log-" + i, name(log));
+            assertEquals("log-" + i, log.getId());
+            assertEquals("users/user-" + i, name(futures.get(2 * i + 1).get(10, TimeUnit.SECONDS)));
+        }
+        final List<JsonObject> bodies = multiGetBodies();
+        assertEquals(2, server.getRequests().size());
+        assertEquals(2, bodies.size());
+        assertEquals(3, bodies.get(0).getAsJsonArray("docs").size());
+        assertEquals(2, batcher.getStats().getBatches());
+        assertEquals(2, batcher.getStats().getBatchSizes().getCount());
+        assertEquals(3, batcher.getStats().getBatchSizes().getMax());
+        assertEquals(6, batcher.getStats().getLatencies().getCount());
+    }
+
+    @Test
+    public void deduplicatesDocumentsWithinBatch() throws Exception {
+        batcher = MultiGetBatcher.builder(client).window(50, TimeUnit.MILLISECONDS).build();
+        final CompletableFuture<DocumentResult> first = batcher.submit(get("logs", "a"));
+        final CompletableFuture<DocumentResult> duplicate = batcher.submit(get("logs", "a"));
+        final CompletableFuture<DocumentResult> other = batcher.submit(get("logs", "b"));
+
+        assertSame(first.get(10, TimeUnit.SECONDS), duplicate.get(10, TimeUnit.SECONDS));
+        assertEquals("logs/b", name(other.get(10, TimeUnit.SECONDS)));
+        assertEquals(2, multiGetBodies().get(0).getAsJsonArray("docs").size());
+        assertEquals(1, batcher.getStats().getDeduplicatedRequests());
+    }
+
+    @Test
+    public void reportsMissingDocumentsAsNotFound() throws Exception {
+        batcher = MultiGetBatcher.builder(client).maxBatchSize(2).window(1, TimeUnit.MINUTES).build();
+        final CompletableFuture<DocumentResult> missing = batcher.submit(get("logs", "missing-1"));
+        final CompletableFuture<DocumentResult> found = batcher.submit(get("logs", "a"));
+
+        final DocumentResult result = missing.get(10, TimeUnit.SECONDS);
+        assertFalse(result.isSucceeded());
+        assertEquals(404, result.getResponseCode());
+        assertTrue(found.get(10, TimeUnit.SECONDS).isSucceeded());
+    }
+
+    @Test
+    public void sendsLoneAndUnbatchableGetsDirectly() throws Exception {
+        batcher = MultiGetBatcher.builder(client).maxBatchSize(2).window(10, TimeUnit.MILLISECONDS).build();
+        final Get withRefresh = new Get.Builder("logs", "b").type("message").setParameter(Parameters.REFRESH, true).build();
+
+        assertEquals("logs/b", name(batcher.submit(withRefresh).get(10, TimeUnit.SECONDS)));
+        assertEquals("logs/a", name(batcher.submit(get("logs", "a")).get(10, TimeUnit.SECONDS)));
+        assertEquals(0, multiGetBodies().size());
+        assertEquals(2, batcher.getStats().getDirectRequests());
+    }
+
+    @Test
+    public void passesRoutingIntoMultiGet() throws Exception {
+        batcher = MultiGetBatcher.builder(client).maxBatchSize(2).window(1, TimeUnit.MINUTES).build();
+        final Get routed = new Get.Builder("logs", "a").type("message").setParameter(Parameters.ROUTING, "user-1").build();
+        batcher.submit(routed);
+        batcher.submit(get("logs", "b")).get(10, TimeUnit.SECONDS);
+
+        final JsonObject doc = multiGetBodies().get(0).getAsJsonArray("docs").get(0).getAsJsonObject();
+        assertEquals("user-1", doc.get("_routing").getAsString());
+    }
+}
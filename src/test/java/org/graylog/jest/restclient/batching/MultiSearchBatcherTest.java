@@ -0,0 +1,185 @@
+package org.graylog.jest.restclient.batching;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.searchbox.core.Search;
+import io.searchbox.core.SearchResult;
+import io.searchbox.params.Parameters;
+import org.graylog.jest.restclient.http.AbstractMockServerTest;
+import org.graylog.jest.restclient.http.MockElasticsearchServer.MockResponse;
+import org.graylog.jest.restclient.http.MockElasticsearchServer.RecordedRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MultiSearchBatcherTest extends AbstractMockServerTest {
+
+    private MultiSearchBatcher batcher;
+
+    @Before
+    public void setUp() {
+        server.setHandler(MultiSearchBatcherTest::handle);
+    }
+
+    @After
+    public void tearDown() {
+        if (batcher != null) {
+            batcher.close();
+        }
+    }
+
+    // Every search gets a single hit named after the term it searched for, searches for "fail" fail.
+    private static MockResponse handle(RecordedRequest request) {
+        final JsonParser parser = new JsonParser();
+        if (!request.getPath().endsWith("/_msearch")) {
+            return MockResponse.json(200, response(parser.parse(request.body).getAsJsonObject()).toString());
+        }
+        final String[] lines = request.body.split("\n");
+        final JsonArray responses = new JsonArray();
+        for (int i = 1; i < lines.length; i += 2) {
+            responses.add(response(parser.parse(lines[i]).getAsJsonObject()));
+        }
+        final JsonObject body = new JsonObject();
+        body.add("responses", responses);
+        return MockResponse.json(200, body.toString());
+    }
+
+    private static JsonObject response(JsonObject query) {
+        final String term = query.getAsJsonObject("query").getAsJsonObject("term").get("name").getAsString();
+        final JsonObject response = new JsonObject();
+        if ("fail".equals(term)) {
+            final JsonObject error = new JsonObject();
+            error.addProperty("type", "query_shard_exception");
+            response.add("error", error);
+            response.addProperty("status", 400);
+            return response;
+        }
+        final JsonObject hit = new JsonObject();
+        hit.addProperty("_index", "logs");
+        hit.addProperty("_type", "message");
+        hit.addProperty("_id", term);
+        final JsonArray hits = new JsonArray();
+        hits.add(hit);
+        final JsonObject hitsObject = new JsonObject();
+        hitsObject.addProperty("total", 1);
+        hitsObject.add("hits", hits);
+        response.add("hits", hitsObject);
+        response.addProperty("status", 200);
+        return response;
+    }
+
+    private static Search search(String term) {
+        return new Search.Builder("{\"query\":{\"term\":{\"name\":\"" + term + "\"}}}")
+                .addIndex("logs")
+                .build();
+    }
+
+    private static String hitId(SearchResult result) {
+        return result.getJsonObject().getAsJsonObject("hits").getAsJsonArray("hits")
+                .get(0).getAsJsonObject().get("_id").getAsString();
+    }
+
+    private long multiSearchRequests() {
+        return server.getRequests().stream().filter(request -> request.getPath().endsWith("/_msearch")).count();
+    }
+
+    @Test
+    public void sendsFullBatchAsSingleMultiSearch() throws Exception {
+        batcher = MultiSearchBatcher.builder(client).maxBatchSize(5).window(1, TimeUnit.MINUTES).build();
+        final List<CompletableFuture<SearchResult>> futures = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(batcher.submit(search("term-" + i)));
+        }
+
+        for (int i = 0; i < 5; i++) {
+            final SearchResult result = futures.get(i).get(10, TimeUnit.SECONDS);
+            assertTrue(result.isSucceeded());
+            assertEquals("term-" + i, hitId(result));
+            assertEquals(1, result.getTotal().longValue());
+        }
+        assertEquals(1, server.getRequests().size());
+        assertEquals(1, multiSearchRequests());
+        assertEquals(1, batcher.getStats().getBatches());
+        assertEquals(5, batcher.getStats().getBatchedRequests());
+    }
+
+    @Test
+    public void sendsBatchOnceWindowHasPassed() throws Exception {
+        batcher = MultiSearchBatcher.builder(client).window(50, TimeUnit.MILLISECONDS).build();
+        final CompletableFuture<SearchResult> first = batcher.submit(search("a"));
+        final CompletableFuture<SearchResult> second = batcher.submit(search("b"));
+        final CompletableFuture<SearchResult> third = batcher.submit(search("c"));
+
+        assertEquals("a", hitId(first.get(10, TimeUnit.SECONDS)));
+        assertEquals("b", hitId(second.get(10, TimeUnit.SECONDS)));
+        assertEquals("c", hitId(third.get(10, TimeUnit.SECONDS)));
+        assertEquals(1, multiSearchRequests());
+    }
+
+    @Test
+    public void sendsLoneSearchDirectly() throws Exception {
+        batcher = MultiSearchBatcher.builder(client).window(10, TimeUnit.MILLISECONDS).build();
+        assertEquals("a", hitId(batcher.submit(search("a")).get(10, TimeUnit.SECONDS)));
+
+        assertEquals(0, multiSearchRequests());
+        assertEquals("/logs/_search", server.getRequests().get(0).getPath());
+        assertEquals(1, batcher.getStats().getDirectRequests());
+    }
+
+    @Test
+    public void sendsSearchesWithOtherParametersDirectly() throws Exception {
+        batcher = MultiSearchBatcher.builder(client).maxBatchSize(2).window(1, TimeUnit.MINUTES).build();
+        final Search withRouting = new Search.Builder("{\"query\":{\"term\":{\"name\":\"a\"}}}")
+                .addIndex("logs")
+                .setParameter(Parameters.ROUTING, "user-1")
+                .build();
+
+        assertEquals("a", hitId(batcher.submit(withRouting).get(10, TimeUnit.SECONDS)));
+        assertEquals(0, multiSearchRequests());
+        assertTrue(server.getRequests().get(0).uri.contains("routing=user-1"));
+    }
+
+    @Test
+    public void failsOnlyTheFailingSearchOfBatch() throws Exception {
+        batcher = MultiSearchBatcher.builder(client).maxBatchSize(2).window(1, TimeUnit.MINUTES).build();
+        final CompletableFuture<SearchResult> failing = batcher.submit(search("fail"));
+        final CompletableFuture<SearchResult> succeeding = batcher.submit(search("ok"));
+
+        final SearchResult failed = failing.get(10, TimeUnit.SECONDS);
+        assertFalse(failed.isSucceeded());
+        assertEquals(400, failed.getResponseCode());
+        assertTrue(failed.getErrorMessage().contains("query_shard_exception"));
+        assertEquals("ok", hitId(succeeding.get(10, TimeUnit.SECONDS)));
+    }
+
+    @Test
+    public void failsAllSearchesIfBatchFails() throws Exception {
+        server.setHandler(request -> MockResponse.json(503, "{\"error\":\"unavailable\"}"));
+        batcher = MultiSearchBatcher.builder(client).maxBatchSize(2).window(1, TimeUnit.MINUTES).build();
+        final CompletableFuture<SearchResult> first = batcher.submit(search("a"));
+        final CompletableFuture<SearchResult> second = batcher.submit(search("b"));
+
+        for (CompletableFuture<SearchResult> future : Arrays.asList(first, second)) {
+            try {
+                future.get(10, TimeUnit.SECONDS);
+                fail("Expected the batch to fail");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause().getMessage().contains("unavailable"));
+            }
+        }
+        assertEquals(1, batcher.getStats().getFailedBatches());
+    }
+}
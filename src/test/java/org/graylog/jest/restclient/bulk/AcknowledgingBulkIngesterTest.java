@@ -0,0 +1,151 @@
+package org.graylog.jest.restclient.bulk;
+
+import io.searchbox.core.Index;
+import org.graylog.jest.restclient.http.AbstractMockServerTest;
+import org.graylog.jest.restclient.http.MockElasticsearchServer.MockResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AcknowledgingBulkIngesterTest extends AbstractMockServerTest {
+
+    @Before
+    public void setUp() {
+        server.setHandler(request -> MockResponse.json(200, BulkResponses.successful(request.body)));
+    }
+
+    private static Index index(String id) {
+        return new Index.Builder("{\"field\":\"value\"}").index("twitter").type("tweet").id(id).build();
+    }
+
+    private AcknowledgingBulkIngester ingester(int bulkActions, long committedOffset) {
+        return AcknowledgingBulkIngester.create(listener ->
+                BulkProcessor.builder(client, listener).bulkActions(bulkActions).concurrentRequests(2).build(), committedOffset);
+    }
+
+    @Test
+    public void watermarkWaitsForEarlierBulks() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        server.setHandler(request -> {
+            if (request.body.contains("\"_id\":\"10\"")) {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return MockResponse.json(200, BulkResponses.successful(request.body));
+        });
+        final AcknowledgingBulkIngester ingester = ingester(2, 9);
+
+        final List<CompletableFuture<Long>> futures = new ArrayList<>();
+        for (long offset = 10; offset < 14; offset++) {
+            futures.add(ingester.submit(index(String.valueOf(offset)), offset));
+        }
+
+        // the second bulk completes while the first one is held back
+        assertEquals(Long.valueOf(13), futures.get(3).get(10, TimeUnit.SECONDS));
+        assertFalse(futures.get(0).isDone());
+        assertEquals(9, ingester.getCommittedOffset());
+
+        release.countDown();
+        assertEquals(Long.valueOf(10), futures.get(0).get(10, TimeUnit.SECONDS));
+        assertTrue(ingester.awaitClose(10, TimeUnit.SECONDS));
+        assertEquals(13, ingester.getCommittedOffset());
+        assertEquals(0, ingester.getPendingDocuments());
+    }
+
+    @Test
+    public void failedDocumentHoldsWatermarkUntilReleased() throws Exception {
+        server.setHandler(request -> MockResponse.json(200, BulkResponses.withStatus(request.body, i -> i == 1 ? 400 : 201)));
+        final AcknowledgingBulkIngester ingester = ingester(3, -1);
+
+        final CompletableFuture<Long> first = ingester.submit(index("a"), 0);
+        final CompletableFuture<Long> failed = ingester.submit(index("b"), 2);
+        final CompletableFuture<Long> last = ingester.submit(index("c"), 5);
+        assertTrue(ingester.awaitClose(10, TimeUnit.SECONDS));
+
+        assertEquals(Long.valueOf(0), first.get());
+        assertEquals(Long.valueOf(5), last.get());
+        try {
+            failed.get();
+            fail("Expected the document to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof BulkItemException);
+            assertEquals("b", ((BulkItemException) e.getCause()).getItem().id);
+        }
+        assertEquals(1, ingester.getCommittedOffset());
+
+        assertTrue(ingester.release(2));
+        assertEquals(5, ingester.getCommittedOffset());
+    }
+
+    @Test
+    public void interruptedSubmitKeepsBufferedDocument() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        server.setHandler(request -> {
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return MockResponse.json(200, BulkResponses.successful(request.body));
+        });
+        final AcknowledgingBulkIngester ingester = AcknowledgingBulkIngester.create(listener ->
+                BulkProcessor.builder(client, listener).bulkActions(1).concurrentRequests(1).build());
+
+        final CompletableFuture<Long> first = ingester.submit(index("a"), 0);
+        Thread.currentThread().interrupt();
+        try {
+            ingester.submit(index("b"), 1);
+            fail("Expected the submit to be interrupted");
+        } catch (InterruptedException expected) {
+            // the second bulk waits for the first one
+        }
+
+        release.countDown();
+        assertEquals(Long.valueOf(0), first.get(10, TimeUnit.SECONDS));
+        assertTrue(ingester.awaitClose(10, TimeUnit.SECONDS));
+        assertEquals(1, ingester.getCommittedOffset());
+        assertEquals(0, ingester.getPendingDocuments());
+        assertEquals(2, server.getRequests().size());
+    }
+
+    @Test
+    public void failedBulkFailsAllDocuments() throws Exception {
+        server.setHandler(request -> MockResponse.json(500, "{\"error\":\"boom\"}"));
+        final AcknowledgingBulkIngester ingester = ingester(2, -1);
+
+        final CompletableFuture<Long> first = ingester.submit(index("a"), 0);
+        final CompletableFuture<Long> second = ingester.submit(index("b"), 1);
+        assertTrue(ingester.awaitClose(10, TimeUnit.SECONDS));
+
+        assertTrue(first.isCompletedExceptionally());
+        assertTrue(second.isCompletedExceptionally());
+        assertEquals(-1, ingester.getCommittedOffset());
+        assertEquals(2, ingester.getPendingDocuments());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDecreasingOffsets() throws Exception {
+        final AcknowledgingBulkIngester ingester = ingester(10, -1);
+        ingester.submit(index("a"), 5);
+        try {
+            ingester.submit(index("b"), 3);
+        } finally {
+            assertEquals(1, ingester.getPendingDocuments());
+            ingester.close();
+        }
+    }
+}
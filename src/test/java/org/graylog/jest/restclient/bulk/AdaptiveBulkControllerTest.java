@@ -0,0 +1,89 @@
+package org.graylog.jest.restclient.bulk;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParser;
+import io.searchbox.core.BulkResult;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class AdaptiveBulkControllerTest {
+
+    private static final long MB = 1024 * 1024;
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final String REQUEST = "{\"index\":{\"_index\":\"twitter\",\"_type\":\"tweet\",\"_id\":\"1\"}}\n{}\n";
+    private static final long SLOW = TimeUnit.SECONDS.toNanos(10);
+
+    private final AdaptiveBulkController controller = AdaptiveBulkController.builder()
+            .bulkSize(MB, 4 * MB, 6 * MB)
+            .bulkSizeIncrement(MB)
+            .concurrency(1, 2, 3)
+            .latencyThreshold(1, TimeUnit.SECONDS)
+            .build();
+
+    private static BulkResult result(int responseCode, int status) {
+        final BulkResult result = new BulkResult(new Gson());
+        final String json = BulkResponses.withStatus(REQUEST, i -> status);
+        result.setResponseCode(responseCode);
+        result.setJsonString(json);
+        result.setJsonObject(new JsonParser().parse(json).getAsJsonObject());
+        return result;
+    }
+
+    private static BulkResult healthy() {
+        return result(200, 201);
+    }
+
+    private static BulkResult rejected() {
+        return result(200, 429);
+    }
+
+    @Test
+    public void increasesAdditivelyPerRound() {
+        controller.onCompleted(0, FAST, healthy());
+        assertEquals(4 * MB, controller.getBulkSize());
+        controller.onCompleted(0, FAST, healthy());
+        assertEquals(5 * MB, controller.getBulkSize());
+        assertEquals(3, controller.getConcurrency());
+
+        for (int i = 0; i < 6; i++) {
+            controller.onCompleted(0, FAST, healthy());
+        }
+        assertEquals(6 * MB, controller.getBulkSize());
+        assertEquals(3, controller.getConcurrency());
+        assertEquals(2, controller.getIncreases());
+    }
+
+    @Test
+    public void decreasesMultiplicativelyOnRejection() {
+        controller.onCompleted(0, FAST, rejected());
+        assertEquals(2 * MB, controller.getBulkSize());
+        assertEquals(1, controller.getConcurrency());
+        assertEquals(1, controller.getRejectedItems());
+    }
+
+    @Test
+    public void decreasesOnLatencySpikeAndFailure() {
+        controller.onCompleted(0, SLOW, healthy());
+        assertEquals(2 * MB, controller.getBulkSize());
+        controller.onFailed(1, FAST);
+        assertEquals(MB, controller.getBulkSize());
+        controller.onFailed(2, FAST);
+        assertEquals(MB, controller.getBulkSize());
+        assertEquals(1, controller.getConcurrency());
+        assertEquals(3, controller.getDecreases());
+    }
+
+    @Test
+    public void decreasesOncePerEpoch() {
+        // three bulks sent at the same time are all rejected
+        controller.onCompleted(0, FAST, rejected());
+        controller.onCompleted(0, FAST, rejected());
+        controller.onCompleted(0, FAST, result(429, 429));
+
+        assertEquals(2 * MB, controller.getBulkSize());
+        assertEquals(1, controller.getDecreases());
+    }
+}
@@ -0,0 +1,103 @@
+package org.graylog.jest.restclient.bulk;
+
+import io.searchbox.action.Action;
+import io.searchbox.action.BulkableAction;
+import io.searchbox.client.JestResult;
+import io.searchbox.client.JestResultHandler;
+import io.searchbox.core.BulkResult;
+import io.searchbox.core.Index;
+import org.graylog.jest.restclient.http.JestHttpClient;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares producers adding actions to a {@link BulkProcessor} directly, which serializes them on the
+ * processor's lock, with producers adding them through a {@link BulkIngestBuffer}, at 1 to 256 producer threads.
+ * Bulks complete immediately, so only the hand-off of the actions is measured.
+ * <p>
+ * Not run as part of the test suite. Run the main method with the test classpath, the optional argument being
+ * the number of actions per run (2,000,000 by default).
+ * </p>
+ */
+public class BulkIngestBenchmark {
+
+    private static final int[] PRODUCERS = {1, 2, 4, 8, 16, 32, 64, 128, 256};
+    private static final BulkableAction ACTION = new Index.Builder("{\"message\":\"hello\"}")
+            .index("logs").type("doc").build();
+
+    public static void main(String[] args) throws Exception {
+        final int actions = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        System.out.printf("Actions per run: %d, cores: %d%n", actions, Runtime.getRuntime().availableProcessors());
+        System.out.printf("%9s %22s %22s%n", "producers", "BulkProcessor (ops/s)", "BulkIngestBuffer (ops/s)");
+
+        // warm up
+        run(4, actions / 4, false);
+        run(4, actions / 4, true);
+
+        for (int producers : PRODUCERS) {
+            final double direct = run(producers, actions, false);
+            final double buffered = run(producers, actions, true);
+            System.out.printf("%9d %22.0f %22.0f%n", producers, direct, buffered);
+        }
+    }
+
+    private static double run(int producers, int actions, boolean buffered) throws Exception {
+        final BulkProcessor processor = BulkProcessor.builder(new CompletingClient(), new BulkProcessor.Listener() {
+            @Override
+            public void afterBulk(long executionId, List<BulkableAction> actions, BulkResult result) {
+            }
+
+            @Override
+            public void afterBulk(long executionId, List<BulkableAction> actions, Throwable failure) {
+            }
+        }).bulkActions(1000).concurrentRequests(4).build();
+        final BulkIngestBuffer buffer = buffered ? BulkIngestBuffer.builder(processor).build() : null;
+
+        final int actionsPerProducer = actions / producers;
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            threads[p] = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < actionsPerProducer; i++) {
+                        if (buffer == null) {
+                            processor.add(ACTION);
+                        } else {
+                            buffer.add(ACTION);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            threads[p].start();
+        }
+
+        final long begin = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (buffer == null) {
+            processor.awaitClose(1, TimeUnit.MINUTES);
+        } else {
+            buffer.awaitClose(1, TimeUnit.MINUTES);
+        }
+        final long elapsed = System.nanoTime() - begin;
+        return (double) actionsPerProducer * producers / elapsed * TimeUnit.SECONDS.toNanos(1);
+    }
+
+    private static class CompletingClient extends JestHttpClient {
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T extends JestResult> void executeAsyncForResult(Action<T> clientRequest, JestResultHandler<? super T> resultHandler) {
+            final BulkResult result = new BulkResult(getGson());
+            result.setResponseCode(200);
+            result.setSucceeded(true);
+            resultHandler.completed((T) result);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package org.graylog.jest.restclient.bulk;
+
+import io.searchbox.action.BulkableAction;
+import io.searchbox.core.BulkResult;
+import io.searchbox.core.Index;
+import org.graylog.jest.restclient.http.AbstractMockServerTest;
+import org.graylog.jest.restclient.http.MockElasticsearchServer.MockResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BulkIngestBufferTest extends AbstractMockServerTest {
+
+    private final List<BulkableAction> sent = new CopyOnWriteArrayList<>();
+    private final List<BulkableAction> completed = new CopyOnWriteArrayList<>();
+    private final BulkProcessor.Listener listener = new BulkProcessor.Listener() {
+        @Override
+        public void beforeBulk(long executionId, List<BulkableAction> actions) {
+            sent.addAll(actions);
+        }
+
+        @Override
+        public void afterBulk(long executionId, List<BulkableAction> actions, BulkResult result) {
+            completed.addAll(actions);
+        }
+
+        @Override
+        public void afterBulk(long executionId, List<BulkableAction> actions, Throwable failure) {
+            fail(failure.getMessage());
+        }
+    };
+
+    @Before
+    public void setUp() {
+        server.setHandler(request -> MockResponse.json(200, BulkResponses.successful(request.body)));
+    }
+
+    private static Index index(String id) {
+        return new Index.Builder("{\"field\":\"value\"}").index("twitter").type("tweet").id(id).build();
+    }
+
+    @Test
+    public void sendsActionsOfAllProducersInProducerOrder() throws Exception {
+        final BulkProcessor processor = BulkProcessor.builder(client, listener).bulkActions(100).concurrentRequests(2).build();
+        final BulkIngestBuffer buffer = BulkIngestBuffer.builder(processor).capacity(256).stripes(4).build();
+
+        final List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < 16; p++) {
+            final int producer = p;
+            final Thread thread = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 500; i++) {
+                        buffer.add(index(producer + "-" + i));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            producers.add(thread);
+            thread.start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertTrue(buffer.awaitClose(30, TimeUnit.SECONDS));
+
+        assertEquals(8000, completed.size());
+        assertEquals(8000, buffer.getStats().getAcceptedActions());
+        assertEquals(8000, buffer.getStats().getDrainedActions());
+        final Map<String, Integer> lastIdOfProducer = new HashMap<>();
+        for (BulkableAction action : sent) {
+            final String[] parts = action.getId().split("-");
+            final int id = Integer.parseInt(parts[1]);
+            assertEquals(lastIdOfProducer.getOrDefault(parts[0], -1) + 1, id);
+            lastIdOfProducer.put(parts[0], id);
+        }
+    }
+
+    @Test
+    public void refusesActionsWhileFull() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        server.setHandler(request -> {
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return MockResponse.json(200, BulkResponses.successful(request.body));
+        });
+        final BulkProcessor processor = BulkProcessor.builder(client, listener).bulkActions(1).concurrentRequests(1).build();
+        final BulkIngestBuffer buffer = BulkIngestBuffer.builder(processor).capacity(2).stripes(1).build();
+
+        // the first action is in flight and the consumer waits for a slot with the second one
+        assertTrue(buffer.offer(index("1")));
+        assertTrue(buffer.offer(index("2")));
+        while (buffer.size() > 0) {
+            Thread.sleep(10);
+        }
+        assertTrue(buffer.offer(index("3")));
+        assertTrue(buffer.offer(index("4")));
+        assertFalse(buffer.offer(index("5")));
+        assertEquals(1, buffer.getStats().getRejectedActions());
+
+        release.countDown();
+        buffer.add(index("5"));
+        assertTrue(buffer.awaitClose(10, TimeUnit.SECONDS));
+        assertEquals(5, completed.size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsActionsAfterClose() throws Exception {
+        final BulkIngestBuffer buffer = BulkIngestBuffer.builder(BulkProcessor.builder(client, listener).build()).build();
+        buffer.close();
+        buffer.add(index("1"));
+    }
+}
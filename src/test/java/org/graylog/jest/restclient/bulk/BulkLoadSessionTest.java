@@ -0,0 +1,110 @@
+package org.graylog.jest.restclient.bulk;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.graylog.jest.restclient.http.AbstractMockServerTest;
+import org.graylog.jest.restclient.http.MockElasticsearchServer.MockResponse;
+import org.graylog.jest.restclient.http.MockElasticsearchServer.RecordedRequest;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BulkLoadSessionTest extends AbstractMockServerTest {
+
+    private static final String SETTINGS = "{\"logs-1\":{\"settings\":{\"index.number_of_replicas\":\"1\","
+            + "\"index.number_of_shards\":\"5\"}},"
+            + "\"logs-2\":{\"settings\":{\"index.number_of_replicas\":\"2\",\"index.refresh_interval\":\"30s\"}}}";
+
+    private final AtomicInteger indexTotal = new AtomicInteger(100);
+    private final AtomicBoolean failLoadSettings = new AtomicBoolean();
+    private final List<String> settingsUpdates = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() {
+        server.setHandler(this::handle);
+    }
+
+    private MockResponse handle(RecordedRequest request) {
+        final String path = request.getPath();
+        if (path.endsWith("/_settings") && "GET".equals(request.method)) {
+            return MockResponse.json(200, SETTINGS);
+        } else if (path.endsWith("/_settings")) {
+            settingsUpdates.add(path + " " + request.body);
+            if (failLoadSettings.get() && request.body.contains("\"-1\"")) {
+                return MockResponse.json(400, "{\"error\":\"illegal setting\"}");
+            }
+            return MockResponse.json(200, "{\"acknowledged\":true}");
+        } else if (path.contains("/_stats")) {
+            return MockResponse.json(200, "{\"_all\":{\"primaries\":{\"indexing\":{\"index_total\":" + indexTotal.get()
+                    + "},\"refresh\":{\"total\":7}}}}");
+        } else if (path.endsWith("/_refresh")) {
+            return MockResponse.json(200, "{\"_shards\":{\"total\":10,\"successful\":10,\"failed\":0}}");
+        }
+        return MockResponse.json(404, "{}");
+    }
+
+    private static JsonObject json(String body) {
+        return new JsonParser().parse(body).getAsJsonObject();
+    }
+
+    @Test
+    public void appliesAndRestoresSettings() throws Exception {
+        final BulkLoadSession session = BulkLoadSession.builder(client, "logs-*").translogDurability("async").build();
+        session.start();
+
+        assertEquals(1, settingsUpdates.size());
+        assertTrue(settingsUpdates.get(0).startsWith("/logs-*/_settings "));
+        final JsonObject load = json(settingsUpdates.get(0).substring(settingsUpdates.get(0).indexOf(' ') + 1));
+        assertEquals("-1", load.get("index.refresh_interval").getAsString());
+        assertEquals("0", load.get("index.number_of_replicas").getAsString());
+        assertEquals("async", load.get("index.translog.durability").getAsString());
+
+        indexTotal.addAndGet(5000);
+        final BulkLoadReport report = session.finish();
+
+        assertEquals(3, settingsUpdates.size());
+        final JsonObject first = json(settingsUpdates.get(1).substring(settingsUpdates.get(1).indexOf(' ') + 1));
+        assertTrue(settingsUpdates.get(1).startsWith("/logs-1/_settings "));
+        assertTrue(first.get("index.refresh_interval").isJsonNull());
+        assertEquals("1", first.get("index.number_of_replicas").getAsString());
+        assertTrue(first.get("index.translog.durability").isJsonNull());
+        final JsonObject second = json(settingsUpdates.get(2).substring(settingsUpdates.get(2).indexOf(' ') + 1));
+        assertEquals("30s", second.get("index.refresh_interval").getAsString());
+        assertEquals("2", second.get("index.number_of_replicas").getAsString());
+
+        final List<String> paths = server.getRequests().stream().map(RecordedRequest::getPath).collect(Collectors.toList());
+        assertTrue(paths.contains("/logs-*/_refresh"));
+        assertEquals(5000, report.getIndexedDocuments());
+        assertEquals(0, report.getRefreshes());
+        assertEquals(report, session.finish());
+    }
+
+    @Test
+    public void restoresSettingsIfLoadSettingsFail() throws Exception {
+        failLoadSettings.set(true);
+        final BulkLoadSession session = BulkLoadSession.builder(client, "logs-*").build();
+        try {
+            session.start();
+            fail("Expected the load settings to fail");
+        } catch (IOException e) {
+            assertEquals(3, settingsUpdates.size());
+        }
+        assertNull(session.finish());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void requiresIndices() {
+        BulkLoadSession.builder(client);
+    }
+}
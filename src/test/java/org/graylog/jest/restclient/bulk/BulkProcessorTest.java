@@ -0,0 +1,290 @@
+package org.graylog.jest.restclient.bulk;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSerializer;
+import io.searchbox.action.BulkableAction;
+import io.searchbox.core.BulkResult;
+import io.searchbox.core.Index;
+import org.apache.commons.lang3.StringUtils;
+import org.graylog.jest.restclient.http.AbstractMockServerTest;
+import org.graylog.jest.restclient.http.JestHttpClient;
+import org.graylog.jest.restclient.http.MockElasticsearchServer;
+import org.graylog.jest.restclient.http.MockElasticsearchServer.MockResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BulkProcessorTest extends AbstractMockServerTest {
+
+    private final List<Integer> bulkSizes = new CopyOnWriteArrayList<>();
+    private final List<Throwable> failures = new CopyOnWriteArrayList<>();
+    private final BulkProcessor.Listener listener = new BulkProcessor.Listener() {
+        @Override
+        public void afterBulk(long executionId, List<BulkableAction> actions, BulkResult result) {
+            assertTrue(result.getErrorMessage(), result.isSucceeded());
+            bulkSizes.add(actions.size());
+        }
+
+        @Override
+        public void afterBulk(long executionId, List<BulkableAction> actions, Throwable failure) {
+            failures.add(failure);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        server.setHandler(request -> MockResponse.json(200, BulkResponses.successful(request.body)));
+    }
+
+    private static Index index(int id) {
+        return new Index.Builder("{\"field\":\"value\"}").index("twitter").type("tweet").id(String.valueOf(id)).build();
+    }
+
+    @Test
+    public void flushesOnActionCount() throws Exception {
+        final BulkProcessor processor = BulkProcessor.builder(client, listener).bulkActions(10).build();
+        for (int i = 0; i < 25; i++) {
+            processor.add(index(i));
+        }
+        assertTrue(processor.awaitClose(10, TimeUnit.SECONDS));
+
+        assertEquals(3, server.getRequests().size());
+        assertEquals(25, bulkSizes.stream().mapToInt(Integer::intValue).sum());
+        assertTrue(bulkSizes.contains(5));
+        assertTrue(failures.isEmpty());
+    }
+
+    @Test
+    public void flushesOnSize() throws Exception {
+        final BulkProcessor processor = BulkProcessor.builder(client, listener)
+                .bulkActions(1000)
+                .bulkSize(500)
+                .build();
+        for (int i = 0; i < 20; i++) {
+            processor.add(index(i));
+        }
+        processor.flush();
+        assertTrue(processor.awaitClose(10, TimeUnit.SECONDS));
+
+        assertTrue(server.getRequests().size() > 1);
+        for (MockElasticsearchServer.RecordedRequest request : server.getRequests()) {
+            assertEquals("/_bulk", request.getPath());
+        }
+        assertEquals(20, bulkSizes.stream().mapToInt(Integer::intValue).sum());
+    }
+
+    @Test
+    public void sizesActionsInEncodedBytes() throws Exception {
+        final BulkProcessor processor = BulkProcessor.builder(client, listener)
+                .bulkActions(1000)
+                .bulkSize(1000)
+                .build();
+        // 400 characters but 1200 bytes in UTF-8
+        final String source = "{\"field\":\"" + StringUtils.repeat('\u20ac', 400) + "\"}";
+        for (int i = 0; i < 3; i++) {
+            processor.add(new Index.Builder(source).index("twitter").type("tweet").id(String.valueOf(i)).build());
+        }
+        assertTrue(processor.awaitClose(10, TimeUnit.SECONDS));
+
+        assertEquals(3, server.getRequests().size());
+        assertEquals(3, bulkSizes.size());
+    }
+
+    @Test
+    public void flushesOnInterval() throws Exception {
+        final BulkProcessor processor = BulkProcessor.builder(client, listener)
+                .flushInterval(50, TimeUnit.MILLISECONDS)
+                .build();
+        processor.add(index(1));
+
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (bulkSizes.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, bulkSizes.size());
+        processor.close();
+    }
+
+    @Test
+    public void limitsConcurrentBulks() throws Exception {
+        final AtomicInteger concurrent = new AtomicInteger();
+        final AtomicInteger maxConcurrent = new AtomicInteger();
+        server.setHandler(request -> {
+            maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            concurrent.decrementAndGet();
+            return MockResponse.json(200, BulkResponses.successful(request.body));
+        });
+        final BulkProcessor processor = BulkProcessor.builder(client, listener)
+                .bulkActions(1)
+                .concurrentRequests(2)
+                .build();
+        for (int i = 0; i < 10; i++) {
+            processor.add(index(i));
+        }
+        assertTrue(processor.awaitClose(10, TimeUnit.SECONDS));
+
+        assertEquals(10, bulkSizes.size());
+        assertTrue("at most 2 bulks in flight but saw " + maxConcurrent.get(), maxConcurrent.get() <= 2);
+    }
+
+    @Test(timeout = 10000)
+    public void listenerMayAddActionsWhileAllSlotsAreTaken() throws Exception {
+        final AtomicInteger bulks = new AtomicInteger();
+        final CountDownLatch followUpsAdded = new CountDownLatch(10);
+        final BulkProcessor[] processor = new BulkProcessor[1];
+        processor[0] = BulkProcessor.builder(client, new BulkProcessor.Listener() {
+            @Override
+            public void afterBulk(long executionId, List<BulkableAction> actions, BulkResult result) {
+                bulkSizes.add(actions.size());
+                final int bulk = bulks.incrementAndGet();
+                if (bulk <= 10) {
+                    try {
+                        processor[0].add(index(1000 + bulk));
+                        followUpsAdded.countDown();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+
+            @Override
+            public void afterBulk(long executionId, List<BulkableAction> actions, Throwable failure) {
+                failures.add(failure);
+            }
+        }).bulkActions(1).concurrentRequests(1).build();
+        for (int i = 0; i < 10; i++) {
+            processor[0].add(index(i));
+        }
+        followUpsAdded.await();
+        assertTrue(processor[0].awaitClose(10, TimeUnit.SECONDS));
+
+        assertEquals(20, bulkSizes.stream().mapToInt(Integer::intValue).sum());
+        assertTrue(failures.isEmpty());
+    }
+
+    @Test
+    public void serializesSourcesOnce() throws Exception {
+        final AtomicInteger serialized = new AtomicInteger();
+        final Gson gson = new GsonBuilder()
+                .registerTypeAdapter(Source.class, (JsonSerializer<Source>) (source, type, context) -> {
+                    serialized.incrementAndGet();
+                    return new JsonPrimitive(source.value);
+                })
+                .create();
+        final JestHttpClient gsonClient = createClient(clientConfig().gson(gson).build());
+        final BulkProcessor processor = BulkProcessor.builder(gsonClient, listener).bulkActions(2).build();
+        for (int i = 0; i < 5; i++) {
+            processor.add(new Index.Builder(new Source("value-" + i)).index("twitter").type("tweet").id(String.valueOf(i)).build());
+        }
+        assertTrue(processor.awaitClose(10, TimeUnit.SECONDS));
+
+        assertEquals(5, serialized.get());
+        assertEquals(5, bulkSizes.stream().mapToInt(Integer::intValue).sum());
+        assertTrue(server.getRequests().get(0).body.contains("\"value-0\""));
+    }
+
+    private static class Source {
+        private final String value;
+
+        private Source(String value) {
+            this.value = value;
+        }
+    }
+
+    @Test
+    public void adaptiveControllerShrinksBulksOnRejections() throws Exception {
+        server.setHandler(request -> MockResponse.json(200, BulkResponses.withStatus(request.body, i -> 429)));
+        final AdaptiveBulkController controller = AdaptiveBulkController.builder()
+                .bulkSize(250, 1000, 2000)
+                .concurrency(1, 2, 4)
+                .build();
+        final BulkProcessor processor = BulkProcessor.builder(client, new BulkProcessor.Listener() {
+            @Override
+            public void afterBulk(long executionId, List<BulkableAction> actions, BulkResult result) {
+                bulkSizes.add(actions.size());
+            }
+
+            @Override
+            public void afterBulk(long executionId, List<BulkableAction> actions, Throwable failure) {
+                failures.add(failure);
+            }
+        }).adaptive(controller).build();
+        for (int i = 0; i < 40; i++) {
+            processor.add(index(i));
+        }
+        assertTrue(processor.awaitClose(10, TimeUnit.SECONDS));
+
+        assertTrue(controller.getDecreases() > 0);
+        assertEquals(250, controller.getBulkSize());
+        assertEquals(1, controller.getConcurrency());
+        assertEquals(40, controller.getRejectedItems());
+        assertEquals(40, bulkSizes.stream().mapToInt(Integer::intValue).sum());
+    }
+
+    @Test
+    public void reportsFailedBulks() throws Exception {
+        server.stop();
+        final BulkProcessor processor = BulkProcessor.builder(client, listener).build();
+        processor.add(index(1));
+        assertTrue(processor.awaitClose(10, TimeUnit.SECONDS));
+
+        assertEquals(1, failures.size());
+        assertTrue(bulkSizes.isEmpty());
+    }
+
+    @Test
+    public void rejectsActionsAfterClose() throws Exception {
+        final BulkProcessor processor = BulkProcessor.builder(client, listener).build();
+        processor.add(index(1));
+        assertTrue(processor.awaitClose(10, TimeUnit.SECONDS));
+        assertEquals(1, bulkSizes.size());
+
+        try {
+            processor.add(index(2));
+            fail("Closed processor must not accept actions");
+        } catch (IllegalStateException expected) {
+            assertFalse(expected.getMessage().isEmpty());
+        }
+    }
+
+    @Test
+    public void awaitCloseWaitsAgainAfterTimeout() throws Exception {
+        final CountDownLatch released = new CountDownLatch(1);
+        server.setHandler(request -> {
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return MockResponse.json(200, BulkResponses.successful(request.body));
+        });
+        final BulkProcessor processor = BulkProcessor.builder(client, listener).build();
+        processor.add(index(1));
+        try {
+            assertFalse(processor.awaitClose(50, TimeUnit.MILLISECONDS));
+            // the bulk is still in flight
+            assertFalse(processor.awaitClose(50, TimeUnit.MILLISECONDS));
+        } finally {
+            released.countDown();
+        }
+        assertTrue(processor.awaitClose(10, TimeUnit.SECONDS));
+        assertEquals(1, bulkSizes.size());
+    }
+}
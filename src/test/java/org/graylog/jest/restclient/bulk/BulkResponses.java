@@ -0,0 +1,62 @@
+package org.graylog.jest.restclient.bulk;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.util.function.IntFunction;
+
+/**
+ * Builds bulk responses for the bulk request bodies received by a mock server.
+ */
+public final class BulkResponses {
+
+    private BulkResponses() {
+    }
+
+    public static String successful(String requestBody) {
+        return withStatus(requestBody, i -> 201);
+    }
+
+    /**
+     * @param statusOfItem status of the n-th item of the request
+     */
+    public static String withStatus(String requestBody, IntFunction<Integer> statusOfItem) {
+        final JsonParser parser = new JsonParser();
+        final JsonArray items = new JsonArray();
+        boolean errors = false;
+        final String[] lines = requestBody.split("\n");
+        int item = 0;
+        for (int i = 0; i < lines.length; i++) {
+            final JsonObject actionLine = parser.parse(lines[i]).getAsJsonObject();
+            final String operation = actionLine.entrySet().iterator().next().getKey();
+            final JsonObject metadata = actionLine.getAsJsonObject(operation);
+            if (!"delete".equals(operation)) {
+                i++; // skip source line
+            }
+
+            final int status = statusOfItem.apply(item++);
+            final JsonObject result = new JsonObject();
+            result.add("_index", metadata.get("_index"));
+            result.add("_type", metadata.get("_type"));
+            result.add("_id", metadata.get("_id"));
+            result.addProperty("status", status);
+            if (status >= 300) {
+                errors = true;
+                final JsonObject error = new JsonObject();
+                error.addProperty("type", status == 429 ? "es_rejected_execution_exception" : "mapper_parsing_exception");
+                error.addProperty("reason", "failed with status " + status);
+                result.add("error", error);
+            }
+            final JsonObject itemObject = new JsonObject();
+            itemObject.add(operation, result);
+            items.add(itemObject);
+        }
+
+        final JsonObject response = new JsonObject();
+        response.addProperty("took", 1);
+        response.addProperty("errors", errors);
+        response.add("items", items);
+        return response.toString();
+    }
+}
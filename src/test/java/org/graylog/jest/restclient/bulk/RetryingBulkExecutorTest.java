@@ -0,0 +1,172 @@
+package org.graylog.jest.restclient.bulk;
+
+import io.searchbox.action.BulkableAction;
+import io.searchbox.core.BulkResult;
+import io.searchbox.core.Index;
+import org.graylog.jest.restclient.http.AbstractMockServerTest;
+import org.graylog.jest.restclient.http.JestResultFuture;
+import org.graylog.jest.restclient.http.MockElasticsearchServer.MockResponse;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryingBulkExecutorTest extends AbstractMockServerTest {
+
+    private static List<BulkableAction> actions(int count) {
+        final List<BulkableAction> actions = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            actions.add(new Index.Builder("{\"field\":\"value\"}").index("twitter").type("tweet").id(String.valueOf(i)).build());
+        }
+        return actions;
+    }
+
+    private static BulkRetryPolicy.Builder policy() {
+        return BulkRetryPolicy.builder().backoff(1, 10, TimeUnit.MILLISECONDS);
+    }
+
+    private BulkResult execute(RetryingBulkExecutor executor, List<BulkableAction> actions) throws Exception {
+        final JestResultFuture<BulkResult> future = new JestResultFuture<>();
+        executor.execute(actions, future);
+        return future.getResult();
+    }
+
+    @Test
+    public void retriesOnlyRejectedItems() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        server.setHandler(request -> {
+            final boolean first = attempts.getAndIncrement() == 0;
+            // reject every second item of the first attempt
+            return MockResponse.json(200, BulkResponses.withStatus(request.body, i -> first && i % 2 == 1 ? 429 : 201));
+        });
+
+        final RetryingBulkExecutor executor = new RetryingBulkExecutor(new ClientBulkExecutor(client, null, null), policy().build());
+        final BulkResult result = execute(executor, actions(6));
+        executor.close();
+
+        assertTrue(result.getErrorMessage(), result.isSucceeded());
+        assertEquals(2, server.getRequests().size());
+        assertEquals(3, server.getRequests().get(1).body.split("\n").length / 2);
+        assertTrue(server.getRequests().get(1).body.contains("\"_id\":\"1\""));
+        assertFalse(server.getRequests().get(1).body.contains("\"_id\":\"2\""));
+
+        final List<BulkResult.BulkResultItem> items = result.getItems();
+        assertEquals(6, items.size());
+        for (int i = 0; i < items.size(); i++) {
+            assertEquals(String.valueOf(i), items.get(i).id);
+            assertEquals(201, items.get(i).status);
+        }
+
+        assertEquals(3, executor.getStats().getRetriedItems());
+        assertEquals(3, executor.getStats().getRecoveredItems());
+        assertEquals(0, executor.getStats().getPermanentlyFailedItems());
+    }
+
+    @Test
+    public void doesNotRetryPermanentFailures() throws Exception {
+        server.setHandler(request -> MockResponse.json(200, BulkResponses.withStatus(request.body, i -> i == 0 ? 400 : 201)));
+
+        final RetryingBulkExecutor executor = new RetryingBulkExecutor(new ClientBulkExecutor(client, null, null), policy().build());
+        final BulkResult result = execute(executor, actions(3));
+        executor.close();
+
+        assertFalse(result.isSucceeded());
+        assertEquals(1, server.getRequests().size());
+        assertEquals(1, result.getFailedItems().size());
+        assertEquals(0, executor.getStats().getRetriedItems());
+        assertEquals(1, executor.getStats().getPermanentlyFailedItems());
+    }
+
+    @Test
+    public void givesUpAfterMaxRetries() throws Exception {
+        server.setHandler(request -> MockResponse.json(200, BulkResponses.withStatus(request.body, i -> i == 0 ? 429 : 201)));
+
+        final RetryingBulkExecutor executor = new RetryingBulkExecutor(new ClientBulkExecutor(client, null, null),
+                policy().maxRetries(2).build());
+        final BulkResult result = execute(executor, actions(3));
+        executor.close();
+
+        assertFalse(result.isSucceeded());
+        assertEquals(3, server.getRequests().size());
+        assertEquals(3, result.getItems().size());
+        assertEquals(429, result.getItems().get(0).status);
+        assertEquals(2, executor.getStats().getRetriedItems());
+        assertEquals(1, executor.getStats().getPermanentlyFailedItems());
+    }
+
+    @Test
+    public void retryBudgetLimitsRetries() throws Exception {
+        server.setHandler(request -> MockResponse.json(200, BulkResponses.withStatus(request.body, i -> 429)));
+
+        final RetryingBulkExecutor executor = new RetryingBulkExecutor(new ClientBulkExecutor(client, null, null),
+                policy().retryBudget(0.1, 2).build());
+        execute(executor, actions(10));
+        executor.close();
+
+        // the budget starts full with two retries, the first attempt earns one more which exceeds the capacity
+        assertEquals(2, executor.getStats().getRetriedItems());
+        assertEquals(10, executor.getStats().getPermanentlyFailedItems());
+        assertEquals(10, executor.getStats().getBudgetExhaustedItems());
+    }
+
+    @Test
+    public void retriesBulkRejectedAsWhole() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        server.setHandler(request -> attempts.getAndIncrement() == 0
+                ? MockResponse.json(503, "{\"error\":\"unavailable\",\"status\":503}")
+                : MockResponse.json(200, BulkResponses.successful(request.body)));
+
+        final RetryingBulkExecutor executor = new RetryingBulkExecutor(new ClientBulkExecutor(client, null, null), policy().build());
+        final BulkResult result = execute(executor, actions(4));
+        executor.close();
+
+        assertTrue(result.getErrorMessage(), result.isSucceeded());
+        assertEquals(4, result.getItems().size());
+        assertEquals(2, server.getRequests().size());
+        assertEquals(4, executor.getStats().getRecoveredItems());
+    }
+
+    @Test
+    public void failsRetriedItemsOfRetryFailedAsWhole() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        server.setHandler(request -> attempts.getAndIncrement() == 0
+                ? MockResponse.json(200, BulkResponses.withStatus(request.body, i -> i == 1 ? 429 : 201))
+                : MockResponse.json(400, "{\"error\":\"bad request\",\"status\":400}"));
+
+        final RetryingBulkExecutor executor = new RetryingBulkExecutor(new ClientBulkExecutor(client, null, null), policy().build());
+        final BulkResult result = execute(executor, actions(3));
+        executor.close();
+
+        assertFalse(result.isSucceeded());
+        assertEquals(2, server.getRequests().size());
+        final List<BulkResult.BulkResultItem> items = result.getItems();
+        assertEquals(3, items.size());
+        assertEquals(201, items.get(0).status);
+        assertEquals(400, items.get(1).status);
+        assertEquals("bulk_failed_exception", items.get(1).errorType);
+        assertEquals("twitter", items.get(1).index);
+        assertEquals("1", items.get(1).id);
+        assertEquals(201, items.get(2).status);
+        assertEquals(1, executor.getStats().getPermanentlyFailedItems());
+    }
+
+    @Test
+    public void closedExecutorCompletesWithLastResult() throws Exception {
+        server.setHandler(request -> MockResponse.json(503, "{\"error\":\"unavailable\",\"status\":503}"));
+
+        final RetryingBulkExecutor executor = new RetryingBulkExecutor(new ClientBulkExecutor(client, null, null), policy().build());
+        executor.close();
+        final BulkResult result = execute(executor, actions(2));
+
+        assertFalse(result.isSucceeded());
+        assertEquals(503, result.getResponseCode());
+        assertEquals(1, server.getRequests().size());
+        assertEquals(2, executor.getStats().getPermanentlyFailedItems());
+    }
+}
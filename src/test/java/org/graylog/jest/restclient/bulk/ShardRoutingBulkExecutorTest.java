@@ -0,0 +1,170 @@
+package org.graylog.jest.restclient.bulk;
+
+import com.google.gson.JsonParser;
+import io.searchbox.action.BulkableAction;
+import io.searchbox.core.BulkResult;
+import io.searchbox.core.Index;
+import org.graylog.jest.restclient.http.AbstractMockServerTest;
+import org.graylog.jest.restclient.http.JestResultFuture;
+import org.graylog.jest.restclient.http.MockElasticsearchServer;
+import org.graylog.jest.restclient.http.MockElasticsearchServer.MockResponse;
+import org.graylog.jest.restclient.routing.ShardRoutingCache;
+import org.graylog.jest.restclient.routing.ShardRoutingTable;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ShardRoutingBulkExecutorTest extends AbstractMockServerTest {
+
+    // the server the client connects to is the first node
+    private MockElasticsearchServer node2;
+    private ShardRoutingCache routing;
+    private volatile CountDownLatch clusterStateReleased = new CountDownLatch(0);
+
+    @Before
+    public void setUp() throws Exception {
+        node2 = new MockElasticsearchServer();
+        final String nodes = "{\"nodes\":{"
+                + "\"n1\":{\"http\":{\"publish_address\":\"" + server.getUrl().substring("http://".length()) + "\"}},"
+                + "\"n2\":{\"http\":{\"publish_address\":\"" + node2.getUrl().substring("http://".length()) + "\"}}}}";
+        final String clusterState = "{\"metadata\":{\"indices\":{\"twitter\":{\"settings\":{\"index\":{\"number_of_shards\":\"2\"}}}}},"
+                + "\"routing_table\":{\"indices\":{\"twitter\":{\"shards\":{"
+                + "\"0\":[{\"primary\":true,\"node\":\"n1\",\"state\":\"STARTED\"}],"
+                + "\"1\":[{\"primary\":true,\"node\":\"n2\",\"state\":\"STARTED\"}]}}}}}";
+        server.setHandler(request -> {
+            if (request.getPath().startsWith("/_cluster/state")) {
+                try {
+                    clusterStateReleased.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return MockResponse.json(200, clusterState);
+            } else if (request.getPath().startsWith("/_nodes")) {
+                return MockResponse.json(200, nodes);
+            }
+            return MockResponse.json(200, BulkResponses.successful(request.body));
+        });
+        node2.setHandler(request -> MockResponse.json(200, BulkResponses.successful(request.body)));
+
+        routing = new ShardRoutingCache(client, 1, TimeUnit.MINUTES);
+        routing.refresh().get(10, TimeUnit.SECONDS);
+    }
+
+    @After
+    public void tearDown() {
+        node2.stop();
+    }
+
+    private static List<BulkableAction> actions(int count) {
+        final List<BulkableAction> actions = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            actions.add(new Index.Builder("{\"n\":" + i + "}").index("twitter").type("tweet").id(Integer.toString(i)).build());
+        }
+        return actions;
+    }
+
+    private BulkResult execute(List<BulkableAction> actions) throws Exception {
+        final JestResultFuture<BulkResult> future = new JestResultFuture<>();
+        new ShardRoutingBulkExecutor(client, routing, null, null).execute(actions, future);
+        return future.getResult();
+    }
+
+    private static List<String> bulkIds(MockElasticsearchServer server) {
+        final List<String> ids = new ArrayList<>();
+        final JsonParser parser = new JsonParser();
+        server.getRequests().stream().filter(request -> request.getPath().endsWith("_bulk")).forEach(request -> {
+            final String[] lines = request.body.split("\n");
+            for (int i = 0; i < lines.length; i += 2) {
+                ids.add(parser.parse(lines[i]).getAsJsonObject().getAsJsonObject("index").get("_id").getAsString());
+            }
+        });
+        return ids;
+    }
+
+    @Test
+    public void sendsItemsToPrimaryNodesAndMergesInOrder() throws Exception {
+        final BulkResult result = execute(actions(20));
+
+        assertTrue(result.getErrorMessage(), result.isSucceeded());
+        final List<BulkResult.BulkResultItem> items = result.getItems();
+        assertEquals(20, items.size());
+        for (int i = 0; i < 20; i++) {
+            assertEquals(Integer.toString(i), items.get(i).id);
+        }
+
+        final ShardRoutingTable table = routing.get();
+        final List<String> ids1 = bulkIds(server);
+        final List<String> ids2 = bulkIds(node2);
+        assertEquals(20, ids1.size() + ids2.size());
+        assertFalse(ids1.isEmpty());
+        assertFalse(ids2.isEmpty());
+        for (String id : ids1) {
+            assertEquals(0, table.getShardId("twitter", id, null));
+        }
+        for (String id : ids2) {
+            assertEquals(1, table.getShardId("twitter", id, null));
+        }
+    }
+
+    @Test
+    public void reportsItemsOfUnreachableNodeAsUnavailable() throws Exception {
+        node2.stop();
+
+        final BulkResult result = execute(actions(20));
+
+        assertFalse(result.isSucceeded());
+        final List<String> ids1 = bulkIds(server);
+        for (BulkResult.BulkResultItem item : result.getItems()) {
+            if (ids1.contains(item.id)) {
+                assertEquals(201, item.status);
+            } else {
+                assertEquals(503, item.status);
+                assertEquals("node_unavailable_exception", item.errorType);
+            }
+        }
+        assertEquals(ids1.size(), result.getItems().size() - result.getFailedItems().size());
+    }
+
+    @Test
+    public void sendsItemsOfUnknownIndicesToAnyNode() throws Exception {
+        final List<BulkableAction> actions = new ArrayList<>(actions(2));
+        actions.add(new Index.Builder("{}").index("other").type("tweet").id("x").build());
+        actions.add(new Index.Builder("{}").index("twitter").type("tweet").build());
+
+        final BulkResult result = execute(actions);
+
+        assertTrue(result.getErrorMessage(), result.isSucceeded());
+        assertEquals(4, result.getItems().size());
+        assertEquals("other", result.getItems().get(2).index);
+    }
+
+    @Test
+    public void sendsItemsToAnyNodeWhileRoutingIsFetched() throws Exception {
+        clusterStateReleased = new CountDownLatch(1);
+        final ShardRoutingCache fetching = new ShardRoutingCache(client, 1, TimeUnit.MINUTES);
+
+        final JestResultFuture<BulkResult> future = new JestResultFuture<>();
+        new ShardRoutingBulkExecutor(client, fetching, null, null).execute(actions(20), future);
+        final BulkResult result = future.getResult();
+
+        assertTrue(result.getErrorMessage(), result.isSucceeded());
+        assertEquals(20, result.getItems().size());
+        assertTrue(bulkIds(node2).isEmpty());
+        assertNull(fetching.get());
+
+        clusterStateReleased.countDown();
+        assertNotNull(fetching.refresh().get(10, TimeUnit.SECONDS));
+        assertNotNull(fetching.get());
+    }
+}
@@ -0,0 +1,98 @@
+package org.graylog.jest.restclient.bulk;
+
+import io.searchbox.action.BulkableAction;
+import io.searchbox.core.BulkResult;
+import io.searchbox.core.Index;
+import org.graylog.jest.restclient.decoding.LazyBulkResult;
+import org.graylog.jest.restclient.http.AbstractMockServerTest;
+import org.graylog.jest.restclient.http.JestResultFuture;
+import org.graylog.jest.restclient.http.MockElasticsearchServer.MockResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SplittingBulkExecutorTest extends AbstractMockServerTest {
+
+    @Before
+    public void setUp() {
+        server.setHandler(request -> MockResponse.json(200, BulkResponses.successful(request.body)));
+    }
+
+    private static List<BulkableAction> actions(int count) {
+        final List<BulkableAction> actions = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            actions.add(new Index.Builder("{\"field\":\"value\"}").index("twitter").type("tweet").id(String.valueOf(i)).build());
+        }
+        return actions;
+    }
+
+    private SplittingBulkExecutor executor(long maxBulkSize) {
+        return new SplittingBulkExecutor(new ClientBulkExecutor(client, null, null), maxBulkSize, action -> 100,
+                client.getGson(), null, null);
+    }
+
+    private BulkResult execute(BulkExecutor executor, List<BulkableAction> actions) throws Exception {
+        final JestResultFuture<BulkResult> future = new JestResultFuture<>();
+        executor.execute(actions, future);
+        return future.getResult();
+    }
+
+    @Test
+    public void splitsBulkByEstimatedSize() throws Exception {
+        final List<BulkableAction> actions = actions(10);
+        final BulkResult result = execute(executor(350), actions);
+
+        assertTrue(result.isSucceeded());
+        assertEquals(4, server.getRequests().size());
+        assertEquals(10, result.getItems().size());
+        for (int i = 0; i < actions.size(); i++) {
+            assertEquals(String.valueOf(i), result.getItems().get(i).id);
+        }
+    }
+
+    @Test
+    public void bisectsBulksRejectedAsTooLarge() throws Exception {
+        server.setHandler(request -> request.body.split("\n").length > 4
+                ? MockResponse.json(413, "{\"error\":\"request too large\"}")
+                : MockResponse.json(200, BulkResponses.successful(request.body)));
+        final BulkResult result = execute(executor(Long.MAX_VALUE), actions(8));
+
+        assertTrue(result.isSucceeded());
+        // 8 -> 4 + 4 -> 2 + 2 + 2 + 2
+        assertEquals(7, server.getRequests().size());
+        assertEquals(8, result.getItems().size());
+        assertEquals("7", result.getItems().get(7).id);
+    }
+
+    @Test
+    public void failsSingleActionRejectedAsTooLarge() throws Exception {
+        server.setHandler(request -> request.body.contains("\"_id\":\"1\"")
+                ? MockResponse.json(413, "{\"error\":\"request too large\"}")
+                : MockResponse.json(200, BulkResponses.successful(request.body)));
+        final BulkResult result = execute(executor(Long.MAX_VALUE), actions(3));
+
+        assertFalse(result.isSucceeded());
+        assertEquals(3, result.getItems().size());
+        assertNull(result.getItems().get(0).error);
+        assertEquals(413, result.getItems().get(1).status);
+        assertNull(result.getItems().get(2).error);
+        assertEquals(1, result.getFailedItems().size());
+    }
+
+    @Test
+    public void passesResultOfUnsplitBulkOn() throws Exception {
+        final BulkResult result = execute(executor(10_000), actions(5));
+
+        assertTrue(result.isSucceeded());
+        assertEquals(1, server.getRequests().size());
+        assertSame(LazyBulkResult.class, result.getClass());
+    }
+}
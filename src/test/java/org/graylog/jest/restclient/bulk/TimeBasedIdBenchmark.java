@@ -0,0 +1,84 @@
+package org.graylog.jest.restclient.bulk;
+
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.RAMDirectory;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Compares {@link TimeBasedIdGenerator} with random UUIDs, first by the rate at which ids are generated and then
+ * by the rate at which Lucene indexes documents with these ids. Like Elasticsearch for documents with an id given
+ * by the client, documents are indexed with {@link IndexWriter#updateDocument}, which looks up the id in the
+ * existing segments.
+ * <p>
+ * Not run as part of the test suite. Run the main method with the test classpath, the optional argument being
+ * the number of documents to index (1,000,000 by default).
+ * </p>
+ */
+public class TimeBasedIdBenchmark {
+
+    private static final int GENERATED_IDS = 5_000_000;
+
+    public static void main(String[] args) throws Exception {
+        final int documents = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        final TimeBasedIdGenerator generator = new TimeBasedIdGenerator();
+        final Supplier<String> uuids = () -> UUID.randomUUID().toString();
+
+        System.out.printf("Generating %d ids%n", GENERATED_IDS);
+        for (int i = 0; i < 2; i++) {
+            // the first round warms up
+            generate("UUID.randomUUID", uuids, i == 1);
+            generate("TimeBasedIdGenerator", generator::nextId, i == 1);
+        }
+
+        System.out.printf("Indexing %d documents%n", documents);
+        index("UUID.randomUUID", uuids, documents / 10, false);
+        index("TimeBasedIdGenerator", generator::nextId, documents / 10, false);
+        index("UUID.randomUUID", uuids, documents, true);
+        index("TimeBasedIdGenerator", generator::nextId, documents, true);
+    }
+
+    private static void generate(String name, Supplier<String> ids, boolean print) {
+        long hash = 0;
+        final long start = System.nanoTime();
+        for (int i = 0; i < GENERATED_IDS; i++) {
+            hash += ids.get().hashCode();
+        }
+        final long elapsed = System.nanoTime() - start;
+        if (print) {
+            System.out.printf("%-24s %12.0f ids/s (%d)%n", name, rate(GENERATED_IDS, elapsed), hash & 1);
+        }
+    }
+
+    private static void index(String name, Supplier<String> ids, int documents, boolean print) throws Exception {
+        final IndexWriterConfig config = new IndexWriterConfig(new KeywordAnalyzer()).setRAMBufferSizeMB(64);
+        try (RAMDirectory directory = new RAMDirectory(); IndexWriter writer = new IndexWriter(directory, config)) {
+            final long start = System.nanoTime();
+            for (int i = 0; i < documents; i++) {
+                final String id = ids.get();
+                final Document document = new Document();
+                document.add(new StringField("_uid", id, Field.Store.YES));
+                document.add(new TextField("message", "message " + i, Field.Store.NO));
+                writer.updateDocument(new Term("_uid", id), document);
+            }
+            writer.commit();
+            final long elapsed = System.nanoTime() - start;
+            if (print) {
+                System.out.printf("%-24s %12.0f docs/s%n", name, rate(documents, elapsed));
+            }
+        }
+    }
+
+    private static double rate(long count, long elapsedNanos) {
+        return count * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+}
@@ -0,0 +1,78 @@
+package org.graylog.jest.restclient.bulk;
+
+import org.junit.Test;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TimeBasedIdGeneratorTest {
+
+    @Test
+    public void generatesUniqueIdsConcurrently() throws Exception {
+        final TimeBasedIdGenerator generator = new TimeBasedIdGenerator();
+        final Set<String> ids = ConcurrentHashMap.newKeySet();
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final Thread thread = new Thread(() -> {
+                for (int i = 0; i < 50_000; i++) {
+                    ids.add(generator.nextId());
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(200_000, ids.size());
+        for (String id : ids) {
+            assertEquals(20, id.length());
+            assertEquals(15, Base64.getUrlDecoder().decode(id).length);
+        }
+    }
+
+    @Test
+    public void keepsIdsUniqueIfTheClockGoesBackwards() {
+        final long[] now = {1_000_000};
+        final TimeBasedIdGenerator generator = new TimeBasedIdGenerator(new SecureRandom()) {
+            @Override
+            long currentTimeMillis() {
+                return now[0]--;
+            }
+        };
+
+        final Set<String> ids = ConcurrentHashMap.newKeySet();
+        for (int i = 0; i < 100_000; i++) {
+            assertTrue(ids.add(generator.nextId()));
+        }
+        // the timestamp stays at its highest value
+        final byte[] id = generator.nextIdBytes();
+        assertEquals((byte) 1_000_000, id[14]);
+        assertEquals((byte) (1_000_000 >>> 16), id[2]);
+    }
+
+    @Test
+    public void sharesTimestampAndNodeIdBetweenConsecutiveIds() {
+        final TimeBasedIdGenerator generator = new TimeBasedIdGenerator(new SecureRandom()) {
+            @Override
+            long currentTimeMillis() {
+                return 1_500_000_000_000L;
+            }
+        };
+
+        final byte[] first = generator.nextIdBytes();
+        final byte[] second = generator.nextIdBytes();
+        for (int i = 2; i < 13; i++) {
+            assertEquals(first[i], second[i]);
+        }
+        assertEquals((byte) (first[0] + 1), second[0]);
+    }
+}
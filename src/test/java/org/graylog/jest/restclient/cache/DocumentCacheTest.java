@@ -0,0 +1,225 @@
+package org.graylog.jest.restclient.cache;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.searchbox.core.Bulk;
+import io.searchbox.core.Delete;
+import io.searchbox.core.Doc;
+import io.searchbox.core.DocumentResult;
+import io.searchbox.core.Get;
+import io.searchbox.core.Index;
+import io.searchbox.core.MultiGet;
+import io.searchbox.core.Update;
+import io.searchbox.params.Parameters;
+import org.graylog.jest.restclient.http.AbstractMockServerTest;
+import org.graylog.jest.restclient.http.MockElasticsearchServer.MockResponse;
+import org.graylog.jest.restclient.http.MockElasticsearchServer.RecordedRequest;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DocumentCacheTest extends AbstractMockServerTest {
+
+    // documents of the index "config" of type "entry" by id
+    private final Map<String, JsonObject> sources = new ConcurrentHashMap<>();
+    private final Map<String, Long> versions = new ConcurrentHashMap<>();
+    private DocumentCache cache;
+
+    private void start(DocumentCache documentCache) {
+        cache = documentCache;
+        server.setHandler(this::handle);
+        client = createClient(clientConfig().documentCache(documentCache).build());
+    }
+
+    private MockResponse handle(RecordedRequest request) {
+        final String[] path = request.getPath().substring(1).split("/");
+        if (path[path.length - 1].equals("_mget")) {
+            final JsonArray docs = new JsonArray();
+            for (JsonElement doc : new JsonParser().parse(request.body).getAsJsonObject().getAsJsonArray("docs")) {
+                docs.add(document(doc.getAsJsonObject().get("_id").getAsString()));
+            }
+            final JsonObject response = new JsonObject();
+            response.add("docs", docs);
+            return MockResponse.json(200, response.toString());
+        }
+        if (path[path.length - 1].equals("_bulk")) {
+            final String id = new JsonParser().parse(request.body.split("\n")[0]).getAsJsonObject()
+                    .getAsJsonObject("index").get("_id").getAsString();
+            write(id, new JsonParser().parse(request.body.split("\n")[1]).getAsJsonObject());
+            return MockResponse.json(200, "{\"took\":1,\"errors\":false,\"items\":[{\"index\":" + meta(id) + "}]}");
+        }
+        final String id = path[2];
+        if (request.method.equals("GET")) {
+            final JsonObject doc = document(id);
+            return MockResponse.json(doc.get("found").getAsBoolean() ? 200 : 404, doc.toString());
+        }
+        if (request.method.equals("DELETE")) {
+            sources.remove(id);
+            versions.merge(id, 1L, Long::sum);
+            return MockResponse.json(200, meta(id).toString());
+        }
+        if (path.length > 3 && path[3].equals("_update")) {
+            final JsonObject source = sources.get(id);
+            for (Map.Entry<String, JsonElement> field : new JsonParser().parse(request.body).getAsJsonObject().getAsJsonObject("doc").entrySet()) {
+                source.add(field.getKey(), field.getValue());
+            }
+            write(id, source);
+            return MockResponse.json(200, meta(id).toString());
+        }
+        write(id, new JsonParser().parse(request.body).getAsJsonObject());
+        return MockResponse.json(201, meta(id).toString());
+    }
+
+    private void write(String id, JsonObject source) {
+        sources.put(id, source);
+        versions.merge(id, 1L, Long::sum);
+    }
+
+    private JsonObject meta(String id) {
+        final JsonObject meta = new JsonObject();
+        meta.addProperty("_index", "config");
+        meta.addProperty("_type", "entry");
+        meta.addProperty("_id", id);
+        meta.addProperty("_version", versions.getOrDefault(id, 1L));
+        return meta;
+    }
+
+    private JsonObject document(String id) {
+        final JsonObject doc = meta(id);
+        final JsonObject source = sources.get(id);
+        doc.addProperty("found", source != null);
+        if (source != null) {
+            doc.add("_source", source);
+        } else {
+            doc.remove("_version");
+        }
+        return doc;
+    }
+
+    private long requests(String method) {
+        return server.getRequests().stream()
+                .filter(request -> request.method.equals(method) && !request.getPath().endsWith("/_mget"))
+                .count();
+    }
+
+    private DocumentResult get(String id) throws Exception {
+        return client.execute(new Get.Builder("config", id).type("entry").build());
+    }
+
+    private static JsonObject source(String value) {
+        final JsonObject source = new JsonObject();
+        source.addProperty("value", value);
+        return source;
+    }
+
+    @Test
+    public void answersRepeatedGetsFromCache() throws Exception {
+        start(DocumentCache.builder().build());
+        write("a", source("1"));
+
+        final DocumentResult first = get("a");
+        final DocumentResult second = get("a");
+
+        assertTrue(second.isSucceeded());
+        assertEquals(first.getSourceAsString(), second.getSourceAsString());
+        assertEquals("a", second.getId());
+        assertEquals(1, requests("GET"));
+        assertEquals(1, cache.getStats().getHits());
+        assertEquals(1, cache.getStats().getMisses());
+    }
+
+    @Test
+    public void cachesMissingDocuments() throws Exception {
+        start(DocumentCache.builder().build());
+
+        assertEquals(404, get("missing").getResponseCode());
+        final DocumentResult cached = get("missing");
+
+        assertFalse(cached.isSucceeded());
+        assertEquals(404, cached.getResponseCode());
+        assertEquals(1, requests("GET"));
+    }
+
+    @Test
+    public void writesIndexedSourceThrough() throws Exception {
+        start(DocumentCache.builder().build());
+        write("a", source("1"));
+        get("a");
+
+        client.execute(new Index.Builder(source("2").toString()).index("config").type("entry").id("a").build());
+        final DocumentResult result = get("a");
+
+        assertEquals("2", result.getJsonObject().getAsJsonObject("_source").get("value").getAsString());
+        assertEquals(2, result.getJsonObject().get("_version").getAsLong());
+        assertEquals(1, requests("GET"));
+    }
+
+    @Test
+    public void fetchesUpdatedAndKnowsDeletedDocuments() throws Exception {
+        start(DocumentCache.builder().build());
+        write("a", source("1"));
+        get("a");
+
+        client.execute(new Update.Builder("{\"doc\":{\"value\":\"2\"}}").index("config").type("entry").id("a").build());
+        assertEquals("2", get("a").getJsonObject().getAsJsonObject("_source").get("value").getAsString());
+        assertEquals(2, requests("GET"));
+
+        client.execute(new Delete.Builder("a").index("config").type("entry").build());
+        assertEquals(404, get("a").getResponseCode());
+        assertEquals(2, requests("GET"));
+    }
+
+    @Test
+    public void fillsFromMultiGetAndInvalidatesByBulk() throws Exception {
+        start(DocumentCache.builder().build());
+        write("a", source("1"));
+        write("b", source("1"));
+
+        client.execute(new MultiGet.Builder.ByDoc(Arrays.asList(new Doc("config", "entry", "a"), new Doc("config", "entry", "b"))).build());
+        get("a");
+        get("b");
+        assertEquals(0, requests("GET"));
+
+        client.execute(new Bulk.Builder().addAction(new Index.Builder(source("2").toString()).index("config").type("entry").id("a").build()).build());
+        assertEquals("2", get("a").getJsonObject().getAsJsonObject("_source").get("value").getAsString());
+        get("b");
+        assertEquals(1, requests("GET"));
+    }
+
+    @Test
+    public void doesNotCacheGetsWithParameters() throws Exception {
+        start(DocumentCache.builder().build());
+        write("a", source("1"));
+        final Get routed = new Get.Builder("config", "a").type("entry").setParameter(Parameters.ROUTING, "r").build();
+
+        client.execute(routed);
+        client.execute(routed);
+
+        assertEquals(2, requests("GET"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void keepsSourcesOffHeapWithinMaximumBytes() throws Exception {
+        start(DocumentCache.builder().offHeap(true).maximumBytes(2000).build());
+        for (int i = 0; i < 20; i++) {
+            write("doc-" + i, source(new String(new char[100]).replace('\0', 'x')));
+            get("doc-" + i);
+        }
+
+        assertTrue(cache.getWeight() <= 2000);
+        assertTrue(cache.getStats().getEvictions() > 0);
+        assertTrue(cache.getOffHeapBytes() > 0);
+        assertEquals(cache.size() * 112L, cache.getOffHeapBytes());
+        assertEquals(new String(new char[100]).replace('\0', 'x'),
+                get("doc-19").getJsonObject().getAsJsonObject("_source").get("value").getAsString());
+    }
+}
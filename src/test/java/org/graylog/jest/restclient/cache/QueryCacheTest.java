@@ -0,0 +1,150 @@
+package org.graylog.jest.restclient.cache;
+
+import io.searchbox.core.Bulk;
+import io.searchbox.core.Count;
+import io.searchbox.core.Index;
+import io.searchbox.core.Search;
+import io.searchbox.core.SearchResult;
+import io.searchbox.indices.Refresh;
+import org.graylog.jest.restclient.http.AbstractMockServerTest;
+import org.graylog.jest.restclient.http.MockElasticsearchServer.MockResponse;
+import org.graylog.jest.restclient.http.MockElasticsearchServer.RecordedRequest;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class QueryCacheTest extends AbstractMockServerTest {
+
+    private final AtomicInteger searches = new AtomicInteger();
+    private QueryCache cache;
+
+    private void start(QueryCache queryCache) {
+        cache = queryCache;
+        server.setHandler(this::handle);
+        client = createClient(clientConfig().queryCache(queryCache).build());
+    }
+
+    // every search response carries the number of searches so far as total
+    private MockResponse handle(RecordedRequest request) {
+        final String path = request.getPath();
+        if (path.endsWith("/_search")) {
+            return MockResponse.json(200, "{\"hits\":{\"total\":" + searches.incrementAndGet() + ",\"hits\":[]}}");
+        }
+        if (path.endsWith("/_count")) {
+            return MockResponse.json(200, "{\"count\":" + searches.incrementAndGet() + "}");
+        }
+        if (path.endsWith("/_bulk")) {
+            return MockResponse.json(200, "{\"took\":1,\"errors\":false,\"items\":["
+                    + "{\"index\":{\"_index\":\"logs-1\",\"_type\":\"message\",\"_id\":\"1\",\"status\":201}}]}");
+        }
+        if (path.endsWith("/_refresh")) {
+            return MockResponse.json(200, "{\"_shards\":{\"total\":1,\"successful\":1,\"failed\":0}}");
+        }
+        return MockResponse.json(201, "{\"_index\":\"logs-1\",\"_type\":\"message\",\"_id\":\"1\",\"created\":true}");
+    }
+
+    private long search(String index) throws Exception {
+        final SearchResult result = client.execute(new Search.Builder("{\"query\":{\"match_all\":{}}}").addIndex(index).build());
+        assertTrue(result.getErrorMessage(), result.isSucceeded());
+        return result.getTotal();
+    }
+
+    private void index(String index) throws Exception {
+        client.execute(new Index.Builder(Collections.singletonMap("message", "hello")).index(index).type("message").id("1").build());
+    }
+
+    @Test
+    public void answersRepeatedSearchesFromCache() throws Exception {
+        start(QueryCache.builder().build());
+
+        assertEquals(1, search("logs-1"));
+        assertEquals(1, search("logs-1"));
+        assertEquals(2, search("logs-2"));
+        final SearchResult first = client.execute(new Search.Builder("{}").addIndex("logs-1").build());
+        final SearchResult second = client.execute(new Search.Builder("{}").addIndex("logs-1").build());
+
+        assertNotSame(first, second);
+        assertEquals(first.getTotal(), second.getTotal());
+        assertEquals(3, searches.get());
+        assertEquals(2, cache.getStats().getHits());
+        assertEquals(3, cache.getStats().getMisses());
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void invalidatesIndicesWrittenByClient() throws Exception {
+        start(QueryCache.builder().build());
+        search("logs-1");
+        search("logs-2");
+
+        index("logs-1");
+
+        assertEquals(3, search("logs-1"));
+        assertEquals(2, search("logs-2"));
+        assertEquals(1, cache.getStats().getInvalidations());
+    }
+
+    @Test
+    public void invalidatesIndicesOfBulkItemsAndRefreshes() throws Exception {
+        start(QueryCache.builder().build());
+        search("logs-1");
+        search("logs-2");
+        client.execute(new Count.Builder().addIndex("logs-2").build());
+
+        client.execute(new Bulk.Builder().addAction(new Index.Builder("{}").index("logs-1").type("message").id("1").build()).build());
+        assertEquals(4, search("logs-1"));
+        assertEquals(2, search("logs-2"));
+
+        client.execute(new Refresh.Builder().addIndex("logs-2").build());
+        assertEquals(5, search("logs-2"));
+
+        client.execute(new Refresh.Builder().build());
+        assertEquals(6, search("logs-1"));
+    }
+
+    @Test
+    public void invalidatesPatternSearchesOnAnyWrite() throws Exception {
+        start(QueryCache.builder().build());
+        assertEquals(1, search("logs-*"));
+        assertEquals(1, search("logs-*"));
+
+        index("other");
+
+        assertEquals(2, search("logs-*"));
+    }
+
+    @Test
+    public void expiresEntriesPerIndexTtl() throws Exception {
+        start(QueryCache.builder()
+                .ttl("logs-1", 50, TimeUnit.MILLISECONDS)
+                .ttl("live-*", 0, TimeUnit.MILLISECONDS)
+                .build());
+        search("logs-1");
+        search("live-1");
+        assertEquals(3, search("live-1"));
+
+        Thread.sleep(100);
+
+        assertEquals(4, search("logs-1"));
+        assertEquals(1, cache.getStats().getExpirations());
+    }
+
+    @Test
+    public void findsIndicesOfUrls() {
+        assertArrayEquals(new String[]{"logs-1", "logs-2"}, QueryCache.indicesOf("/logs-1,logs-2/message/_search?size=1"));
+        assertArrayEquals(new String[]{"logs"}, QueryCache.indicesOf("logs"));
+        assertNull(QueryCache.indicesOf("/_search"));
+        assertNull(QueryCache.indicesOf("/logs-*/_search"));
+        assertNull(QueryCache.indicesOf("/_all/_refresh"));
+        assertEquals(Collections.singleton("logs-1"), QueryCache.indicesOfResponse(
+                "{\"items\":[{\"index\":{\"_index\":\"logs-1\",\"_id\":\"1\"}},{\"delete\":{\"_index\":\"logs-1\"}}]}"));
+    }
+}
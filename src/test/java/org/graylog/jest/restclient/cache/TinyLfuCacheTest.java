@@ -0,0 +1,80 @@
+package org.graylog.jest.restclient.cache;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TinyLfuCacheTest {
+
+    private final List<Integer> evicted = new ArrayList<>();
+    private final List<Integer> removed = new ArrayList<>();
+
+    private TinyLfuCache<Integer, String> cache(int maximumSize) {
+        return new TinyLfuCache<>(maximumSize, (key, value, isEvicted) -> (isEvicted ? evicted : removed).add(key));
+    }
+
+    @Test
+    public void staysWithinMaximumSize() {
+        final TinyLfuCache<Integer, String> cache = cache(100);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(i, "value-" + i);
+        }
+
+        assertEquals(100, cache.size());
+        assertEquals(900, evicted.size());
+        assertTrue(removed.isEmpty());
+    }
+
+    @Test
+    public void keepsFrequentlyUsedEntriesDuringScan() {
+        final TinyLfuCache<Integer, String> cache = cache(100);
+        for (int i = 0; i < 50; i++) {
+            cache.put(i, "hot-" + i);
+        }
+        // a scan over many keys accessed once, while the hot keys keep being used
+        for (int i = 0; i < 10000; i++) {
+            cache.put(1000 + i, "cold-" + i);
+            cache.get(i % 50);
+        }
+
+        int hot = 0;
+        for (int i = 0; i < 50; i++) {
+            if (cache.get(i) != null) {
+                hot++;
+            }
+        }
+        assertTrue("hot entries left: " + hot, hot >= 45);
+    }
+
+    @Test
+    public void replacesAndRemovesEntries() {
+        final TinyLfuCache<Integer, String> cache = cache(10);
+        cache.put(1, "a");
+        cache.put(1, "b");
+        assertEquals("b", cache.get(1));
+        assertEquals(1, removed.size());
+
+        assertEquals("b", cache.remove(1));
+        assertNull(cache.get(1));
+        cache.put(2, "c");
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(3, removed.size());
+        assertTrue(evicted.isEmpty());
+    }
+
+    @Test
+    public void holdsSingleEntry() {
+        final TinyLfuCache<Integer, String> cache = cache(1);
+        cache.put(1, "a");
+        cache.put(2, "b");
+
+        assertEquals(1, cache.size());
+        assertEquals("b", cache.get(2));
+    }
+}
@@ -0,0 +1,129 @@
+package org.graylog.jest.restclient.decoding;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import io.searchbox.core.Bulk;
+import io.searchbox.core.BulkResult;
+import org.graylog.jest.restclient.bulk.BulkResponses;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LazyBulkResultTest {
+
+    private static final String REQUEST = "{\"index\":{\"_index\":\"twitter\",\"_type\":\"tweet\",\"_id\":\"1\"}}\n{}\n"
+            + "{\"delete\":{\"_index\":\"twitter\",\"_type\":\"tweet\",\"_id\":\"2\"}}\n"
+            + "{\"update\":{\"_index\":\"twitter\",\"_type\":\"tweet\",\"_id\":\"3\"}}\n{\"doc\":{}}\n"
+            + "{\"index\":{\"_index\":\"twitter\",\"_type\":\"tweet\",\"_id\":\"4\"}}\n{}\n";
+
+    private final Gson gson = new Gson();
+
+    private BulkResult expected(String body, int statusCode, String reasonPhrase) {
+        return new Bulk.Builder().build().createNewElasticSearchResult(body, statusCode, reasonPhrase, gson);
+    }
+
+    private static void assertSameResult(BulkResult expected, BulkResult actual) {
+        assertEquals(expected.isSucceeded(), actual.isSucceeded());
+        assertEquals(expected.getErrorMessage(), actual.getErrorMessage());
+        assertEquals(expected.getResponseCode(), actual.getResponseCode());
+        assertEquals(expected.getFailedItems(), actual.getFailedItems());
+        assertEquals(expected.getItems(), actual.getItems());
+        assertEquals(expected.getJsonObject(), actual.getJsonObject());
+    }
+
+    @Test
+    public void skipsItemsWithoutErrors() {
+        final String body = BulkResponses.successful(REQUEST);
+        final LazyBulkResult result = LazyBulkResult.decode(body, 200, "OK", gson);
+
+        assertTrue(result.isSucceeded());
+        assertNull(result.getErrorMessage());
+        assertFalse(result.hasErrors());
+        assertEquals(1, result.getTook());
+        assertEquals(Collections.emptyList(), result.getFailedPositions());
+        assertTrue(result.getFailedItems().isEmpty());
+        assertEquals(body, result.getJsonString());
+        assertSameResult(expected(body, 200, "OK"), result);
+    }
+
+    @Test
+    public void extractsOnlyFailedItems() {
+        final String body = BulkResponses.withStatus(REQUEST, i -> i % 2 == 1 ? 429 : 200);
+        final LazyBulkResult result = LazyBulkResult.decode(body, 200, "OK", gson);
+
+        assertFalse(result.isSucceeded());
+        assertTrue(result.hasErrors());
+        assertEquals(Arrays.asList(1, 3), result.getFailedPositions());
+        assertEquals(2, result.getFailedItems().size());
+        assertEquals("2", result.getFailedItems().get(0).id);
+        assertEquals("delete", result.getFailedItems().get(0).operation);
+        assertEquals("es_rejected_execution_exception", result.getFailedItems().get(1).errorType);
+        assertSameResult(expected(body, 200, "OK"), LazyBulkResult.decode(body, 200, "OK", gson));
+    }
+
+    @Test
+    public void reflectsChangesOfTheJsonTree() {
+        final String body = BulkResponses.withStatus(REQUEST, i -> i == 0 ? 429 : 200);
+        final LazyBulkResult result = LazyBulkResult.decode(body, 200, "OK", gson);
+
+        result.getJsonObject().getAsJsonArray("items").set(0,
+                new JsonParser().parse("{\"index\":{\"_index\":\"twitter\",\"_type\":\"tweet\",\"_id\":\"1\",\"status\":201}}"));
+
+        assertEquals(Collections.emptyList(), result.getFailedPositions());
+        assertTrue(result.getFailedItems().isEmpty());
+    }
+
+    @Test
+    public void parsesHttpErrorsLikeBulk() {
+        final String body = "{\"error\":{\"type\":\"illegal_argument_exception\",\"reason\":\"bad\"},\"status\":400}";
+        final LazyBulkResult result = LazyBulkResult.decode(body, 400, "Bad Request", gson);
+
+        assertFalse(result.isSucceeded());
+        assertEquals("400 Bad Request", result.getErrorMessage());
+        assertEquals(expected(body, 400, "Bad Request").getJsonObject(), result.getJsonObject());
+    }
+
+    @Test
+    public void mergesPartsWithoutReadingTheirItems() {
+        final String[] lines = REQUEST.split("\n");
+        // items 0 and 1, item 1 failed
+        final String first = lines[0] + "\n" + lines[1] + "\n" + lines[2] + "\n";
+        // items 2 and 3
+        final String second = lines[3] + "\n" + lines[4] + "\n" + lines[5] + "\n" + lines[6] + "\n";
+        final LazyBulkResult.Merger merger = new LazyBulkResult.Merger(5, gson);
+        assertTrue(merger.add(Arrays.asList(0, 1), LazyBulkResult.decode(BulkResponses.withStatus(first, i -> i == 1 ? 429 : 201), 200, "OK", gson)));
+        assertTrue(merger.add(Arrays.asList(2, 4), LazyBulkResult.decode(BulkResponses.successful(second), 200, "OK", gson)));
+        assertFalse(merger.add(Collections.singletonList(3), LazyBulkResult.decode("{\"error\":\"unavailable\",\"status\":503}", 503, "Service Unavailable", gson)));
+        merger.set(3, new JsonParser().parse("{\"index\":{\"_index\":\"twitter\",\"_type\":\"tweet\",\"_id\":\"5\","
+                + "\"status\":503,\"error\":{\"type\":\"bulk_failed_exception\",\"reason\":\"unavailable\"}}}").getAsJsonObject());
+
+        final LazyBulkResult result = merger.merge(200, 2);
+
+        assertFalse(result.isSucceeded());
+        assertTrue(result.hasErrors());
+        assertEquals(5, result.getItemCount());
+        assertEquals(Arrays.asList(1, 3), result.getFailedPositions());
+        assertEquals("2", result.getFailedItems().get(0).id);
+        assertEquals("bulk_failed_exception", result.getFailedItems().get(1).errorType);
+
+        final List<BulkResult.BulkResultItem> items = result.getItems();
+        assertEquals(Arrays.asList("1", "2", "3", "5", "4"), items.stream().map(item -> item.id).collect(Collectors.toList()));
+        assertEquals(2, result.getJsonObject().get("took").getAsLong());
+        assertEquals(Arrays.asList(1, 3), result.getFailedPositions());
+        assertSameResult(expected(result.getJsonString(), 200, "OK"), result);
+    }
+
+    @Test(expected = JsonSyntaxException.class)
+    public void rejectsMalformedResponses() {
+        LazyBulkResult.decode("{\"took\":1,\"errors\":tru", 200, "OK", gson);
+    }
+}
@@ -0,0 +1,139 @@
+package org.graylog.jest.restclient.decoding;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import io.searchbox.core.DocumentResult;
+import io.searchbox.core.MultiGet;
+import io.searchbox.core.MultiSearch;
+import io.searchbox.core.Search;
+import io.searchbox.core.SearchResult;
+import org.graylog.jest.restclient.http.AbstractMockServerTest;
+import org.graylog.jest.restclient.http.MockElasticsearchServer.MockResponse;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MultiResponseDecoderTest extends AbstractMockServerTest {
+
+    private static final String MULTI_SEARCH_RESPONSE = "{\"took\":3,\"responses\":["
+            + "{\"took\":1,\"hits\":{\"total\":1,\"hits\":[{\"_index\":\"logs\",\"_type\":\"message\",\"_id\":\"1\",\"_source\":{\"n\":1}}]},\"status\":200},"
+            + "{\"error\":{\"type\":\"index_not_found_exception\"},\"status\":404},"
+            + "{\"took\":2,\"hits\":{\"total\":0,\"hits\":[]},\"status\":200}"
+            + "]}";
+
+    private static final String MULTI_GET_RESPONSE = "{\"docs\":["
+            + "{\"_index\":\"logs\",\"_type\":\"message\",\"_id\":\"1\",\"_version\":1,\"found\":true,\"_source\":{\"n\":1}},"
+            + "{\"_index\":\"logs\",\"_type\":\"message\",\"_id\":\"2\",\"found\":false}"
+            + "]}";
+
+    private final Gson gson = new Gson();
+
+    @Test
+    public void decodesSearchesInOrder() throws Exception {
+        final List<SearchResult> results = new ArrayList<>();
+
+        final int count = MultiResponseDecoder.multiSearch(gson).decode(new StringReader(MULTI_SEARCH_RESPONSE), (position, result) -> {
+            assertEquals(results.size(), position);
+            results.add(result);
+        });
+
+        assertEquals(3, count);
+        assertTrue(results.get(0).isSucceeded());
+        assertEquals(1, results.get(0).getTotal().longValue());
+        assertEquals("{\"n\":1}", results.get(0).getSourceAsString());
+        assertFalse(results.get(1).isSucceeded());
+        assertEquals(404, results.get(1).getResponseCode());
+        assertTrue(results.get(1).getErrorMessage(), results.get(1).getErrorMessage().contains("index_not_found_exception"));
+        assertTrue(results.get(2).isSucceeded());
+        assertEquals(0, results.get(2).getTotal().longValue());
+    }
+
+    @Test
+    public void decodesDocumentsWithMissingOnesAsNotFound() throws Exception {
+        final List<DocumentResult> results = new ArrayList<>();
+
+        MultiResponseDecoder.multiGet(gson).decode(new StringReader(MULTI_GET_RESPONSE), (position, result) -> results.add(result));
+
+        assertEquals(2, results.size());
+        assertTrue(results.get(0).isSucceeded());
+        assertEquals("1", results.get(0).getId());
+        assertEquals("{\"n\":1}", results.get(0).getSourceAsString());
+        assertFalse(results.get(1).isSucceeded());
+        assertEquals(404, results.get(1).getResponseCode());
+        assertEquals("2", results.get(1).getId());
+    }
+
+    @Test
+    public void stopsWithHandlerException() throws Exception {
+        final List<Integer> positions = new ArrayList<>();
+        try {
+            MultiResponseDecoder.multiSearch(gson).decode(new StringReader(MULTI_SEARCH_RESPONSE), (position, result) -> {
+                positions.add(position);
+                if (position == 1) {
+                    throw new IOException("stop");
+                }
+            });
+            fail("expected exception");
+        } catch (IOException e) {
+            assertEquals("stop", e.getMessage());
+        }
+        assertEquals(Arrays.asList(0, 1), positions);
+    }
+
+    @Test(expected = JsonSyntaxException.class)
+    public void rejectsMalformedResponse() throws Exception {
+        MultiResponseDecoder.multiGet(gson).decode(new StringReader("{\"docs\":[1]}"), (position, result) -> { });
+    }
+
+    @Test
+    public void executesStreamingRequests() throws Exception {
+        server.setHandler(request -> request.getPath().endsWith("/_msearch")
+                ? MockResponse.json(200, MULTI_SEARCH_RESPONSE)
+                : MockResponse.json(400, "{\"error\":\"bad request\",\"status\":400}"));
+        final MultiSearch multiSearch = new MultiSearch.Builder(Arrays.asList(
+                new Search.Builder("{}").addIndex("logs").build(),
+                new Search.Builder("{}").addIndex("missing").build(),
+                new Search.Builder("{}").addIndex("logs").build())).build();
+        final List<SearchResult> results = new ArrayList<>();
+
+        assertEquals(3, (int) client.executeStreaming(multiSearch, (position, result) -> results.add(result)).get(10, TimeUnit.SECONDS));
+        assertEquals(3, results.size());
+
+        final MultiGet multiGet = new MultiGet.Builder.ById("logs", "message").addId("1").build();
+        try {
+            client.executeStreaming(multiGet, (position, result) -> { }).get(10, TimeUnit.SECONDS);
+            fail("expected failure");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage(), e.getCause().getMessage().contains("400"));
+        }
+    }
+
+    @Test
+    public void callsStreamingHandlerOnExecutor() throws Exception {
+        server.setHandler(request -> MockResponse.json(200, MULTI_GET_RESPONSE));
+        final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "handler"));
+        try {
+            final MultiGet multiGet = new MultiGet.Builder.ById("logs", "message").addId("1").addId("2").build();
+            final List<String> threads = new ArrayList<>();
+
+            assertEquals(2, (int) client.executeStreaming(multiGet, (position, result) -> threads.add(Thread.currentThread().getName()),
+                    executor).get(10, TimeUnit.SECONDS));
+            assertEquals(Arrays.asList("handler", "handler"), threads);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package org.graylog.jest.restclient.encoding;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParser;
+import io.searchbox.action.BulkableAction;
+import io.searchbox.core.Bulk;
+import io.searchbox.core.BulkResult;
+import io.searchbox.core.Delete;
+import io.searchbox.core.Index;
+import io.searchbox.core.Update;
+import io.searchbox.params.Parameters;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.nio.ContentEncoder;
+import org.graylog.jest.restclient.bulk.BulkResponses;
+import org.graylog.jest.restclient.http.AbstractMockServerTest;
+import org.graylog.jest.restclient.http.JestHttpClient;
+import org.graylog.jest.restclient.http.MockElasticsearchServer.MockResponse;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BulkEncoderTest extends AbstractMockServerTest {
+
+    private final Gson gson = new Gson();
+
+    private static List<BulkableAction> actions() {
+        return Arrays.asList(
+                new Index.Builder("{\"message\":\"hello\"}").index("twitter").type("tweet").id("1").build(),
+                new Index.Builder("{\"message\":\"grüße ☃ 😀\"}").id("2")
+                        .setParameter(Parameters.VERSION, 3).build(),
+                new Update.Builder("{\"doc\":{\"a\":1}}").index("twitter").type("tweet").id("3")
+                        .setParameter(Parameters.RETRY_ON_CONFLICT, 2).build(),
+                new Delete.Builder("4").index("twitter").type("tweet").build(),
+                new Index.Builder("{\"message\":\"no id\"}").index("other").type("doc").build());
+    }
+
+    private static String contentOf(DirectBulkEntity entity) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entity.writeTo(out);
+        return out.toString("UTF-8");
+    }
+
+    private void assertSameLines(String expected, String actual) {
+        final String[] expectedLines = expected.split("\n");
+        final String[] actualLines = actual.split("\n");
+        assertEquals(expectedLines.length, actualLines.length);
+        final JsonParser parser = new JsonParser();
+        for (int i = 0; i < expectedLines.length; i++) {
+            assertEquals(parser.parse(expectedLines[i]), parser.parse(actualLines[i]));
+        }
+        assertTrue(actual.endsWith("\n"));
+    }
+
+    @Test
+    public void encodesSameLinesAsBulk() throws Exception {
+        final String expected = new Bulk.Builder().addAction(actions()).build().getData(gson);
+        final BulkEncoder encoder = new BulkEncoder(new ByteBufferPool(4096, 4));
+
+        final DirectBulkEntity entity = encoder.encode(actions(), gson);
+
+        final String actual = contentOf(entity);
+        assertSameLines(expected, actual);
+        assertEquals(expected.getBytes(StandardCharsets.UTF_8).length, entity.getContentLength());
+    }
+
+    @Test
+    public void splitsContentAcrossSmallChunks() throws Exception {
+        final String expected = new Bulk.Builder().addAction(actions()).build().getData(gson);
+        final ByteBufferPool pool = new ByteBufferPool(7, 100);
+        final DirectBulkEntity entity = new BulkEncoder(pool).encode(actions(), gson);
+
+        assertSameLines(expected, contentOf(entity));
+        assertSameLines(expected, IOUtils.toString(entity.getContent(), StandardCharsets.UTF_8));
+        assertTrue(pool.getAllocatedBuffers() > 10);
+    }
+
+    @Test
+    public void producesContentAcrossPartialWritesAndRepeats() throws Exception {
+        final String expected = new Bulk.Builder().addAction(actions()).build().getData(gson);
+        final DirectBulkEntity entity = new BulkEncoder(new ByteBufferPool(64, 100)).encode(actions(), gson);
+
+        for (int attempt = 0; attempt < 2; attempt++) {
+            final LimitedContentEncoder encoder = new LimitedContentEncoder(10);
+            while (!encoder.isCompleted()) {
+                entity.produceContent(encoder, null);
+            }
+            assertSameLines(expected, encoder.content.toString("UTF-8"));
+            entity.close();
+        }
+    }
+
+    @Test
+    public void releasedBuffersAreReused() throws Exception {
+        final ByteBufferPool pool = new ByteBufferPool(64, 100);
+        final BulkEncoder encoder = new BulkEncoder(pool);
+
+        encoder.encode(actions(), gson).release();
+        final long allocated = pool.getAllocatedBuffers();
+        assertEquals(allocated, pool.getPooledBuffers());
+
+        final DirectBulkEntity entity = encoder.encode(actions(), gson);
+        assertEquals(allocated, pool.getAllocatedBuffers());
+        entity.release();
+        entity.release();
+        assertEquals(allocated, pool.getPooledBuffers());
+    }
+
+    @Test
+    public void releasedEntityCannotBeSentAnymore() throws Exception {
+        final DirectBulkEntity entity = new BulkEncoder(new ByteBufferPool(64, 100)).encode(actions(), gson);
+        entity.release();
+
+        try {
+            entity.produceContent(new LimitedContentEncoder(10), null);
+            fail("Expected IOException");
+        } catch (IOException expected) {
+            // expected
+        }
+        try {
+            entity.close();
+            fail("Expected IOException");
+        } catch (IOException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void clientSendsDirectBulkFromPooledBuffers() throws Exception {
+        server.setHandler(request -> MockResponse.json(200, BulkResponses.successful(request.body)));
+        final ByteBufferPool pool = new ByteBufferPool(128, 100);
+        final JestHttpClient directClient = createClient(clientConfig()
+                .directBulkEncoding(pool)
+                .build());
+        final DirectBulk bulk = new DirectBulk.Builder().defaultIndex("twitter").defaultType("tweet")
+                .addAction(actions())
+                .build();
+        final BulkResult result = directClient.execute(bulk);
+        assertTrue(result.getErrorMessage(), result.isSucceeded());
+        assertEquals(5, result.getJsonObject().getAsJsonArray("items").size());
+        assertEquals("/twitter/tweet/_bulk", server.getRequests().get(0).getPath());
+        assertSameLines(bulk.getData(gson), server.getRequests().get(0).body);
+
+        final long allocated = pool.getAllocatedBuffers();
+        assertEquals(allocated, pool.getPooledBuffers());
+        directClient.execute(bulk);
+        assertEquals(allocated, pool.getAllocatedBuffers());
+    }
+
+    private static class LimitedContentEncoder implements ContentEncoder {
+        private final int maxBytesPerWrite;
+        private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        private boolean completed;
+
+        private LimitedContentEncoder(int maxBytesPerWrite) {
+            this.maxBytesPerWrite = maxBytesPerWrite;
+        }
+
+        @Override
+        public int write(ByteBuffer source) {
+            final int length = Math.min(maxBytesPerWrite, source.remaining());
+            for (int i = 0; i < length; i++) {
+                content.write(source.get());
+            }
+            return length;
+        }
+
+        @Override
+        public void complete() {
+            completed = true;
+        }
+
+        @Override
+        public boolean isCompleted() {
+            return completed;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package org.graylog.jest.restclient.encoding;
+
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.http.client.entity.GzipCompressingEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link ParallelGzipCompressor} with the single-threaded {@link GzipCompressingEntity} used for
+ * compressed requests otherwise.
+ * <p>
+ * Not run as part of the test suite. Run the main method with the test classpath, the optional argument being
+ * the payload size in MB (50 by default). The speedup depends on the number of cores.
+ * </p>
+ */
+public class ParallelGzipBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int ITERATIONS = 5;
+
+    public static void main(String[] args) throws Exception {
+        final int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        final byte[] payload = ParallelGzipCompressorTest.payload(megabytes * 1024 * 1024);
+        final ParallelGzipCompressor compressor = ParallelGzipCompressor.builder().build();
+
+        System.out.printf("Payload: %d MB, cores: %d%n", megabytes, Runtime.getRuntime().availableProcessors());
+        run("GzipCompressingEntity", payload, () -> singleThreaded(payload));
+        run("ParallelGzipCompressor", payload, () -> compressor.compress(payload).length);
+    }
+
+    private static long singleThreaded(byte[] payload) throws IOException {
+        final CountingOutputStream out = new CountingOutputStream(new NullOutputStream());
+        new GzipCompressingEntity(new ByteArrayEntity(payload, ContentType.APPLICATION_JSON)).writeTo(out);
+        return out.getByteCount();
+    }
+
+    private static void run(String name, byte[] payload, Compression compression) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            compression.run();
+        }
+        long compressedSize = 0;
+        final long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            compressedSize = compression.run();
+        }
+        final double millis = (double) TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start) / 1000 / ITERATIONS;
+        System.out.printf("%-24s %8.1f ms/op %8.1f MB/s  ratio %.3f%n", name, millis,
+                payload.length / 1024.0 / 1024.0 / (millis / 1000), (double) compressedSize / payload.length);
+    }
+
+    private interface Compression {
+        long run() throws Exception;
+    }
+}
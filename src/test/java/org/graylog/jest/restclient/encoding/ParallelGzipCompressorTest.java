@@ -0,0 +1,110 @@
+package org.graylog.jest.restclient.encoding;
+
+import io.searchbox.core.Bulk;
+import io.searchbox.core.BulkResult;
+import io.searchbox.core.Index;
+import org.apache.commons.io.IOUtils;
+import org.graylog.jest.restclient.bulk.BulkResponses;
+import org.graylog.jest.restclient.http.AbstractMockServerTest;
+import org.graylog.jest.restclient.http.JestHttpClient;
+import org.graylog.jest.restclient.http.MockElasticsearchServer.MockResponse;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ParallelGzipCompressorTest extends AbstractMockServerTest {
+
+    private final ParallelGzipCompressor compressor = ParallelGzipCompressor.builder()
+            .blockSize(64 * 1024)
+            .minPayloadSize(0)
+            .build();
+
+    static byte[] payload(int size) {
+        final Random random = new Random(7);
+        final String[] words = {"message", "timestamp", "source", "level", "INFO", "ERROR", "twitter", "tweet"};
+        final StringBuilder payload = new StringBuilder(size);
+        while (payload.length() < size) {
+            payload.append("{\"index\":{\"_index\":\"logs\",\"_type\":\"doc\"}}\n{\"")
+                    .append(words[random.nextInt(words.length)]).append("\":\"")
+                    .append(words[random.nextInt(words.length)]).append(' ').append(random.nextInt(100000))
+                    .append("\"}\n");
+        }
+        return payload.substring(0, size).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] gunzip(byte[] gzip) throws Exception {
+        return IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(gzip)));
+    }
+
+    private static byte[] gzip(byte[] payload) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(payload);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void compressesToValidGzip() throws Exception {
+        for (int size : new int[]{0, 1, 1000, 64 * 1024, 64 * 1024 + 1, 1024 * 1024 + 17}) {
+            final byte[] payload = payload(size);
+            assertArrayEquals("size " + size, payload, gunzip(compressor.compress(payload)));
+        }
+    }
+
+    @Test
+    public void writesSingleMember() throws Exception {
+        final byte[] payload = payload(1024 * 1024);
+        final byte[] gzip = compressor.compress(payload);
+
+        // a decoder which stops after the first member still sees the whole payload
+        final Inflater inflater = new Inflater(true);
+        inflater.setInput(gzip, 10, gzip.length - 10 - 8);
+        final byte[] inflated = new byte[payload.length + 1];
+        final int length = inflater.inflate(inflated);
+        assertTrue(inflater.finished());
+        assertEquals(0, inflater.getRemaining());
+        assertArrayEquals(payload, Arrays.copyOf(inflated, length));
+        inflater.end();
+    }
+
+    @Test
+    public void compressesAboutAsWellAsSingleThreadedGzip() throws Exception {
+        final byte[] payload = payload(2 * 1024 * 1024);
+        final int parallel = compressor.compress(payload).length;
+        final int single = gzip(payload).length;
+        assertTrue(parallel + " vs " + single, parallel < single * 1.05);
+    }
+
+    @Test
+    public void clientCompressesLargePayloadsInParallel() throws Exception {
+        server.setHandler(request -> MockResponse.json(200, BulkResponses.successful(request.body)));
+        final JestHttpClient compressingClient = createClient(clientConfig()
+                .requestCompressionEnabled(true)
+                .parallelRequestCompression(ParallelGzipCompressor.builder().blockSize(32 * 1024).minPayloadSize(100 * 1024).build())
+                .build());
+        final Bulk.Builder builder = new Bulk.Builder();
+        for (int i = 0; i < 2000; i++) {
+            builder.addAction(new Index.Builder("{\"message\":\"" + new String(payload(100), StandardCharsets.UTF_8)
+                    .replaceAll("[\"\\n\\\\]", " ") + "\"}").index("logs").type("doc").id(Integer.toString(i)).build());
+        }
+        final Bulk bulk = builder.build();
+
+        final BulkResult result = compressingClient.execute(bulk);
+
+        assertTrue(result.getErrorMessage(), result.isSucceeded());
+        assertTrue(server.getRequests().get(0).gzipped);
+        assertEquals(bulk.getData(compressingClient.getGson()), server.getRequests().get(0).body);
+    }
+}
@@ -0,0 +1,53 @@
+package org.graylog.jest.restclient.http;
+
+import org.graylog.jest.restclient.JestClientFactory;
+import org.graylog.jest.restclient.config.HttpClientConfig;
+import org.junit.After;
+import org.junit.Before;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Base of tests running a {@link JestHttpClient} against a {@link MockElasticsearchServer}. Tests set the handler of
+ * the server in their own <code>@Before</code> method, which runs once server and client have been started; their
+ * <code>@After</code> methods run before both are stopped.
+ */
+public abstract class AbstractMockServerTest {
+
+    private final List<JestHttpClient> clients = new ArrayList<>();
+    protected MockElasticsearchServer server;
+    protected JestHttpClient client;
+
+    @Before
+    public void startServer() throws Exception {
+        server = new MockElasticsearchServer();
+        client = createClient(clientConfig().build());
+    }
+
+    @After
+    public void stopServer() {
+        for (JestHttpClient started : clients) {
+            started.shutdownClient();
+        }
+        server.stop();
+    }
+
+    /**
+     * @return configuration of a multi-threaded client of the server
+     */
+    protected HttpClientConfig.Builder clientConfig() {
+        return new HttpClientConfig.Builder(server.getUrl()).multiThreaded(true);
+    }
+
+    /**
+     * Creates a further client, e.g. with other settings than the default one. It is shut down after the test.
+     */
+    protected JestHttpClient createClient(HttpClientConfig config) {
+        final JestClientFactory factory = new JestClientFactory();
+        factory.setHttpClientConfig(config);
+        final JestHttpClient created = (JestHttpClient) factory.getObject();
+        clients.add(created);
+        return created;
+    }
+}
@@ -0,0 +1,121 @@
+package org.graylog.jest.restclient.http;
+
+import io.searchbox.action.Action;
+import io.searchbox.client.JestResult;
+import io.searchbox.core.Get;
+import io.searchbox.core.Search;
+import io.searchbox.core.SearchResult;
+import org.elasticsearch.client.ResponseException;
+import org.graylog.jest.restclient.scheduling.TenantScheduler;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JestHttpClientExecutionTest extends AbstractMockServerTest {
+
+    @Test
+    public void executeWithTenantScheduler() throws IOException {
+        server.setHandler(request -> request.getPath().endsWith("/missing")
+                ? MockElasticsearchServer.MockResponse.json(404, "{\"found\":false}")
+                : MockElasticsearchServer.MockResponse.json(200, "{\"found\":true}"));
+        final TenantScheduler scheduler = new TenantScheduler.Builder(2).build();
+        final JestHttpClient jestHttpClient = createClient(clientConfig()
+                .tenantScheduler(scheduler)
+                .build());
+        assertEquals(scheduler, jestHttpClient.getTenantScheduler());
+
+        final JestResult found = jestHttpClient.execute("tenant", new Get.Builder("index", "found").build());
+        assertTrue(found.isSucceeded());
+
+        final JestResult missing = jestHttpClient.execute(new Get.Builder("index", "missing").build());
+        assertFalse(missing.isSucceeded());
+        assertEquals(404, missing.getResponseCode());
+
+        assertEquals(1, scheduler.getStats("tenant").getCompletedRequests());
+        assertEquals(1, scheduler.getStats(TenantScheduler.DEFAULT_TENANT).getCompletedRequests());
+        assertEquals(0, scheduler.getInFlightRequests());
+    }
+
+    @Test
+    public void executeAsyncReportsErrorResponsesAsFailures() throws Exception {
+        server.setHandler(request -> MockElasticsearchServer.MockResponse.json(404, "{\"found\":false}"));
+        final JestHttpClient jestHttpClient = createClient(clientConfig()
+                .tenantScheduler(new TenantScheduler.Builder(2).build())
+                .coalesceRequests(Search.class)
+                .build());
+        for (Action<? extends JestResult> action : Arrays.asList(
+                new Get.Builder("index", "missing").build(), new Search.Builder("{}").addIndex("missing").build())) {
+            final JestResultFuture<JestResult> failed = new JestResultFuture<>();
+            jestHttpClient.executeAsync(action, failed);
+            try {
+                failed.getResult();
+                fail("error response should have been reported as failure");
+            } catch (ResponseException e) {
+                assertEquals(404, e.getResponse().getStatusLine().getStatusCode());
+            }
+
+            final JestResultFuture<JestResult> result = new JestResultFuture<>();
+            jestHttpClient.executeAsyncForResult(action, result);
+            assertFalse(result.getResult().isSucceeded());
+            assertEquals(404, result.getResult().getResponseCode());
+
+            assertEquals(404, jestHttpClient.execute(action).getResponseCode());
+        }
+    }
+
+    @Test
+    public void coalesceConcurrentIdenticalSearches() throws Exception {
+        final CountDownLatch requestReceived = new CountDownLatch(1);
+        final CountDownLatch releaseResponse = new CountDownLatch(1);
+        server.setHandler(request -> {
+            requestReceived.countDown();
+            try {
+                releaseResponse.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return MockElasticsearchServer.MockResponse.json(200, "{\"hits\":{\"total\":1,\"hits\":[]}}");
+        });
+        final JestHttpClient jestHttpClient = createClient(clientConfig()
+                .coalesceRequests(Search.class)
+                .build());
+        final List<JestResultFuture<SearchResult>> futures = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            final JestResultFuture<SearchResult> future = new JestResultFuture<>();
+            jestHttpClient.executeAsync(new Search.Builder("{}").addIndex("twitter").build(), future);
+            futures.add(future);
+            requestReceived.await(10, TimeUnit.SECONDS);
+        }
+        releaseResponse.countDown();
+
+        final Set<SearchResult> results = new HashSet<>();
+        for (JestResultFuture<SearchResult> future : futures) {
+            final SearchResult result = future.getResult();
+            assertTrue(result.isSucceeded());
+            assertEquals(Integer.valueOf(1), result.getTotal());
+            results.add(result);
+        }
+        assertEquals("each caller gets its own result", 5, results.size());
+        assertEquals(1, server.getRequests().size());
+
+        final RequestCoalescer.CoalescingStats stats = jestHttpClient.getRequestCoalescer().getStats(Search.class);
+        assertEquals(1, stats.getExchanges());
+        assertEquals(4, stats.getCoalescedRequests());
+
+        // a request issued after the response is not coalesced
+        assertTrue(jestHttpClient.execute(new Search.Builder("{}").addIndex("twitter").build()).isSucceeded());
+        assertEquals(2, server.getRequests().size());
+    }
+}
@@ -0,0 +1,110 @@
+package org.graylog.jest.restclient.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Minimal HTTP server answering requests with canned Elasticsearch responses.
+ */
+public class MockElasticsearchServer {
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final List<RecordedRequest> requests = new CopyOnWriteArrayList<>();
+    private volatile Function<RecordedRequest, MockResponse> handler = request -> MockResponse.json(200, "{}");
+
+    public MockElasticsearchServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public void setHandler(Function<RecordedRequest, MockResponse> handler) {
+        this.handler = handler;
+    }
+
+    public List<RecordedRequest> getRequests() {
+        return requests;
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            final boolean gzipped = "gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"));
+            final InputStream body = gzipped ? new GZIPInputStream(exchange.getRequestBody()) : exchange.getRequestBody();
+            final RecordedRequest request = new RecordedRequest(
+                    exchange.getRequestMethod(),
+                    exchange.getRequestURI().toString(),
+                    IOUtils.toString(body, StandardCharsets.UTF_8),
+                    gzipped);
+            requests.add(request);
+
+            final MockResponse response = handler.apply(request);
+            final byte[] bytes = response.body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", response.contentType);
+            exchange.sendResponseHeaders(response.status, bytes.length == 0 ? -1 : bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    public static class RecordedRequest {
+        public final String method;
+        public final String uri;
+        public final String body;
+        public final boolean gzipped;
+
+        RecordedRequest(String method, String uri, String body, boolean gzipped) {
+            this.method = method;
+            this.uri = uri;
+            this.body = body;
+            this.gzipped = gzipped;
+        }
+
+        public String getPath() {
+            final int query = uri.indexOf('?');
+            return query < 0 ? uri : uri.substring(0, query);
+        }
+    }
+
+    public static class MockResponse {
+        public final int status;
+        public final String body;
+        public final String contentType;
+
+        public MockResponse(int status, String body, String contentType) {
+            this.status = status;
+            this.body = body;
+            this.contentType = contentType;
+        }
+
+        public static MockResponse json(int status, String body) {
+            return new MockResponse(status, body, "application/json; charset=UTF-8");
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package org.graylog.jest.restclient.http;
+
+import io.searchbox.core.Count;
+import io.searchbox.core.Index;
+import io.searchbox.core.Search;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicStatusLine;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RequestCoalescerTest {
+
+    private final RequestCoalescer coalescer = new RequestCoalescer(asList(Search.class, Count.class));
+    private final List<RequestCoalescer.Listener> exchanges = new ArrayList<>();
+
+    private RecordingListener execute(String payload) {
+        final RecordingListener listener = new RecordingListener();
+        coalescer.execute(Search.class, "POST", "/index/_search", Collections.emptyMap(), payload, listener, exchanges::add);
+        return listener;
+    }
+
+    private static BufferedResponse response(String body) {
+        return new BufferedResponse(new BasicStatusLine(HttpVersion.HTTP_1_1, 200, "OK"), "application/json", body);
+    }
+
+    @Test
+    public void enabledForConfiguredActionTypesOnly() {
+        assertTrue(coalescer.isEnabledFor(new Search.Builder("{}").build()));
+        assertTrue(coalescer.isEnabledFor(new Count.Builder().build()));
+        assertFalse(coalescer.isEnabledFor(new Index.Builder("{}").index("index").type("type").build()));
+    }
+
+    @Test
+    public void identicalRequestsShareOneExchange() {
+        final RecordingListener first = execute("{\"query\":1}");
+        final RecordingListener second = execute("{\"query\":1}");
+        final RecordingListener other = execute("{\"query\":2}");
+
+        assertEquals(2, exchanges.size());
+        assertEquals(2, coalescer.getInFlightRequests());
+
+        final BufferedResponse response = response("{}");
+        exchanges.get(0).onResponse(response);
+        assertSame(response, first.response);
+        assertSame(response, second.response);
+        assertEquals(null, other.response);
+        assertEquals(1, coalescer.getInFlightRequests());
+
+        final RequestCoalescer.CoalescingStats stats = coalescer.getStats(Search.class);
+        assertEquals(2, stats.getExchanges());
+        assertEquals(1, stats.getCoalescedRequests());
+    }
+
+    @Test
+    public void completedRequestsAreNotJoined() {
+        final RecordingListener first = execute("{}");
+        exchanges.get(0).onResponse(response("{}"));
+        final RecordingListener second = execute("{}");
+
+        assertEquals(2, exchanges.size());
+        assertEquals(null, second.response);
+        assertEquals(0, coalescer.getStats(Search.class).getCoalescedRequests());
+        assertTrue(first.response != null);
+    }
+
+    @Test
+    public void failuresAreReportedToAllWaiters() {
+        final RecordingListener first = execute("{}");
+        final RecordingListener second = execute("{}");
+        final IOException failure = new IOException("boom");
+        exchanges.get(0).onFailure(failure);
+
+        assertSame(failure, first.failure);
+        assertSame(failure, second.failure);
+        assertEquals(0, coalescer.getInFlightRequests());
+    }
+
+    private static class RecordingListener implements RequestCoalescer.Listener {
+        private BufferedResponse response;
+        private Exception failure;
+
+        @Override
+        public void onResponse(BufferedResponse response) {
+            this.response = response;
+        }
+
+        @Override
+        public void onFailure(Exception ex) {
+            this.failure = ex;
+        }
+    }
+}
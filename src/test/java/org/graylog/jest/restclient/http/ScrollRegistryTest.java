@@ -0,0 +1,157 @@
+package org.graylog.jest.restclient.http;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import io.searchbox.core.ClearScroll;
+import io.searchbox.core.Search;
+import io.searchbox.core.SearchScroll;
+import io.searchbox.params.Parameters;
+import org.graylog.jest.restclient.http.MockElasticsearchServer.MockResponse;
+import org.graylog.jest.restclient.http.MockElasticsearchServer.RecordedRequest;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScrollRegistryTest extends AbstractMockServerTest {
+
+    private final AtomicInteger scrollIds = new AtomicInteger();
+    private final List<List<String>> clearedScrollIds = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() {
+        server.setHandler(this::handle);
+    }
+
+    private MockResponse handle(RecordedRequest request) {
+        if ("DELETE".equals(request.method)) {
+            final List<String> ids = new ArrayList<>();
+            for (JsonElement id : new JsonParser().parse(request.body).getAsJsonObject().getAsJsonArray("scroll_id")) {
+                ids.add(id.getAsString());
+            }
+            clearedScrollIds.add(ids);
+            return MockResponse.json(200, "{\"succeeded\":true,\"num_freed\":" + ids.size() + "}");
+        }
+        return MockResponse.json(200, "{\"_scroll_id\":\"scroll-" + scrollIds.incrementAndGet() + "\",\"hits\":{\"hits\":[]}}");
+    }
+
+    private Search scrollSearch() {
+        return new Search.Builder("{\"query\":{\"match_all\":{}}}")
+                .addIndex("logs")
+                .setParameter(Parameters.SCROLL, "1m")
+                .build();
+    }
+
+    private List<String> awaitClearedScrollIds(int count) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (System.nanoTime() < deadline) {
+            final List<String> cleared = new ArrayList<>();
+            clearedScrollIds.forEach(cleared::addAll);
+            if (cleared.size() >= count) {
+                return cleared;
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError("Expected " + count + " scroll ids to be cleared but got " + clearedScrollIds);
+    }
+
+    @Test
+    public void tracksContextsOpenedReplacedAndCleared() throws Exception {
+        final ScrollRegistry registry = client.getScrollRegistry();
+        client.execute(scrollSearch());
+        client.execute(scrollSearch());
+        assertEquals(2, registry.getLiveContexts());
+        assertEquals(2, registry.getOpenedContexts());
+
+        client.execute(new SearchScroll.Builder("scroll-1", "1m").build());
+        assertEquals(2, registry.getLiveContexts());
+        assertEquals(2, registry.getOpenedContexts());
+
+        client.execute(new ClearScroll.Builder().addScrollId("scroll-2").addScrollId("scroll-3").build());
+        assertEquals(0, registry.getLiveContexts());
+        assertEquals(2, registry.getClearedContexts());
+    }
+
+    @Test
+    public void dropsContextsWhoseKeepAliveHasPassed() throws Exception {
+        final ScrollRegistry registry = client.getScrollRegistry();
+        client.execute(new Search.Builder("{\"query\":{\"match_all\":{}}}")
+                .addIndex("logs")
+                .setParameter(Parameters.SCROLL, "50ms")
+                .build());
+        client.execute(scrollSearch());
+        Thread.sleep(100);
+
+        assertEquals(1, registry.getLiveContexts());
+        assertEquals(1, registry.getExpiredContexts());
+
+        client.shutdownClient();
+        assertEquals(Arrays.asList(Arrays.asList("scroll-2")), clearedScrollIds);
+    }
+
+    @Test
+    public void ignoresSearchesWithoutScroll() throws Exception {
+        server.setHandler(request -> MockResponse.json(200, "{\"hits\":{\"hits\":[]}}"));
+        client.execute(new Search.Builder("{}").addIndex("logs").build());
+        assertEquals(0, client.getScrollRegistry().getLiveContexts());
+    }
+
+    @Test
+    public void clearsLiveContextsOnShutdown() throws Exception {
+        client.execute(scrollSearch());
+        client.execute(scrollSearch());
+        client.shutdownClient();
+
+        assertEquals(1, clearedScrollIds.size());
+        assertEquals(new HashSet<>(Arrays.asList("scroll-1", "scroll-2")), new HashSet<>(clearedScrollIds.get(0)));
+        assertEquals(0, client.getScrollRegistry().getLiveContexts());
+    }
+
+    @Test
+    public void closingScopeClearsItsContextsWithSingleRequest() throws Exception {
+        final Object owner = new Object();
+        final ScrollRegistry.Scope scope = client.getScrollRegistry().open(owner);
+        assertTrue(scope.replace(null, "a-1"));
+        assertTrue(scope.replace(null, "b-1"));
+        assertTrue(scope.replace("a-1", "a-2"));
+
+        scope.close().get(10, TimeUnit.SECONDS);
+        assertEquals(1, clearedScrollIds.size());
+        assertEquals(Arrays.asList("b-1", "a-2"), clearedScrollIds.get(0));
+        assertEquals(0, client.getScrollRegistry().getOpenScopes());
+        assertFalse(scope.replace("b-1", "b-2"));
+    }
+
+    @Test
+    public void clearsContextsOfCollectedOwners() throws Exception {
+        final ScrollRegistry registry = client.getScrollRegistry();
+        openAbandonedScope(registry, "a");
+        openAbandonedScope(registry, "b");
+
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (registry.getAbandonedScopes() < 2 && System.nanoTime() < deadline) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        final List<String> cleared = awaitClearedScrollIds(2);
+
+        assertEquals(2, registry.getAbandonedScopes());
+        assertEquals(0, registry.getOpenScopes());
+        assertEquals(2, cleared.size());
+        assertTrue(cleared.contains("a") && cleared.contains("b"));
+    }
+
+    private static void openAbandonedScope(ScrollRegistry registry, String scrollId) {
+        registry.open(new Object()).replace(null, scrollId);
+    }
+}
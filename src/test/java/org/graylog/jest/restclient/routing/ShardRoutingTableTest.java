@@ -0,0 +1,96 @@
+package org.graylog.jest.restclient.routing;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.apache.http.HttpHost;
+import org.elasticsearch.cluster.routing.Murmur3HashFunction;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ShardRoutingTableTest {
+
+    private static final String NODES = "{\"nodes\":{"
+            + "\"n1\":{\"http\":{\"publish_address\":\"10.0.0.1:9200\"}},"
+            + "\"n2\":{\"http\":{\"publish_address\":\"es-2/10.0.0.2:9201\"}},"
+            + "\"n3\":{\"http_address\":\"inet[/10.0.0.3:9202]\"},"
+            + "\"master\":{}}}";
+
+    private static final String CLUSTER_STATE = "{"
+            + "\"metadata\":{\"indices\":{"
+            + "\"logs\":{\"settings\":{\"index\":{\"number_of_shards\":\"3\"}},\"aliases\":[\"current\",\"all\"]},"
+            + "\"logs-old\":{\"settings\":{\"index.number_of_shards\":\"1\"},\"aliases\":[\"all\"]},"
+            + "\"shrunk\":{\"settings\":{\"index\":{\"number_of_shards\":\"2\"}},\"routing_num_shards\":8},"
+            + "\"partitioned\":{\"settings\":{\"index\":{\"number_of_shards\":\"4\",\"routing_partition_size\":\"2\"}}},"
+            + "\"closed\":{\"settings\":{\"index\":{\"number_of_shards\":\"1\"}}}}},"
+            + "\"routing_table\":{\"indices\":{"
+            + "\"logs\":{\"shards\":{"
+            + "\"0\":[{\"primary\":false,\"node\":\"n1\",\"state\":\"STARTED\"},{\"primary\":true,\"node\":\"n2\",\"state\":\"STARTED\"}],"
+            + "\"1\":[{\"primary\":true,\"node\":\"n3\",\"state\":\"RELOCATING\"}],"
+            + "\"2\":[{\"primary\":true,\"node\":null,\"state\":\"UNASSIGNED\"}]}},"
+            + "\"logs-old\":{\"shards\":{\"0\":[{\"primary\":true,\"node\":\"n1\",\"state\":\"STARTED\"}]}},"
+            + "\"shrunk\":{\"shards\":{\"0\":[{\"primary\":true,\"node\":\"n1\"}],\"1\":[{\"primary\":true,\"node\":\"n2\"}]}},"
+            + "\"partitioned\":{\"shards\":{\"0\":[{\"primary\":true,\"node\":\"n1\"}],\"1\":[{\"primary\":true,\"node\":\"n2\"}],"
+            + "\"2\":[{\"primary\":true,\"node\":\"n3\"}],\"3\":[{\"primary\":true,\"node\":\"n1\"}]}}}}}";
+
+    private final ShardRoutingTable table = ShardRoutingTable.parse(json(CLUSTER_STATE), json(NODES), "http");
+
+    private static JsonObject json(String value) {
+        return new JsonParser().parse(value).getAsJsonObject();
+    }
+
+    @Test
+    public void hashMatchesElasticsearch() {
+        final Murmur3HashFunction expected = new Murmur3HashFunction();
+        final Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            final StringBuilder routing = new StringBuilder();
+            final int length = random.nextInt(20);
+            for (int j = 0; j < length; j++) {
+                routing.append((char) (i % 2 == 0 ? 'a' + random.nextInt(26) : random.nextInt(Character.MAX_VALUE)));
+            }
+            assertEquals(routing.toString(), expected.hash(routing.toString()), Murmur3.hash(routing.toString()));
+        }
+    }
+
+    @Test
+    public void routesToPrimaryOfShard() {
+        for (int i = 0; i < 100; i++) {
+            final String id = Integer.toString(i);
+            final int shard = Math.floorMod(new Murmur3HashFunction().hash(id), 3);
+            assertEquals(shard, table.getShardId("logs", id, null));
+            final HttpHost[] primaries = {HttpHost.create("http://10.0.0.2:9201"), HttpHost.create("http://10.0.0.3:9202"), null};
+            assertEquals(primaries[shard], table.getPrimaryNode("logs", id, null));
+        }
+        assertEquals(table.getShardId("logs", "routing", null), table.getShardId("logs", "1", "routing"));
+        assertEquals(-1, table.getShardId("logs", null, null));
+        assertEquals(3, table.getNodes().size());
+    }
+
+    @Test
+    public void resolvesUniqueAliases() {
+        assertTrue(table.hasIndex("current"));
+        assertEquals(table.getPrimaryNode("logs", "7", null), table.getPrimaryNode("current", "7", null));
+        assertFalse(table.hasIndex("all"));
+        assertFalse(table.hasIndex("closed"));
+        assertNull(table.getPrimaryNode("unknown", "1", null));
+    }
+
+    @Test
+    public void usesRoutingShardsAndPartitions() {
+        for (int i = 0; i < 100; i++) {
+            final String id = Integer.toString(i);
+            assertEquals(Math.floorMod(Murmur3.hash(id), 8) / 4, table.getShardId("shrunk", id, null));
+
+            final int partitioned = table.getShardId("partitioned", id, "user");
+            final int first = Math.floorMod(Murmur3.hash("user"), 4);
+            assertTrue(partitioned == first || partitioned == (first + 1) % 4);
+        }
+        assertEquals(-1, table.getShardId("partitioned", null, "user"));
+    }
+}
@@ -0,0 +1,210 @@
+package org.graylog.jest.restclient.scheduling;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TenantSchedulerTest {
+
+    private final List<String> dispatched = new ArrayList<>();
+    private final List<TenantScheduler.Permit> permits = new ArrayList<>();
+
+    private void submit(TenantScheduler scheduler, String tenant, int count) {
+        for (int i = 0; i < count; i++) {
+            scheduler.submit(tenant, permit -> {
+                dispatched.add(permit.getTenant());
+                permits.add(permit);
+            });
+        }
+    }
+
+    private void releaseFirst(boolean succeeded) {
+        permits.remove(0).release(succeeded);
+    }
+
+    // dispatches released slots on the releasing thread, so the tests can check the order right away
+    private static TenantScheduler.Builder builder(int maxConcurrentRequests) {
+        return new TenantScheduler.Builder(maxConcurrentRequests).dispatchExecutor(Runnable::run);
+    }
+
+    @Test
+    public void dispatchesImmediatelyWhileCapacityIsAvailable() {
+        TenantScheduler scheduler = builder(2).build();
+        submit(scheduler, "a", 3);
+
+        assertEquals(2, dispatched.size());
+        assertEquals(2, scheduler.getInFlightRequests());
+        assertEquals(1, scheduler.getStats("a").getQueuedRequests());
+
+        releaseFirst(true);
+        assertEquals(3, dispatched.size());
+        assertEquals(0, scheduler.getStats("a").getQueuedRequests());
+    }
+
+    @Test
+    public void sharesSlotsAccordingToWeight() {
+        TenantScheduler scheduler = builder(1)
+                .tenant("heavy", 1)
+                .tenant("light", 2)
+                .build();
+        // occupy the only slot so everything else gets queued
+        submit(scheduler, "blocker", 1);
+        submit(scheduler, "heavy", 10);
+        submit(scheduler, "light", 10);
+
+        for (int i = 0; i < 9; i++) {
+            releaseFirst(true);
+        }
+
+        assertEquals(10, dispatched.size());
+        final List<String> order = dispatched.subList(1, 10);
+        assertEquals(3, order.stream().filter("heavy"::equals).count());
+        assertEquals(6, order.stream().filter("light"::equals).count());
+    }
+
+    @Test
+    public void respectsPerTenantConcurrencyCap() {
+        TenantScheduler scheduler = builder(4)
+                .tenant("capped", 1, 1)
+                .build();
+        submit(scheduler, "capped", 3);
+        submit(scheduler, "other", 3);
+
+        assertEquals(4, dispatched.size());
+        assertEquals(1, scheduler.getStats("capped").getInFlightRequests());
+        assertEquals(2, scheduler.getStats("capped").getQueuedRequests());
+        assertEquals(3, scheduler.getStats("other").getInFlightRequests());
+
+        // releasing a request of "other" must not hand the slot to the capped tenant
+        permits.remove(dispatched.lastIndexOf("other")).release(true);
+        dispatched.remove(dispatched.lastIndexOf("other"));
+        assertEquals(3, scheduler.getInFlightRequests());
+
+        permits.remove(dispatched.indexOf("capped")).release(true);
+        assertEquals(1, scheduler.getStats("capped").getInFlightRequests());
+        assertEquals(1, scheduler.getStats("capped").getQueuedRequests());
+    }
+
+    @Test
+    public void rejectsWhenQueueIsFull() {
+        TenantScheduler scheduler = builder(1).maxQueuedRequests(1).build();
+        submit(scheduler, "a", 2);
+        try {
+            submit(scheduler, "a", 1);
+            fail("Queue should be full");
+        } catch (RejectedExecutionException expected) {
+            // expected
+        }
+        assertEquals(3, scheduler.getStats("a").getSubmittedRequests());
+        assertEquals(1, scheduler.getStats("a").getRejectedRequests());
+    }
+
+    @Test
+    public void tracksCompletionsAndLatency() throws InterruptedException {
+        TenantScheduler scheduler = builder(2).build();
+        submit(scheduler, "a", 2);
+        Thread.sleep(5);
+        releaseFirst(true);
+        releaseFirst(false);
+        // releasing twice has no effect
+        scheduler.submit("a", permit -> {
+            permit.release(true);
+            permit.release(true);
+        });
+
+        final TenantStats stats = scheduler.getStats("a");
+        assertEquals(2, stats.getCompletedRequests());
+        assertEquals(1, stats.getFailedRequests());
+        assertEquals(0, stats.getInFlightRequests());
+        assertEquals(0, scheduler.getInFlightRequests());
+        assertEquals(true, stats.getMaxServiceTime(TimeUnit.MILLISECONDS) >= 5);
+        assertNull(scheduler.getStats("unknown"));
+    }
+
+    @Test
+    public void synchronouslyCompletingTasksDoNotRecurse() {
+        TenantScheduler scheduler = builder(1).build();
+        final int[] executed = new int[1];
+        submit(scheduler, "blocker", 1);
+        for (int i = 0; i < 100000; i++) {
+            scheduler.submit("a", permit -> {
+                executed[0]++;
+                permit.release(true);
+            });
+        }
+        releaseFirst(true);
+        assertEquals(100000, executed[0]);
+    }
+
+    @Test
+    public void dispatchesQueuedTasksOnDispatchExecutor() throws InterruptedException {
+        final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "dispatcher"));
+        try {
+            final TenantScheduler scheduler = new TenantScheduler.Builder(1).dispatchExecutor(executor).build();
+            final List<String> threads = new CopyOnWriteArrayList<>();
+            final CountDownLatch dispatched = new CountDownLatch(2);
+            for (int i = 0; i < 2; i++) {
+                scheduler.submit("a", permit -> {
+                    threads.add(Thread.currentThread().getName());
+                    permits.add(permit);
+                    dispatched.countDown();
+                });
+            }
+            releaseFirst(true);
+
+            assertTrue(dispatched.await(10, TimeUnit.SECONDS));
+            assertEquals(Thread.currentThread().getName(), threads.get(0));
+            assertEquals("dispatcher", threads.get(1));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void dropsQueuesOfIdleTenants() {
+        TenantScheduler scheduler = builder(1).build();
+        for (int i = 0; i < 100; i++) {
+            submit(scheduler, "tenant-" + i, 1);
+        }
+        assertEquals(100, scheduler.getTenantQueues());
+
+        for (int i = 0; i < 99; i++) {
+            releaseFirst(true);
+        }
+        // the last tenant keeps its queue while its request is in flight
+        assertEquals(1, scheduler.getTenantQueues());
+        releaseFirst(true);
+        assertEquals(0, scheduler.getTenantQueues());
+        assertEquals(1, scheduler.getStats("tenant-99").getCompletedRequests());
+
+        submit(scheduler, "tenant-99", 1);
+        releaseFirst(true);
+        assertEquals(2, scheduler.getStats("tenant-99").getCompletedRequests());
+    }
+
+    @Test
+    public void expiresStatsOfIdleTenants() {
+        TenantScheduler scheduler = builder(1).statsRetention(0, TimeUnit.MILLISECONDS).build();
+        submit(scheduler, "a", 1);
+        submit(scheduler, "b", 1);
+        releaseFirst(true);
+
+        submit(scheduler, "c", 1);
+        assertNull(scheduler.getStats("a"));
+        // b is in flight
+        assertEquals(1, scheduler.getStats("b").getInFlightRequests());
+        assertEquals(1, scheduler.getStats("c").getQueuedRequests());
+    }
+}
@@ -0,0 +1,154 @@
+package org.graylog.jest.restclient.scroll;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.graylog.jest.restclient.http.AbstractMockServerTest;
+import org.graylog.jest.restclient.http.MockElasticsearchServer.MockResponse;
+import org.graylog.jest.restclient.http.MockElasticsearchServer.RecordedRequest;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PrefetchingScrollIteratorTest extends AbstractMockServerTest {
+
+    private static final int PAGES = 10;
+    private static final int HITS_PER_PAGE = 5;
+    private static final Pattern SCROLL_ID = Pattern.compile("scroll_id=p(\\d+)");
+    private static final Pattern KEEP_ALIVE = Pattern.compile("[?&]scroll=(\\d+)ms");
+
+    private final List<String> clearRequests = new CopyOnWriteArrayList<>();
+    private final List<Long> keepAlives = new CopyOnWriteArrayList<>();
+    private volatile int failingPage = -1;
+
+    @Before
+    public void setUp() {
+        server.setHandler(this::handle);
+    }
+
+    private MockResponse handle(RecordedRequest request) {
+        if ("DELETE".equals(request.method)) {
+            clearRequests.add(request.body);
+            return MockResponse.json(200, "{\"succeeded\":true}");
+        }
+        final Matcher keepAlive = KEEP_ALIVE.matcher(request.uri);
+        if (keepAlive.find()) {
+            keepAlives.add(Long.parseLong(keepAlive.group(1)));
+        }
+        final Matcher scrollId = SCROLL_ID.matcher(request.uri);
+        final int page = scrollId.find() ? Integer.parseInt(scrollId.group(1)) : 0;
+        if (page == failingPage) {
+            return MockResponse.json(404, "{\"error\":\"search_context_missing_exception\"}");
+        }
+
+        final JsonArray hits = new JsonArray();
+        for (int i = 0; page < PAGES && i < HITS_PER_PAGE; i++) {
+            final JsonObject hit = new JsonObject();
+            hit.addProperty("_index", "logs");
+            hit.addProperty("_type", "message");
+            hit.addProperty("_id", String.valueOf(page * HITS_PER_PAGE + i));
+            hits.add(hit);
+        }
+        final JsonObject hitsObject = new JsonObject();
+        hitsObject.add("hits", hits);
+        final JsonObject response = new JsonObject();
+        response.addProperty("_scroll_id", "p" + (page + 1));
+        response.add("hits", hitsObject);
+        return MockResponse.json(200, response.toString());
+    }
+
+    private PrefetchingScrollIterator.Builder scroll() {
+        return PrefetchingScrollIterator.builder(client, "{\"query\":{\"match_all\":{}}}")
+                .addIndex("logs")
+                .size(HITS_PER_PAGE);
+    }
+
+    private void awaitRequests(int count) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (server.getRequests().size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void iteratesOverAllHitsInOrder() throws Exception {
+        try (PrefetchingScrollIterator hits = scroll().prefetchPages(3).build()) {
+            for (int i = 0; i < PAGES * HITS_PER_PAGE; i++) {
+                assertTrue(hits.hasNext());
+                assertEquals(String.valueOf(i), hits.next().get("_id").getAsString());
+            }
+            assertFalse(hits.hasNext());
+        }
+        // search, 9 more pages, the empty page and clearing the scroll
+        awaitRequests(PAGES + 2);
+        assertEquals(1, clearRequests.size());
+        assertTrue(clearRequests.get(0).contains("p11"));
+    }
+
+    @Test
+    public void prefetchesUpToTheConfiguredNumberOfPages() throws Exception {
+        try (PrefetchingScrollIterator hits = scroll().prefetchPages(3).build()) {
+            awaitRequests(3);
+            Thread.sleep(200);
+            assertEquals(3, server.getRequests().size());
+            assertEquals(3, hits.getBufferedPages());
+
+            // taking a page makes room for another one
+            hits.next();
+            awaitRequests(4);
+            Thread.sleep(200);
+            assertEquals(4, server.getRequests().size());
+        }
+    }
+
+    @Test
+    public void pausesPrefetchingWhenBufferedBytesExceedLimit() throws Exception {
+        try (PrefetchingScrollIterator hits = scroll().prefetchPages(5).maxBufferedBytes(1).build()) {
+            awaitRequests(1);
+            Thread.sleep(200);
+            assertEquals(1, server.getRequests().size());
+            assertTrue(hits.getBufferedBytes() > 0);
+        }
+    }
+
+    @Test
+    public void adaptsKeepAliveToConsumerSpeed() throws Exception {
+        try (PrefetchingScrollIterator hits = scroll().prefetchPages(1).keepAlive(1, 60_000, TimeUnit.MILLISECONDS).build()) {
+            while (hits.hasNext()) {
+                hits.next();
+                Thread.sleep(10);
+            }
+            // 5 hits of 10 ms per page, for the buffered page and the one in hand, twice
+            assertTrue(String.valueOf(hits.getKeepAliveMillis()), hits.getKeepAliveMillis() >= 200);
+        }
+        assertEquals(1, (long) keepAlives.get(0));
+        assertTrue(keepAlives.get(keepAlives.size() - 1) >= 200);
+    }
+
+    @Test
+    public void throwsFailureAndClearsScroll() throws Exception {
+        failingPage = 2;
+        try (PrefetchingScrollIterator hits = scroll().build()) {
+            try {
+                while (hits.hasNext()) {
+                    hits.next();
+                }
+                fail("Expected the scroll to fail");
+            } catch (UncheckedIOException e) {
+                assertTrue(e.getMessage().contains("search_context_missing_exception"));
+            }
+        }
+        awaitRequests(4);
+        assertEquals(1, clearRequests.size());
+    }
+}
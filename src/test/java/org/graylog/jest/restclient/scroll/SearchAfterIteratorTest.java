@@ -0,0 +1,147 @@
+package org.graylog.jest.restclient.scroll;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.graylog.jest.restclient.http.AbstractMockServerTest;
+import org.graylog.jest.restclient.http.MockElasticsearchServer.MockResponse;
+import org.graylog.jest.restclient.http.MockElasticsearchServer.RecordedRequest;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SearchAfterIteratorTest extends AbstractMockServerTest {
+
+    // documents 0..24, sorted by timestamp descending with two documents per timestamp
+    private static final int DOCUMENTS = 25;
+
+    private volatile boolean failing;
+
+    @Before
+    public void setUp() {
+        server.setHandler(this::handle);
+    }
+
+    private MockResponse handle(RecordedRequest request) {
+        if (failing) {
+            return MockResponse.json(500, "{\"error\":\"boom\"}");
+        }
+        final JsonObject body = new JsonParser().parse(request.body).getAsJsonObject();
+        final int size = body.get("size").getAsInt();
+        int start = 0;
+        if (body.has("search_after")) {
+            // the position after the document with the given uid, i.e. id
+            final String uid = body.getAsJsonArray("search_after").get(1).getAsString();
+            start = Integer.parseInt(uid.substring(uid.indexOf('#') + 1)) + 1;
+        }
+        final JsonArray hits = new JsonArray();
+        for (int i = start; i < Math.min(DOCUMENTS, start + size); i++) {
+            final JsonArray sort = new JsonArray();
+            sort.add(1000 - i / 2);
+            sort.add("message#" + i);
+            final JsonObject hit = new JsonObject();
+            hit.addProperty("_index", "logs");
+            hit.addProperty("_type", "message");
+            hit.addProperty("_id", String.valueOf(i));
+            hit.add("sort", sort);
+            hits.add(hit);
+        }
+        final JsonObject hitsObject = new JsonObject();
+        hitsObject.addProperty("total", DOCUMENTS);
+        hitsObject.add("hits", hits);
+        final JsonObject response = new JsonObject();
+        response.add("hits", hitsObject);
+        return MockResponse.json(200, response.toString());
+    }
+
+    private List<JsonObject> requestBodies() {
+        return server.getRequests().stream()
+                .map(request -> new JsonParser().parse(request.body).getAsJsonObject())
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void pagesWithSortValuesOfLastHit() throws Exception {
+        final SearchAfterIterator hits = SearchAfterIterator.builder(client, "{\"query\":{\"match_all\":{}},\"sort\":{\"timestamp\":\"desc\"}}")
+                .addIndex("logs")
+                .size(10)
+                .build();
+        final List<String> ids = new ArrayList<>();
+        while (hits.hasNext()) {
+            ids.add(hits.next().get("_id").getAsString());
+        }
+
+        assertEquals(DOCUMENTS, ids.size());
+        for (int i = 0; i < DOCUMENTS; i++) {
+            assertEquals(String.valueOf(i), ids.get(i));
+        }
+        // the short third page is the last one
+        assertEquals(3, hits.getPages());
+
+        final List<JsonObject> bodies = requestBodies();
+        assertEquals(3, bodies.size());
+        assertEquals("[{\"timestamp\":\"desc\"},{\"_uid\":\"asc\"}]", bodies.get(0).get("sort").toString());
+        assertFalse(bodies.get(0).has("search_after"));
+        assertEquals("[996,\"message#9\"]", bodies.get(1).get("search_after").toString());
+        assertEquals("[991,\"message#19\"]", bodies.get(2).get("search_after").toString());
+    }
+
+    @Test
+    public void keepsTiebreakerAlreadyInSort() throws Exception {
+        final SearchAfterIterator hits = SearchAfterIterator.builder(client, "{\"sort\":[{\"timestamp\":\"desc\"},{\"id\":\"desc\"}]}")
+                .tiebreaker("id")
+                .build();
+        hits.nextPage();
+        assertEquals("[{\"timestamp\":\"desc\"},{\"id\":\"desc\"}]", requestBodies().get(0).get("sort").toString());
+
+        SearchAfterIterator.builder(client, "{}").build().nextPage();
+        assertEquals("[\"_score\",{\"_uid\":\"asc\"}]", requestBodies().get(1).get("sort").toString());
+    }
+
+    @Test
+    public void resumesAfterGivenPosition() throws Exception {
+        final SearchAfterIterator first = SearchAfterIterator.builder(client, "{}").size(5).build();
+        first.nextPage();
+        final JsonArray position = first.getSearchAfter();
+
+        final SearchAfterIterator resumed = SearchAfterIterator.builder(client, "{}")
+                .size(5)
+                .searchAfter(position)
+                .build();
+        assertEquals("5", resumed.next().get("_id").getAsString());
+        assertNull(SearchAfterIterator.builder(client, "{}").build().getSearchAfter());
+    }
+
+    @Test
+    public void rejectsFrom() {
+        try {
+            SearchAfterIterator.builder(client, "{\"from\":100}");
+            fail("Expected from to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("from"));
+        }
+        SearchAfterIterator.builder(client, "{\"from\":0}").build();
+    }
+
+    @Test
+    public void throwsFailures() {
+        failing = true;
+        final SearchAfterIterator hits = SearchAfterIterator.builder(client, "{}").build();
+        try {
+            hits.hasNext();
+            fail("Expected the search to fail");
+        } catch (UncheckedIOException e) {
+            assertTrue(e.getMessage().contains("boom"));
+        }
+    }
+}
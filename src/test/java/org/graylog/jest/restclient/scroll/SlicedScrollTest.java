@@ -0,0 +1,184 @@
+package org.graylog.jest.restclient.scroll;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.graylog.jest.restclient.http.AbstractMockServerTest;
+import org.graylog.jest.restclient.http.MockElasticsearchServer.MockResponse;
+import org.graylog.jest.restclient.http.MockElasticsearchServer.RecordedRequest;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SlicedScrollTest extends AbstractMockServerTest {
+
+    private static final int PAGES_PER_SLICE = 2;
+    private static final int HITS_PER_PAGE = 3;
+
+    private final List<String> clearedScrollIds = new CopyOnWriteArrayList<>();
+    private volatile String failingScrollId;
+
+    @Before
+    public void setUp() {
+        server.setHandler(this::handle);
+    }
+
+    private MockResponse handle(RecordedRequest request) {
+        final JsonParser parser = new JsonParser();
+        if ("DELETE".equals(request.method)) {
+            for (JsonElement id : parser.parse(request.body).getAsJsonObject().getAsJsonArray("scroll_id")) {
+                clearedScrollIds.add(id.getAsString());
+            }
+            return MockResponse.json(200, "{\"succeeded\":true}");
+        }
+        if (request.getPath().endsWith("/_search")) {
+            final JsonObject body = parser.parse(request.body).getAsJsonObject();
+            final int slice = body.has("slice") ? body.getAsJsonObject("slice").get("id").getAsInt() : 0;
+            return page(slice, 0);
+        }
+        final String scrollId = queryParameter(request.uri, "scroll_id");
+        if (scrollId.equals(failingScrollId)) {
+            return MockResponse.json(500, "{\"error\":\"boom\"}");
+        }
+        final String[] parts = scrollId.split("-");
+        return page(Integer.parseInt(parts[0].substring(1)), Integer.parseInt(parts[1]));
+    }
+
+    private static String queryParameter(String uri, String name) {
+        for (String parameter : uri.substring(uri.indexOf('?') + 1).split("&")) {
+            if (parameter.startsWith(name + "=")) {
+                try {
+                    return URLDecoder.decode(parameter.substring(name.length() + 1), "UTF-8");
+                } catch (UnsupportedEncodingException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        }
+        throw new AssertionError("No " + name + " in " + uri);
+    }
+
+    private static MockResponse page(int slice, int page) {
+        final JsonArray hits = new JsonArray();
+        if (page < PAGES_PER_SLICE) {
+            for (int i = 0; i < HITS_PER_PAGE; i++) {
+                final JsonObject hit = new JsonObject();
+                hit.addProperty("_index", "logs");
+                hit.addProperty("_type", "message");
+                hit.addProperty("_id", slice + "-" + page + "-" + i);
+                hit.add("_source", new JsonObject());
+                hits.add(hit);
+            }
+        }
+        final JsonObject hitsObject = new JsonObject();
+        hitsObject.addProperty("total", PAGES_PER_SLICE * HITS_PER_PAGE);
+        hitsObject.add("hits", hits);
+        final JsonObject response = new JsonObject();
+        response.addProperty("_scroll_id", "s" + slice + "-" + (page + 1));
+        response.add("hits", hitsObject);
+        return MockResponse.json(200, response.toString());
+    }
+
+    private SlicedScroll scroll(int slices) {
+        return SlicedScroll.builder(client, "{\"query\":{\"match_all\":{}}}")
+                .addIndex("logs")
+                .slices(slices)
+                .size(HITS_PER_PAGE)
+                .build();
+    }
+
+    @Test
+    public void passesPagesOfAllSlicesToConsumer() throws Exception {
+        final Map<Integer, List<String>> idsBySlice = new ConcurrentHashMap<>();
+        final long hits = scroll(3).forEachPage((slice, page) -> {
+            for (JsonElement hit : page) {
+                idsBySlice.computeIfAbsent(slice, s -> new CopyOnWriteArrayList<>())
+                        .add(hit.getAsJsonObject().get("_id").getAsString());
+            }
+        }).get(10, TimeUnit.SECONDS);
+
+        assertEquals(18, hits);
+        assertEquals(3, idsBySlice.size());
+        for (Map.Entry<Integer, List<String>> slice : idsBySlice.entrySet()) {
+            final List<String> expected = new ArrayList<>();
+            for (int page = 0; page < PAGES_PER_SLICE; page++) {
+                for (int i = 0; i < HITS_PER_PAGE; i++) {
+                    expected.add(slice.getKey() + "-" + page + "-" + i);
+                }
+            }
+            assertEquals(expected, slice.getValue());
+        }
+
+        final List<JsonObject> searches = server.getRequests().stream()
+                .filter(request -> request.getPath().endsWith("/logs/_search"))
+                .map(request -> new JsonParser().parse(request.body).getAsJsonObject())
+                .collect(Collectors.toList());
+        assertEquals(3, searches.size());
+        for (JsonObject search : searches) {
+            assertEquals(3, search.getAsJsonObject("slice").get("max").getAsInt());
+            assertEquals("_doc", search.getAsJsonArray("sort").get(0).getAsString());
+        }
+        assertEquals(new HashSet<>(Arrays.asList("s0-3", "s1-3", "s2-3")), new HashSet<>(clearedScrollIds));
+        assertEquals(1, server.getRequests().stream().filter(request -> "DELETE".equals(request.method)).count());
+    }
+
+    @Test
+    public void mergesHitsIntoIterator() throws Exception {
+        final Set<String> ids = new HashSet<>();
+        try (ScrollHitIterator hits = scroll(4).iterator(0)) {
+            while (hits.hasNext()) {
+                assertTrue(ids.add(hits.next().get("_id").getAsString()));
+            }
+            assertEquals(24, hits.getHits());
+        }
+        assertEquals(24, ids.size());
+        assertEquals(4, clearedScrollIds.size());
+    }
+
+    @Test
+    public void clearsAllScrollsIfSliceFails() throws Exception {
+        failingScrollId = "s1-1";
+        try {
+            scroll(3).forEachPage((slice, page) -> {
+            }).get(10, TimeUnit.SECONDS);
+            fail("Expected the scroll to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage().contains("slice 1"));
+        }
+        assertEquals(3, clearedScrollIds.size());
+    }
+
+    @Test
+    public void clearsScrollsWhenIteratorIsClosedEarly() throws Exception {
+        final ScrollHitIterator hits = scroll(2).iterator(0);
+        assertTrue(hits.hasNext());
+        hits.next();
+        hits.close();
+
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (clearedScrollIds.size() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, clearedScrollIds.size());
+        while (hits.hasNext()) {
+            hits.next();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package org.graylog.jest.restclient.spool;
+
+import io.searchbox.core.Bulk;
+import io.searchbox.core.BulkResult;
+import io.searchbox.core.Index;
+import org.graylog.jest.restclient.bulk.BulkResponses;
+import org.graylog.jest.restclient.http.AbstractMockServerTest;
+import org.graylog.jest.restclient.http.MockElasticsearchServer;
+import org.graylog.jest.restclient.http.MockElasticsearchServer.MockResponse;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BulkSpoolTest extends AbstractMockServerTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private volatile boolean available;
+    private final List<BulkResult> replayed = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() {
+        server.setHandler(request -> available
+                ? MockResponse.json(200, BulkResponses.successful(request.body))
+                : MockResponse.json(503, "{\"error\":\"unavailable\",\"status\":503}"));
+    }
+
+    private BulkSpool.Builder spool() {
+        return BulkSpool.builder(client, temporaryFolder.getRoot().toPath())
+                .segmentSize(1024)
+                .retryInterval(20, TimeUnit.MILLISECONDS)
+                .replayRate(1000)
+                .listener(replayed::add);
+    }
+
+    private static Bulk bulk(int id) {
+        return new Bulk.Builder()
+                .defaultIndex("twitter")
+                .defaultType("tweet")
+                .addAction(new Index.Builder("{\"n\":" + id + "}").id(String.valueOf(id)).build())
+                .build();
+    }
+
+    private void awaitReplayed(int count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (replayed.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, replayed.size());
+    }
+
+    @Test
+    public void sendsDirectlyWhileClusterIsAvailable() throws Exception {
+        available = true;
+        try (BulkSpool spool = spool().build()) {
+            final BulkResult result = spool.execute(bulk(1));
+            assertNotNull(result);
+            assertTrue(result.isSucceeded());
+            assertEquals(1, spool.getStats().getDirectBulks());
+            assertEquals(0, spool.getPendingBulks());
+        }
+    }
+
+    @Test
+    public void spoolsWhileSaturatedAndReplaysInOrder() throws Exception {
+        try (BulkSpool spool = spool().build()) {
+            for (int i = 0; i < 5; i++) {
+                assertNull(spool.execute(bulk(i)));
+            }
+            assertEquals(5, spool.getStats().getSpooledBulks());
+            assertTrue(spool.getPendingBytes() > 0);
+
+            available = true;
+            awaitReplayed(5);
+            assertEquals(0, spool.getPendingBulks());
+            assertEquals(5, spool.getStats().getReplayedBulks());
+        }
+
+        final List<MockElasticsearchServer.RecordedRequest> accepted = new ArrayList<>();
+        for (MockElasticsearchServer.RecordedRequest request : server.getRequests()) {
+            if (request.body.contains("\"n\":")) {
+                accepted.add(request);
+            }
+        }
+        // the last five requests are the replayed bulks in their original order
+        final List<MockElasticsearchServer.RecordedRequest> replayedRequests = accepted.subList(accepted.size() - 5, accepted.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals("/twitter/tweet/_bulk", replayedRequests.get(i).getPath());
+            assertTrue(replayedRequests.get(i).body.contains("{\"n\":" + i + "}"));
+        }
+    }
+
+    @Test
+    public void replaysBulksSpooledByPreviousProcess() throws Exception {
+        try (BulkSpool spool = spool().retryInterval(1, TimeUnit.MINUTES).build()) {
+            spool.execute(bulk(1));
+            spool.execute(bulk(2));
+            assertEquals(2, spool.getPendingBulks());
+        }
+
+        available = true;
+        try (BulkSpool spool = spool().build()) {
+            awaitReplayed(2);
+            assertEquals(0, spool.getPendingBulks());
+        }
+    }
+
+    @Test
+    public void syncsPeriodicallyWhileReplaying() throws Exception {
+        try (BulkSpool spool = spool()
+                .replayRate(1)
+                .fsyncPolicy(FsyncPolicy.PERIODIC, 10, TimeUnit.MILLISECONDS)
+                .build()) {
+            for (int i = 0; i < 3; i++) {
+                spool.execute(bulk(i));
+            }
+            available = true;
+            awaitReplayed(1);
+
+            // the replay now waits for its rate limiter, syncing must go on meanwhile
+            final long syncs = spool.getStats().getSyncs();
+            Thread.sleep(200);
+            assertTrue(spool.getPendingBulks() > 0);
+            assertTrue(spool.getStats().getSyncs() > syncs);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package org.graylog.jest.restclient.spool;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SegmentJournalTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private SegmentJournal open(int segmentSize, long maxDiskUsage) throws IOException {
+        return new SegmentJournal(temporaryFolder.getRoot().toPath(), segmentSize, maxDiskUsage, FsyncPolicy.ALWAYS);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String consume(SegmentJournal journal) throws IOException {
+        final SegmentJournal.Record record = journal.peek();
+        if (record == null) {
+            return null;
+        }
+        journal.commit(record);
+        return new String(record.getData(), StandardCharsets.UTF_8);
+    }
+
+    private int segmentFiles() throws IOException {
+        int count = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(temporaryFolder.getRoot().toPath(), "*" + SegmentJournal.SEGMENT_SUFFIX)) {
+            for (Path ignored : files) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void readsRecordsInOrderAcrossSegments() throws Exception {
+        final SegmentJournal journal = open(64, 1024);
+        for (int i = 0; i < 10; i++) {
+            journal.append(bytes("record-" + i));
+        }
+        assertEquals(10, journal.getPendingRecords());
+        assertTrue(journal.getSegmentCount() > 1);
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals("record-" + i, consume(journal));
+        }
+        assertNull(consume(journal));
+        assertTrue(journal.isEmpty());
+        assertEquals(1, journal.getSegmentCount());
+        assertEquals(1, segmentFiles());
+        journal.close();
+    }
+
+    @Test
+    public void peekDoesNotConsume() throws Exception {
+        final SegmentJournal journal = open(1024, 4096);
+        journal.append(bytes("first"));
+        journal.append(bytes("second"));
+
+        assertEquals("first", new String(journal.peek().getData(), StandardCharsets.UTF_8));
+        assertEquals("first", consume(journal));
+        assertEquals("second", consume(journal));
+        journal.close();
+    }
+
+    @Test
+    public void recoversPendingRecordsAfterReopening() throws Exception {
+        final SegmentJournal journal = open(64, 1024);
+        for (int i = 0; i < 6; i++) {
+            journal.append(bytes("record-" + i));
+        }
+        assertEquals("record-0", consume(journal));
+        assertEquals("record-1", consume(journal));
+        journal.close();
+
+        final SegmentJournal reopened = open(64, 1024);
+        assertEquals(4, reopened.getPendingRecords());
+        reopened.append(bytes("record-6"));
+        for (int i = 2; i <= 6; i++) {
+            assertEquals("record-" + i, consume(reopened));
+        }
+        assertNull(consume(reopened));
+        reopened.close();
+    }
+
+    @Test
+    public void dropsTornRecordOnRecovery() throws Exception {
+        final SegmentJournal journal = open(1024, 4096);
+        journal.append(bytes("complete"));
+        journal.append(bytes("torn"));
+        journal.close();
+
+        // corrupt the last byte of the second record
+        final Path segment = temporaryFolder.getRoot().toPath().resolve(String.format("%020d%s", 0, SegmentJournal.SEGMENT_SUFFIX));
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            final long position = 8 + "complete".length() + 8 + "torn".length() - 1;
+            file.seek(position);
+            file.write('X');
+        }
+
+        final SegmentJournal reopened = open(1024, 4096);
+        assertEquals(1, reopened.getPendingRecords());
+        assertEquals("complete", consume(reopened));
+        assertNull(consume(reopened));
+        reopened.close();
+    }
+
+    @Test
+    public void rejectsRecordsBeyondMaxDiskUsage() throws Exception {
+        final SegmentJournal journal = open(64, 128);
+        journal.append(new byte[50]);
+        journal.append(new byte[50]);
+        try {
+            journal.append(new byte[50]);
+            fail("Journal must not exceed its maximum disk usage");
+        } catch (SpoolFullException expected) {
+            assertEquals(2, journal.getPendingRecords());
+        }
+
+        // committing frees a segment once the reader moved past it
+        consume(journal);
+        consume(journal);
+        journal.append(new byte[50]);
+        assertEquals(1, journal.getPendingRecords());
+        journal.close();
+    }
+}